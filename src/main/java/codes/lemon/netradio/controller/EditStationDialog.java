@@ -36,7 +36,7 @@ class EditStationDialog extends GridPane implements Initializable {
 
     public EditStationDialog(int stationId) {
         // get current station from model which the user will then modify
-        // station instances are immutable so values will be extracted and resubmitted to model
+        // station instances are read only so values will be extracted and resubmitted to model
         selectedStation = Objects.requireNonNull(model.getStation(stationId));
 
         // stage should be initialised first to allow action handlers to access stage instance in initialise().
@@ -87,17 +87,20 @@ class EditStationDialog extends GridPane implements Initializable {
 
     /**
      * Submit button has been pressed.
-     * Replace previous copy of station with a station containing the newly
-     * submitted station details.
-     * Favourite status is maintained.
+     * Update the station with the newly submitted station details.
+     * The stations ID and playback statistics are maintained.
      */
     private void submitButtonPressed() {
-        model.removeStation(selectedStation.getStationID());
-        // new ID should == previous ID but that is not guaranteed or required.
-        int newID = model.addStation(stationName.getText(), sourceURI.getText());
-
-        // maintain favourite status
-        model.setStationFavouriteStatus(newID, favouriteStatus.isSelected());
+        try {
+            model.updateStation(selectedStation.getStationID(), stationName.getText(), sourceURI.getText(),
+                    favouriteStatus.isSelected());
+        } catch (IllegalArgumentException e) {
+            // another station already plays this stream. Leave the dialog open to pick another.
+            System.out.println("INFO: " + e.getMessage());
+            sourceURI.requestFocus();
+            sourceURI.selectAll();
+            return;
+        }
 
         // close window
         stage.close();
@@ -1,9 +1,18 @@
 package codes.lemon.netradio.controller;
 
 import codes.lemon.netradio.model.ObservableMetadata;
+import codes.lemon.netradio.model.SmartListListener;
 import codes.lemon.netradio.model.Station;
+import codes.lemon.netradio.model.StationBatch;
+import codes.lemon.netradio.model.StationChanges;
+import codes.lemon.netradio.model.StationQuery;
+import codes.lemon.netradio.model.StationQueryResult;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This interface acts as an adapter for the model. It allows all controllers to subscribe
@@ -31,6 +40,7 @@ interface ModelAdapter {
         STATION_ADDED,
         STATION_REMOVED,
         STATION_EDITED,
+        STATIONS_CHANGED,
         SEARCH_RESULTS_READY,
         TAG_UPDATE,
         VOLUME_CHANGED,
@@ -103,6 +113,56 @@ interface ModelAdapter {
      */
     List<Station> getAllStations();
 
+    /**
+     * Returns the stations matching a query, along with facet counts over every match.
+     * @param query the query to be answered
+     * @return the matching stations and facet counts
+     */
+    StationQueryResult queryStations(StationQuery query);
+
+    /**
+     * Returns the most played stations, most played first.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    List<Station> getMostPlayed(int n);
+
+    /**
+     * Returns the stations played most lately, most popular first.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    List<Station> getTrending(int n);
+
+    /**
+     * Returns the changes made to the station catalog after the given sequence number.
+     * @param sequence sequence number of the last change applied, or 0 to start from the beginning
+     * @return the changes since `sequence`, else a resync marker
+     */
+    StationChanges getChangesSince(long sequence);
+
+    /**
+     * Creates a smart list, or replaces the query of an existing one, and persists it.
+     * @param name name of the list
+     * @param query query defining the stations in the list
+     */
+    void saveSmartList(String name, StationQuery query);
+
+    /**
+     * Returns every smart list.
+     * @return the query of each smart list by name, in the order the lists were created
+     */
+    Map<String, StationQuery> getSmartLists();
+
+    /**
+     * Subscribe to the rows inserted into, updated within and removed from a smart list.
+     * Listeners are notified on the JavaFX thread.
+     * @param name name of the list
+     * @param listener the listener to be notified
+     * @return the current contents of the list, to which notifications apply
+     */
+    List<Station> subscribeToSmartList(String name, SmartListListener listener);
+
     /**
      * Add a station to the player. Requires a name for the station and a
      * URI pointing to an audio source for that station. The station will be
@@ -115,6 +175,16 @@ interface ModelAdapter {
      */
     int addStation(String name, String uri);
 
+    /**
+     * Adds many stations at once. The new stations are persisted together and each is
+     * assigned a unique ID. All details of the given stations other than their IDs are kept.
+     * Subscribers are notified once for all of the new stations.
+     * Triggers ModelEvent.STATIONS_CHANGED
+     * @param stations details of the stations to be added. Their IDs are ignored.
+     * @return the IDs given to the new stations, in the order the stations were supplied
+     */
+    List<Integer> addStations(Collection<? extends Station> stations);
+
     /**
      * Permanently remove a station from the player.
      * Triggers ModelEvent.STATION_REMOVED
@@ -123,6 +193,28 @@ interface ModelAdapter {
      */
     boolean removeStation(int id);
 
+    /**
+     * Updates the details of an existing station in place. The stations ID and
+     * playback statistics are preserved.
+     * Triggers ModelEvent.STATION_EDITED
+     * @param id the unique ID of the station to be updated
+     * @param name the new name of the station
+     * @param uri the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @return true if the station was updated, else false if no such station exists.
+     * @throws IllegalArgumentException if another station already plays the stream at uri
+     */
+    boolean updateStation(int id, String name, String uri, boolean favourite);
+
+    /**
+     * Applies many station changes as a single unit, see `RadioPlayer.applyBatch()`.
+     * Subscribers are notified once for the whole batch rather than once per change.
+     * Triggers ModelEvent.STATIONS_CHANGED
+     * @param changes populates the batch
+     * @return true if any station was changed, else false.
+     */
+    boolean applyBatch(Consumer<StationBatch> changes);
+
     /**
      * Sets the `Favourite` status of a given station. When true,
      * that station is considered a favourite. When false, the
@@ -142,6 +234,22 @@ interface ModelAdapter {
      */
     List<Station> findStation(String searchTerm);
 
+    /**
+     * Searches for the given term on a background thread, for searching as the user types.
+     * Any search still running from an earlier call is cancelled, and only the results of
+     * the latest search are published. When the term extends the previous term, the
+     * previous results are narrowed rather than searching every station again.
+     * The results are passed to `prepare` on the background thread, so expensive work such
+     * as building table rows never blocks the JavaFX thread. The prepared value is then
+     * passed to `publish` on the JavaFX thread.
+     * Triggers ModelEvent.SEARCH_RESULTS_READY once the results are published
+     * @param searchTerm the term to be searched
+     * @param prepare converts the results for display. Called on the background thread.
+     * @param publish displays the converted results. Called on the JavaFX thread.
+     * @param <T> type of the converted results
+     */
+    <T> void findStationAsync(String searchTerm, Function<List<Station>, T> prepare, Consumer<T> publish);
+
     /**
      * Gets the result of the last search. This method is designed to enable
      * multiple clients/controllers to share the results of one clients search.
@@ -198,6 +306,14 @@ interface ModelAdapter {
      */
     void clearHighlightedStation();
 
+    /**
+     * Prefetches the given stations, typically those either side of the highlighted station,
+     * so skipping to one of them starts playback almost immediately. Has no effect unless
+     * prefetching is enabled in the model.
+     * @param ids IDs of the stations to be prefetched, most likely to be played next first
+     */
+    void prefetchStations(List<Integer> ids);
+
 
     /**
      * Returns an ObservableMetadata instance which contains stream metadata properties.
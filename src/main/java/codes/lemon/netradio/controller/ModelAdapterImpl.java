@@ -1,8 +1,19 @@
 package codes.lemon.netradio.controller;
 
 import codes.lemon.netradio.model.*;
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.util.Duration;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 class ModelAdapterImpl implements ModelAdapter{
     // Static implementation of singleton pattern
@@ -22,10 +33,65 @@ class ModelAdapterImpl implements ModelAdapter{
     private final RadioPlayer model = new NetRadioPlayer();
     private final Set<ModelEventHandler> eventHandlers = new HashSet<>();
     private List<Station> searchResults = new ArrayList<>();
+    // runs searches off the JavaFX thread. A single thread, so searches never overlap.
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "netradio-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // only used on the search thread
+    private final StationSearch liveSearch = model.newStationSearch();
+    // the latest background search. Only accessed on the JavaFX thread.
+    private Future<?> pendingSearch = null;
+    private long searchGeneration = 0;
+
+    // Rapid control input is coalesced. Station changes made within STATION_SETTLE_TIME of
+    // the previous change are held back until changes stop, then only the last is applied,
+    // so skipping through stations connects to the one the user settles on rather than
+    // every station passed. Volume changes are applied at most once per frame, the latest
+    // value winning. All of the following are only accessed on the JavaFX thread.
+    private static final Duration STATION_SETTLE_TIME = Duration.millis(300);
+    private final PauseTransition stationSettle = new PauseTransition(STATION_SETTLE_TIME);
+    // the station to be applied once changes settle, else -1
+    private int pendingStationId = -1;
+    // true if play() was called while a station change was held back
+    private boolean pendingPlay = false;
+    // the volume to be applied on the next frame, else -1
+    private int pendingVolume = -1;
+    private final AnimationTimer volumeFrame = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            applyVolume();
+        }
+    };
 
 
     private ModelAdapterImpl() {
         // Singleton
+        stationSettle.setOnFinished(event -> applyPendingStation());
+        model.subscribeToExternalChanges((added, updated, removed) ->
+                Platform.runLater(() -> onExternalChanges(added, updated, removed)));
+    }
+
+    /**
+     * Notifies subscribers of stations changed by another process sharing the station file.
+     * One event is sent for each kind of change which occurred.
+     * Triggers ModelEvent.STATION_ADDED, ModelEvent.STATION_EDITED and/or ModelEvent.STATION_REMOVED
+     */
+    private void onExternalChanges(Set<Integer> added, Set<Integer> updated, Set<Integer> removed) {
+        if (!removed.isEmpty()) {
+            searchResults.removeIf(station -> removed.contains(station.getStationID()));
+        }
+        if (!added.isEmpty()) {
+            notifySubscribers(ModelEvent.STATION_ADDED);
+        }
+        if (!updated.isEmpty()) {
+            notifySubscribers(ModelEvent.STATION_EDITED);
+        }
+        if (!removed.isEmpty()) {
+            notifySubscribers(ModelEvent.STATION_REMOVED);
+        }
     }
 
     /**
@@ -56,12 +122,41 @@ class ModelAdapterImpl implements ModelAdapter{
 
     /**
      * Select the station to be played.
-     * Triggers ModelEvent.STATION_CHANGED
+     * A change following soon after another is held back until changes stop, and only the
+     * last station selected is then applied.
+     * Triggers ModelEvent.STATION_CHANGED once the change is applied
      *
      * @param id the unique identifier for a station
      */
     @Override
     public void setStation(int id) {
+        if (stationSettle.getStatus() == Animation.Status.RUNNING) {
+            // still changing. Wait for the user to settle.
+            pendingStationId = id;
+        }
+        else {
+            applyStation(id);
+        }
+        stationSettle.playFromStart();
+    }
+
+    /**
+     * Applies the station change held back while changes were being made, then starts
+     * playback if it was requested in the meantime.
+     */
+    private void applyPendingStation() {
+        if (pendingStationId < 0) {
+            return;
+        }
+        applyStation(pendingStationId);
+        pendingStationId = -1;
+        if (pendingPlay) {
+            pendingPlay = false;
+            play();
+        }
+    }
+
+    private void applyStation(int id) {
         Station currentStation = model.getCurrentStation();
         if (currentStation == null || currentStation.getStationID() != id) {
             model.setStation(id);
@@ -70,11 +165,16 @@ class ModelAdapterImpl implements ModelAdapter{
     }
 
     /**
-     * Initiates playback of the currently set station.
+     * Initiates playback of the currently set station. If a station change is being held
+     * back, playback starts once it is applied.
      * Triggers ModelEvent.PLAYBACK_STARTED
      */
     @Override
     public void play() {
+        if (pendingStationId >= 0) {
+            pendingPlay = true;
+            return;
+        }
         if (!model.isPlaying()) {
             model.play();
             notifySubscribers(ModelEvent.PLAYBACK_STARTED);
@@ -87,6 +187,7 @@ class ModelAdapterImpl implements ModelAdapter{
      */
     @Override
     public void stop() {
+        pendingPlay = false;
         if (model.isPlaying()) {
             model.stop();
             notifySubscribers(ModelEvent.PLAYBACK_STOPPED);
@@ -97,13 +198,31 @@ class ModelAdapterImpl implements ModelAdapter{
      * Sets the audio playback volume for the current stream stream
      * and future streams. Volume must be between(inclusive) MIN_VOLUME
      * and MAX_VOLUME which at current is 0 and 100 respectively.
-     * Triggers ModelEvent.VOLUME_CHANGED
+     * The volume is applied on the next frame, so a drag of the volume slider sets the
+     * volume at most once per frame.
+     * Triggers ModelEvent.VOLUME_CHANGED once the volume is applied
      *
      * @param volumeLevel Audio playback volume. 0 <= volumeLevel <= 100
      */
     @Override
     public void setVolume(int volumeLevel) {
-        model.setVolume(volumeLevel);
+        // checked now, as the model would only reject it once the frame has passed
+        if (volumeLevel < RadioPlayer.MIN_VOLUME || volumeLevel > RadioPlayer.MAX_VOLUME) {
+            throw new IllegalArgumentException("volume must be in the range " +
+                    RadioPlayer.MIN_VOLUME + " to " + RadioPlayer.MAX_VOLUME);
+        }
+        if (pendingVolume < 0) {
+            volumeFrame.start();
+        }
+        pendingVolume = volumeLevel;
+    }
+
+    private void applyVolume() {
+        if (pendingVolume < 0) {
+            return;
+        }
+        model.setVolume(pendingVolume);
+        pendingVolume = -1;
         notifySubscribers(ModelEvent.VOLUME_CHANGED);
     }
 
@@ -115,7 +234,8 @@ class ModelAdapterImpl implements ModelAdapter{
      */
     @Override
     public int getVolume() {
-        return model.getVolume();
+        // the volume most recently set, even if not yet applied
+        return pendingVolume >= 0 ? pendingVolume : model.getVolume();
     }
 
     /**
@@ -139,6 +259,86 @@ class ModelAdapterImpl implements ModelAdapter{
         return model.getAllStations();
     }
 
+    /**
+     * Returns the stations matching a query, along with facet counts over every match.
+     *
+     * @param query the query to be answered
+     * @return the matching stations and facet counts
+     */
+    @Override
+    public StationQueryResult queryStations(StationQuery query) {
+        return model.queryStations(query);
+    }
+
+    /**
+     * Returns the most played stations, most played first.
+     *
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    @Override
+    public List<Station> getMostPlayed(int n) {
+        return model.getMostPlayed(n);
+    }
+
+    /**
+     * Returns the stations played most lately, most popular first.
+     *
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    @Override
+    public List<Station> getTrending(int n) {
+        return model.getTrending(n);
+    }
+
+    /**
+     * Returns the changes made to the station catalog after the given sequence number.
+     *
+     * @param sequence sequence number of the last change applied, or 0 to start from the beginning
+     * @return the changes since `sequence`, else a resync marker
+     */
+    @Override
+    public StationChanges getChangesSince(long sequence) {
+        return model.getChangesSince(sequence);
+    }
+
+    /**
+     * Creates a smart list, or replaces the query of an existing one, and persists it.
+     *
+     * @param name name of the list
+     * @param query query defining the stations in the list
+     */
+    @Override
+    public void saveSmartList(String name, StationQuery query) {
+        model.saveSmartList(name, query);
+    }
+
+    /**
+     * Returns every smart list.
+     *
+     * @return the query of each smart list by name, in the order the lists were created
+     */
+    @Override
+    public Map<String, StationQuery> getSmartLists() {
+        return model.getSmartLists();
+    }
+
+    /**
+     * Subscribe to the rows inserted into, updated within and removed from a smart list.
+     * Changes may be made on any thread, so notifications are passed to the JavaFX thread.
+     *
+     * @param name name of the list
+     * @param listener the listener to be notified
+     * @return the current contents of the list
+     */
+    @Override
+    public List<Station> subscribeToSmartList(String name, SmartListListener listener) {
+        Objects.requireNonNull(listener);
+        return model.subscribeToSmartList(name, (list, inserted, updated, removed) ->
+                Platform.runLater(() -> listener.rowsChanged(list, inserted, updated, removed)));
+    }
+
     /**
      * Add a station to the player. Requires a name for the station and a
      * URI pointing to an audio source for that station. The station will be
@@ -156,6 +356,24 @@ class ModelAdapterImpl implements ModelAdapter{
         return newId;
     }
 
+    /**
+     * Adds many stations at once. The new stations are persisted together and each is
+     * assigned a unique ID. All details of the given stations other than their IDs are kept.
+     * Subscribers are notified once for all of the new stations.
+     * Triggers ModelEvent.STATIONS_CHANGED
+     *
+     * @param stations details of the stations to be added. Their IDs are ignored.
+     * @return the IDs given to the new stations, in the order the stations were supplied
+     */
+    @Override
+    public List<Integer> addStations(Collection<? extends Station> stations) {
+        List<Integer> newIds = model.addStations(stations);
+        if (!newIds.isEmpty()) {
+            notifySubscribers(ModelEvent.STATIONS_CHANGED);
+        }
+        return newIds;
+    }
+
     /**
      * Permanently remove a station from the player.
      * Triggers ModelEvent.STATION_REMOVED
@@ -175,6 +393,46 @@ class ModelAdapterImpl implements ModelAdapter{
         return removed;
     }
 
+    /**
+     * Updates the details of an existing station in place. The stations ID and
+     * playback statistics are preserved.
+     * Triggers ModelEvent.STATION_EDITED
+     *
+     * @param id        the unique ID of the station to be updated
+     * @param name      the new name of the station
+     * @param uri       the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @return true if the station was updated, else false if no such station exists.
+     * @throws IllegalArgumentException if another station already plays the stream at uri
+     */
+    @Override
+    public boolean updateStation(int id, String name, String uri, boolean favourite) {
+        boolean updated = model.updateStation(id, name, uri, favourite);
+        if (updated) {
+            notifySubscribers(ModelEvent.STATION_EDITED);
+        }
+        return updated;
+    }
+
+    /**
+     * Applies many station changes as a single unit, see `RadioPlayer.applyBatch()`.
+     * Subscribers are notified once for the whole batch rather than once per change.
+     * Triggers ModelEvent.STATIONS_CHANGED
+     *
+     * @param changes populates the batch
+     * @return true if any station was changed, else false.
+     */
+    @Override
+    public boolean applyBatch(Consumer<StationBatch> changes) {
+        boolean changed = model.applyBatch(changes);
+        if (changed) {
+            // drop any search results which were removed by the batch
+            searchResults.removeIf(station -> model.getStation(station.getStationID()) == null);
+            notifySubscribers(ModelEvent.STATIONS_CHANGED);
+        }
+        return changed;
+    }
+
     /**
      * Sets the `Favourite` status of a given station. When true,
      * that station is considered a favourite. When false, the
@@ -200,11 +458,57 @@ class ModelAdapterImpl implements ModelAdapter{
      */
     @Override
     public List<Station> findStation(String searchTerm) {
-        searchResults = model.findStation(searchTerm);
+        // copied as the results may be unmodifiable, and removals are applied to them in place
+        searchResults = new ArrayList<>(model.findStation(searchTerm));
         notifySubscribers(ModelEvent.SEARCH_RESULTS_READY);
         return searchResults;
     }
 
+    /**
+     * Searches for the given term on a background thread, cancelling any earlier search
+     * which is still running. Results are only published if no later search has been
+     * started, so a slow, stale search can never overwrite the results of a newer one.
+     * Must be called on the JavaFX thread.
+     * Triggers ModelEvent.SEARCH_RESULTS_READY once the results are published
+     *
+     * @param searchTerm the term to be searched
+     * @param prepare converts the results for display. Called on the background thread.
+     * @param publish displays the converted results. Called on the JavaFX thread.
+     * @param <T> type of the converted results
+     */
+    @Override
+    public <T> void findStationAsync(String searchTerm, Function<List<Station>, T> prepare, Consumer<T> publish) {
+        Objects.requireNonNull(searchTerm);
+        Objects.requireNonNull(prepare);
+        Objects.requireNonNull(publish);
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+        }
+        long generation = ++searchGeneration;
+        pendingSearch = searchExecutor.submit(() -> {
+            List<Station> results;
+            T prepared;
+            try {
+                results = liveSearch.search(searchTerm);
+                prepared = prepare.apply(results);
+            } catch (CancellationException e) {
+                return;  // superseded by a later search
+            } catch (RuntimeException e) {
+                // the Future is never inspected, so report failures here
+                e.printStackTrace();
+                return;
+            }
+            Platform.runLater(() -> {
+                if (generation == searchGeneration) {
+                    // copied as search results are unmodifiable, and removals are applied to them in place
+                    searchResults = new ArrayList<>(results);
+                    publish.accept(prepared);
+                    notifySubscribers(ModelEvent.SEARCH_RESULTS_READY);
+                }
+            });
+        });
+    }
+
     /**
      * Gets the result of the last search. This method is designed to enable
      * multiple clients/controllers to share the results of one clients search.
@@ -293,6 +597,16 @@ class ModelAdapterImpl implements ModelAdapter{
         notifySubscribers((ModelEvent.STATION_HIGHLIGHTED));
     }
 
+    /**
+     * Prefetches the given stations, so skipping to one of them starts playback almost immediately.
+     *
+     * @param ids IDs of the stations to be prefetched, most likely to be played next first
+     */
+    @Override
+    public void prefetchStations(List<Integer> ids) {
+        model.prefetchStations(ids);
+    }
+
     /**
      * Returns an ObservableMetadata instance which contains stream metadata properties.
      * Clients can register a PropertyChangeListener with the ObservableMetadata
@@ -312,6 +626,10 @@ class ModelAdapterImpl implements ModelAdapter{
      */
     @Override
     public void shutdown() {
+        // input not yet applied is dropped
+        stationSettle.stop();
+        volumeFrame.stop();
+        searchExecutor.shutdownNow();
         model.shutdown();
         notifySubscribers(ModelEvent.SHUTDOWN);
     }
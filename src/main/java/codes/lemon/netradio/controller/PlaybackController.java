@@ -148,6 +148,7 @@ public class PlaybackController implements Initializable, ModelEventHandler {
             case STATION_ADDED -> {} // nothing to update
             case STATION_REMOVED -> {} // TODO: check if current station
             case STATION_EDITED -> {} // TODO: check if current station
+            case STATIONS_CHANGED -> {} // TODO: check if current station
             case SEARCH_RESULTS_READY ->{}
             case TAG_UPDATE-> {}
             case VOLUME_CHANGED -> updateVolumeDisplay();
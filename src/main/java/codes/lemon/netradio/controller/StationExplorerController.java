@@ -1,16 +1,20 @@
 package codes.lemon.netradio.controller;
 
 import codes.lemon.netradio.model.Station;
+import codes.lemon.netradio.model.StationChange;
+import codes.lemon.netradio.model.StationChanges;
+import codes.lemon.netradio.model.StationQuery;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.util.*;
 
-import static java.util.stream.Collectors.toList;
-
 /**
  * Controller for a station explorer. Allows station details to be browsed and searched by users.
  * Contains multiple tabs. Each tab contains a table filled with station details.
@@ -19,6 +23,14 @@ import static java.util.stream.Collectors.toList;
  * users to search for stations. The models search functionality is used to gather results.
  * Results are displayed in a separate tab containing a table of search results. This Tab is
  * brought to the front whenever a search is performed.
+ * Searches run as the user types. Each keystroke starts a search on a background thread,
+ * cancelling the previous one, and only the final results are shown.
+ * Each smart list defined in the model is shown in a tab of its own. Smart list tables are
+ * filled once and then patched with the rows the model reports as changed, so they are not
+ * refreshed with the other tables when stations change.
+ * The stations either side of the highlighted station in the selected table are those the
+ * next and previous buttons play, so they are passed to the model to be prefetched whenever
+ * the highlighted station, the current station or the selected tab changes.
  */
 public class StationExplorerController implements Initializable, ModelEventHandler {
 
@@ -38,6 +50,8 @@ public class StationExplorerController implements Initializable, ModelEventHandl
     private final ModelAdapter model = ModelAdapterImpl.getInstance();
     // Maps all tab IDs to the TableView instance each tab contains
     private Map<String, TableView<StationData>> tabIdToTable;
+    // sequence number of the last catalog change applied to the all stations table. -1 until filled.
+    private long allStationsSequence = -1;
 
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
@@ -51,50 +65,128 @@ public class StationExplorerController implements Initializable, ModelEventHandl
         tabIdToTable.put(favouriteStationsTab.getId(), favouriteStationsTable);
         tabIdToTable.put(mostPlayedStationsTab.getId(), mostPlayedStationsTable);
         tabIdToTable.put(searchResultTab.getId(), searchResultStationsTable);
+
+        model.getSmartLists().keySet().forEach(this::addSmartListTab);
+
+        // search as the user types
+        searchField.textProperty().addListener((observable, oldTerm, newTerm) -> search(newTerm));
+        // next and previous play from the selected tab, so its neighbours are the ones worth prefetching
+        stationTabs.getSelectionModel().selectedItemProperty().addListener(
+                (observable, oldTab, newTab) -> prefetchAdjacentStations());
     }
 
     /**
      * Fills tables with up to date station data from the model
      */
     private void updateAllTableValues() {
-        allStationsTable.getItems().setAll(stationToStationData(model.getAllStations()));
+        updateAllStationsTable();
         favouriteStationsTable.getItems().setAll(stationToStationData(getFavouriteStations()));
         mostPlayedStationsTable.getItems().setAll(stationToStationData(getMostPlayedStations(10)));
         searchResultStationsTable.getItems().setAll(stationToStationData(model.getSearchResults()));
     }
 
 
+    /**
+     * Brings the all stations table up to date from the catalogs change feed. Only rows for
+     * stations changed since the table was last updated are replaced, added or removed.
+     * The table is refilled from scratch on first use or if too many changes were missed.
+     */
+    private void updateAllStationsTable() {
+        StationChanges changes = model.getChangesSince(allStationsSequence);
+        allStationsSequence = changes.getLatestSequence();
+        List<StationData> rows = allStationsTable.getItems();
+        if (changes.isResyncRequired()) {
+            rows.setAll(stationToStationData(model.getAllStations()));
+            return;
+        }
+        // the latest state of each changed station, null if removed
+        Map<Integer, Station> latest = new LinkedHashMap<>();
+        for (StationChange change : changes.getChanges()) {
+            latest.put(change.getStationId(), change.getStation());
+        }
+        if (latest.isEmpty()) {
+            return;
+        }
+        Set<Integer> removed = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            int id = rows.get(i).getIdAsInt();
+            if (latest.containsKey(id)) {
+                Station s = latest.remove(id);
+                if (s == null) {
+                    removed.add(id);
+                }
+                else {
+                    rows.set(i, stationToStationData(List.of(s)).get(0));
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            rows.removeIf(row -> removed.contains(row.getIdAsInt()));
+        }
+        // stations not already in the table were added
+        latest.values().removeIf(Objects::isNull);
+        rows.addAll(stationToStationData(new ArrayList<>(latest.values())));
+    }
+
     /**
      * Returns all Station instances which are marked as favourite stations
-     * in the model
+     * in the model. Answered from the models favourites index.
      * @return all stations marked as favourites
      */
     private List<Station> getFavouriteStations() {
-        List<Station> favourites = new ArrayList<>();
-        for (Station s : model.getAllStations()) {
-            if (s.isFavourite()) {
-                favourites.add(s);
-            }
-        }
-        return favourites;
+        return model.queryStations(StationQuery.builder().favourite(true).build()).getStations();
     }
 
     /**
      * Returns at most the top N stations with the highest "played" count.
      * Stations are ordered most played to least played.
      * If topN > stations.size() the returned list will contain stations.size() elements.
+     * Answered from the models most played ranking.
      * @param topN upper bound on number of stations to be returned.
      * @return top N most played stations
      */
     private List<Station> getMostPlayedStations(int topN) {
-        List<Station> mostPlayed = model.getAllStations().stream()
-                .sorted(Comparator.comparingInt(Station::getPlayCount).reversed())
-                .limit(topN)
-                .collect(toList());
-        return mostPlayed;
+        return model.getMostPlayed(topN);
     }
 
 
+    /**
+     * Adds a tab showing the contents of a smart list, placed before the search results tab.
+     * The table is filled with the current contents of the list and then kept up to date
+     * from the rows the model reports as inserted, updated and removed.
+     * @param name name of the smart list
+     */
+    private void addSmartListTab(String name) {
+        TableView<StationData> table;
+        try {
+            table = FXMLLoader.load(getClass().getResource("../view/stationTable.fxml"));
+        } catch (IOException e) {
+            // the layout is bundled with the application, so this is a packaging error
+            throw new UncheckedIOException("unable to load the smart list table layout", e);
+        }
+        Tab tab = new Tab(name, table);
+        tab.setId("smartList-" + name);
+        tab.setClosable(false);
+        stationTabs.getTabs().add(stationTabs.getTabs().indexOf(searchResultTab), tab);
+        tabIdToTable.put(tab.getId(), table);
+        List<Station> contents = model.subscribeToSmartList(name, (list, inserted, updated, removed) -> {
+            List<StationData> rows = table.getItems();
+            if (!removed.isEmpty()) {
+                rows.removeIf(row -> removed.contains(row.getIdAsInt()));
+            }
+            for (StationData row : stationToStationData(updated)) {
+                for (int i = 0; i < rows.size(); i++) {
+                    if (rows.get(i).getIdAsInt() == row.getIdAsInt()) {
+                        rows.set(i, row);
+                        break;
+                    }
+                }
+            }
+            rows.addAll(stationToStationData(inserted));
+        });
+        table.getItems().setAll(stationToStationData(contents));
+    }
+
     /**
      * Converts Station instances from the model to StationData instances.
      * StationData instances have specially named fields to allow javaFX
@@ -123,13 +215,21 @@ public class StationExplorerController implements Initializable, ModelEventHandl
      */
     public void searchStations(ActionEvent actionEvent) {
         // Gather user input from TextField. Never returns null
-        String searchTerm = searchField.getText();
-        // search the model
-        List<Station> results = model.findStation(searchTerm);
-        // populate search results table with result data
-        searchResultStationsTable.getItems().setAll(stationToStationData(results));
-        // open search results tab to display the newly populated results table
-        stationTabs.getSelectionModel().select(searchResultTab);
+        search(searchField.getText());
+    }
+
+    /**
+     * Searches the model in the background. Table rows are built on the background thread
+     * too, so only the final swap of the tables contents happens on the JavaFX thread.
+     * @param searchTerm the term to be searched
+     */
+    private void search(String searchTerm) {
+        model.findStationAsync(searchTerm, this::stationToStationData, results -> {
+            // populate search results table with result data
+            searchResultStationsTable.getItems().setAll(results);
+            // open search results tab to display the newly populated results table
+            stationTabs.getSelectionModel().select(searchResultTab);
+        });
     }
 
 
@@ -145,10 +245,12 @@ public class StationExplorerController implements Initializable, ModelEventHandl
             case PLAYBACK_STARTED -> {}
             case PLAYBACK_STOPPED -> {}
             case PREVIOUS_HIGHLIGHTED_STATION_REQUESTED -> highlightPreviousStation();
-            case STATION_CHANGED -> {}
+            case STATION_CHANGED -> prefetchAdjacentStations();
+            case STATION_HIGHLIGHTED -> prefetchAdjacentStations();
             case STATION_ADDED -> updateAllTableValues();
             case STATION_REMOVED -> updateAllTableValues();
             case STATION_EDITED -> updateAllTableValues();
+            case STATIONS_CHANGED -> updateAllTableValues();
             case SEARCH_RESULTS_READY -> {}
             case TAG_UPDATE -> {}
             case VOLUME_CHANGED -> {}
@@ -203,6 +305,30 @@ public class StationExplorerController implements Initializable, ModelEventHandl
 
     }
 
+    /**
+     * Asks the model to prefetch the stations which the next and previous buttons would play:
+     * those after and before the selected station in the selected table, chosen as
+     * `highlightNextStation()` and `highlightPreviousStation()` choose them.
+     */
+    private void prefetchAdjacentStations() {
+        Tab selectedTab = stationTabs.getSelectionModel().getSelectedItem();
+        TableView<StationData> selectedTable = selectedTab == null ? null : tabIdToTable.get(selectedTab.getId());
+        if (selectedTable == null || selectedTable.getItems().isEmpty()) {
+            return;
+        }
+        List<StationData> rows = selectedTable.getItems();
+        int row = getRowSelected(selectedTable);
+        List<Integer> adjacent = new ArrayList<>(2);
+        if (row < rows.size() - 1) {
+            adjacent.add(rows.get(row + 1).getIdAsInt());
+        }
+        int previous = row > 0 ? row - 1 : rows.size() - 1;
+        if (previous != row) {
+            adjacent.add(rows.get(previous).getIdAsInt());
+        }
+        model.prefetchStations(adjacent);
+    }
+
     /**
      * Returns the row number (index) of the selected row.
      * Returns -1 if no row selected.
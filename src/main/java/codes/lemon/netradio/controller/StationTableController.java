@@ -152,6 +152,7 @@ public class StationTableController implements Initializable, ModelEventHandler
             case STATION_ADDED:  // TODO: update values in tables
             case STATION_REMOVED:
             case STATION_EDITED:
+            case STATIONS_CHANGED:
             case SEARCH_RESULTS_READY:
             case TAG_UPDATE:
             case VOLUME_CHANGED:
@@ -0,0 +1,216 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A compact binary snapshot of the station catalog which can be read without parsing.
+ * The file consists of a header, one fixed-width record per station (sorted by ID) and
+ * a heap containing the UTF-8 bytes of every string referenced by the records.
+ * Snapshots are read through a MappedByteBuffer. Loading a snapshot only creates a
+ * lightweight MappedStation per record; station strings are not decoded until a station
+ * is first accessed. Startup time is therefore dominated by the number of stations rather
+ * than the number of bytes in the catalog.
+ *
+ * Layout (big endian):
+ *  header:  magic (int), version (int), station count (int), heap offset (int)
+ *  record:  id (int), play count (int), bitrate (int), flags (int),
+ *           last played epoch seconds (long), last played nanos (int),
+ *           name offset, name length, uri offset, uri length, genre offset, genre length (ints)
+ *  heap:    UTF-8 string bytes. Offsets are relative to the start of the heap.
+ */
+class BinaryStationFile {
+    private static final int MAGIC = 0x4E525342;  // "NRSB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 52;
+
+    // record field offsets
+    private static final int ID = 0;
+    private static final int PLAY_COUNT = 4;
+    private static final int BITRATE = 8;
+    private static final int FLAGS = 12;
+    private static final int LAST_PLAYED_SECONDS = 16;
+    private static final int LAST_PLAYED_NANOS = 24;
+    private static final int NAME = 28;
+    private static final int URI = 36;
+    private static final int GENRE = 44;
+
+    private static final int FLAG_FAVOURITE = 1;
+    private static final int FLAG_PLAYED = 2;
+
+    private BinaryStationFile() {
+        // static utility class
+    }
+
+    /**
+     * Maps the given snapshot into memory and returns a lazily materialised station for each
+     * record. The returned stations remain valid even if the snapshot file is later replaced.
+     * @param file a snapshot previously written by `write()`
+     * @return a station for each record in the snapshot, ordered by ID
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static List<MutableStation> read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping remains valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a station snapshot: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported station snapshot version: " + buffer.getInt(4));
+        }
+        int count = buffer.getInt(8);
+        int heapOffset = buffer.getInt(12);
+        if (count < 0 || (long) HEADER_SIZE + (long) count * RECORD_SIZE > heapOffset || heapOffset > buffer.limit()) {
+            throw new IOException("corrupt station snapshot: " + file);
+        }
+
+        List<MutableStation> stations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            stations.add(new MappedStation(buffer, record, heapOffset, buffer.getInt(record + ID)));
+        }
+        return stations;
+    }
+
+    /**
+     * Writes a snapshot of the given stations. The snapshot is written to a temporary file
+     * which then replaces the target, so existing mappings of a previous snapshot are never
+     * modified while in use.
+     * @param stations the stations to be written
+     * @param file destination of the snapshot
+     * @throws IOException if the snapshot could not be written
+     */
+    public static void write(List<? extends Station> stations, File file) throws IOException {
+        Objects.requireNonNull(stations);
+        List<Station> sorted = new ArrayList<>(stations);
+        sorted.sort(Comparator.comparingInt(Station::getStationID));
+
+        int heapOffset = HEADER_SIZE + sorted.size() * RECORD_SIZE;
+        ByteBuffer records = ByteBuffer.allocate(heapOffset);
+        ByteBuffer heap = ByteBuffer.allocate(Math.max(1024, sorted.size() * 64));
+
+        records.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(heapOffset);
+        for (Station s : sorted) {
+            LocalDateTime lastPlayed = s.getDateLastPlayed();
+            int flags = (s.isFavourite() ? FLAG_FAVOURITE : 0) | (lastPlayed != null ? FLAG_PLAYED : 0);
+            records.putInt(s.getStationID());
+            records.putInt(s.getPlayCount());
+            records.putInt(s.getBitrate());
+            records.putInt(flags);
+            records.putLong(lastPlayed != null ? lastPlayed.toEpochSecond(ZoneOffset.UTC) : 0);
+            records.putInt(lastPlayed != null ? lastPlayed.getNano() : 0);
+            heap = putString(records, heap, s.getStationName());
+            heap = putString(records, heap, s.getUri());
+            heap = putString(records, heap, s.getGenre() == null ? "" : s.getGenre());
+        }
+        records.flip();
+        heap.flip();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+            while (heap.hasRemaining()) {
+                out.write(heap);
+            }
+            out.force(false);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends a string to the heap and writes its offset and length to the current record.
+     * @return the heap buffer, which is replaced by a larger buffer when full
+     */
+    private static ByteBuffer putString(ByteBuffer record, ByteBuffer heap, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (heap.remaining() < bytes.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(heap.capacity() * 2, heap.position() + bytes.length));
+            heap.flip();
+            larger.put(heap);
+            heap = larger;
+        }
+        record.putInt(heap.position());
+        record.putInt(bytes.length);
+        heap.put(bytes);
+        return heap;
+    }
+
+    /**
+     * Decodes a full station from the record at the given position.
+     * @param buffer a mapped snapshot
+     * @param record position of the record within the snapshot
+     * @param heapOffset position of the string heap within the snapshot
+     * @return a station containing the values held in the record
+     */
+    static RadioStation decode(ByteBuffer buffer, int record, int heapOffset) {
+        int flags = buffer.getInt(record + FLAGS);
+        LocalDateTime lastPlayed = null;
+        if ((flags & FLAG_PLAYED) != 0) {
+            lastPlayed = LocalDateTime.ofEpochSecond(buffer.getLong(record + LAST_PLAYED_SECONDS),
+                    buffer.getInt(record + LAST_PLAYED_NANOS), ZoneOffset.UTC);
+        }
+        return new RadioStation(buffer.getInt(record + ID),
+                getString(buffer, record + NAME, heapOffset),
+                getString(buffer, record + URI, heapOffset),
+                lastPlayed,
+                buffer.getInt(record + PLAY_COUNT),
+                buffer.getInt(record + BITRATE),
+                getString(buffer, record + GENRE, heapOffset),
+                (flags & FLAG_FAVOURITE) != 0);
+    }
+
+    /**
+     * Fingerprints the record at the given position without decoding it. Produces the same
+     * value as `StationFingerprints.fingerprint()` does for the decoded station.
+     * @param buffer a mapped snapshot
+     * @param record position of the record within the snapshot
+     * @param heapOffset position of the string heap within the snapshot
+     * @return the fingerprint of the station held in the record
+     */
+    static long fingerprint(ByteBuffer buffer, int record, int heapOffset) {
+        int flags = buffer.getInt(record + FLAGS);
+        long hash = StationFingerprints.SEED;
+        hash = StationFingerprints.mix(hash, buffer.getInt(record + ID));
+        hash = StationFingerprints.mix(hash, buffer.getInt(record + PLAY_COUNT));
+        hash = StationFingerprints.mix(hash, buffer.getInt(record + BITRATE));
+        hash = StationFingerprints.mix(hash, (flags & FLAG_FAVOURITE) != 0 ? 1 : 0);
+        hash = StationFingerprints.mix(hash, (flags & FLAG_PLAYED) != 0 ? 1 : 0);
+        hash = StationFingerprints.mix(hash, buffer.getLong(record + LAST_PLAYED_SECONDS));
+        hash = StationFingerprints.mix(hash, buffer.getInt(record + LAST_PLAYED_NANOS));
+        for (int field : new int[] { NAME, URI, GENRE }) {
+            hash = StationFingerprints.mix(hash, buffer, heapOffset + buffer.getInt(record + field),
+                    buffer.getInt(record + field + 4));
+        }
+        return hash;
+    }
+
+    private static String getString(ByteBuffer buffer, int field, int heapOffset) {
+        int offset = heapOffset + buffer.getInt(field);
+        int length = buffer.getInt(field + 4);
+        byte[] bytes = new byte[length];
+        // absolute bulk get does not modify the buffers position so is safe for concurrent readers
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,160 @@
+package codes.lemon.netradio.model;
+
+import org.freedesktop.gstreamer.Bus;
+import org.freedesktop.gstreamer.Element;
+import org.freedesktop.gstreamer.GstObject;
+import org.freedesktop.gstreamer.State;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Pauses a pipeline while its buffer refills, driven by the BUFFERING messages on its bus.
+ * Left to itself a playbin keeps PLAYING as its buffer runs dry, so a congested connection
+ * is heard as stuttering rather than a single pause.
+ *
+ * When playback is requested the pipeline is held PAUSED until the buffer reaches the high
+ * watermark. Once playing, it is paused again should the buffer fall below the low watermark,
+ * an underrun, and resumed once it is back at the high watermark. The gap between the
+ * watermarks lets playback ride out brief dips without pausing. The watermarks are percentages
+ * of the buffer set by the system properties `netradio.buffer.low` (default 10) and
+ * `netradio.buffer.high` (default 100).
+ *
+ * The length of each underrun is published when playback resumes, or when it is stopped
+ * while still refilling.
+ *
+ * Thread safe. Playback is requested by the client while bus messages are delivered on a
+ * GStreamer thread.
+ */
+class BufferingController {
+    private static final String LOW_WATERMARK_PROPERTY = "netradio.buffer.low";
+    private static final int DEFAULT_LOW_WATERMARK = 10;
+    private static final String HIGH_WATERMARK_PROPERTY = "netradio.buffer.high";
+    private static final int DEFAULT_HIGH_WATERMARK = 100;
+    private static final int LOW_WATERMARK;
+    private static final int HIGH_WATERMARK;
+
+    static {
+        int low = Integer.getInteger(LOW_WATERMARK_PROPERTY, DEFAULT_LOW_WATERMARK);
+        int high = Integer.getInteger(HIGH_WATERMARK_PROPERTY, DEFAULT_HIGH_WATERMARK);
+        if (low < 0 || high > 100 || low > high) {
+            System.out.println("INFO: Invalid buffer watermarks " + low + "-" + high + ". Using "
+                    + DEFAULT_LOW_WATERMARK + "-" + DEFAULT_HIGH_WATERMARK);
+            low = DEFAULT_LOW_WATERMARK;
+            high = DEFAULT_HIGH_WATERMARK;
+        }
+        LOW_WATERMARK = low;
+        HIGH_WATERMARK = high;
+    }
+
+    private final Element pipeline;
+    private final Bus.BUFFERING bufferingListener = this::buffering;
+    private volatile Consumer<Duration> listener = stall -> { };
+    // true while the client wants the pipeline playing. Guarded by this.
+    private boolean wanted = false;
+    // true once the buffer has filled since playback was requested. Guarded by this.
+    private boolean filled = false;
+    // true while paused to refill the buffer. Guarded by this.
+    private boolean refilling = false;
+    // when the underrun in progress began, else -1 if playback has not underrun. Guarded by this.
+    private long underrunStart = -1;
+
+    /**
+     * Starts listening to the given pipelines bus.
+     * @param pipeline the pipeline to be controlled
+     */
+    BufferingController(Element pipeline) {
+        this.pipeline = Objects.requireNonNull(pipeline);
+        pipeline.getBus().connect(bufferingListener);
+    }
+
+    /**
+     * @param listener receives the length of each underrun, on the thread which ended it
+     */
+    void setListener(Consumer<Duration> listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Records that the client has requested playback. The pipeline will be held PAUSED if its
+     * buffer needs filling first.
+     */
+    synchronized void playRequested() {
+        wanted = true;
+    }
+
+    /**
+     * Records that the client no longer wants playback, ending any underrun in progress.
+     * Called before the pipeline is stopped, paused or given a new source.
+     */
+    void playStopped() {
+        Duration stall;
+        synchronized (this) {
+            stall = endUnderrun();
+            wanted = false;
+            filled = false;
+            refilling = false;
+        }
+        publish(stall);
+    }
+
+    /**
+     * @return true if the pipeline is paused to refill its buffer while the client wants it playing
+     */
+    synchronized boolean isRefilling() {
+        return refilling;
+    }
+
+    /**
+     * Stops listening to the pipelines bus.
+     */
+    void dispose() {
+        playStopped();
+        pipeline.getBus().disconnect(bufferingListener);
+    }
+
+    private void buffering(GstObject source, int percent) {
+        Duration stall = null;
+        synchronized (this) {
+            if (!wanted) {
+                // prefetched and stopped pipelines are left to fill their buffers undisturbed
+                return;
+            }
+            if (percent >= HIGH_WATERMARK) {
+                filled = true;
+                if (refilling) {
+                    refilling = false;
+                    stall = endUnderrun();
+                    pipeline.setState(State.PLAYING);
+                }
+            }
+            else if (!refilling && (!filled || percent < LOW_WATERMARK)) {
+                refilling = true;
+                if (filled) {
+                    underrunStart = System.nanoTime();
+                }
+                pipeline.setState(State.PAUSED);
+            }
+        }
+        publish(stall);
+    }
+
+    /**
+     * @return the length of the underrun in progress, else null if there is none
+     */
+    private Duration endUnderrun() {
+        if (underrunStart < 0) {
+            return null;
+        }
+        Duration stall = Duration.ofNanos(System.nanoTime() - underrunStart);
+        underrunStart = -1;
+        return stall;
+    }
+
+    private void publish(Duration stall) {
+        if (stall != null) {
+            listener.accept(stall);
+        }
+    }
+}
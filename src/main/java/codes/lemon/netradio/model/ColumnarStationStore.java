@@ -0,0 +1,184 @@
+package codes.lemon.netradio.model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A StationStore which keeps every station in memory in a compact columnar form.
+ * See StationColumns for the layout. Compared with MemoryStationStore this avoids a
+ * RadioStation, its strings and a boxed Integer key per station, which makes large
+ * catalogs several times smaller on the heap.
+ * Persistence is identical to MemoryStationStore: the catalog is loaded from the snapshot
+ * written by StationLoader, journaled changes are replayed on top, and changes are
+ * journaled individually and folded into a new snapshot in the background.
+ *
+ * `get()` and `forEach()` return independent copies of stations, so stations handed out
+ * by the store, or by its snapshots, remain readable after they are changed or removed.
+ * The flyweight views of StationColumns never leave the store.
+ * Copying the columns on every change would defeat their purpose, so `snapshot()` returns
+ * a live view which synchronizes with writers.
+ *
+ * This class is thread safe. Access to the columns, including through views, is
+ * synchronized on the columns.
+ */
+class ColumnarStationStore implements StationStore {
+    private final StationJournal journal;
+    private final StationColumns columns;
+    private long version = 0;
+
+    public ColumnarStationStore() {
+        this(new StationLoader());
+    }
+
+    ColumnarStationStore(StationLoader storage) {
+        this(storage, new StationJournal(storage));
+    }
+
+    ColumnarStationStore(StationLoader storage, StationJournal journal) {
+        Objects.requireNonNull(storage);
+        this.journal = Objects.requireNonNull(journal);
+        columns = load(storage);
+        // apply any changes made since the last snapshot was written
+        if (journal.replay(columns::put, columns::remove) > 0) {
+            journal.requestCompaction(columns.copy().asList());
+        }
+        columns.trimToSize();
+    }
+
+    /**
+     * Copies every station from the last snapshot into a new set of columns. The loaded
+     * stations are released once this returns.
+     */
+    private static StationColumns load(StationLoader storage) {
+        List<MutableStation> loaded = storage.getStations();
+        StationColumns columns = new StationColumns(loaded.size());
+        for (MutableStation s : loaded) {
+            columns.put(s);
+        }
+        return columns;
+    }
+
+    @Override
+    public MutableStation get(int id) {
+        synchronized (columns) {
+            int row = columns.rowOf(id);
+            return row < 0 ? null : columns.materialise(row);
+        }
+    }
+
+    /**
+     * Stores the station and journals its state.
+     * @param station the station to be stored
+     */
+    @Override
+    public void put(MutableStation station) {
+        synchronized (columns) {
+            Objects.requireNonNull(station);
+            columns.put(station);
+            version++;
+            journal.recordPut(station);
+            compactStorageIfRequired();
+        }
+    }
+
+    /**
+     * Stores and removes the given stations, journaling every change in a single
+     * batch record so the changes are replayed all together or not at all.
+     * @param puts stations to be stored
+     * @param removals IDs of stations to be removed
+     */
+    @Override
+    public void putAll(Collection<? extends MutableStation> puts, Collection<Integer> removals) {
+        synchronized (columns) {
+            for (int id : removals) {
+                columns.remove(id);
+            }
+            for (MutableStation s : puts) {
+                columns.put(Objects.requireNonNull(s));
+            }
+            version++;
+            journal.recordBatch(puts, removals);
+            compactStorageIfRequired();
+        }
+    }
+
+    @Override
+    public boolean remove(int id) {
+        synchronized (columns) {
+            if (columns.remove(id)) {
+                version++;
+                journal.recordRemove(id);
+                compactStorageIfRequired();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        synchronized (columns) {
+            return columns.rowOf(id) >= 0;
+        }
+    }
+
+    @Override
+    public int highestId() {
+        synchronized (columns) {
+            int highest = -1;
+            for (int row = 0; row < columns.size(); row++) {
+                highest = Math.max(highest, columns.idAt(row));
+            }
+            return highest;
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (columns) {
+            return columns.size();
+        }
+    }
+
+    /**
+     * Visits an independent copy of every station. Callers such as searches may keep the
+     * stations they visit, and a view of a row would fail once its station is removed.
+     * @param action action to be performed for each station
+     */
+    @Override
+    public void forEach(Consumer<? super MutableStation> action) {
+        synchronized (columns) {
+            for (int row = 0; row < columns.size(); row++) {
+                action.accept(columns.materialise(row));
+            }
+        }
+    }
+
+    @Override
+    public StationSnapshot snapshot() {
+        return new LiveStationSnapshot(this, columns, () -> version);
+    }
+
+    /**
+     * Compacts the journal into a final snapshot and stops the journal writer.
+     */
+    @Override
+    public void close() {
+        synchronized (columns) {
+            journal.close(columns.copy().asList());
+        }
+    }
+
+    /**
+     * Folds the journal into a full snapshot once it has grown large enough. The snapshot
+     * is written in the background from a copy of the columns, which is far cheaper than
+     * copying every station individually.
+     */
+    private void compactStorageIfRequired() {
+        if (journal.needsCompaction()) {
+            journal.requestCompaction(columns.copy().asList());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package codes.lemon.netradio.model;
+
+import java.util.Set;
+
+/**
+ * Notified when stations are changed by another process sharing the station file, once
+ * the changes have been merged into the catalog. Listeners are called on a background thread.
+ */
+@FunctionalInterface
+public interface ExternalChangeListener {
+    /**
+     * Called after external changes have been merged. Each set is unmodifiable and at
+     * least one set is not empty.
+     * @param added IDs of stations added by the other process
+     * @param updated IDs of stations modified by the other process
+     * @param removed IDs of stations removed by the other process
+     */
+    void stationsChanged(Set<Integer> added, Set<Integer> updated, Set<Integer> removed);
+}
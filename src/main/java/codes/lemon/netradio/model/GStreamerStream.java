@@ -3,11 +3,14 @@ package codes.lemon.netradio.model;
 import org.freedesktop.gstreamer.Bus;
 import org.freedesktop.gstreamer.Element;
 import org.freedesktop.gstreamer.GstObject;
+import org.freedesktop.gstreamer.State;
 import org.freedesktop.gstreamer.TagList;
 import org.freedesktop.gstreamer.elements.PlayBin;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * This class wraps a gstreamer PlayBin instance and takes care of asynchronous tag
@@ -19,25 +22,47 @@ class GStreamerStream {
     public static final double MIN_VOLUME = 0.0;
     public static final double MAX_VOLUME = 1.0;
     protected final PlayBin source;
-    protected final ObservableMetadata tags;
+    // tag updates are written here. Replaced by redirectTags(), so guarded by this.
+    protected ObservableMetadata tags;
+    // listeners connected to the pipelines bus, kept so they can be disconnected by dispose()
+    private Bus.EOS eosListener;
+    private Bus.ERROR errorListener;
+    private Bus.TAG tagListener;
+    // records how long each request to play takes to be heard
+    private final PlaybackTracer tracer;
+    // pauses playback while the buffer refills
+    private final BufferingController buffering;
 
     public GStreamerStream(PlayBin source) {
         // TODO: consider accepting URI and setting URI tag in metadata
         tags = new ObservableMetadata();
         this.source = Objects.requireNonNull(source);
         connectBusListeners(this.source);
+        tracer = new PlaybackTracer(this.source);
+        buffering = new BufferingController(this.source);
     }
 
     public GStreamerStream(PlayBin source, ObservableMetadata tags) {
         this.tags = Objects.requireNonNull(tags);
         this.source = Objects.requireNonNull(source);
         connectBusListeners(this.source);
+        tracer = new PlaybackTracer(this.source);
+        buffering = new BufferingController(this.source);
     }
 
     /**
-     * Start the stream
+     * Start the stream. Unless it is already playing, the time taken to start is traced.
+     * Audio may not be heard until the buffer has filled, see BufferingController.
      */
     public void play() {
+        if (buffering.isRefilling()) {
+            // already playing as far as the client is concerned
+            return;
+        }
+        if (!source.isPlaying()) {
+            tracer.begin(getObservableMetadata().getStreamUri());
+        }
+        buffering.playRequested();
         source.play();
     }
 
@@ -45,15 +70,99 @@ class GStreamerStream {
      * Stop the stream
      */
     public void stop() {
+        tracer.cancel();
+        buffering.playStopped();
         source.stop();
     }
 
     /**
-     * Check if the stream has been stopped.
+     * @param listener receives the length of each underrun, when playback resumes or is stopped
+     */
+    public void setUnderrunListener(Consumer<Duration> listener) {
+        buffering.setListener(listener);
+    }
+
+    /**
+     * @param listener receives a timeline of each start of playback, on a GStreamer thread
+     */
+    public void setTimelineListener(Consumer<PlaybackTimeline> listener) {
+        tracer.setListener(listener);
+    }
+
+    /**
+     * Pause the stream. A paused stream stays connected to its source and fills its
+     * buffer, so it starts almost immediately once played.
+     */
+    public void pause() {
+        buffering.playStopped();
+        source.pause();
+    }
+
+    /**
+     * Limits the amount of data the stream buffers.
+     * @param bytes the maximum number of bytes buffered, else -1 for GStreamers default
+     */
+    public void setBufferSize(int bytes) {
+        source.set("buffer-size", bytes);
+    }
+
+    /**
+     * Sets how much audio the stream buffers before playing, and refills after an underrun.
+     * Takes effect when the stream next connects to its source.
+     * @param millis the length of audio buffered in milliseconds, else -1 for GStreamers default
+     */
+    public void setBufferDuration(long millis) {
+        // playbin takes nanoseconds
+        source.set("buffer-duration", millis < 0 ? -1L : millis * 1_000_000);
+    }
+
+    /**
+     * Sends future tag updates to another ObservableMetadata instance, first copying into it
+     * the tags received so far. Used when a prebuffered stream starts being played.
+     * @param target receives tag updates from now on
+     */
+    public synchronized void redirectTags(ObservableMetadata target) {
+        Objects.requireNonNull(target);
+        target.copyFrom(tags);
+        tags = target;
+    }
+
+    /**
+     * Switches the stream to a new source, reusing this pipeline rather than building another.
+     * The pipeline is moved to READY, which stops playback and closes the connection to the
+     * previous source but keeps the pipelines elements, then given the new URI. Playback
+     * does not resume until `play()` is called.
+     * @param uri the new audio source
+     */
+    public void setSource(URI uri) {
+        Objects.requireNonNull(uri);
+        tracer.cancel();
+        buffering.playStopped();
+        source.setState(State.READY);
+        source.setURI(uri);
+    }
+
+    /**
+     * Stops the stream and releases the pipeline, disconnecting its bus listeners and freeing
+     * its native resources. The stream can not be used afterwards.
+     */
+    public void dispose() {
+        Bus bus = source.getBus();
+        bus.disconnect(eosListener);
+        bus.disconnect(errorListener);
+        bus.disconnect(tagListener);
+        tracer.dispose();
+        buffering.dispose();
+        source.setState(State.NULL);
+        source.dispose();
+    }
+
+    /**
+     * Check if the stream has been stopped. A stream paused to refill its buffer has not.
      * @return true if stopped, else false
      */
     public boolean isStopped() {
-        return !source.isPlaying();
+        return !source.isPlaying() && !buffering.isRefilling();
     }
 
     /**
@@ -90,7 +199,7 @@ class GStreamerStream {
      *
      * @return an ObservableTag instance which contains up to data stream metadata.
      */
-    public ObservableMetadata getObservableMetadata() {
+    public synchronized ObservableMetadata getObservableMetadata() {
         return tags;
     }
 
@@ -109,29 +218,32 @@ class GStreamerStream {
         Bus bus = pipe.getBus();
 
         // lambda instead of anonymous inner class
-        bus.connect((Bus.EOS) source -> {
+        eosListener = source -> {
             System.out.println("We have reached the end of the stream");
             // need pipeline.stop() to ensure window closes with video
             pipe.stop();  // sets the state to NULL
-        });
+        };
+        bus.connect(eosListener);
 
-        bus.connect(new Bus.ERROR() {
+        errorListener = new Bus.ERROR() {
             // TODO: add tag support for errors
 
             @Override
             public void errorMessage(GstObject source, int i, String s) {
                 System.out.println("Error: " + s + "\ti=" + i);
             }
-        });
+        };
+        bus.connect(errorListener);
 
         // update the ObservabeTags instance with the latest tag properties as they arrive off the Bus.
-        bus.connect(new Bus.TAG() {
+        tagListener = new Bus.TAG() {
 
             @Override
             public void tagsFound(GstObject source, TagList tagList) {
                 updateTags(tagList);
             }
-        });
+        };
+        bus.connect(tagListener);
     }
 
     /**
@@ -139,7 +251,7 @@ class GStreamerStream {
      * ObservableTag will update registered listeners.
      * @param tagList a list of new tags
      */
-    private void updateTags(TagList tagList) {
+    private synchronized void updateTags(TagList tagList) {
         System.out.println("\n---------------------------------------------------");
         for (String key : tagList.getTagNames()) {
             System.out.println(key + " : " + tagList.getString(key, 0));
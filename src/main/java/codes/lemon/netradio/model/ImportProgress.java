@@ -0,0 +1,110 @@
+package codes.lemon.netradio.model;
+
+/**
+ * The progress of an import of stations from a directory file, see
+ * `RadioPlayer.importStations()`. Instances are immutable snapshots taken after each batch
+ * of stations is added to the catalog, and once the import has finished.
+ */
+public final class ImportProgress {
+    private final long recordsRead;
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long added;
+    private final long duplicates;
+    private final long rejected;
+    private final long elapsedNanos;
+    private final boolean finished;
+
+    ImportProgress(long recordsRead, long bytesRead, long totalBytes, long added, long duplicates, long rejected,
+                   long elapsedNanos, boolean finished) {
+        this.recordsRead = recordsRead;
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        this.added = added;
+        this.duplicates = duplicates;
+        this.rejected = rejected;
+        this.elapsedNanos = elapsedNanos;
+        this.finished = finished;
+    }
+
+    /**
+     * @return the number of entries read from the file so far
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return the number of bytes of the file read so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the proportion of the file read so far, from 0 to 1
+     */
+    public double getFractionComplete() {
+        if (finished) {
+            return 1;
+        }
+        return totalBytes == 0 ? 0 : Math.min(1, (double) bytesRead / totalBytes);
+    }
+
+    /**
+     * @return the number of stations added to the catalog
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the number of entries skipped because a station already plays their stream
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of entries skipped because they have no valid stream URI
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the time taken so far, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return the number of entries processed per second, else 0 if no time has elapsed
+     */
+    public double getRecordsPerSecond() {
+        long processed = added + duplicates + rejected;
+        return elapsedNanos == 0 ? 0 : processed * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return true if the whole file has been imported, else false.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d added=%d duplicates=%d rejected=%d complete=%.1f%% elapsed=%dms rate=%.0f/s",
+                recordsRead, added, duplicates, rejected, getFractionComplete() * 100, getElapsedMillis(),
+                getRecordsPerSecond());
+    }
+}
@@ -0,0 +1,123 @@
+package codes.lemon.netradio.model;
+
+/**
+ * A histogram of the time a station has taken to start playing, from the request to play
+ * until audio could be heard. Times are counted in buckets with exponentially growing
+ * upper bounds, see `getBucketBounds()`, so percentiles are estimates, reported as the upper
+ * bound of the bucket they fall in.
+ * Instances are immutable snapshots taken when they were requested.
+ */
+public final class LatencyHistogram {
+    // inclusive upper bound of each bucket in milliseconds. A final bucket holds longer times.
+    private static final long[] BOUNDS = { 100, 250, 500, 1_000, 2_000, 4_000, 8_000, 16_000 };
+
+    private final long[] counts;
+    private final long count;
+    private final long totalMillis;
+    private final long maxMillis;
+
+    /**
+     * @param counts the number of times in each bucket, one more than there are bounds
+     * @param totalMillis the sum of every time
+     * @param maxMillis the longest time
+     */
+    LatencyHistogram(long[] counts, long totalMillis, long maxMillis) {
+        if (counts.length != BOUNDS.length + 1) {
+            throw new IllegalArgumentException("Expected " + (BOUNDS.length + 1) + " buckets");
+        }
+        this.counts = counts.clone();
+        long sum = 0;
+        for (long c : counts) {
+            sum += c;
+        }
+        count = sum;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    static int buckets() {
+        return BOUNDS.length + 1;
+    }
+
+    /**
+     * @param millis a time in milliseconds
+     * @return the index of the bucket the time is counted in
+     */
+    static int bucketOf(long millis) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (millis <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length;
+    }
+
+    /**
+     * @return the inclusive upper bound of each bucket in milliseconds. The final bucket,
+     *         which holds longer times, has no bound and is not included.
+     */
+    public long[] getBucketBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of times counted in each bucket. One longer than `getBucketBounds()`.
+     */
+    public long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return the number of times recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean time in milliseconds, else 0 if none have been recorded
+     */
+    public long getMeanMillis() {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    /**
+     * @return the longest time in milliseconds, else 0 if none have been recorded
+     */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in, or the longest
+     * time recorded if that is lower.
+     * @param percentile the percentile, from 0 to 100
+     * @return the estimated time in milliseconds, else 0 if none have been recorded
+     */
+    public long getPercentileMillis(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range 0 to 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], maxMillis);
+            }
+        }
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dms p50=%dms p90=%dms max=%dms", count, getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(90), maxMillis);
+    }
+}
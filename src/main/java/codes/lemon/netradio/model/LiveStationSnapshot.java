@@ -0,0 +1,73 @@
+package codes.lemon.netradio.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A StationSnapshot for stores which can not cheaply hold an immutable copy of their
+ * catalog, such as stores which keep stations on disk. Every read is passed through to
+ * the store while holding the stores lock, so a view always reflects the latest changes
+ * and each individual read is consistent, but consecutive reads may observe different
+ * versions of the catalog.
+ */
+class LiveStationSnapshot implements StationSnapshot {
+    private final StationStore store;
+    private final Object lock;
+    private final LongSupplier versions;
+
+    /**
+     * @param store the store to be read
+     * @param lock the lock held by the store while it is modified
+     * @param versions provides the stores current version
+     */
+    LiveStationSnapshot(StationStore store, Object lock, LongSupplier versions) {
+        this.store = Objects.requireNonNull(store);
+        this.lock = Objects.requireNonNull(lock);
+        this.versions = Objects.requireNonNull(versions);
+    }
+
+    @Override
+    public long version() {
+        synchronized (lock) {
+            return versions.getAsLong();
+        }
+    }
+
+    @Override
+    public Station get(int id) {
+        synchronized (lock) {
+            return store.get(id);
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) {
+            return store.size();
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<? super Station> action) {
+        synchronized (lock) {
+            store.forEach(action);
+        }
+    }
+
+    /**
+     * Copies every station into a new list.
+     * @return an unmodifiable list of every station currently held by the store
+     */
+    @Override
+    public List<Station> asList() {
+        synchronized (lock) {
+            List<Station> list = new ArrayList<>(store.size());
+            store.forEach(list::add);
+            return Collections.unmodifiableList(list);
+        }
+    }
+}
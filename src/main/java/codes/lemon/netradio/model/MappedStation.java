@@ -0,0 +1,161 @@
+package codes.lemon.netradio.model;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * A station backed by a record in a memory mapped BinaryStationFile.
+ * Only the stations ID is read when an instance is constructed. All other values
+ * are decoded from the mapped record the first time any of them are requested,
+ * after which this instance behaves exactly like a RadioStation.
+ * This keeps loading large catalogs cheap since most stations are never viewed
+ * during a single run.
+ */
+class MappedStation implements MutableStation {
+    private final ByteBuffer snapshot;
+    private final int record;
+    private final int heapOffset;
+    private final int id;
+    // materialised on first access. Volatile since snapshots may be read from any thread
+    private volatile RadioStation station = null;
+
+    MappedStation(ByteBuffer snapshot, int record, int heapOffset, int id) {
+        this.snapshot = snapshot;
+        this.record = record;
+        this.heapOffset = heapOffset;
+        this.id = id;
+    }
+
+    /**
+     * Returns the materialised station, decoding it from the snapshot if required.
+     * @return a station containing this stations current values
+     */
+    private RadioStation station() {
+        if (station == null) {
+            station = BinaryStationFile.decode(snapshot, record, heapOffset);
+        }
+        return station;
+    }
+
+    /**
+     * Returns true if this stations values have been decoded from the snapshot.
+     * @return true if materialised, else false.
+     */
+    boolean isMaterialised() {
+        return station != null;
+    }
+
+    /**
+     * Fingerprints this station, see `StationFingerprints.fingerprint()`. An unmaterialised
+     * station is fingerprinted from its mapped record, so it remains unmaterialised.
+     * @return the fingerprint of this station
+     */
+    long fingerprint() {
+        RadioStation decoded = station;
+        if (decoded != null) {
+            return StationFingerprints.fingerprint(decoded);
+        }
+        return BinaryStationFile.fingerprint(snapshot, record, heapOffset);
+    }
+
+    @Override
+    public int getStationID() {
+        return id;
+    }
+
+    @Override
+    public String getStationName() {
+        return station().getStationName();
+    }
+
+    @Override
+    public String getUri() {
+        return station().getUri();
+    }
+
+    @Override
+    public int getBitrate() {
+        return station().getBitrate();
+    }
+
+    @Override
+    public LocalDateTime getDateLastPlayed() {
+        return station().getDateLastPlayed();
+    }
+
+    @Override
+    public int getPlayCount() {
+        return station().getPlayCount();
+    }
+
+    @Override
+    public String getGenre() {
+        return station().getGenre();
+    }
+
+    @Override
+    public boolean isFavourite() {
+        return station().isFavourite();
+    }
+
+    @Override
+    public void setStationName(String name) {
+        station().setStationName(name);
+    }
+
+    @Override
+    public void setUri(String uri) {
+        station().setUri(uri);
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+        station().setBitrate(bitrate);
+    }
+
+    @Override
+    public void setFavourite(boolean val) {
+        station().setFavourite(val);
+    }
+
+    @Override
+    public void setGenre(String genre) {
+        station().setGenre(genre);
+    }
+
+    @Override
+    public void markPlayed() {
+        station().markPlayed();
+    }
+
+    /**
+     * Returns an independent copy of this station. If this station has not been
+     * materialised the copy shares the mapped record rather than decoding it.
+     * @return a copy of this station
+     */
+    @Override
+    public MutableStation copy() {
+        if (isMaterialised()) {
+            return station.copy();
+        }
+        return new MappedStation(snapshot, record, heapOffset, id);
+    }
+
+    /**
+     * Stations are considered equal if their IDs are equal. See `RadioStation.equals()`.
+     * @param o object to be compared with this
+     * @return true if `this` and `o` are equal, else false.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof MappedStation) {
+            return this.id == ((MappedStation) o).id;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.id);
+    }
+}
@@ -0,0 +1,153 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A StationStore which keeps every station in memory.
+ * The catalog is loaded from the snapshot written by StationLoader, then any changes
+ * recorded in the StationJournal since that snapshot was written are applied.
+ * Changes are journaled individually and folded into a new snapshot in the background.
+ *
+ * The catalog is held in an immutable StationTrie. Each change builds a new trie, sharing
+ * all unchanged nodes with the previous one, and publishes it through a volatile field.
+ * `snapshot()` therefore returns a consistent view in O(1) which readers on any thread can
+ * use without locking, while the single writer continues to make changes.
+ * Stations held by the trie are never modified: `get()` returns a copy which the caller
+ * passes back to `put()` once modified. Writes must be serialized by the caller.
+ */
+class MemoryStationStore implements StationStore {
+    // individual changes are journaled rather than rewriting every station on each change
+    private final StationJournal journal;
+    // the published catalog. Replaced, never modified, on each change.
+    private volatile StationTrie stations;
+
+    public MemoryStationStore() {
+        this(new StationLoader());
+    }
+
+    MemoryStationStore(StationLoader storage) {
+        this(storage, new StationJournal(storage));
+    }
+
+    MemoryStationStore(StationLoader storage, StationJournal journal) {
+        Objects.requireNonNull(storage);
+        this.journal = Objects.requireNonNull(journal);
+        // retrieve any stations stored from previous runs.
+        StationTrie.Builder builder = StationTrie.builder();
+        storage.getStations().forEach(builder::put);
+        // apply any changes made since the last snapshot was written
+        int replayed = journal.replay(builder::put, builder::remove);
+        stations = builder.build(0);
+        if (replayed > 0) {
+            journal.requestCompaction(stations.stations());
+        }
+    }
+
+    /**
+     * Returns a copy of the station with the given ID. Stations held by the catalog are
+     * shared with published snapshots so must not be modified in place.
+     * @param id a station ID
+     * @return a copy of the station with the given ID, else null if no such station exists.
+     */
+    @Override
+    public MutableStation get(int id) {
+        MutableStation s = stations.get(id);
+        return s == null ? null : s.copy();
+    }
+
+    /**
+     * Stores the station and journals its state. Only the given station is
+     * written, the cost of this operation does not depend on the number of stations.
+     * The station is published to readers so must not be modified after this call.
+     * @param station the station to be stored
+     */
+    @Override
+    public void put(MutableStation station) {
+        Objects.requireNonNull(station);
+        stations = stations.with(station);
+        journal.recordPut(station);
+        compactStorageIfRequired();
+    }
+
+    /**
+     * Stores and removes the given stations, journaling every change in a single
+     * batch record so the changes are replayed all together or not at all.
+     * Readers see either none or all of the changes.
+     * @param puts stations to be stored
+     * @param removals IDs of stations to be removed
+     */
+    @Override
+    public void putAll(Collection<? extends MutableStation> puts, Collection<Integer> removals) {
+        StationTrie updated = stations;
+        for (int id : removals) {
+            updated = updated.without(id);
+        }
+        for (MutableStation s : puts) {
+            updated = updated.with(Objects.requireNonNull(s));
+        }
+        stations = updated;
+        journal.recordBatch(puts, removals);
+        compactStorageIfRequired();
+    }
+
+    @Override
+    public boolean remove(int id) {
+        StationTrie updated = stations.without(id);
+        if (updated != stations) {
+            stations = updated;
+            journal.recordRemove(id);
+            compactStorageIfRequired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return stations.get(id) != null;
+    }
+
+    @Override
+    public int highestId() {
+        return stations.highestId();
+    }
+
+    @Override
+    public int size() {
+        return stations.size();
+    }
+
+    @Override
+    public void forEach(Consumer<? super MutableStation> action) {
+        stations.forEachStation(action);
+    }
+
+    /**
+     * Returns the current catalog. The snapshot is immutable, so is unaffected by later changes.
+     * @return the current catalog
+     */
+    @Override
+    public StationSnapshot snapshot() {
+        return stations;
+    }
+
+    /**
+     * Compacts the journal into a final snapshot and stops the journal writer.
+     */
+    @Override
+    public void close() {
+        journal.close(stations.stations());
+    }
+
+    /**
+     * Folds the journal into a full snapshot once it has grown large enough.
+     * The snapshot is written in the background. Since the catalog is immutable the
+     * current trie can be handed to the writer without copying any stations.
+     */
+    private void compactStorageIfRequired() {
+        if (journal.needsCompaction()) {
+            journal.requestCompaction(stations.stations());
+        }
+    }
+}
@@ -7,6 +7,18 @@ package codes.lemon.netradio.model;
  * Station instances without making defensive copies.
  */
 interface MutableStation extends Station {
+    /**
+     * Sets the name of this station.
+     * @param name the new name of this station, must not be null.
+     */
+    void setStationName(String name);
+
+    /**
+     * Sets the URI used as the source of this stations audio stream.
+     * @param uri the new source of this station, must not be null.
+     */
+    void setUri(String uri);
+
     /**
      * Sets the bitrate at which the current station plays at.
      * @param bitrate bitrate of current station
@@ -35,4 +47,10 @@ interface MutableStation extends Station {
      */
     void markPlayed();
 
+    /**
+     * Returns an independent copy of this station. Changes made to either station
+     * are not reflected in the other.
+     * @return a copy of this station
+     */
+    MutableStation copy();
 }
@@ -3,9 +3,13 @@ package codes.lemon.netradio.model;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 
 /**
@@ -14,16 +18,32 @@ import java.util.*;
  * playback is occurring). Allows users to favourite, remove and add stations.
  */
 public class NetRadioPlayer implements RadioPlayer{
+    // number of favourites prefetched after the requested stations
+    private static final int PREFETCHED_FAVOURITES = 2;
+    private static final String PLAYBACK_STATS_FILE_PATH = "./.netradio-playback.properties";
 
     private final StreamPlayer playback = new StreamPlayerGStreamer();
     private final StationManager stations = new StationManager();  // loads stations from last run
-    private Station currentStation;
+    private final PlaybackStatsFile playbackStats = new PlaybackStatsFile(new File(PLAYBACK_STATS_FILE_PATH));
+    private final StationLatencies latencies = new StationLatencies();
+    private final StationBuffers buffers = new StationBuffers();
+    // the station last set. Written by the FX thread, read by the thread delivering stream tags.
+    // Only its ID is relied upon, see getCurrentStation().
+    private volatile Station currentStation;
+    // written by the thread delivering bus messages
+    private volatile PlaybackTimeline lastTimeline;
     private int volume = RadioPlayer.MAX_VOLUME;
+    private boolean prefetchEnabled = Boolean.getBoolean("netradio.prefetch");
 
     public NetRadioPlayer() {
         setVolume(RadioPlayer.MAX_VOLUME);
         // Subscribe to stream metadata
         subscribeToTagUpdates();
+        Properties stats = playbackStats.load();
+        latencies.load(stats);
+        buffers.load(stats);
+        playback.subscribeToPlaybackTimelines(this::recordTimeline);
+        playback.subscribeToUnderruns(this::recordUnderrun);
     }
 
     /**
@@ -37,12 +57,14 @@ public class NetRadioPlayer implements RadioPlayer{
             public void propertyChange(PropertyChangeEvent evt) {
                 // only update station details if they are derived from real-time playback
                 // we do not want to reset station details when tags are reset on station change or playback stop.
-                if (currentStation != null && getObservableMetadata().getStreamUri().equals(currentStation.getUri())
+                // compared by canonical URI, as the stream may report its URI in another form
+                Station current = getCurrentStation();
+                if (current != null && StationUris.sameStream(getObservableMetadata().getStreamUri(), current.getUri())
                         && playback.isPlaying()) {
                     String type = evt.getPropertyName();
                     switch (type) {
-                        case ObservableMetadata.PROP_GENRE -> stations.setGenre(currentStation.getStationID(), (String) evt.getNewValue());
-                        case ObservableMetadata.PROP_BITRATE -> stations.setBitrate(currentStation.getStationID(), (int) evt.getNewValue());
+                        case ObservableMetadata.PROP_GENRE -> stations.setGenre(current.getStationID(), (String) evt.getNewValue());
+                        case ObservableMetadata.PROP_BITRATE -> stations.setBitrate(current.getStationID(), (int) evt.getNewValue());
                         // TODO: consider other cases
                     }
                 }
@@ -50,6 +72,44 @@ public class NetRadioPlayer implements RadioPlayer{
         });
     }
 
+    /**
+     * Records the time to first audio of a playback start against the station played and
+     * persists the updated histograms. Called on the thread delivering bus messages.
+     * @param timeline the timeline of a playback start
+     */
+    private void recordTimeline(PlaybackTimeline timeline) {
+        lastTimeline = timeline;
+        Station played = stations.findStationByUri(timeline.getUri());
+        if (played == null || !timeline.isComplete()) {
+            return;
+        }
+        latencies.record(played.getStationID(), timeline.getTimeToFirstAudio());
+        savePlaybackStats();
+    }
+
+    /**
+     * Records an underrun of the station playing, growing its buffer, and persists the
+     * learned buffer. Called on the thread which ended the underrun.
+     * @param stall how long playback was paused for
+     */
+    private void recordUnderrun(Duration stall) {
+        if (buffers.underrun(stall)) {
+            savePlaybackStats();
+        }
+    }
+
+    /**
+     * Writes the playback statistics of every station still in the catalog, keeping any
+     * other statistics in the file.
+     */
+    private synchronized void savePlaybackStats() {
+        Properties properties = playbackStats.load();
+        IntPredicate exists = id -> stations.getStation(id) != null;
+        latencies.store(properties, exists);
+        buffers.store(properties, exists);
+        playbackStats.store(properties);
+    }
+
     /**
      * Select the station to be played.
      * @param id the unique identifier for a station
@@ -58,8 +118,16 @@ public class NetRadioPlayer implements RadioPlayer{
     public void setStation(int id) {
         Station s = stations.getStation(id);
         if (s != null) {
+            // playback continues with the new station if the current one is playing
+            boolean resumePlay = playback.isPlaying();
+            // set first so a reused pipeline connects with the stations buffer
+            playback.setBufferDuration(buffers.durationMillis(id));
+            // underruns in progress are reported by setSource(), so the play is ended after it
             playback.setSource(s.getUri());
             currentStation = s;
+            if (resumePlay ? buffers.begin(id) : buffers.end()) {
+                savePlaybackStats();
+            }
         }
         else {
             throw new IllegalArgumentException("invalid ID supplied");
@@ -73,6 +141,9 @@ public class NetRadioPlayer implements RadioPlayer{
     public void play() {
         if (currentStation != null) {
             playback.play();
+            if (buffers.begin(currentStation.getStationID())) {
+                savePlaybackStats();
+            }
             stations.markPlayed(currentStation.getStationID());
         }
     }
@@ -83,7 +154,11 @@ public class NetRadioPlayer implements RadioPlayer{
     @Override
     public void stop() {
         if (currentStation != null) {
+            // underruns in progress are reported by stop(), so the play is ended after it
             playback.stop();
+            if (buffers.end()) {
+                savePlaybackStats();
+            }
         }
 
     }
@@ -117,12 +192,20 @@ public class NetRadioPlayer implements RadioPlayer{
 
     /**
      * Returns details of the current station as a Station instance.
+     * Stores hand out copies, so the station is looked up on each call to reflect every
+     * change made since it was set, such as plays and stream tags. If it has since been
+     * removed, its details when last seen are returned.
      *
      * @return the current station
      */
     @Override
     public Station getCurrentStation() {
-        return currentStation;
+        Station current = currentStation;
+        if (current == null) {
+            return null;
+        }
+        Station latest = stations.getStation(current.getStationID());
+        return latest != null ? latest : current;
     }
 
     /**
@@ -137,11 +220,12 @@ public class NetRadioPlayer implements RadioPlayer{
 
     /**
      * Add a station to the player. Requires a name for the station and a
-     * URI pointing to an audio source for that station.
+     * URI pointing to an audio source for that station. Stations already in the
+     * player are not added twice.
      *
      * @param name the name of the new station
      * @param uri  points to an audio source for the new station
-     * @return the ID given to the newly added station
+     * @return the ID given to the newly added station, else the ID of the existing station
      */
     @Override
     public int addStation(String name, String uri) {
@@ -150,6 +234,70 @@ public class NetRadioPlayer implements RadioPlayer{
         return stations.addStation(name, uri);
     }
 
+    /**
+     * Adds many stations at once. The new stations are persisted together and each is
+     * assigned a unique ID. All details of the given stations other than their IDs are kept.
+     *
+     * @param stations details of the stations to be added. Their IDs are ignored.
+     * @return the IDs given to the new stations, in the order the stations were supplied
+     */
+    @Override
+    public List<Integer> addStations(Collection<? extends Station> stations) {
+        stations = Objects.requireNonNull(stations);
+        for (Station s : stations) {
+            Objects.requireNonNull(s.getStationName());
+            Objects.requireNonNull(s.getUri());
+        }
+        return this.stations.addStations(stations);
+    }
+
+    /**
+     * Returns the station playing the stream at the given URI, however the URI is written.
+     *
+     * @param uri a stream URI
+     * @return the station playing the stream, else null.
+     */
+    @Override
+    public Station findStationByUri(String uri) {
+        uri = Objects.requireNonNull(uri);
+        return stations.findStationByUri(uri);
+    }
+
+    /**
+     * Merges duplicate stations across the catalog.
+     *
+     * @return the IDs of the removed duplicates, keyed by the ID of the station they were merged into
+     */
+    @Override
+    public Map<Integer, List<Integer>> deduplicateStations() {
+        Map<Integer, List<Integer>> merged = stations.deduplicate();
+        Station current = currentStation;
+        if (current != null) {
+            // follow the current station if it was merged into another
+            merged.forEach((kept, removed) -> {
+                if (removed.contains(current.getStationID())) {
+                    currentStation = stations.getStation(kept);
+                }
+            });
+        }
+        return merged;
+    }
+
+    /**
+     * Imports the stations listed in a CSV, JSON, M3U or PLS directory file.
+     *
+     * @param file the directory file
+     * @param progress notified on the calling thread as the import progresses
+     * @return the final progress of the import
+     * @throws IOException if the file can not be read or is malformed
+     */
+    @Override
+    public ImportProgress importStations(File file, Consumer<ImportProgress> progress) throws IOException {
+        file = Objects.requireNonNull(file);
+        progress = Objects.requireNonNull(progress);
+        return new StationImporter(stations).importFrom(file, progress);
+    }
+
     /**
      * Permanently remove a station from the player.
      *
@@ -161,6 +309,50 @@ public class NetRadioPlayer implements RadioPlayer{
         return stations.removeStation(id);
     }
 
+    /**
+     * Updates the details of an existing station. The stations ID, play count,
+     * bitrate and genre are preserved.
+     *
+     * @param id        the unique ID of the station to be updated
+     * @param name      the new name of the station
+     * @param uri       the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @return true if the station was updated, else false if no such station exists.
+     * @throws IllegalArgumentException if another station already plays the stream at uri
+     */
+    @Override
+    public boolean updateStation(int id, String name, String uri, boolean favourite) {
+        uri = Objects.requireNonNull(uri);
+        name = Objects.requireNonNull(name);
+        return stations.updateStation(id, name, uri, favourite);
+    }
+
+    /**
+     * Applies many station changes as a single unit. The given Consumer stages changes
+     * through a StationBatch which are then applied together and persisted once. If the
+     * Consumer throws, including when a staged change fails validation, no changes are applied.
+     *
+     * @param changes populates the batch
+     * @return true if any station was changed, else false.
+     */
+    @Override
+    public boolean applyBatch(Consumer<StationBatch> changes) {
+        changes = Objects.requireNonNull(changes);
+        return stations.applyBatch(changes);
+    }
+
+    /**
+     * Subscribe to be notified when stations are changed by another process sharing
+     * the station file. Listeners are notified on a background thread.
+     *
+     * @param listener the listener to be notified
+     */
+    @Override
+    public void subscribeToExternalChanges(ExternalChangeListener listener) {
+        listener = Objects.requireNonNull(listener);
+        stations.addExternalChangeListener(listener);
+    }
+
     /**
      * Sets the `Favourite` status of a given station. When true,
      * that station is considered a favourite. When false, the
@@ -188,6 +380,313 @@ public class NetRadioPlayer implements RadioPlayer{
         return stations.findStation(searchTerm);
     }
 
+    /**
+     * Searches for stations similar to the given query, tolerating typos and ignoring case
+     * and diacritics. Results are ranked by match quality, play count and favourite status.
+     *
+     * @param query the search query
+     * @param maxResults the maximum number of stations to return
+     * @return up to maxResults stations, best match first
+     */
+    @Override
+    public List<Station> searchStations(String query, int maxResults) {
+        query = Objects.requireNonNull(query);
+        if (maxResults < 0) {
+            throw new IllegalArgumentException("Negative maxResults");
+        }
+        return stations.searchStations(query, maxResults);
+    }
+
+    /**
+     * Returns a new StationSearch for searching as the user types.
+     *
+     * @return a new StationSearch
+     */
+    @Override
+    public StationSearch newStationSearch() {
+        return new StationSearch(stations);
+    }
+
+    /**
+     * Returns the stations matching a query, along with facet counts over every match.
+     *
+     * @param query the query to be answered
+     * @return the matching stations and facet counts
+     */
+    @Override
+    public StationQueryResult queryStations(StationQuery query) {
+        query = Objects.requireNonNull(query);
+        return stations.queryStations(query);
+    }
+
+    /**
+     * Enables or disables prefetching. Disabling prefetching releases every prefetched stream.
+     *
+     * @param enabled true to enable prefetching, else false
+     */
+    @Override
+    public void setPrefetchEnabled(boolean enabled) {
+        prefetchEnabled = enabled;
+        if (!enabled) {
+            playback.prefetch(Collections.emptyList());
+        }
+    }
+
+    /**
+     * @return true if prefetching is enabled, else false.
+     */
+    @Override
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    /**
+     * Prefetches the given stations followed by the most played favourites.
+     * Unknown IDs are ignored.
+     *
+     * @param ids IDs of the stations to be prefetched, most likely to be played next first
+     */
+    @Override
+    public void prefetchStations(List<Integer> ids) {
+        Objects.requireNonNull(ids);
+        if (!prefetchEnabled) {
+            return;
+        }
+        List<String> uris = new ArrayList<>();
+        for (int id : ids) {
+            Station s = stations.getStation(id);
+            if (s != null) {
+                uris.add(s.getUri());
+            }
+        }
+        StationQuery favourites = StationQuery.builder()
+                .favourite(true)
+                .sortBy(StationQuery.SortKey.PLAY_COUNT, true)
+                .limit(PREFETCHED_FAVOURITES)
+                .build();
+        for (Station s : stations.queryStations(favourites).getStations()) {
+            uris.add(s.getUri());
+        }
+        playback.prefetch(uris);
+    }
+
+    /**
+     * Returns the most played stations, most played first.
+     *
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    @Override
+    public List<Station> getMostPlayed(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative n");
+        }
+        return stations.getMostPlayed(n);
+    }
+
+    /**
+     * Returns the stations played most lately, with the weight of each play decaying over time.
+     *
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    @Override
+    public List<Station> getTrending(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative n");
+        }
+        return stations.getTrending(n);
+    }
+
+    /**
+     * Creates a smart list, or replaces the query of an existing one, and persists it.
+     *
+     * @param name name of the list
+     * @param query query defining the stations in the list
+     */
+    @Override
+    public void saveSmartList(String name, StationQuery query) {
+        name = Objects.requireNonNull(name);
+        query = Objects.requireNonNull(query);
+        stations.saveSmartList(name, query);
+    }
+
+    /**
+     * Permanently removes a smart list.
+     *
+     * @param name name of the list
+     * @return true if the list was removed, else false if no such list exists.
+     */
+    @Override
+    public boolean removeSmartList(String name) {
+        name = Objects.requireNonNull(name);
+        return stations.removeSmartList(name);
+    }
+
+    /**
+     * Returns every smart list.
+     *
+     * @return the query of each smart list by name, in the order the lists were created
+     */
+    @Override
+    public Map<String, StationQuery> getSmartLists() {
+        return stations.getSmartLists();
+    }
+
+    /**
+     * Returns the stations in a smart list.
+     *
+     * @param name name of the list
+     * @return the stations in the list in the order and up to the limit of its query
+     */
+    @Override
+    public List<Station> getSmartList(String name) {
+        name = Objects.requireNonNull(name);
+        List<Station> contents = stations.getSmartList(name);
+        if (contents == null) {
+            throw new IllegalArgumentException("No smart list named " + name);
+        }
+        return contents;
+    }
+
+    /**
+     * Subscribe to the rows inserted into, updated within and removed from a smart list.
+     *
+     * @param name name of the list
+     * @param listener the listener to be notified
+     * @return the current contents of the list
+     */
+    @Override
+    public List<Station> subscribeToSmartList(String name, SmartListListener listener) {
+        name = Objects.requireNonNull(name);
+        listener = Objects.requireNonNull(listener);
+        List<Station> contents = stations.subscribeToSmartList(name, listener);
+        if (contents == null) {
+            throw new IllegalArgumentException("No smart list named " + name);
+        }
+        return contents;
+    }
+
+    /**
+     * Stop notifying a listener of changes to a smart list.
+     *
+     * @param name name of the list
+     * @param listener a subscribed listener
+     */
+    @Override
+    public void unsubscribeFromSmartList(String name, SmartListListener listener) {
+        stations.unsubscribeFromSmartList(name, listener);
+    }
+
+    /**
+     * Returns the changes made to the station catalog after the given sequence number.
+     *
+     * @param sequence sequence number of the last change applied, or 0 to start from the beginning
+     * @return the changes since `sequence`, else a resync marker
+     */
+    @Override
+    public StationChanges getChangesSince(long sequence) {
+        return stations.getChangesSince(sequence);
+    }
+
+    /**
+     * Returns the sequence number of the latest change to the station catalog.
+     *
+     * @return the latest sequence number, else 0 if the catalog has not changed
+     */
+    @Override
+    public long getLatestChangeSequence() {
+        return stations.getLatestChangeSequence();
+    }
+
+    /**
+     * Returns hit rate and related counters of the query cache.
+     *
+     * @return a snapshot of the query cache counters
+     */
+    @Override
+    public QueryCacheStats getQueryCacheStats() {
+        return stations.getQueryCacheStats();
+    }
+
+    /**
+     * Returns when each stage of the most recent playback start was reached.
+     *
+     * @return the timeline of the last playback start, else null if playback has not started
+     */
+    @Override
+    public PlaybackTimeline getLastPlaybackTimeline() {
+        return lastTimeline;
+    }
+
+    /**
+     * Returns a histogram of the time a station has taken to start playing.
+     *
+     * @param stationId the unique ID for a station
+     * @return the stations startup latency, else null if it has never started playing
+     */
+    @Override
+    public LatencyHistogram getStartupLatency(int stationId) {
+        return latencies.get(stationId);
+    }
+
+    /**
+     * Returns the stations which are slowest to start playing, slowest first.
+     *
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    @Override
+    public List<Station> getSlowestStations(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative n");
+        }
+        List<Station> slowest = new ArrayList<>();
+        // histograms of removed stations are only discarded when next saved
+        for (int id : latencies.slowest(Integer.MAX_VALUE)) {
+            if (slowest.size() == n) {
+                break;
+            }
+            Station s = stations.getStation(id);
+            if (s != null) {
+                slowest.add(s);
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Returns the underruns of every station since the player was created.
+     *
+     * @return a snapshot of the underrun counters
+     */
+    @Override
+    public UnderrunStats getUnderrunStats() {
+        return buffers.total();
+    }
+
+    /**
+     * Returns the underruns of a station since the player was created.
+     *
+     * @param stationId the unique ID for a station
+     * @return a snapshot of the stations underrun counters
+     */
+    @Override
+    public UnderrunStats getUnderrunStats(int stationId) {
+        return buffers.stats(stationId);
+    }
+
+    /**
+     * Returns the length of audio buffered for a station, as learned from its underruns.
+     *
+     * @param stationId the unique ID for a station
+     * @return the length of audio buffered in milliseconds
+     */
+    @Override
+    public long getBufferDuration(int stationId) {
+        return buffers.durationMillis(stationId);
+    }
+
     /**
      * Get the specified stations details as a Station instance
      *
@@ -253,6 +752,7 @@ public class NetRadioPlayer implements RadioPlayer{
     @Override
     public void shutdown() {
         stop();
+        playback.dispose();
         stations.shutdown();
     }
 }
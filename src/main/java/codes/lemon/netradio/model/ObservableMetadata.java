@@ -279,4 +279,27 @@ public class ObservableMetadata implements java.io.Serializable {
         setOrganisation("");
         setTitle("");
     }
+
+    /**
+     * Sets every property to the value held by another instance.
+     * All PropertyChangeListeners are notified of the updates.
+     * @param other the instance whose values are copied
+     */
+    void copyFrom(ObservableMetadata other) {
+        setStreamUri(other.streamUri);
+        setAudioCodec(other.audioCodec);
+        setBitrate(other.bitrate);
+        setCity(other.city);
+        setChannelMode(other.channelMode);
+        setCountry(other.country);
+        setContainerFormat(other.containerFormat);
+        setEncoder(other.encoder);
+        setEncoderVersion(other.encoderVersion);
+        setExtendedComment(other.extendedComment);
+        setGenre(other.genre);
+        setHomepage(other.homepage);
+        setNominalBitrate(other.nominalBitrate);
+        setOrganisation(other.organisation);
+        setTitle(other.title);
+    }
 }
@@ -0,0 +1,1155 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A StationStore for catalogs which are too large to hold in memory.
+ * Stations are kept on disk in two files:
+ *  - an index file containing a B+tree of fixed size pages, keyed by station ID. Each
+ *    leaf entry points to the latest record for a station in the data file.
+ *  - a data file to which encoded station records are appended.
+ * Index pages are read through an LRU page cache so only recently used pages stay resident.
+ * Stations are decoded from the data file on request, so heap usage is bounded by the size
+ * of the page cache rather than the size of the catalog.
+ *
+ * Changes are applied to the page cache and data file by the caller, and committed by a
+ * background flusher thread. The flusher commits every change made since its last commit
+ * together (group commit), so callers never wait on disk I/O. A crash loses only the changes
+ * which had not been committed, those made in the moments before it. `close()` commits
+ * anything outstanding before returning.
+ * Committed index pages are never modified in place. A change writes new copies of the
+ * pages along its root -> leaf path (shadow paging) and the pages they replace are only
+ * reused once the change has committed. A commit writes the new pages under the store lock,
+ * then forces the data file and the new pages to disk and writes the metadata (root page,
+ * page count, size and data length) to whichever of the two metadata slots holds the older
+ * generation and forces it too, without holding the lock. On opening, the newest slot with
+ * a valid checksum is used, so a crash at any point leaves the store as of its last commit.
+ * Records appended to the data file after the last commit are ignored and overwritten.
+ *
+ * Removing a station removes its leaf entry without rebalancing the tree, and modified
+ * stations are appended rather than overwritten. Both leave unused space behind. Once the
+ * data file holds more superseded records than live ones, the store is compacted: the live
+ * records are copied in ID order to a new data file, a packed index is built over them and
+ * both replace the originals. The index is renamed into place first and records which data
+ * file it belongs to, so a compaction interrupted between the two renames is completed the
+ * next time the store is opened.
+ * Compaction is performed by the flusher after a commit.
+ * On first use an existing catalog is imported from StationLoader.
+ *
+ * This class is thread safe.
+ */
+class PagedStationStore implements StationStore {
+    private static final String INDEX_FILE_PATH = "./.netradio-stations.idx";
+    private static final String DATA_FILE_PATH = "./.netradio-stations.dat";
+    // suffix of the files a compaction is written to before they replace the originals
+    private static final String COMPACTION_SUFFIX = ".compact";
+    private static final int DEFAULT_CACHED_PAGES = 256;
+    // smallest cache able to hold every page along the deepest root -> leaf path twice over
+    private static final int MIN_CACHED_PAGES = 16;
+    // superseded records are left in the data file until they take up more than this, and
+    // more than the live records
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+    // delay before a failed commit is retried
+    private static final long RETRY_MILLIS = 1_000;
+
+    static final int PAGE_SIZE = 4096;
+    private static final int MAGIC = 0x4E524254;  // "NRBT"
+    private static final int VERSION = 2;
+    // page 0 holds the metadata slots, one in each half
+    private static final int META_SLOT_SIZE = PAGE_SIZE / 2;
+    // magic, version, generation, root, page count, size, data length, live bytes, data epoch, CRC32
+    private static final int META_SIZE = 56;
+    private static final int FIRST_PAGE = 1;
+    private static final int DATA_MAGIC = 0x4E524454;  // "NRDT"
+    // magic (int), epoch (long), padding
+    private static final int DATA_HEADER_SIZE = 16;
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    // type (byte), pad (byte), count (short), next leaf (int, unused since version 2)
+    private static final int NODE_HEADER_SIZE = 8;
+    // leaf entry: key (int), record offset (long), record length (int)
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - NODE_HEADER_SIZE) / 16;
+    // internal node: child (int) followed by key (int) per entry, plus one trailing child
+    private static final int INTERNAL_CAPACITY = (PAGE_SIZE - NODE_HEADER_SIZE - 4) / 8;
+    private static final int NO_PAGE = -1;
+
+    private final File indexFile;
+    private final File dataFile;
+    private final PageCache cache;
+    private FileChannel index;
+    private FileChannel data;
+    private int root;
+    private int pageCount;
+    private int size;
+    private long dataLength;
+    // bytes of the data file held by the latest record of each station
+    private long liveBytes;
+    // identifies the data file the index points into. Incremented by each compaction.
+    private long dataEpoch;
+    // generation of the last commit. Commits alternate between the metadata slots.
+    private long generation;
+    // true if changes have been made since the last commit was prepared
+    private boolean uncommitted = false;
+    // pages allocated since the last commit was prepared. These are modified in place.
+    private final BitSet fresh = new BitSet();
+    // committed pages replaced since the last commit was prepared. Reusable once a commit
+    // covering their replacement completes.
+    private final BitSet superseded = new BitSet();
+    // pages not reachable from the committed tree, used before the index is extended
+    private final BitSet free = new BitSet();
+    private long version = 0;  // incremented on every change, not persisted
+    // commits changes in the background. Waits on this for changes to be made.
+    private final Thread flusher;
+    private boolean closing = false;
+
+    public PagedStationStore() {
+        this(new File(INDEX_FILE_PATH), new File(DATA_FILE_PATH), DEFAULT_CACHED_PAGES, new StationLoader());
+    }
+
+    /**
+     * Opens (or creates) a paged store.
+     * @param indexFile location of the B+tree index
+     * @param dataFile location of station records
+     * @param cachedPages maximum number of index pages held in memory
+     * @param importFrom source of stations used to populate a newly created store
+     */
+    PagedStationStore(File indexFile, File dataFile, int cachedPages, StationLoader importFrom) {
+        this.indexFile = Objects.requireNonNull(indexFile);
+        this.dataFile = Objects.requireNonNull(dataFile);
+        cache = new PageCache(Math.max(cachedPages, MIN_CACHED_PAGES));
+        try {
+            openFiles();
+            if (readMeta()) {
+                recover();
+            }
+            else {
+                // new, or never committed, so the catalog is still held by StationLoader
+                if (index.size() > 0) {
+                    System.out.println("INFO: Station index was never committed. Rebuilding it");
+                }
+                create();
+                for (MutableStation s : Objects.requireNonNull(importFrom).getStations()) {
+                    insertStation(s);
+                }
+                commit();
+                StationLoader.syncDirectory(indexFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to open station store", e);
+        }
+        flusher = new Thread(this::flushLoop, "netradio-store-flusher");
+        // never prevent the JVM from exiting. close() commits outstanding changes before exit.
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public synchronized MutableStation get(int id) {
+        Node leaf = findLeaf(id);
+        int i = Arrays.binarySearch(leaf.keys, 0, leaf.count, id);
+        if (i < 0) {
+            return null;
+        }
+        return readStation(leaf.offsets[i], leaf.lengths[i]);
+    }
+
+    @Override
+    public synchronized void put(MutableStation station) {
+        Objects.requireNonNull(station);
+        insertStation(station);
+        notifyAll();
+    }
+
+    /**
+     * Applies every change under the store lock, so they are committed together.
+     * @param puts stations to be stored
+     * @param removals IDs of stations to be removed
+     */
+    @Override
+    public synchronized void putAll(Collection<? extends MutableStation> puts, Collection<Integer> removals) {
+        removals.forEach(this::removeStation);
+        puts.forEach(this::insertStation);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean remove(int id) {
+        boolean removed = removeStation(id);
+        if (removed) {
+            notifyAll();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean contains(int id) {
+        Node leaf = findLeaf(id);
+        return Arrays.binarySearch(leaf.keys, 0, leaf.count, id) >= 0;
+    }
+
+    /**
+     * Follows the rightmost path through the tree. Leaves emptied by removals are not
+     * merged into their siblings, so empty leaves are skipped from right to left.
+     * @return the highest ID in use, else -1 if the store is empty
+     */
+    @Override
+    public synchronized int highestId() {
+        return highestId(root);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visits every station in ID order by walking the tree depth first.
+     * Only the pages along one root -> leaf path and one station are required in memory at a time.
+     * @param action action to be performed for each station
+     */
+    @Override
+    public synchronized void forEach(Consumer<? super MutableStation> action) {
+        forEachLeaf(root, leaf -> {
+            for (int i = 0; i < leaf.count; i++) {
+                action.accept(readStation(leaf.offsets[i], leaf.lengths[i]));
+            }
+        });
+    }
+
+    /**
+     * The catalog is too large to copy, so a live view is returned which reads through
+     * to this store.
+     * @return a live view of the catalog
+     */
+    @Override
+    public StationSnapshot snapshot() {
+        return new LiveStationSnapshot(this, this, () -> version);
+    }
+
+    /**
+     * Stops the flusher, then commits any outstanding changes and closes the store files.
+     * @throws UncheckedIOException if the outstanding changes could not be committed
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try (FileChannel closeIndex = index; FileChannel closeData = data) {
+                commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException("unable to commit station store", e);
+            }
+        }
+    }
+
+    /*-------------------------------
+    |            B+TREE             |
+    -------------------------------*/
+
+    /**
+     * Descends from the root to the leaf which does (or would) contain the given key.
+     */
+    private Node findLeaf(int key) {
+        Node node = load(root);
+        while (node.type == INTERNAL) {
+            node = load(node.children[childIndex(node, key)]);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the position of the child which covers the given key. Child i holds keys
+     * greater than or equal to keys[i - 1] and less than keys[i].
+     */
+    private static int childIndex(Node node, int key) {
+        int i = Arrays.binarySearch(node.keys, 0, node.count, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private int highestId(int page) {
+        Node node = load(page);
+        if (node.type == LEAF) {
+            return node.count > 0 ? node.keys[node.count - 1] : -1;
+        }
+        for (int i = node.count; i >= 0; i--) {
+            int highest = highestId(node.children[i]);
+            if (highest >= 0) {
+                return highest;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Visits every leaf of the subtree rooted at the given page, in key order.
+     */
+    private void forEachLeaf(int page, Consumer<Node> action) {
+        Node node = load(page);
+        if (node.type == LEAF) {
+            action.accept(node);
+            return;
+        }
+        for (int i = 0; i <= node.count; i++) {
+            forEachLeaf(node.children[i], action);
+        }
+    }
+
+    /**
+     * Appends a station record and points the tree at it, without committing.
+     */
+    private void insertStation(MutableStation station) {
+        byte[] record = StationRecordCodec.encode(station);
+        long offset = appendRecord(record);
+        version++;
+        uncommitted = true;
+        Node top = writable(load(root));
+        root = top.page;
+        Split split = insert(top, station.getStationID(), offset, record.length);
+        if (split != null) {
+            // the root has been split. Grow the tree by one level.
+            Node newRoot = allocate(INTERNAL);
+            newRoot.children[0] = root;
+            newRoot.keys[0] = split.key;
+            newRoot.children[1] = split.page;
+            newRoot.count = 1;
+            root = newRoot.page;
+        }
+    }
+
+    /**
+     * Removes a stations leaf entry, without committing. The path to the leaf is only
+     * copied if the station exists.
+     */
+    private boolean removeStation(int id) {
+        if (!contains(id)) {
+            return false;
+        }
+        Node node = writable(load(root));
+        root = node.page;
+        while (node.type == INTERNAL) {
+            int child = childIndex(node, id);
+            Node next = writable(load(node.children[child]));
+            node.children[child] = next.page;
+            markDirty(node);
+            node = next;
+        }
+        int i = Arrays.binarySearch(node.keys, 0, node.count, id);
+        liveBytes -= node.lengths[i];
+        int following = node.count - i - 1;
+        System.arraycopy(node.keys, i + 1, node.keys, i, following);
+        System.arraycopy(node.offsets, i + 1, node.offsets, i, following);
+        System.arraycopy(node.lengths, i + 1, node.lengths, i, following);
+        node.count--;
+        markDirty(node);
+        size--;
+        version++;
+        uncommitted = true;
+        return true;
+    }
+
+    /**
+     * Inserts or replaces a leaf entry within the subtree rooted at the given node, copying
+     * each page on the way down which has already been committed.
+     * @param node a node allocated since the last commit
+     * @return details of the new sibling if the node had to be split, else null
+     */
+    private Split insert(Node node, int key, long offset, int length) {
+        if (node.type == LEAF) {
+            int i = Arrays.binarySearch(node.keys, 0, node.count, key);
+            if (i >= 0) {
+                liveBytes += length - node.lengths[i];
+                node.offsets[i] = offset;
+                node.lengths[i] = length;
+                markDirty(node);
+                return null;
+            }
+            i = -i - 1;
+            int following = node.count - i;
+            System.arraycopy(node.keys, i, node.keys, i + 1, following);
+            System.arraycopy(node.offsets, i, node.offsets, i + 1, following);
+            System.arraycopy(node.lengths, i, node.lengths, i + 1, following);
+            node.keys[i] = key;
+            node.offsets[i] = offset;
+            node.lengths[i] = length;
+            node.count++;
+            size++;
+            liveBytes += length;
+            markDirty(node);
+            return node.count > LEAF_CAPACITY ? splitLeaf(node) : null;
+        }
+
+        int child = childIndex(node, key);
+        Node next = writable(load(node.children[child]));
+        node.children[child] = next.page;
+        markDirty(node);
+        Split split = insert(next, key, offset, length);
+        if (split == null) {
+            return null;
+        }
+        // make room for the new sibling immediately to the right of the split child
+        int following = node.count - child;
+        System.arraycopy(node.keys, child, node.keys, child + 1, following);
+        System.arraycopy(node.children, child + 1, node.children, child + 2, following);
+        node.keys[child] = split.key;
+        node.children[child + 1] = split.page;
+        node.count++;
+        markDirty(node);
+        return node.count > INTERNAL_CAPACITY ? splitInternal(node) : null;
+    }
+
+    private Split splitLeaf(Node node) {
+        Node sibling = allocate(LEAF);
+        int keep = node.count / 2;
+        int moved = node.count - keep;
+        System.arraycopy(node.keys, keep, sibling.keys, 0, moved);
+        System.arraycopy(node.offsets, keep, sibling.offsets, 0, moved);
+        System.arraycopy(node.lengths, keep, sibling.lengths, 0, moved);
+        sibling.count = moved;
+        node.count = keep;
+        markDirty(node);
+        markDirty(sibling);
+        return new Split(sibling.keys[0], sibling.page);
+    }
+
+    private Split splitInternal(Node node) {
+        Node sibling = allocate(INTERNAL);
+        int middle = node.count / 2;
+        int promoted = node.keys[middle];
+        // keys after the promoted key, and the children either side of them, move to the sibling
+        int moved = node.count - middle - 1;
+        System.arraycopy(node.keys, middle + 1, sibling.keys, 0, moved);
+        System.arraycopy(node.children, middle + 1, sibling.children, 0, moved + 1);
+        sibling.count = moved;
+        node.count = middle;
+        markDirty(node);
+        markDirty(sibling);
+        return new Split(promoted, sibling.page);
+    }
+
+    /*-------------------------------
+    |      PAGES AND COMMITTING     |
+    -------------------------------*/
+
+    private void create() throws IOException {
+        index.truncate(0);
+        data.truncate(0);
+        cache.clear();
+        fresh.clear();
+        superseded.clear();
+        free.clear();
+        generation = 0;
+        dataEpoch = 0;
+        writeDataHeader(data, dataEpoch);
+        dataLength = DATA_HEADER_SIZE;
+        liveBytes = 0;
+        size = 0;
+        pageCount = FIRST_PAGE;
+        root = allocate(LEAF).page;
+        uncommitted = true;
+    }
+
+    private Node allocate(byte type) {
+        Node node = new Node(allocatePage(), type);
+        markDirty(node);
+        return node;
+    }
+
+    /**
+     * Takes a page which is not part of the committed tree, extending the index if none is free.
+     */
+    private int allocatePage() {
+        int page = free.nextSetBit(FIRST_PAGE);
+        if (page < 0) {
+            page = pageCount++;
+        }
+        else {
+            free.clear(page);
+        }
+        fresh.set(page);
+        return page;
+    }
+
+    /**
+     * Returns a node which may be modified. Nodes allocated since the last commit are
+     * returned as they are. Committed nodes are copied to a new page, as the committed tree
+     * must stay intact until the next commit completes. The caller must point the parent
+     * of the node at the page of the copy.
+     */
+    private Node writable(Node node) {
+        if (fresh.get(node.page)) {
+            return node;
+        }
+        Node copy = new Node(allocatePage(), node);
+        superseded.set(node.page);
+        cache.remove(node.page);
+        markDirty(copy);
+        return copy;
+    }
+
+    /**
+     * Marks a node as modified. The node is (re)inserted into the cache so a node
+     * evicted while being modified cannot be lost. Only nodes allocated since the last
+     * commit are modified, so a dirty node evicted early overwrites no committed page.
+     */
+    private void markDirty(Node node) {
+        assert fresh.get(node.page) : "committed page modified in place";
+        node.dirty = true;
+        cache.put(node.page, node);
+    }
+
+    /**
+     * Body of the flusher thread. Waits for changes then commits everything changed since
+     * the previous commit. Changes made while a commit is written are left for the next.
+     * A failed commit is retried after RETRY_MILLIS, along with any later changes.
+     */
+    private void flushLoop() {
+        boolean failed = false;
+        while (true) {
+            Commit pending;
+            synchronized (this) {
+                try {
+                    if (failed && !closing) {
+                        wait(RETRY_MILLIS);
+                    }
+                    while (!uncommitted && !closing) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closing) {
+                    return;  // close() commits whatever is left
+                }
+                pending = prepareCommit();
+            }
+            failed = !pending.tryForce();
+            synchronized (this) {
+                finishCommit(pending, !failed);
+                if (!failed && needsCompaction()) {
+                    compactInBackground();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes every change since the last commit durable, on the calling thread.
+     */
+    private void commit() throws IOException {
+        if (!uncommitted) {
+            return;
+        }
+        Commit pending = prepareCommit();
+        try {
+            pending.force();
+        } catch (IOException | UncheckedIOException e) {
+            finishCommit(pending, false);
+            throw e;
+        }
+        finishCommit(pending, true);
+    }
+
+    /**
+     * Writes every page changed since the last commit and captures the metadata which
+     * points at them. From here on those pages belong to the commit, so are copied rather
+     * than modified by later changes. Called while holding the store lock.
+     * @return the commit, ready to be forced to disk
+     */
+    private Commit prepareCommit() {
+        for (Node node : cache.values()) {
+            if (node.dirty) {
+                writeNode(node);
+            }
+        }
+        long next = generation + 1;
+        Commit pending = new Commit(next, encodeMeta(next, root, pageCount, size, dataLength, liveBytes, dataEpoch),
+                (BitSet) superseded.clone());
+        superseded.clear();
+        fresh.clear();
+        uncommitted = false;
+        return pending;
+    }
+
+    /**
+     * Records the outcome of a commit. Called while holding the store lock.
+     * Pages replaced by a commit become reusable once it succeeds. If it failed they are
+     * still part of the committed tree, so are carried over to the next commit along with
+     * the changes themselves.
+     */
+    private void finishCommit(Commit pending, boolean succeeded) {
+        if (succeeded) {
+            generation = pending.generation;
+            free.or(pending.superseded);
+        }
+        else {
+            superseded.or(pending.superseded);
+            uncommitted = true;
+        }
+    }
+
+    /**
+     * Compacts the data file from the flusher. On failure the store is left as committed
+     * and compaction is tried again after the next commit.
+     */
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("INFO: Unable to compact the station store (" + e.getMessage()
+                    + "). Retrying after the next change");
+            if (!index.isOpen() || !data.isOpen()) {
+                try {
+                    reopen();
+                } catch (IOException reopenFailure) {
+                    throw new UncheckedIOException("unable to reopen station store", reopenFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the newest valid metadata slot.
+     * @return true if the metadata was read, else false if the index has never been committed
+     */
+    private boolean readMeta() {
+        ByteBuffer page = readPage(0);
+        int newest = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            int base = slot * META_SLOT_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(page.array(), base, META_SIZE - 4);
+            boolean valid = page.getInt(base) == MAGIC && page.getInt(base + 4) == VERSION
+                    && page.getInt(base + META_SIZE - 4) == (int) crc.getValue();
+            if (valid && (newest < 0 || page.getLong(base + 8) > page.getLong(newest + 8))) {
+                newest = base;
+            }
+        }
+        if (newest < 0) {
+            return false;
+        }
+        generation = page.getLong(newest + 8);
+        root = page.getInt(newest + 16);
+        pageCount = page.getInt(newest + 20);
+        size = page.getInt(newest + 24);
+        dataLength = page.getLong(newest + 28);
+        liveBytes = page.getLong(newest + 36);
+        dataEpoch = page.getLong(newest + 44);
+        return true;
+    }
+
+    private static ByteBuffer encodeMeta(long generation, int root, int pageCount, int size, long dataLength,
+                                         long liveBytes, long dataEpoch) {
+        ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+        meta.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(root).putInt(pageCount).putInt(size)
+                .putLong(dataLength).putLong(liveBytes).putLong(dataEpoch);
+        CRC32 crc = new CRC32();
+        crc.update(meta.array(), 0, META_SIZE - 4);
+        meta.putInt((int) crc.getValue());
+        return meta;
+    }
+
+    private static long metaPosition(long generation) {
+        return (generation % 2) * META_SLOT_SIZE;
+    }
+
+    /**
+     * Brings the store back to its last commit. Finishes installing a compaction which was
+     * interrupted after its index was renamed into place, removes the files of one
+     * interrupted before that, and drops anything written after the last commit.
+     */
+    private void recover() throws IOException {
+        File pendingData = compactionFile(dataFile);
+        if (dataEpoch(data) != dataEpoch) {
+            if (!pendingData.exists() || dataEpoch(pendingData) != dataEpoch) {
+                throw new IOException("station data does not belong to the station index");
+            }
+            data.close();
+            Files.move(pendingData.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            StationLoader.syncDirectory(dataFile);
+            data = open(dataFile);
+        }
+        Files.deleteIfExists(compactionFile(indexFile).toPath());
+        Files.deleteIfExists(pendingData.toPath());
+        data.truncate(dataLength);
+        index.truncate((long) pageCount * PAGE_SIZE);
+        rebuildFreePages();
+    }
+
+    /**
+     * Finds the pages which are not reachable from the root. Only internal pages are read,
+     * as every leaf is at the same depth.
+     */
+    private void rebuildFreePages() {
+        int height = 0;
+        Node node = load(root);
+        while (node.type == INTERNAL) {
+            node = load(node.children[0]);
+            height++;
+        }
+        BitSet reachable = new BitSet(pageCount);
+        markReachable(root, height, reachable);
+        free.clear();
+        free.set(FIRST_PAGE, pageCount);
+        free.andNot(reachable);
+    }
+
+    private void markReachable(int page, int height, BitSet reachable) {
+        reachable.set(page);
+        if (height == 0) {
+            return;
+        }
+        Node node = load(page);
+        for (int i = 0; i <= node.count; i++) {
+            markReachable(node.children[i], height - 1, reachable);
+        }
+    }
+
+    /*-------------------------------
+    |          COMPACTION           |
+    -------------------------------*/
+
+    private boolean needsCompaction() {
+        long garbage = dataLength - DATA_HEADER_SIZE - liveBytes;
+        return garbage > MIN_COMPACTION_BYTES && garbage > liveBytes;
+    }
+
+    /**
+     * Copies the live records to a new data file and bulk loads a packed index over them,
+     * then renames both into place, index first. The new index records the epoch of the new
+     * data file, so `recover()` can tell whether the data file was renamed too.
+     */
+    private void compact() throws IOException {
+        File indexCopy = compactionFile(indexFile);
+        File dataCopy = compactionFile(dataFile);
+        try (FileChannel newIndex = create(indexCopy); FileChannel newData = create(dataCopy)) {
+            new BulkLoad(newIndex, newData, dataEpoch + 1).run();
+            newData.force(false);
+            newIndex.force(false);
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(indexCopy.toPath());
+            Files.deleteIfExists(dataCopy.toPath());
+            throw e;
+        }
+        index.close();
+        data.close();
+        cache.clear();
+        Files.move(indexCopy.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        StationLoader.syncDirectory(indexFile);
+        Files.move(dataCopy.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        StationLoader.syncDirectory(dataFile);
+        reopen();
+    }
+
+    /**
+     * Reopens the store files after they have been replaced, recovering if needed.
+     */
+    private void reopen() throws IOException {
+        cache.clear();
+        fresh.clear();
+        superseded.clear();
+        uncommitted = false;
+        openFiles();
+        if (!readMeta()) {
+            throw new IOException("station index is not committed");
+        }
+        recover();
+    }
+
+    private static File compactionFile(File file) {
+        return new File(file.getPath() + COMPACTION_SUFFIX);
+    }
+
+    /**
+     * Writes a compacted copy of the store. Leaves are filled completely, as new stations
+     * are given the highest IDs and so are added to the rightmost leaf.
+     */
+    private final class BulkLoad {
+        private final FileChannel newIndex;
+        private final FileChannel newData;
+        private final long epoch;
+        private int nextPage = FIRST_PAGE;
+        private long length = DATA_HEADER_SIZE;
+        private int count = 0;
+        private Node leaf;
+        // the first key and page of each node on the level being built
+        private List<Integer> firstKeys = new ArrayList<>();
+        private List<Integer> pages = new ArrayList<>();
+
+        private BulkLoad(FileChannel newIndex, FileChannel newData, long epoch) {
+            this.newIndex = newIndex;
+            this.newData = newData;
+            this.epoch = epoch;
+        }
+
+        private void run() throws IOException {
+            writeDataHeader(newData, epoch);
+            leaf = new Node(nextPage++, LEAF);
+            forEachLeaf(root, old -> {
+                for (int i = 0; i < old.count; i++) {
+                    add(old.keys[i], readRecord(old.offsets[i], old.lengths[i]));
+                }
+            });
+            if (leaf.count > 0 || pages.isEmpty()) {
+                finishLeaf();
+            }
+            while (pages.size() > 1) {
+                buildLevel();
+            }
+            long live = length - DATA_HEADER_SIZE;
+            write(newIndex, encodeMeta(0, pages.get(0), nextPage, count, length, live, epoch), metaPosition(0));
+        }
+
+        private void add(int key, byte[] record) {
+            if (leaf.count == LEAF_CAPACITY) {
+                finishLeaf();
+                leaf = new Node(nextPage++, LEAF);
+            }
+            write(newData, ByteBuffer.wrap(record), length);
+            leaf.keys[leaf.count] = key;
+            leaf.offsets[leaf.count] = length;
+            leaf.lengths[leaf.count] = record.length;
+            leaf.count++;
+            length += record.length;
+            count++;
+        }
+
+        private void finishLeaf() {
+            write(newIndex, encode(leaf), (long) leaf.page * PAGE_SIZE);
+            firstKeys.add(leaf.count > 0 ? leaf.keys[0] : 0);
+            pages.add(leaf.page);
+        }
+
+        /**
+         * Builds the level of internal nodes above the nodes listed in firstKeys and pages.
+         */
+        private void buildLevel() {
+            List<Integer> upperKeys = new ArrayList<>();
+            List<Integer> upperPages = new ArrayList<>();
+            for (int start = 0; start < pages.size(); start += INTERNAL_CAPACITY + 1) {
+                int end = Math.min(pages.size(), start + INTERNAL_CAPACITY + 1);
+                Node node = new Node(nextPage++, INTERNAL);
+                node.children[0] = pages.get(start);
+                for (int i = start + 1; i < end; i++) {
+                    node.keys[node.count] = firstKeys.get(i);
+                    node.count++;
+                    node.children[node.count] = pages.get(i);
+                }
+                write(newIndex, encode(node), (long) node.page * PAGE_SIZE);
+                upperKeys.add(firstKeys.get(start));
+                upperPages.add(node.page);
+            }
+            firstKeys = upperKeys;
+            pages = upperPages;
+        }
+    }
+
+    /*-------------------------------
+    |           FILE I/O            |
+    -------------------------------*/
+
+    private void openFiles() throws IOException {
+        index = open(indexFile);
+        data = open(dataFile);
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private static FileChannel create(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Node load(int page) {
+        Node node = cache.get(page);
+        if (node == null) {
+            node = readNode(page);
+            cache.put(page, node);
+        }
+        return node;
+    }
+
+    private Node readNode(int page) {
+        ByteBuffer buffer = readPage(page);
+        Node node = new Node(page, buffer.get(0));
+        node.count = Short.toUnsignedInt(buffer.getShort(2));
+        buffer.position(NODE_HEADER_SIZE);
+        if (node.type == LEAF) {
+            for (int i = 0; i < node.count; i++) {
+                node.keys[i] = buffer.getInt();
+                node.offsets[i] = buffer.getLong();
+                node.lengths[i] = buffer.getInt();
+            }
+        }
+        else {
+            for (int i = 0; i < node.count; i++) {
+                node.children[i] = buffer.getInt();
+                node.keys[i] = buffer.getInt();
+            }
+            node.children[node.count] = buffer.getInt();
+        }
+        return node;
+    }
+
+    private void writeNode(Node node) {
+        write(index, encode(node), (long) node.page * PAGE_SIZE);
+        node.dirty = false;
+    }
+
+    private static ByteBuffer encode(Node node) {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put(node.type).put((byte) 0).putShort((short) node.count).putInt(NO_PAGE);
+        if (node.type == LEAF) {
+            for (int i = 0; i < node.count; i++) {
+                buffer.putInt(node.keys[i]).putLong(node.offsets[i]).putInt(node.lengths[i]);
+            }
+        }
+        else {
+            for (int i = 0; i < node.count; i++) {
+                buffer.putInt(node.children[i]).putInt(node.keys[i]);
+            }
+            buffer.putInt(node.children[node.count]);
+        }
+        return buffer;
+    }
+
+    private ByteBuffer readPage(int page) {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        try {
+            long position = (long) page * PAGE_SIZE;
+            while (buffer.hasRemaining()) {
+                if (index.read(buffer, position + buffer.position()) < 0) {
+                    break;  // short final page
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Writes the whole of the given buffer at a position in a file.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeDataHeader(FileChannel channel, long epoch) {
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        header.putInt(DATA_MAGIC).putLong(epoch);
+        write(channel, header, 0);
+    }
+
+    /**
+     * @return the epoch recorded in the header of a data file, else -1 if it has no header
+     */
+    private static long dataEpoch(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return -1;
+            }
+        }
+        return header.getInt(0) == DATA_MAGIC ? header.getLong(4) : -1;
+    }
+
+    private static long dataEpoch(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return dataEpoch(channel);
+        }
+    }
+
+    private long appendRecord(byte[] record) {
+        long offset = dataLength;
+        write(data, ByteBuffer.wrap(record), offset);
+        dataLength += record.length;
+        return offset;
+    }
+
+    private byte[] readRecord(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (data.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("station record truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    private MutableStation readStation(long offset, int length) {
+        try {
+            return StationRecordCodec.decode(readRecord(offset, length));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * In memory representation of a B+tree page. Arrays are sized one entry beyond
+     * capacity so a node can overflow briefly before it is split.
+     */
+    private static class Node {
+        private final int page;
+        private final byte type;
+        private int count = 0;
+        private final int[] keys;
+        private final long[] offsets;  // leaves only
+        private final int[] lengths;  // leaves only
+        private final int[] children;  // internal nodes only
+        private boolean dirty = false;
+
+        private Node(int page, byte type) {
+            this.page = page;
+            this.type = type;
+            if (type == LEAF) {
+                keys = new int[LEAF_CAPACITY + 1];
+                offsets = new long[LEAF_CAPACITY + 1];
+                lengths = new int[LEAF_CAPACITY + 1];
+                children = null;
+            }
+            else {
+                keys = new int[INTERNAL_CAPACITY + 1];
+                offsets = null;
+                lengths = null;
+                children = new int[INTERNAL_CAPACITY + 2];
+            }
+        }
+
+        /**
+         * Copies a node to another page.
+         */
+        private Node(int page, Node other) {
+            this.page = page;
+            this.type = other.type;
+            count = other.count;
+            keys = other.keys.clone();
+            offsets = other.offsets == null ? null : other.offsets.clone();
+            lengths = other.lengths == null ? null : other.lengths.clone();
+            children = other.children == null ? null : other.children.clone();
+        }
+    }
+
+    /**
+     * A commit which has been prepared under the store lock and is forced to disk without it.
+     */
+    private final class Commit {
+        private final long generation;
+        private final ByteBuffer meta;
+        // committed pages replaced by the changes in this commit
+        private final BitSet superseded;
+
+        private Commit(long generation, ByteBuffer meta, BitSet superseded) {
+            this.generation = generation;
+            this.meta = meta;
+            this.superseded = superseded;
+        }
+
+        /**
+         * Forces records and pages to disk before the metadata which points at them. The
+         * metadata is written to the slot of the older generation, so the newer one stays
+         * intact if the write is torn.
+         */
+        private void force() throws IOException {
+            data.force(false);
+            index.force(false);
+            write(index, meta, metaPosition(generation));
+            index.force(false);
+        }
+
+        /**
+         * Forces this commit to disk, reporting failures.
+         * @return true if the commit is durable, else false
+         */
+        private boolean tryForce() {
+            try {
+                force();
+                return true;
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("INFO: Unable to commit station changes (" + e.getMessage()
+                        + "). Retrying");
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Result of splitting a page: the smallest key held by the new sibling and its page number.
+     */
+    private static class Split {
+        private final int key;
+        private final int page;
+
+        private Split(int key, int page) {
+            this.key = key;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Least recently used cache of index pages. Dirty pages are written back when evicted,
+     * which is safe as only pages allocated since the last commit are ever dirty.
+     */
+    private class PageCache extends LinkedHashMap<Integer, Node> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private PageCache(int capacity) {
+            super(capacity * 2, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Node> eldest) {
+            if (size() > capacity) {
+                if (eldest.getValue().dirty) {
+                    writeNode(eldest.getValue());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
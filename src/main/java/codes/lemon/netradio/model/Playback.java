@@ -1,5 +1,7 @@
 package codes.lemon.netradio.model;
 
+import java.net.URI;
+
 /**
  * An object that supports audio playback.
  * Playback can be stopped and restarted.
@@ -19,6 +21,19 @@ interface Playback {
      */
     void stop();
 
+    /**
+     * Switches playback to a new audio source, reusing the existing pipeline.
+     * Playback is stopped and does not resume until `play()` is called.
+     * @param source the new audio source
+     */
+    void setSource(URI source);
+
+    /**
+     * Stops playback and releases the resources held for it.
+     * This Playback can not be used afterwards.
+     */
+    void dispose();
+
     /**
      * Check if playback has been stopped.
      * @return true if stopped, else false
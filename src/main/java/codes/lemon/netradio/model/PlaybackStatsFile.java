@@ -0,0 +1,69 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Persists playback statistics kept for each station between runs, alongside the station
+ * file. Statistics are stored as properties keyed by station ID, for example
+ * <pre>
+ *     station.12.latency.buckets=0,3,5,1,0,0,0,0,0
+ *     station.12.latency.total=4210
+ *     station.12.latency.max=1306
+ *     station.12.buffer.duration=4000
+ * </pre>
+ * Each kind of statistic reads and writes its own keys, see StationLatencies and StationBuffers.
+ */
+class PlaybackStatsFile {
+    private final File file;
+
+    /**
+     * @param file location of the statistics
+     */
+    PlaybackStatsFile(File file) {
+        this.file = Objects.requireNonNull(file);
+    }
+
+    /**
+     * Reads the stored statistics.
+     * @return the stored properties, else no properties if there are none or they can not be read
+     */
+    Properties load() {
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            return properties;
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // TODO: explore exception handling options
+            e.printStackTrace();
+            return new Properties();
+        }
+        return properties;
+    }
+
+    /**
+     * Replaces the stored statistics. Written to a temporary file and renamed so a crash
+     * mid-write can not leave a truncated file behind.
+     * @param properties the statistics to be stored
+     */
+    void store(Properties properties) {
+        try {
+            Path target = file.toPath().toAbsolutePath();
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temp.toFile()), StandardCharsets.UTF_8)) {
+                properties.store(out, "NetRadio playback statistics");
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // TODO: explore exception handling options
+            e.printStackTrace();
+        }
+    }
+}
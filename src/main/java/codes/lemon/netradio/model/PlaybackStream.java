@@ -3,7 +3,9 @@ package codes.lemon.netradio.model;
 import org.freedesktop.gstreamer.elements.PlayBin;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * An object that supports audio playback.
@@ -58,6 +60,76 @@ class PlaybackStream implements Playback {
         stream.stop();
     }
 
+    /**
+     * Switches playback to a new audio source. The PlayBin is kept and only its URI changes,
+     * so no pipeline is built. Playback is stopped and does not resume until `play()` is called.
+     *
+     * @param source the new audio source
+     */
+    @Override
+    public void setSource(URI source) {
+        Objects.requireNonNull(source);
+        stream.setSource(source);
+        // manually set URI in metadata to ensure it matches the source URI
+        stream.getObservableMetadata().setStreamUri(source.toASCIIString());
+    }
+
+    /**
+     * Prebuffers the stream. The stream connects to its source and fills its buffer without
+     * playing, so a later `play()` starts almost immediately.
+     */
+    void prebuffer() {
+        stream.pause();
+    }
+
+    /**
+     * Limits the amount of data the stream buffers.
+     * @param bytes the maximum number of bytes buffered, else -1 for GStreamers default
+     */
+    void setBufferSize(int bytes) {
+        stream.setBufferSize(bytes);
+    }
+
+    /**
+     * Sends future tag updates to another ObservableMetadata instance, first copying into it
+     * the tags received so far.
+     * @param tags receives tag updates from now on
+     */
+    void redirectTags(ObservableMetadata tags) {
+        stream.redirectTags(tags);
+    }
+
+    /**
+     * @param listener receives a timeline of each start of playback, on a GStreamer thread
+     */
+    void setTimelineListener(Consumer<PlaybackTimeline> listener) {
+        stream.setTimelineListener(listener);
+    }
+
+    /**
+     * @param listener receives the length of each underrun, when playback resumes or is stopped
+     */
+    void setUnderrunListener(Consumer<Duration> listener) {
+        stream.setUnderrunListener(listener);
+    }
+
+    /**
+     * Sets how much audio the stream buffers before playing. Takes effect when the stream
+     * next connects to its source.
+     * @param millis the length of audio buffered in milliseconds, else -1 for GStreamers default
+     */
+    void setBufferDuration(long millis) {
+        stream.setBufferDuration(millis);
+    }
+
+    /**
+     * Stops playback and releases the PlayBin.
+     */
+    @Override
+    public void dispose() {
+        stream.dispose();
+    }
+
     /**
      * Check if playback has been stopped.
      *
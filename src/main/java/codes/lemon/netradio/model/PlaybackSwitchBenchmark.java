@@ -0,0 +1,115 @@
+package codes.lemon.netradio.model;
+
+import org.freedesktop.gstreamer.Gst;
+import org.freedesktop.gstreamer.State;
+import org.freedesktop.gstreamer.elements.PlayBin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of changing station.
+ * The given stream URIs are played in turn, switching the given number of times, and the
+ * latency of each switch is recorded: the time from requesting the new source until the
+ * pipeline reports it is PLAYING. The process resident set size is sampled before the first
+ * switch and after every 100 switches so any growth in native memory can be seen.
+ * `reuse` switches by giving one long-lived PlayBin a new URI, as StreamPlayerGStreamer does.
+ * `rebuild` builds a new PlayBin for every switch and abandons the old one, as
+ * StreamPlayerGStreamer previously did, for comparison.
+ * Linux only, as the resident set size is read from /proc.
+ *
+ * Usage: PlaybackSwitchBenchmark [reuse|rebuild] [switches] uri uri...
+ *        (defaults to reuse with 1,000 switches. At least two URIs are required.)
+ */
+class PlaybackSwitchBenchmark {
+    private static final int DEFAULT_SWITCHES = 1_000;
+    private static final int RSS_SAMPLE_INTERVAL = 100;
+    // switches taking longer than this to reach PLAYING are counted as timed out
+    private static final long STATE_TIMEOUT_SECONDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "reuse";
+        int switches = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SWITCHES;
+        List<URI> uris = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            uris.add(URI.create(args[i]));
+        }
+        if (uris.size() < 2 || !(mode.equals("reuse") || mode.equals("rebuild"))) {
+            System.out.println("Usage: PlaybackSwitchBenchmark [reuse|rebuild] [switches] uri uri...");
+            return;
+        }
+        if (!Gst.isInitialized()) {
+            Gst.init();
+        }
+
+        long[] latencies = new long[switches];
+        int timeouts = 0;
+        long initialRss = residentSetKb();
+        System.out.printf("%s: %,d switches between %d streams. RSS before %,d kB%n", mode, switches, uris.size(),
+                initialRss);
+        GStreamerStream stream = null;
+        PlayBin playBin = null;
+        for (int i = 0; i < switches; i++) {
+            URI uri = uris.get(i % uris.size());
+            long start = System.nanoTime();
+            if (stream == null || mode.equals("rebuild")) {
+                if (stream != null) {
+                    // the old pipeline was stopped but never released
+                    stream.stop();
+                }
+                playBin = PlayBinFactory.buildPlaybackPlayBin();
+                playBin.setURI(uri);
+                stream = new GStreamerStream(playBin);
+            }
+            else {
+                stream.setSource(uri);
+            }
+            stream.play();
+            State reached = playBin.getState(TimeUnit.SECONDS.toNanos(STATE_TIMEOUT_SECONDS));
+            latencies[i] = System.nanoTime() - start;
+            if (reached != State.PLAYING) {
+                timeouts++;
+            }
+            if ((i + 1) % RSS_SAMPLE_INTERVAL == 0) {
+                System.out.printf("  %,6d switches. RSS %,d kB%n", i + 1, residentSetKb());
+            }
+        }
+        if (stream != null) {
+            stream.dispose();
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("Switch latency: p50 %,d ms  p90 %,d ms  p99 %,d ms  max %,d ms. %d timed out%n",
+                percentileMillis(latencies, 0.5), percentileMillis(latencies, 0.9),
+                percentileMillis(latencies, 0.99), latencies[latencies.length - 1] / 1_000_000, timeouts);
+        System.out.printf("RSS growth: %,d kB%n", residentSetKb() - initialRss);
+        Gst.deinit();
+    }
+
+    private static long percentileMillis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)));
+        return sorted[index] / 1_000_000;
+    }
+
+    /**
+     * @return the resident set size of this process in kB, else -1 if unknown
+     */
+    private static long residentSetKb() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+}
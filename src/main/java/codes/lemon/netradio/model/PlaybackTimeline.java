@@ -0,0 +1,107 @@
+package codes.lemon.netradio.model;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * When each stage of starting playback of a stream was reached, measured from the request
+ * to play. Stages are observed through messages on the pipelines bus:
+ * <ul>
+ *     <li>RESOLVED: an element able to read the URI has been created and is READY</li>
+ *     <li>CONNECTED: that source element has started, and opens its connection</li>
+ *     <li>FIRST_BYTE: the first data has been received and is being buffered</li>
+ *     <li>TYPE_FOUND: the streams format has been found and its decoders linked (STREAM_START)</li>
+ *     <li>FIRST_BUFFER: the first decoded audio has reached the sound card sink (ASYNC_DONE)</li>
+ *     <li>PLAYING: the pipeline is PLAYING, so audio can be heard</li>
+ * </ul>
+ * Stages which had already been passed when playback was requested, such as those of a
+ * prefetched stream, are not observed.
+ * Instances are immutable.
+ */
+public final class PlaybackTimeline {
+    /**
+     * The stages of starting playback, in the order they are normally reached.
+     */
+    public enum Stage { RESOLVED, CONNECTED, FIRST_BYTE, TYPE_FOUND, FIRST_BUFFER, PLAYING }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String uri;
+    private final Instant started;
+    // nanoseconds from the request to play until each stage, indexed by Stage ordinal. -1 if not observed.
+    private final long[] offsets;
+
+    PlaybackTimeline(String uri, Instant started, long[] offsets) {
+        this.uri = uri;
+        this.started = started;
+        this.offsets = offsets.clone();
+    }
+
+    /**
+     * @return the URI of the stream played
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return when playback was requested
+     */
+    public Instant getStartTime() {
+        return started;
+    }
+
+    /**
+     * Returns the time taken to reach a stage.
+     * @param stage a stage of starting playback
+     * @return milliseconds from the request to play until the stage was reached, else -1 if
+     *         it was not observed
+     */
+    public long getMillis(Stage stage) {
+        long offset = offsets[stage.ordinal()];
+        return offset < 0 ? -1 : offset / 1_000_000;
+    }
+
+    /**
+     * @return milliseconds from the request to play until audio could be heard, else -1 if
+     *         playback never started
+     */
+    public long getTimeToFirstAudio() {
+        return getMillis(Stage.PLAYING);
+    }
+
+    /**
+     * @return true if playback started, else false.
+     */
+    public boolean isComplete() {
+        return offsets[Stage.PLAYING.ordinal()] >= 0;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner stages = new StringJoiner(" ", uri + " ", "");
+        for (Stage stage : STAGES) {
+            long millis = getMillis(stage);
+            stages.add(stage + "=" + (millis < 0 ? "-" : millis + "ms"));
+        }
+        return stages.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlaybackTimeline)) {
+            return false;
+        }
+        PlaybackTimeline other = (PlaybackTimeline) o;
+        return uri.equals(other.uri) && started.equals(other.started) && Arrays.equals(offsets, other.offsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * uri.hashCode() + started.hashCode()) + Arrays.hashCode(offsets);
+    }
+}
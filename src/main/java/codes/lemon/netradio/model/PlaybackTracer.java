@@ -0,0 +1,137 @@
+package codes.lemon.netradio.model;
+
+import org.freedesktop.gstreamer.Bus;
+import org.freedesktop.gstreamer.Element;
+import org.freedesktop.gstreamer.GstObject;
+import org.freedesktop.gstreamer.Message;
+import org.freedesktop.gstreamer.MessageType;
+import org.freedesktop.gstreamer.State;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Traces how long a pipeline takes to start playing, recording a PlaybackTimeline for each
+ * request to play. Listens on the pipelines bus for the state changes of the pipeline and
+ * of its source element, the first BUFFERING message, STREAM_START and ASYNC_DONE. The first
+ * occurrence of each stage after `begin()` is recorded. The timeline is published once the
+ * pipeline reaches PLAYING, and discarded if playback is stopped first.
+ *
+ * Thread safe. Traces are begun by the thread requesting playback while bus messages are
+ * delivered on a GStreamer thread.
+ */
+class PlaybackTracer {
+    // playbin names the element reading from the URI "source"
+    private static final String SOURCE_ELEMENT = "source";
+
+    private final Element pipeline;
+    private final Bus.STATE_CHANGED stateListener = this::stateChanged;
+    private final Bus.BUFFERING bufferingListener = (source, percent) -> reached(PlaybackTimeline.Stage.FIRST_BYTE);
+    private final Bus.ASYNC_DONE asyncDoneListener = source -> reached(PlaybackTimeline.Stage.FIRST_BUFFER);
+    private final Bus.MESSAGE messageListener = this::message;
+    private volatile Consumer<PlaybackTimeline> listener = timeline -> { };
+    // the trace in progress. Guarded by this.
+    private String uri = null;
+    private Instant started;
+    private long startNanos;
+    private final long[] offsets = new long[PlaybackTimeline.Stage.values().length];
+
+    /**
+     * Starts listening to the given pipelines bus.
+     * @param pipeline the pipeline to be traced
+     */
+    PlaybackTracer(Element pipeline) {
+        this.pipeline = Objects.requireNonNull(pipeline);
+        Bus bus = pipeline.getBus();
+        bus.connect(stateListener);
+        bus.connect(bufferingListener);
+        bus.connect(asyncDoneListener);
+        bus.connect(messageListener);
+    }
+
+    /**
+     * @param listener receives the timeline of each playback which starts, on a GStreamer thread
+     */
+    void setListener(Consumer<PlaybackTimeline> listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Begins tracing a request to play, abandoning any trace in progress.
+     * @param uri the URI of the stream to be played
+     */
+    synchronized void begin(String uri) {
+        this.uri = Objects.requireNonNull(uri);
+        started = Instant.now();
+        startNanos = System.nanoTime();
+        Arrays.fill(offsets, -1);
+    }
+
+    /**
+     * Abandons the trace in progress, if any.
+     */
+    synchronized void cancel() {
+        uri = null;
+    }
+
+    /**
+     * Stops listening to the pipelines bus.
+     */
+    void dispose() {
+        cancel();
+        Bus bus = pipeline.getBus();
+        bus.disconnect(stateListener);
+        bus.disconnect(bufferingListener);
+        bus.disconnect(asyncDoneListener);
+        bus.disconnect(messageListener);
+    }
+
+    private void stateChanged(GstObject source, State old, State current, State pending) {
+        String name = source.getName();
+        if (SOURCE_ELEMENT.equals(name)) {
+            if (current == State.READY) {
+                reached(PlaybackTimeline.Stage.RESOLVED);
+            }
+            else if (current == State.PAUSED) {
+                reached(PlaybackTimeline.Stage.CONNECTED);
+            }
+        }
+        else if (current == State.PLAYING && pipeline.getName().equals(name)) {
+            PlaybackTimeline timeline = finish();
+            if (timeline != null) {
+                listener.accept(timeline);
+            }
+        }
+    }
+
+    private void message(Bus bus, Message message) {
+        if (message.getType() == MessageType.STREAM_START) {
+            reached(PlaybackTimeline.Stage.TYPE_FOUND);
+        }
+    }
+
+    /**
+     * Records the first time a stage is reached during the trace in progress.
+     */
+    private synchronized void reached(PlaybackTimeline.Stage stage) {
+        if (uri != null && offsets[stage.ordinal()] < 0) {
+            offsets[stage.ordinal()] = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Ends the trace in progress as the pipeline is PLAYING.
+     * @return the completed timeline, else null if no trace was in progress
+     */
+    private synchronized PlaybackTimeline finish() {
+        if (uri == null) {
+            return null;
+        }
+        offsets[PlaybackTimeline.Stage.PLAYING.ordinal()] = System.nanoTime() - startNanos;
+        PlaybackTimeline timeline = new PlaybackTimeline(uri, started, offsets);
+        uri = null;
+        return timeline;
+    }
+}
@@ -0,0 +1,138 @@
+package codes.lemon.netradio.model;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Holds warm playback pipelines: streams which are connected to their source and paused
+ * with a full buffer, so playing one takes a pipeline swap rather than a DNS lookup,
+ * connection, type detection and buffering.
+ * The number of pipelines is capped, as is the memory each may buffer, which is an equal
+ * share of the configured total. A paused live stream stops reading once its buffer is full
+ * and falls behind its source, so pipelines are reconnected once they have been warm for
+ * longer than MAX_AGE_NANOS and are not handed out after that.
+ * Pipelines are keyed by canonical stream URI, see StationUris.
+ *
+ * Not thread safe. Used by StreamPlayerGStreamer under its own lock.
+ */
+class PrefetchPool {
+    // longest a pipeline is paused before it is reconnected
+    private static final long MAX_AGE_NANOS = 60_000_000_000L;
+
+    private final int capacity;
+    private final int bufferSize;
+    // warm pipelines by canonical URI, in the order they were requested
+    private final Map<String, Warm> warm = new LinkedHashMap<>();
+
+    /**
+     * @param capacity the maximum number of warm pipelines. 0 disables prefetching.
+     * @param memory the total number of bytes the pipelines may buffer
+     */
+    PrefetchPool(int capacity, long memory) {
+        if (capacity < 0 || memory < 0) {
+            throw new IllegalArgumentException("Negative prefetch limit");
+        }
+        this.capacity = capacity;
+        bufferSize = capacity == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, memory / capacity);
+    }
+
+    /**
+     * Keeps warm pipelines for the first `capacity` of the given sources, building any which
+     * are missing and reconnecting any which have been warm too long. All others are released.
+     * @param sources the sources to be prefetched, most wanted first
+     */
+    void retain(List<URI> sources) {
+        Map<String, URI> wanted = new LinkedHashMap<>();
+        for (URI source : sources) {
+            if (wanted.size() == capacity) {
+                break;
+            }
+            wanted.putIfAbsent(StationUris.canonical(source.toString()), source);
+        }
+        Iterator<Map.Entry<String, Warm>> pipelines = warm.entrySet().iterator();
+        while (pipelines.hasNext()) {
+            Map.Entry<String, Warm> pipeline = pipelines.next();
+            if (!wanted.containsKey(pipeline.getKey())) {
+                pipeline.getValue().stream.dispose();
+                pipelines.remove();
+            }
+            else if (pipeline.getValue().isStale()) {
+                pipeline.getValue().refresh();
+            }
+        }
+        wanted.forEach((key, source) -> {
+            if (!warm.containsKey(key)) {
+                PlaybackStream stream = new PlaybackStream(source);
+                warm.put(key, new Warm(stream));
+            }
+        });
+    }
+
+    /**
+     * Removes and returns the warm pipeline for a source, if it is still fresh.
+     * @param source a stream URI
+     * @return a paused pipeline connected to the source, else null if there is none
+     */
+    PlaybackStream take(String source) {
+        Warm pipeline = warm.remove(StationUris.canonical(source));
+        if (pipeline == null) {
+            return null;
+        }
+        if (pipeline.isStale()) {
+            pipeline.stream.dispose();
+            return null;
+        }
+        return pipeline.stream;
+    }
+
+    /**
+     * Keeps a pipeline which has stopped being played, such as the station just skipped
+     * from, if there is room. Otherwise it is released.
+     * @param source the stream URI of the pipeline
+     * @param stream the pipeline. Its tags must no longer be published.
+     */
+    void offer(String source, PlaybackStream stream) {
+        String key = StationUris.canonical(source);
+        if (warm.size() >= capacity || warm.containsKey(key)) {
+            stream.dispose();
+            return;
+        }
+        warm.put(key, new Warm(stream));
+    }
+
+    /**
+     * Releases every warm pipeline.
+     */
+    void clear() {
+        warm.values().forEach(pipeline -> pipeline.stream.dispose());
+        warm.clear();
+    }
+
+    /**
+     * A paused pipeline and when it was last connected.
+     */
+    private final class Warm {
+        private final PlaybackStream stream;
+        private long since;
+
+        private Warm(PlaybackStream stream) {
+            this.stream = stream;
+            stream.setBufferSize(bufferSize);
+            stream.prebuffer();
+            since = System.nanoTime();
+        }
+
+        private boolean isStale() {
+            return System.nanoTime() - since > MAX_AGE_NANOS;
+        }
+
+        /**
+         * Drops the buffered data and reconnects.
+         */
+        private void refresh() {
+            stream.stop();
+            stream.prebuffer();
+            since = System.nanoTime();
+        }
+    }
+}
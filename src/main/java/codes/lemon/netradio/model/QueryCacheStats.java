@@ -0,0 +1,80 @@
+package codes.lemon.netradio.model;
+
+/**
+ * Counters describing the effectiveness of the station query cache since startup.
+ * Instances are immutable snapshots of the counters at the time they were taken.
+ */
+public final class QueryCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long invalidations;
+    private final long evictions;
+    private final int size;
+    private final int capacity;
+
+    QueryCacheStats(long hits, long misses, long invalidations, long evictions, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.invalidations = invalidations;
+        this.evictions = evictions;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of queries answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of queries answered from the catalog, including invalidated entries
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of cached results found to be out of date, because a field they
+     *         depend on has changed since they were cached
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of cached results discarded to stay within capacity
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the proportion of queries answered from the cache, else 0 if none have been made
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of results currently cached
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of results cached
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.3f invalidations=%d evictions=%d size=%d/%d",
+                hits, misses, getHitRate(), invalidations, evictions, size, capacity);
+    }
+}
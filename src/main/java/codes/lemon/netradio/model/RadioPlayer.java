@@ -1,7 +1,12 @@
 package codes.lemon.netradio.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * A radio player client. Stores station details and supports playback.
@@ -59,14 +64,58 @@ public interface RadioPlayer {
     /**
      * Add a station to the player. Requires a name for the station and a
      * URI pointing to an audio source for that station. The station will be
-     * given a unique ID.
+     * given a unique ID. If a station already plays the same stream, even if its URI
+     * differs in scheme, letter case, trailing slashes or tracking parameters, no station
+     * is added and the ID of the existing station is returned.
      *
      * @param name the name of the new station
      * @param uri points to an audio source for the new station
-     * @return the ID assigned to the newly added station
+     * @return the ID assigned to the newly added station, else the ID of the existing station
      */
     int addStation(String name, String uri);
 
+    /**
+     * Adds many stations at once. The new stations are persisted together and each is
+     * assigned a unique ID. All details of the given stations other than their IDs are kept.
+     * Stations playing the same stream as an existing or earlier station are not added,
+     * as with `addStation()`.
+     * @param stations details of the stations to be added. Their IDs are ignored.
+     * @return the IDs given to the new stations, or of the existing stations in place of
+     *         duplicates, in the order the stations were supplied
+     */
+    List<Integer> addStations(Collection<? extends Station> stations);
+
+    /**
+     * Returns the station playing the stream at the given URI, however the URI is written.
+     * @param uri a stream URI
+     * @return the station playing the stream, else null.
+     */
+    Station findStationByUri(String uri);
+
+    /**
+     * Merges duplicate stations across the catalog: stations playing the same stream, and
+     * stations with matching names playing variants of a stream such as its mp3 and aac
+     * versions. Each set of duplicates is merged into one station, which takes on their
+     * combined play statistics. The others are removed.
+     * @return the IDs of the removed duplicates, keyed by the ID of the station they were merged into
+     */
+    Map<Integer, List<Integer>> deduplicateStations();
+
+    /**
+     * Imports the stations listed in a directory file, such as a dump of a public station
+     * directory. CSV, JSON, M3U and PLS files are supported and the format is taken from the
+     * files extension. The file is read as a stream, so files of any size may be imported.
+     * Entries without a valid stream URI are skipped, as are stations already in the player.
+     * Blocks until the import completes. Interrupting the calling thread cancels the import,
+     * although stations imported by then are kept.
+     * @param file the directory file
+     * @param progress notified on the calling thread as the import progresses
+     * @return the final progress of the import, giving the number of stations added and skipped
+     * @throws IOException if the file can not be read or is malformed
+     * @throws IllegalArgumentException if the file type is not supported
+     */
+    ImportProgress importStations(File file, Consumer<ImportProgress> progress) throws IOException;
+
     /**
      * Permanently remove a station from the player.
      * @param id the unique ID of the station to be removed
@@ -74,6 +123,31 @@ public interface RadioPlayer {
      */
     boolean removeStation(int id);
 
+    /**
+     * Updates the details of an existing station. The stations ID, play count,
+     * bitrate and genre are preserved. A station can not be given a stream another station
+     * already plays, as with `addStation()`.
+     * @param id the unique ID of the station to be updated
+     * @param name the new name of the station
+     * @param uri the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @return true if the station was updated, else false if no such station exists.
+     * @throws IllegalArgumentException if another station already plays the stream at uri
+     */
+    boolean updateStation(int id, String name, String uri, boolean favourite);
+
+    /**
+     * Applies many station changes as a single unit. The given Consumer stages changes
+     * through a StationBatch which are then applied together and persisted once. If the
+     * Consumer throws, including when a staged change fails validation, no changes are applied.
+     * <pre>
+     *     player.applyBatch(batch -> jazzStations.forEach(id -> batch.setFavourite(id, true)));
+     * </pre>
+     * @param changes populates the batch
+     * @return true if any station was changed, else false.
+     */
+    boolean applyBatch(Consumer<StationBatch> changes);
+
     /**
      * Sets the `Favourite` status of a given station. When true,
      * that station is considered a favourite. When false, the
@@ -91,6 +165,201 @@ public interface RadioPlayer {
      */
     List<Station> findStation(String searchTerm);
 
+    /**
+     * Searches for stations similar to the given query and returns the best matches first.
+     * Unlike `findStation()` the search tolerates typos and ignores diacritics. Results are
+     * ranked by how closely they match, favouring frequently played and favourite stations.
+     * @param query the search query
+     * @param maxResults the maximum number of stations to return
+     * @return up to maxResults stations, best match first
+     */
+    List<Station> searchStations(String query, int maxResults);
+
+    /**
+     * Returns a new StationSearch, which performs a sequence of searches such as one per
+     * keystroke while a search term is typed. Each search returns the same results as
+     * `findStation()`, narrowing the previous results where possible, and can be cancelled
+     * by interrupting the searching thread.
+     * @return a new StationSearch
+     */
+    StationSearch newStationSearch();
+
+    /**
+     * Returns the stations matching a query, such as all favourites of a given genre within
+     * a bitrate range, along with facet counts over every matching station.
+     * @param query the query to be answered, see StationQuery
+     * @return the matching stations, in the querys sort order and up to its limit, and facet counts
+     */
+    StationQueryResult queryStations(StationQuery query);
+
+    /**
+     * Enables or disables prefetching. While enabled, the stations passed to
+     * `prefetchStations()` and the most played favourites are kept connected and buffered
+     * so switching to one of them starts playback almost immediately. Disabling prefetching
+     * releases every prefetched stream. Defaults to the system property `netradio.prefetch`.
+     * @param enabled true to enable prefetching, else false
+     */
+    void setPrefetchEnabled(boolean enabled);
+
+    /**
+     * @return true if prefetching is enabled, else false.
+     */
+    boolean isPrefetchEnabled();
+
+    /**
+     * Sets the stations to be prefetched, typically those adjacent to the current station in
+     * the list being browsed, replacing the stations previously requested. The most played
+     * favourites are prefetched after them. The number of streams prefetched is limited by
+     * the system properties `netradio.prefetch.pipelines` and `netradio.prefetch.memory`.
+     * Has no effect while prefetching is disabled.
+     * @param ids IDs of the stations to be prefetched, most likely to be played next first
+     */
+    void prefetchStations(List<Integer> ids);
+
+    /**
+     * Returns the most played stations, most played first.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    List<Station> getMostPlayed(int n);
+
+    /**
+     * Returns the stations played most lately, most popular first. Every play counts towards
+     * a stations popularity, but recent plays count for more than older ones. Stations which
+     * have never been played are not included.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    List<Station> getTrending(int n);
+
+    /**
+     * Creates a smart list, or replaces the query of an existing one. A smart list is a named
+     * query, such as favourites in Pop or Rock with a bitrate of at least 128k, whose contents
+     * are kept up to date as stations change. Smart lists are persisted between runs.
+     * @param name name of the list
+     * @param query query defining the stations in the list
+     * @throws UncheckedIOException if the list could not be persisted, in which case it is not saved
+     */
+    void saveSmartList(String name, StationQuery query);
+
+    /**
+     * Permanently removes a smart list.
+     * @param name name of the list
+     * @return true if the list was removed, else false if no such list exists.
+     * @throws UncheckedIOException if the removal could not be persisted, in which case the list is kept
+     */
+    boolean removeSmartList(String name);
+
+    /**
+     * Returns every smart list.
+     * @return the query of each smart list by name, in the order the lists were created
+     */
+    Map<String, StationQuery> getSmartLists();
+
+    /**
+     * Returns the stations in a smart list.
+     * @param name name of the list
+     * @return the stations in the list in the order and up to the limit of its query
+     * @throws IllegalArgumentException if no such list exists
+     */
+    List<Station> getSmartList(String name);
+
+    /**
+     * Subscribe to be notified of the stations inserted into, updated within and removed
+     * from a smart list. Only the rows which changed are sent. Listeners are notified on the
+     * thread which changed the catalog.
+     * @param name name of the list
+     * @param listener the listener to be notified
+     * @return the current contents of the list, to which notifications apply
+     * @throws IllegalArgumentException if no such list exists
+     */
+    List<Station> subscribeToSmartList(String name, SmartListListener listener);
+
+    /**
+     * Stop notifying a listener of changes to a smart list.
+     * @param name name of the list
+     * @param listener a subscribed listener
+     */
+    void unsubscribeFromSmartList(String name, SmartListListener listener);
+
+    /**
+     * Returns the changes made to the station catalog after the given sequence number:
+     * stations added, updated (with the fields which changed) and removed, oldest first.
+     * Only recent changes are retained. A consumer which has fallen too far behind is told
+     * to resync, and must then read the catalog again.
+     * <pre>
+     *     StationChanges changes = player.getChangesSince(lastSequence);
+     *     if (changes.isResyncRequired()) {
+     *         reload(player.getAllStations());
+     *     } else {
+     *         changes.getChanges().forEach(this::apply);
+     *     }
+     *     lastSequence = changes.getLatestSequence();
+     * </pre>
+     * @param sequence sequence number of the last change applied, or 0 to start from the beginning
+     * @return the changes since `sequence`, else a resync marker
+     */
+    StationChanges getChangesSince(long sequence);
+
+    /**
+     * Returns the sequence number of the latest change to the station catalog.
+     * @return the latest sequence number, else 0 if the catalog has not changed
+     */
+    long getLatestChangeSequence();
+
+    /**
+     * Returns hit rate and related counters of the cache answering `findStation()`,
+     * `searchStations()` and `queryStations()`.
+     * @return a snapshot of the query cache counters
+     */
+    QueryCacheStats getQueryCacheStats();
+
+    /**
+     * Returns when each stage of the most recent playback start was reached, from the
+     * request to play until audio could be heard.
+     * @return the timeline of the last playback start, else null if playback has not started
+     */
+    PlaybackTimeline getLastPlaybackTimeline();
+
+    /**
+     * Returns a histogram of the time a station has taken to start playing. Histograms are
+     * kept across runs.
+     * @param stationId the unique ID for a station
+     * @return the stations startup latency, else null if it has never started playing
+     */
+    LatencyHistogram getStartupLatency(int stationId);
+
+    /**
+     * Returns the stations which are slowest to start playing, ranked by their 90th
+     * percentile time to first audio.
+     * @param n the maximum number of stations to return
+     * @return up to n stations, slowest first
+     */
+    List<Station> getSlowestStations(int n);
+
+    /**
+     * Returns the underruns of every station since the player was created. An underrun is
+     * when playback pauses because its buffer ran low, resuming once it has refilled.
+     * @return a snapshot of the underrun counters
+     */
+    UnderrunStats getUnderrunStats();
+
+    /**
+     * Returns the underruns of a station since the player was created.
+     * @param stationId the unique ID for a station
+     * @return a snapshot of the stations underrun counters
+     */
+    UnderrunStats getUnderrunStats(int stationId);
+
+    /**
+     * Returns the length of audio buffered for a station before it plays. Each station starts
+     * with the same buffer, which grows when the station underruns and shrinks after long
+     * plays without one. Learned buffers are kept across runs.
+     * @param stationId the unique ID for a station
+     * @return the length of audio buffered in milliseconds
+     */
+    long getBufferDuration(int stationId);
+
     /**
      * Get the specified stations details as a Station instance
      * @param id the unique ID for a station
@@ -114,6 +383,14 @@ public interface RadioPlayer {
      */
     ObservableMetadata getObservableMetadata();
 
+    /**
+     * Subscribe to be notified when stations are added, modified or removed by another
+     * process sharing the station file. Changes are merged into the catalog before the
+     * listener is notified. Listeners are notified on a background thread.
+     * @param listener the listener to be notified
+     */
+    void subscribeToExternalChanges(ExternalChangeListener listener);
+
     /**
      * Initiate the recording of a station. Audio is written to the provided
      * output file.
@@ -8,8 +8,8 @@ import java.util.Objects;
  */
 class RadioStation implements MutableStation{
     private final int id;
-    private final String name;
-    private final String uri;
+    private String name;
+    private String uri;
     private LocalDateTime lastPlayed = null;
     private int playCount = 0;
     private int bitrate = -1;
@@ -40,6 +40,16 @@ class RadioStation implements MutableStation{
         this.favourite = favourite;
     }
 
+    /**
+     * Constructs an independent copy of the given station. Later changes to either
+     * station are not reflected in the other.
+     * @param other the station to be copied
+     */
+    protected RadioStation(Station other) {
+        this(other.getStationID(), other.getStationName(), other.getUri(), other.getDateLastPlayed(),
+                other.getPlayCount(), other.getBitrate(), other.getGenre(), other.isFavourite());
+    }
+
     /**
      * Returns this stations unique numerical identifier.
      *
@@ -89,9 +99,7 @@ class RadioStation implements MutableStation{
      */
     @Override
     public LocalDateTime getDateLastPlayed() {
-        // TODO: Fix openCSV parsing of LocalDateTime fields
-        return null;
-        //return lastPlayed;
+        return lastPlayed;
     }
 
     /**
@@ -123,6 +131,24 @@ class RadioStation implements MutableStation{
         return favourite;
     }
 
+    /**
+     * Sets the name of this station.
+     * @param name the new name of this station, must not be null.
+     */
+    @Override
+    public void setStationName(String name) {
+        this.name = Objects.requireNonNull(name);
+    }
+
+    /**
+     * Sets the URI used as the source of this stations audio stream.
+     * @param uri the new source of this station, must not be null.
+     */
+    @Override
+    public void setUri(String uri) {
+        this.uri = Objects.requireNonNull(uri);
+    }
+
     /**
      * Sets the bitrate at which the current station plays at.
      *
@@ -166,6 +192,16 @@ class RadioStation implements MutableStation{
         playCount++;
     }
 
+    /**
+     * Returns an independent copy of this station. Changes made to either station
+     * are not reflected in the other.
+     * @return a copy of this station
+     */
+    @Override
+    public MutableStation copy() {
+        return new RadioStation(this);
+    }
+
 
     /**
      * Compares RadioStation instances for equality based upon their unique ID.
@@ -0,0 +1,158 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Persists smart list definitions between runs. Each smart list is a name and the
+ * StationQuery defining its contents, stored as properties keyed by the position of the
+ * list so the order lists were created in is kept:
+ * <pre>
+ *     list.count=1
+ *     list.0.name=Loud Rock
+ *     list.0.genres=Rock
+ *     list.0.minBitrate=128000
+ * </pre>
+ * Fields a query does not constrain are omitted. Genres are separated by the unit separator
+ * control character, as genre names may contain commas.
+ */
+class SmartListFile {
+    private static final String COUNT = "list.count";
+    private static final String GENRE_SEPARATOR = "\u001F";
+
+    private final File file;
+
+    /**
+     * @param file location of the smart list definitions
+     */
+    SmartListFile(File file) {
+        this.file = Objects.requireNonNull(file);
+    }
+
+    /**
+     * Reads the stored smart lists. Definitions which can not be read are skipped.
+     * @return each smart lists query by name, in the order the lists were created
+     */
+    Map<String, StationQuery> load() {
+        Map<String, StationQuery> lists = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return lists;
+        }
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to read smart lists from " + file + " (" + e.getMessage() + ")");
+            return lists;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(properties.getProperty(COUNT, "0"));
+        } catch (NumberFormatException e) {
+            System.out.println("INFO: Unreadable smart list file " + file);
+            return lists;
+        }
+        for (int i = 0; i < count; i++) {
+            String prefix = "list." + i + ".";
+            String name = properties.getProperty(prefix + "name");
+            try {
+                if (name != null) {
+                    lists.put(name, decode(properties, prefix));
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("INFO: Skipping unreadable smart list " + name);
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * Replaces the stored smart lists. Written to a temporary file and renamed so a crash
+     * mid-write can not leave a truncated file behind.
+     * @param lists each smart lists query by name, in the order the lists were created
+     * @throws IOException if the lists could not be written. The previous file is left in place.
+     */
+    void store(Map<String, StationQuery> lists) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(COUNT, Integer.toString(lists.size()));
+        int i = 0;
+        for (Map.Entry<String, StationQuery> list : lists.entrySet()) {
+            String prefix = "list." + i++ + ".";
+            properties.setProperty(prefix + "name", list.getKey());
+            encode(list.getValue(), properties, prefix);
+        }
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temp.toFile()), StandardCharsets.UTF_8)) {
+                properties.store(out, "NetRadio smart lists");
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void encode(StationQuery query, Properties properties, String prefix) {
+        if (query.getGenres() != null) {
+            properties.setProperty(prefix + "genres", String.join(GENRE_SEPARATOR, new TreeSet<>(query.getGenres())));
+        }
+        if (query.getFavourite() != null) {
+            properties.setProperty(prefix + "favourite", query.getFavourite().toString());
+        }
+        if (query.hasBitrateRange()) {
+            properties.setProperty(prefix + "minBitrate", Integer.toString(query.getMinBitrate()));
+            properties.setProperty(prefix + "maxBitrate", Integer.toString(query.getMaxBitrate()));
+        }
+        if (query.getMinPlayCount() != Integer.MIN_VALUE) {
+            properties.setProperty(prefix + "minPlayCount", Integer.toString(query.getMinPlayCount()));
+        }
+        if (query.getSearchTerm() != null) {
+            properties.setProperty(prefix + "searchTerm", query.getSearchTerm());
+        }
+        properties.setProperty(prefix + "sortKey", query.getSortKey().name());
+        properties.setProperty(prefix + "descending", Boolean.toString(query.isDescending()));
+        if (query.getLimit() != Integer.MAX_VALUE) {
+            properties.setProperty(prefix + "limit", Integer.toString(query.getLimit()));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a field can not be parsed
+     */
+    private static StationQuery decode(Properties properties, String prefix) {
+        StationQuery.Builder query = StationQuery.builder();
+        String genres = properties.getProperty(prefix + "genres");
+        if (genres != null) {
+            query.genres(genres.split(GENRE_SEPARATOR, -1));
+        }
+        String favourite = properties.getProperty(prefix + "favourite");
+        if (favourite != null) {
+            query.favourite(Boolean.parseBoolean(favourite));
+        }
+        String minBitrate = properties.getProperty(prefix + "minBitrate");
+        if (minBitrate != null) {
+            query.bitrateBetween(Integer.parseInt(minBitrate),
+                    Integer.parseInt(properties.getProperty(prefix + "maxBitrate", Integer.toString(Integer.MAX_VALUE))));
+        }
+        String minPlayCount = properties.getProperty(prefix + "minPlayCount");
+        if (minPlayCount != null) {
+            query.playedAtLeast(Integer.parseInt(minPlayCount));
+        }
+        String searchTerm = properties.getProperty(prefix + "searchTerm");
+        if (searchTerm != null) {
+            query.matching(searchTerm);
+        }
+        query.sortBy(StationQuery.SortKey.valueOf(properties.getProperty(prefix + "sortKey", "ID")),
+                Boolean.parseBoolean(properties.getProperty(prefix + "descending", "false")));
+        String limit = properties.getProperty(prefix + "limit");
+        if (limit != null) {
+            query.limit(Integer.parseInt(limit));
+        }
+        return query.build();
+    }
+}
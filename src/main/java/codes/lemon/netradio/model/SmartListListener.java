@@ -0,0 +1,24 @@
+package codes.lemon.netradio.model;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Notified when the contents of a smart list change. Only the rows which changed are
+ * passed, so subscribers can patch their copy of the list rather than reading it again.
+ * Listeners are called on the thread which changed the catalog, in the order changes
+ * were made, and must return quickly.
+ */
+@FunctionalInterface
+public interface SmartListListener {
+    /**
+     * Called after a change to the catalog has changed the contents of a smart list. Each
+     * collection is unmodifiable and at least one is not empty. A station appears in at
+     * most one of them.
+     * @param name name of the smart list
+     * @param inserted stations which now belong to the list
+     * @param updated stations which still belong to the list but whose details have changed
+     * @param removed IDs of stations which no longer belong to the list
+     */
+    void rowsChanged(String name, List<Station> inserted, List<Station> updated, Set<Integer> removed);
+}
@@ -0,0 +1,66 @@
+package codes.lemon.netradio.model;
+
+/**
+ * A set of station mutations which are applied to the catalog together.
+ * A batch is populated by the Consumer passed to `RadioPlayer.applyBatch()`. Changes made
+ * through a batch are staged and do not affect the catalog until the Consumer returns, at
+ * which point every change is applied under a single lock and persisted with a single write.
+ * If any operation fails validation (or the Consumer throws) no changes are applied.
+ */
+public interface StationBatch {
+    /**
+     * Returns a station as it will appear once the batch has been applied.
+     * @param id a station ID
+     * @return the station with the given ID, else null if no such station exists or it has
+     * been removed by this batch.
+     */
+    Station getStation(int id);
+
+    /**
+     * Add a station. The station will be assigned a unique ID. If a station will already
+     * play the same stream once the batch is applied, however its URI is written, no station
+     * is added and the ID of that station is returned instead, as `RadioPlayer.addStation()`.
+     * @param name the name of the new station
+     * @param uri points to an audio source for the new station
+     * @return the ID which will be given to the new station, else the ID of the existing station
+     * @throws NullPointerException if name or uri are null
+     */
+    int addStation(String name, String uri);
+
+    /**
+     * Permanently remove a station.
+     * @param id the unique ID of the station to be removed
+     * @throws IllegalArgumentException if no such station exists
+     */
+    void removeStation(int id);
+
+    /**
+     * Updates the user editable details of a station. The stations ID and playback
+     * statistics are preserved.
+     * @param id the unique ID of the station to be updated
+     * @param name the new name of the station
+     * @param uri the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @throws IllegalArgumentException if no such station exists, or another station will
+     * already play the stream at uri once the batch is applied
+     * @throws NullPointerException if name or uri are null
+     */
+    void updateStation(int id, String name, String uri, boolean favourite);
+
+    /**
+     * Sets the `Favourite` status of a given station.
+     * @param id the unique ID for a station
+     * @param status true to mark as a favourite, else false
+     * @throws IllegalArgumentException if no such station exists
+     */
+    void setFavourite(int id, boolean status);
+
+    /**
+     * Sets the genre of a given station.
+     * @param id the unique ID for a station
+     * @param genre the genre of the station
+     * @throws IllegalArgumentException if no such station exists
+     * @throws NullPointerException if genre is null
+     */
+    void setGenre(int id, String genre);
+}
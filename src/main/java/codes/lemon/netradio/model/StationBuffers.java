@@ -0,0 +1,176 @@
+package codes.lemon.netradio.model;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Learns how much audio to buffer for each station from the underruns seen while playing it.
+ * Every station starts with DEFAULT_MILLIS. Each underrun doubles the stations buffer, up to
+ * MAX_MILLIS, so unreliable stations become stable. Each play lasting CLEAN_PLAY_NANOS or
+ * longer without an underrun shrinks it by a fifth, down to MIN_MILLIS, so reliable stations
+ * start quickly.
+ * Learned buffers are read from and written to the properties of a PlaybackStatsFile, while
+ * underrun counts are kept for the session only.
+ *
+ * Thread safe. Underruns are reported on a GStreamer thread while plays are begun and ended
+ * by clients.
+ */
+class StationBuffers {
+    static final long DEFAULT_MILLIS = 2_000;  // matches GStreamers default buffer-duration
+    private static final long MIN_MILLIS = 500;
+    private static final long MAX_MILLIS = 30_000;
+    private static final double GROWTH = 2.0;
+    private static final double SHRINK = 0.8;
+    // shortest play without an underrun which shrinks the buffer
+    private static final long CLEAN_PLAY_NANOS = 300_000_000_000L;
+    private static final String PREFIX = "station.";
+    private static final String DURATION = ".buffer.duration";
+
+    // learned buffer of each station by ID, in milliseconds. Guarded by this.
+    private final Map<Integer, Long> learned = new HashMap<>();
+    // underruns of each station by ID during this session. Guarded by this.
+    private final Map<Integer, Tally> tallies = new HashMap<>();
+    private final Tally total = new Tally();
+    // the play in progress, else -1. Guarded by this.
+    private int playing = -1;
+    private long playStart;
+    private boolean underran;
+
+    /**
+     * @param id the ID of a station
+     * @return the length of audio to buffer for the station in milliseconds
+     */
+    synchronized long durationMillis(int id) {
+        return learned.getOrDefault(id, DEFAULT_MILLIS);
+    }
+
+    /**
+     * Records that a station has started playing, ending any other play in progress.
+     * @param id the ID of the station played
+     * @return true if a learned buffer changed, else false
+     */
+    synchronized boolean begin(int id) {
+        if (playing == id) {
+            return false;
+        }
+        boolean changed = end();
+        playing = id;
+        playStart = System.nanoTime();
+        underran = false;
+        return changed;
+    }
+
+    /**
+     * Records that the play in progress has ended, shrinking the stations buffer if it was
+     * long and did not underrun.
+     * @return true if a learned buffer changed, else false
+     */
+    synchronized boolean end() {
+        if (playing < 0) {
+            return false;
+        }
+        int id = playing;
+        playing = -1;
+        if (underran || System.nanoTime() - playStart < CLEAN_PLAY_NANOS) {
+            return false;
+        }
+        return adjust(id, SHRINK);
+    }
+
+    /**
+     * Records an underrun of the play in progress, growing the stations buffer.
+     * @param stall how long playback was paused for
+     * @return true if a learned buffer changed, else false
+     */
+    synchronized boolean underrun(Duration stall) {
+        total.add(stall);
+        if (playing < 0) {
+            return false;
+        }
+        underran = true;
+        tallies.computeIfAbsent(playing, id -> new Tally()).add(stall);
+        return adjust(playing, GROWTH);
+    }
+
+    /**
+     * @param id the ID of a station
+     * @return the stations underruns during this session
+     */
+    synchronized UnderrunStats stats(int id) {
+        return tallies.getOrDefault(id, new Tally()).snapshot();
+    }
+
+    /**
+     * @return the underruns of every station during this session
+     */
+    synchronized UnderrunStats total() {
+        return total.snapshot();
+    }
+
+    private boolean adjust(int id, double factor) {
+        long current = durationMillis(id);
+        long next = Math.max(MIN_MILLIS, Math.min(MAX_MILLIS, Math.round(current * factor)));
+        if (next == current) {
+            return false;
+        }
+        learned.put(id, next);
+        return true;
+    }
+
+    /**
+     * Replaces the learned buffers with those found in the given properties. Malformed values
+     * are skipped.
+     * @param properties properties read from a PlaybackStatsFile
+     */
+    synchronized void load(Properties properties) {
+        learned.clear();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(PREFIX) || !key.endsWith(DURATION)) {
+                continue;
+            }
+            try {
+                int id = Integer.parseInt(key.substring(PREFIX.length(), key.length() - DURATION.length()));
+                long millis = Long.parseLong(properties.getProperty(key).trim());
+                learned.put(id, Math.max(MIN_MILLIS, Math.min(MAX_MILLIS, millis)));
+            } catch (NumberFormatException e) {
+                System.out.println("INFO: Skipping unreadable buffer duration " + key);
+            }
+        }
+    }
+
+    /**
+     * Writes every learned buffer into the given properties, replacing those already present.
+     * Buffers of stations which no longer exist are discarded.
+     * @param properties properties to be written to a PlaybackStatsFile
+     * @param exists tests whether a station ID is still in use
+     */
+    synchronized void store(Properties properties, IntPredicate exists) {
+        properties.stringPropertyNames().stream()
+                .filter(key -> key.startsWith(PREFIX) && key.endsWith(DURATION))
+                .forEach(properties::remove);
+        learned.keySet().removeIf(id -> !exists.test(id));
+        learned.forEach((id, millis) -> properties.setProperty(PREFIX + id + DURATION, Long.toString(millis)));
+    }
+
+    /**
+     * Running totals of underruns.
+     */
+    private static final class Tally {
+        private long underruns;
+        private Duration totalStall = Duration.ZERO;
+        private Duration longestStall = Duration.ZERO;
+
+        private void add(Duration stall) {
+            underruns++;
+            totalStall = totalStall.plus(stall);
+            if (stall.compareTo(longestStall) > 0) {
+                longestStall = stall;
+            }
+        }
+
+        private UnderrunStats snapshot() {
+            return new UnderrunStats(underruns, totalStall, longestStall);
+        }
+    }
+}
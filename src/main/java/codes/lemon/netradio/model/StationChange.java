@@ -0,0 +1,68 @@
+package codes.lemon.netradio.model;
+
+import java.util.Set;
+
+/**
+ * A single change to the station catalog, as recorded in the catalogs change feed.
+ * Every change is given a sequence number one greater than the change before it, so a
+ * consumer which remembers the last sequence number it applied can ask for everything
+ * after it through `RadioPlayer.getChangesSince()`.
+ */
+public final class StationChange {
+    /**
+     * The kinds of change.
+     */
+    public enum Type { ADDED, UPDATED, REMOVED }
+
+    private final long sequence;
+    private final Type type;
+    private final int stationId;
+    private final Set<StationField> fields;
+    private final Station station;
+
+    StationChange(long sequence, Type type, int stationId, Set<StationField> fields, Station station) {
+        this.sequence = sequence;
+        this.type = type;
+        this.stationId = stationId;
+        this.fields = fields;
+        this.station = station;
+    }
+
+    /**
+     * @return the position of this change in the feed
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return ID of the changed station
+     */
+    public int getStationId() {
+        return stationId;
+    }
+
+    /**
+     * @return an unmodifiable set of the fields changed by an update, else every field if
+     *         the station was added or removed
+     */
+    public Set<StationField> getChangedFields() {
+        return fields;
+    }
+
+    /**
+     * @return the station after the change, else null if it was removed
+     */
+    public Station getStation() {
+        return station;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + " " + stationId + " " + fields;
+    }
+}
@@ -0,0 +1,88 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+
+/**
+ * A bounded, sequenced log of changes to the station catalog.
+ * Changes are numbered from 1 and held in a ring buffer, so recording a change costs O(1)
+ * and memory is fixed regardless of how many changes are made. Once full, each new change
+ * overwrites the oldest. A consumer asking for changes it can no longer be given is told
+ * to resync rather than being given an incomplete delta.
+ *
+ * Thread safe. Changes are recorded by the catalogs single writer and may be read from any thread.
+ */
+class StationChangeLog {
+    private static final Set<StationField> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(StationField.class));
+
+    private final StationChange[] ring;
+    // sequence number of the latest change, 0 if none. Guarded by this.
+    private long latest = 0;
+
+    /**
+     * @param capacity the number of changes retained. Must be positive.
+     */
+    StationChangeLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Change log capacity must be positive");
+        }
+        ring = new StationChange[capacity];
+    }
+
+    /**
+     * Records the addition of a station.
+     * @param station the new station
+     */
+    void added(Station station) {
+        append(StationChange.Type.ADDED, station.getStationID(), ALL_FIELDS, station);
+    }
+
+    /**
+     * Records an update to the given fields of a station. Nothing is recorded if no field changed.
+     * @param after the station after the change
+     * @param fields the changed fields
+     */
+    void updated(Station after, Set<StationField> fields) {
+        if (!fields.isEmpty()) {
+            append(StationChange.Type.UPDATED, after.getStationID(), Collections.unmodifiableSet(EnumSet.copyOf(fields)), after);
+        }
+    }
+
+    /**
+     * Records the removal of a station.
+     * @param id ID of the removed station
+     */
+    void removed(int id) {
+        append(StationChange.Type.REMOVED, id, ALL_FIELDS, null);
+    }
+
+    private synchronized void append(StationChange.Type type, int id, Set<StationField> fields, Station station) {
+        latest++;
+        ring[(int) (latest % ring.length)] = new StationChange(latest, type, id, fields, station);
+    }
+
+    /**
+     * @return the sequence number of the latest change, else 0 if there have been none
+     */
+    synchronized long latestSequence() {
+        return latest;
+    }
+
+    /**
+     * Returns every change after the given sequence number, or a resync marker if some of
+     * them have been overwritten. A sequence number ahead of the log, such as one from an
+     * earlier run, also requires a resync.
+     * @param sequence the sequence number of the last change the consumer applied
+     * @return the changes since `sequence`, oldest first
+     */
+    synchronized StationChanges since(long sequence) {
+        long oldest = Math.max(1, latest - ring.length + 1);
+        if (sequence > latest || sequence < oldest - 1) {
+            return new StationChanges(Collections.emptyList(), latest, true);
+        }
+        List<StationChange> changes = new ArrayList<>((int) (latest - sequence));
+        for (long seq = sequence + 1; seq <= latest; seq++) {
+            changes.add(ring[(int) (seq % ring.length)]);
+        }
+        return new StationChanges(changes, latest, false);
+    }
+}
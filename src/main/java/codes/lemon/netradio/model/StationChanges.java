@@ -0,0 +1,45 @@
+package codes.lemon.netradio.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes made to the station catalog after a given sequence number, returned by
+ * `RadioPlayer.getChangesSince()`.
+ * Only recent changes are retained. If some of the changes requested have already been
+ * discarded, no changes are returned and `isResyncRequired()` is true: the consumer must
+ * read the catalog afresh, after this call, and continue from `getLatestSequence()`.
+ */
+public final class StationChanges {
+    private final List<StationChange> changes;
+    private final long latestSequence;
+    private final boolean resyncRequired;
+
+    StationChanges(List<StationChange> changes, long latestSequence, boolean resyncRequired) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.latestSequence = latestSequence;
+        this.resyncRequired = resyncRequired;
+    }
+
+    /**
+     * @return an unmodifiable list of the changes, oldest first. Empty if a resync is required.
+     */
+    public List<StationChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return the sequence number of the latest change to the catalog, from which the next
+     *         request should continue
+     */
+    public long getLatestSequence() {
+        return latestSequence;
+    }
+
+    /**
+     * @return true if changes have been missed and the catalog must be read again, else false.
+     */
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+}
@@ -0,0 +1,712 @@
+package codes.lemon.netradio.model;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * A compact, column oriented representation of a station catalog.
+ * Rather than one object per station, each station field is held in a primitive array
+ * (a column) and a station is identified by its position (row) within those arrays:
+ *  - id, play count and bitrate are int columns. Last played is a long column holding
+ *    microseconds since the epoch (UTC), or NEVER_PLAYED.
+ *  - favourites are held in a BitSet.
+ *  - genres and URI hosts (scheme://host:port) repeat heavily across a catalog so are
+ *    dictionary encoded. Each row holds an int code into a dictionary of distinct values.
+ *  - names and the remainder of each URI are held as UTF-8 bytes in a shared byte heap,
+ *    each prefixed by its length as a varint. Each row holds the offset of its entry.
+ * Rows are located by ID through an open addressing hash index of rows, so no Integer
+ * keys or per station objects are retained. Removing a station moves the last row into
+ * the vacated row, keeping the columns dense.
+ *
+ * Stations are exposed as flyweight views which read from the columns on demand.
+ *
+ * This class is not thread safe. Callers sharing columns between threads must synchronize
+ * on the columns, as views do.
+ */
+class StationColumns {
+    private static final long NEVER_PLAYED = Long.MIN_VALUE;
+    private static final int NO_GENRE = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final float INDEX_LOAD_FACTOR = 0.75f;
+
+    private int size = 0;
+    private int[] ids;
+    private int[] playCounts;
+    private int[] bitrates;
+    private int[] genres;
+    private int[] hosts;
+    private int[] text;  // heap offset of each rows name and URI remainder
+    private long[] lastPlayed;
+    private final BitSet favourites;
+
+    private byte[] heap;
+    private int heapLength = 0;
+    private int heapGarbage = 0;  // bytes belonging to replaced text entries
+
+    private final Dictionary genreDictionary;
+    private final Dictionary hostDictionary;
+
+    // open addressing index of ID -> row. Each slot holds row + 1, or 0 if empty.
+    private int[] slots;
+
+    /**
+     * @param capacity number of stations which can be held before the columns are grown
+     */
+    StationColumns(int capacity) {
+        capacity = Math.max(capacity, MIN_CAPACITY);
+        ids = new int[capacity];
+        playCounts = new int[capacity];
+        bitrates = new int[capacity];
+        genres = new int[capacity];
+        hosts = new int[capacity];
+        text = new int[capacity];
+        lastPlayed = new long[capacity];
+        favourites = new BitSet(capacity);
+        heap = new byte[capacity * 32];
+        genreDictionary = new Dictionary();
+        hostDictionary = new Dictionary();
+        slots = new int[indexCapacity(capacity)];
+    }
+
+    /**
+     * Copy constructor. The copy shares nothing with the original.
+     */
+    private StationColumns(StationColumns other) {
+        size = other.size;
+        ids = Arrays.copyOf(other.ids, size);
+        playCounts = Arrays.copyOf(other.playCounts, size);
+        bitrates = Arrays.copyOf(other.bitrates, size);
+        genres = Arrays.copyOf(other.genres, size);
+        hosts = Arrays.copyOf(other.hosts, size);
+        text = Arrays.copyOf(other.text, size);
+        lastPlayed = Arrays.copyOf(other.lastPlayed, size);
+        favourites = (BitSet) other.favourites.clone();
+        heap = Arrays.copyOf(other.heap, other.heapLength);
+        heapLength = other.heapLength;
+        heapGarbage = other.heapGarbage;
+        genreDictionary = new Dictionary(other.genreDictionary);
+        hostDictionary = new Dictionary(other.hostDictionary);
+        slots = other.slots.clone();
+    }
+
+    /**
+     * Returns an independent copy of these columns, trimmed to size.
+     * @return a copy which is unaffected by later changes to these columns
+     */
+    StationColumns copy() {
+        return new StationColumns(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the row holding the station with the given ID.
+     * @param id a station ID
+     * @return the row of the station, else -1 if no such station exists
+     */
+    int rowOf(int id) {
+        int slot = home(id);
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (ids[row] == id) {
+                return row;
+            }
+            slot = nextSlot(slot);
+        }
+        return -1;
+    }
+
+    int idAt(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Stores every value of the given station, replacing any station with the same ID.
+     * @param station the station to be stored
+     */
+    void put(Station station) {
+        int row = rowOf(station.getStationID());
+        if (row < 0) {
+            row = appendRow(station.getStationID());
+        }
+        else {
+            heapGarbage += textLength(text[row]);
+        }
+        playCounts[row] = station.getPlayCount();
+        bitrates[row] = station.getBitrate();
+        favourites.set(row, station.isFavourite());
+        setLastPlayed(row, station.getDateLastPlayed());
+        genres[row] = encodeGenre(station.getGenre());
+        String uri = station.getUri();
+        int hostEnd = hostEnd(uri);
+        hosts[row] = hostDictionary.encode(uri.substring(0, hostEnd));
+        text[row] = appendText(station.getStationName(), uri.substring(hostEnd));
+        compactHeapIfRequired();
+    }
+
+    /**
+     * Removes the station with the given ID. The last row is moved into its place.
+     * @param id ID of the station to be removed
+     * @return true if a station was removed, else false.
+     */
+    boolean remove(int id) {
+        int row = rowOf(id);
+        if (row < 0) {
+            return false;
+        }
+        heapGarbage += textLength(text[row]);
+        deleteSlot(id);
+        int last = size - 1;
+        if (row != last) {
+            ids[row] = ids[last];
+            playCounts[row] = playCounts[last];
+            bitrates[row] = bitrates[last];
+            genres[row] = genres[last];
+            hosts[row] = hosts[last];
+            text[row] = text[last];
+            lastPlayed[row] = lastPlayed[last];
+            favourites.set(row, favourites.get(last));
+            slots[slotOf(ids[row])] = row + 1;
+        }
+        favourites.clear(last);
+        size--;
+        compactHeapIfRequired();
+        return true;
+    }
+
+    /**
+     * Shrinks every column to the number of stations held, releasing any spare capacity.
+     * Intended to be called once a catalog has been loaded.
+     */
+    void trimToSize() {
+        int capacity = Math.max(size, MIN_CAPACITY);
+        ids = Arrays.copyOf(ids, capacity);
+        playCounts = Arrays.copyOf(playCounts, capacity);
+        bitrates = Arrays.copyOf(bitrates, capacity);
+        genres = Arrays.copyOf(genres, capacity);
+        hosts = Arrays.copyOf(hosts, capacity);
+        text = Arrays.copyOf(text, capacity);
+        lastPlayed = Arrays.copyOf(lastPlayed, capacity);
+        compactHeap();
+        heap = Arrays.copyOf(heap, Math.max(heapLength, MIN_CAPACITY));
+        if (slots.length > indexCapacity(capacity)) {
+            rebuildIndex(indexCapacity(capacity));
+        }
+    }
+
+    /*-------------------------------
+    |         ROW ACCESSORS         |
+    -------------------------------*/
+
+    String name(int row) {
+        int offset = text[row];
+        int length = readVarint(offset);
+        return new String(heap, offset + varintSize(length), length, StandardCharsets.UTF_8);
+    }
+
+    String uri(int row) {
+        return hostDictionary.decode(hosts[row]).concat(uriRemainder(row));
+    }
+
+    String genre(int row) {
+        return genres[row] == NO_GENRE ? null : genreDictionary.decode(genres[row]);
+    }
+
+    int playCount(int row) {
+        return playCounts[row];
+    }
+
+    int bitrate(int row) {
+        return bitrates[row];
+    }
+
+    boolean favourite(int row) {
+        return favourites.get(row);
+    }
+
+    LocalDateTime lastPlayed(int row) {
+        long micros = lastPlayed[row];
+        if (micros == NEVER_PLAYED) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    void setName(int row, String name) {
+        Objects.requireNonNull(name);
+        String remainder = uriRemainder(row);
+        heapGarbage += textLength(text[row]);
+        text[row] = appendText(name, remainder);
+        compactHeapIfRequired();
+    }
+
+    void setUri(int row, String uri) {
+        Objects.requireNonNull(uri);
+        String name = name(row);
+        int hostEnd = hostEnd(uri);
+        hosts[row] = hostDictionary.encode(uri.substring(0, hostEnd));
+        heapGarbage += textLength(text[row]);
+        text[row] = appendText(name, uri.substring(hostEnd));
+        compactHeapIfRequired();
+    }
+
+    void setGenre(int row, String genre) {
+        genres[row] = encodeGenre(genre);
+    }
+
+    void setBitrate(int row, int bitrate) {
+        bitrates[row] = Math.max(bitrate, -1);
+    }
+
+    void setFavourite(int row, boolean favourite) {
+        favourites.set(row, favourite);
+    }
+
+    void markPlayed(int row) {
+        playCounts[row]++;
+        setLastPlayed(row, LocalDateTime.now());
+    }
+
+    /**
+     * Decodes the station held in the given row into an independent RadioStation.
+     * @param row a row
+     * @return a station holding the same values as the row
+     */
+    RadioStation materialise(int row) {
+        return new RadioStation(ids[row], name(row), uri(row), lastPlayed(row), playCounts[row], bitrates[row],
+                genre(row), favourites.get(row));
+    }
+
+    /**
+     * Returns a flyweight view of the station held in the given row.
+     * @param row a row
+     * @return a view which reads and writes the row of its station
+     */
+    MutableStation view(int row) {
+        return new View(ids[row], row);
+    }
+
+    /**
+     * Returns every station as a list of flyweight views. Views are created as they are
+     * requested so no per station objects are retained by the list.
+     * @return a list view of the stations held by these columns
+     */
+    List<MutableStation> asList() {
+        return new AbstractList<>() {
+            @Override
+            public MutableStation get(int index) {
+                Objects.checkIndex(index, size);
+                return view(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /*-------------------------------
+    |         STORAGE DETAIL        |
+    -------------------------------*/
+
+    private int appendRow(int id) {
+        if (size == ids.length) {
+            grow(size + 1);
+        }
+        if (size + 1 > slots.length * INDEX_LOAD_FACTOR) {
+            rebuildIndex(slots.length * 2);
+        }
+        int row = size++;
+        ids[row] = id;
+        int slot = home(id);
+        while (slots[slot] != 0) {
+            slot = nextSlot(slot);
+        }
+        slots[slot] = row + 1;
+        return row;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        playCounts = Arrays.copyOf(playCounts, capacity);
+        bitrates = Arrays.copyOf(bitrates, capacity);
+        genres = Arrays.copyOf(genres, capacity);
+        hosts = Arrays.copyOf(hosts, capacity);
+        text = Arrays.copyOf(text, capacity);
+        lastPlayed = Arrays.copyOf(lastPlayed, capacity);
+    }
+
+    /**
+     * Returns the part of a rows URI following its host.
+     */
+    private String uriRemainder(int row) {
+        int offset = text[row];
+        int nameLength = readVarint(offset);
+        offset += varintSize(nameLength) + nameLength;
+        int length = readVarint(offset);
+        return new String(heap, offset + varintSize(length), length, StandardCharsets.UTF_8);
+    }
+
+    private void setLastPlayed(int row, LocalDateTime value) {
+        lastPlayed[row] = value == null ? NEVER_PLAYED
+                : value.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + value.getNano() / 1000;
+    }
+
+    private int encodeGenre(String genre) {
+        return genre == null ? NO_GENRE : genreDictionary.encode(genre);
+    }
+
+    /**
+     * Returns the length of the scheme and authority of a URI, eg `http://example.com:8000`.
+     * URIs without a scheme are not split.
+     */
+    private static int hostEnd(String uri) {
+        int scheme = uri.indexOf("://");
+        if (scheme < 0) {
+            return 0;
+        }
+        int path = uri.indexOf('/', scheme + 3);
+        return path < 0 ? uri.length() : path;
+    }
+
+    /**
+     * Appends a name and URI remainder to the heap.
+     * @return the offset of the new entry
+     */
+    private int appendText(String name, String remainder) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] remainderBytes = remainder.getBytes(StandardCharsets.UTF_8);
+        int required = varintSize(nameBytes.length) + nameBytes.length
+                + varintSize(remainderBytes.length) + remainderBytes.length;
+        if (heapLength + required > heap.length) {
+            heap = Arrays.copyOf(heap, Math.max(heapLength + required, heap.length + (heap.length >> 1)));
+        }
+        int offset = heapLength;
+        heapLength = writeVarint(heapLength, nameBytes.length);
+        System.arraycopy(nameBytes, 0, heap, heapLength, nameBytes.length);
+        heapLength += nameBytes.length;
+        heapLength = writeVarint(heapLength, remainderBytes.length);
+        System.arraycopy(remainderBytes, 0, heap, heapLength, remainderBytes.length);
+        heapLength += remainderBytes.length;
+        return offset;
+    }
+
+    /**
+     * Returns the number of heap bytes used by the text entry at the given offset.
+     */
+    private int textLength(int offset) {
+        int start = offset;
+        int length = readVarint(offset);
+        offset += varintSize(length) + length;
+        length = readVarint(offset);
+        offset += varintSize(length) + length;
+        return offset - start;
+    }
+
+    /**
+     * Rewrites the heap without garbage once garbage makes up half of it.
+     */
+    private void compactHeapIfRequired() {
+        if (heapGarbage > 64 * 1024 && heapGarbage > heapLength / 2) {
+            compactHeap();
+        }
+    }
+
+    private void compactHeap() {
+        if (heapGarbage == 0) {
+            return;
+        }
+        byte[] compacted = new byte[Math.max(heapLength - heapGarbage, MIN_CAPACITY)];
+        int length = 0;
+        for (int row = 0; row < size; row++) {
+            int entry = textLength(text[row]);
+            System.arraycopy(heap, text[row], compacted, length, entry);
+            text[row] = length;
+            length += entry;
+        }
+        heap = compacted;
+        heapLength = length;
+        heapGarbage = 0;
+    }
+
+    private int writeVarint(int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            heap[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        heap[offset++] = (byte) value;
+        return offset;
+    }
+
+    private int readVarint(int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = heap[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varintSize(int value) {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /*-------------------------------
+    |            INDEX              |
+    -------------------------------*/
+
+    private static int indexCapacity(int stations) {
+        return Math.max((int) (stations / INDEX_LOAD_FACTOR) + 1, MIN_CAPACITY);
+    }
+
+    /**
+     * Maps an ID onto a slot. IDs are mixed so sequential IDs spread across the index,
+     * then scaled onto the index with a multiply rather than a modulo so the index does
+     * not need a power of two capacity.
+     */
+    private int home(int id) {
+        int hash = id * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xFFFFFFFFL) * slots.length) >>> 32);
+    }
+
+    private int nextSlot(int slot) {
+        return slot + 1 == slots.length ? 0 : slot + 1;
+    }
+
+    private int slotOf(int id) {
+        int slot = home(id);
+        while (ids[slots[slot] - 1] != id) {
+            slot = nextSlot(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the slot holding the given ID. Entries following it in the same probe
+     * sequence are shifted back to fill the gap, so lookups never need tombstones.
+     */
+    private void deleteSlot(int id) {
+        int hole = slotOf(id);
+        int slot = hole;
+        while (true) {
+            slot = nextSlot(slot);
+            if (slots[slot] == 0) {
+                break;
+            }
+            int home = home(ids[slots[slot] - 1]);
+            // the entry may move into the hole unless its home lies cyclically within (hole, slot]
+            boolean reachable = hole <= slot ? (home > hole && home <= slot) : (home > hole || home <= slot);
+            if (!reachable) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    private void rebuildIndex(int capacity) {
+        slots = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            int slot = home(ids[row]);
+            while (slots[slot] != 0) {
+                slot = nextSlot(slot);
+            }
+            slots[slot] = row + 1;
+        }
+    }
+
+    /**
+     * Assigns a code to each distinct string. Codes are never reassigned.
+     */
+    private static class Dictionary {
+        private final List<String> values;
+        private final Map<String, Integer> codes;
+
+        private Dictionary() {
+            values = new ArrayList<>();
+            codes = new HashMap<>();
+        }
+
+        private Dictionary(Dictionary other) {
+            values = new ArrayList<>(other.values);
+            codes = new HashMap<>(other.codes);
+        }
+
+        private int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        private String decode(int code) {
+            return values.get(code);
+        }
+    }
+
+    /**
+     * A flyweight station which holds only its ID and reads every other value from the
+     * columns. The row is cached and relocated by ID if the station has since moved.
+     * Views synchronize on the columns so they may be read while the columns are modified
+     * by a writer which also synchronizes on the columns.
+     */
+    private class View implements MutableStation {
+        private final int id;
+        private int row;
+
+        private View(int id, int row) {
+            this.id = id;
+            this.row = row;
+        }
+
+        private int row() {
+            if (row >= size || ids[row] != id) {
+                row = rowOf(id);
+                if (row < 0) {
+                    throw new IllegalStateException("Station " + id + " has been removed");
+                }
+            }
+            return row;
+        }
+
+        @Override
+        public int getStationID() {
+            return id;
+        }
+
+        @Override
+        public String getStationName() {
+            synchronized (StationColumns.this) {
+                return name(row());
+            }
+        }
+
+        @Override
+        public String getUri() {
+            synchronized (StationColumns.this) {
+                return uri(row());
+            }
+        }
+
+        @Override
+        public int getBitrate() {
+            synchronized (StationColumns.this) {
+                return bitrate(row());
+            }
+        }
+
+        @Override
+        public LocalDateTime getDateLastPlayed() {
+            synchronized (StationColumns.this) {
+                return lastPlayed(row());
+            }
+        }
+
+        @Override
+        public int getPlayCount() {
+            synchronized (StationColumns.this) {
+                return playCount(row());
+            }
+        }
+
+        @Override
+        public String getGenre() {
+            synchronized (StationColumns.this) {
+                return genre(row());
+            }
+        }
+
+        @Override
+        public boolean isFavourite() {
+            synchronized (StationColumns.this) {
+                return favourite(row());
+            }
+        }
+
+        @Override
+        public void setStationName(String name) {
+            synchronized (StationColumns.this) {
+                setName(row(), name);
+            }
+        }
+
+        @Override
+        public void setUri(String uri) {
+            synchronized (StationColumns.this) {
+                StationColumns.this.setUri(row(), uri);
+            }
+        }
+
+        @Override
+        public void setBitrate(int bitrate) {
+            synchronized (StationColumns.this) {
+                StationColumns.this.setBitrate(row(), bitrate);
+            }
+        }
+
+        @Override
+        public void setFavourite(boolean val) {
+            synchronized (StationColumns.this) {
+                StationColumns.this.setFavourite(row(), val);
+            }
+        }
+
+        @Override
+        public void setGenre(String genre) {
+            synchronized (StationColumns.this) {
+                StationColumns.this.setGenre(row(), Objects.requireNonNull(genre));
+            }
+        }
+
+        @Override
+        public void markPlayed() {
+            synchronized (StationColumns.this) {
+                StationColumns.this.markPlayed(row());
+            }
+        }
+
+        @Override
+        public MutableStation copy() {
+            synchronized (StationColumns.this) {
+                return materialise(row());
+            }
+        }
+
+        /**
+         * Stations are considered equal if their IDs are equal. See `RadioStation.equals()`.
+         * @param o object to be compared with this
+         * @return true if `this` and `o` are equal, else false.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof View) {
+                return this.id == ((View) o).id;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.id);
+        }
+    }
+}
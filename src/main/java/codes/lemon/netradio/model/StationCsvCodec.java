@@ -0,0 +1,515 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads and writes station CSV files without reflection or intermediate bean objects.
+ * Rows are parsed straight from the files bytes into RadioStation instances. Large files
+ * are split into chunks at row boundaries and the chunks are parsed in parallel.
+ * Stations are written through a buffered FileChannel, encoding values directly into
+ * the buffer. Files are written to a temporary file which then replaces the target, so a
+ * reader never sees a partially written file.
+ *
+ * Files use the layout previously produced by OpenCSV so existing files remain readable:
+ * a header row naming each column followed by one row per station, with every value quoted.
+ * Columns are matched to station fields by header name (case insensitive) and may appear
+ * in any order. LastPlayed values are ISO-8601 local date-times and may be empty.
+ */
+class StationCsvCodec {
+    private static final String[] COLUMNS = { "BITRATE", "FAVOURITE", "GENRE", "ID", "LASTPLAYED", "NAMES",
+                                              "PLAYCOUNT", "URI" };
+    // column positions within COLUMNS. Also used as indexes into a rows parsed field positions
+    private static final int BITRATE = 0;
+    private static final int FAVOURITE = 1;
+    private static final int GENRE = 2;
+    private static final int ID = 3;
+    private static final int LAST_PLAYED = 4;
+    private static final int NAME = 5;
+    private static final int PLAY_COUNT = 6;
+    private static final int URI = 7;
+
+    // files larger than this are split into chunks which are parsed in parallel
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final byte QUOTE = '"';
+
+    private StationCsvCodec() {
+        // static utility class
+    }
+
+    /**
+     * Reads every station from the given CSV file. Rows which are missing required
+     * values or contain invalid values are skipped.
+     * @param file a CSV file containing station details
+     * @return the stations contained in the file, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static List<MutableStation> read(File file) throws IOException {
+        // a single bulk read is cheaper than the bounds checks of byte-wise access to a mapped buffer
+        return parse(Files.readAllBytes(file.toPath()), true);
+    }
+
+    /**
+     * Parses station rows from CSV data.
+     * @param data the full contents of a CSV file
+     * @param parallel true to parse large inputs on multiple threads
+     * @return the stations contained in the data, in order
+     */
+    static List<MutableStation> parse(byte[] data, boolean parallel) {
+        int limit = data.length;
+        int headerEnd = nextRow(data, 0, limit);
+        if (headerEnd == 0) {
+            return new ArrayList<>();
+        }
+        int[] columnMapping = mapColumns(data, 0, headerEnd);
+
+        // split into chunks at row boundaries. Boundaries must be found sequentially since
+        // a newline may appear inside a quoted value.
+        List<int[]> chunks = new ArrayList<>();
+        int start = headerEnd;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && end - start < CHUNK_SIZE) {
+                end = nextRow(data, end, limit);
+            }
+            chunks.add(new int[] { start, end });
+            start = end;
+        }
+
+        IntStream chunkIndexes = IntStream.range(0, chunks.size());
+        if (parallel && chunks.size() > 1) {
+            chunkIndexes = chunkIndexes.parallel();
+        }
+        List<List<MutableStation>> parsed = chunkIndexes
+                .mapToObj(i -> parseChunk(data, chunks.get(i)[0], chunks.get(i)[1], columnMapping))
+                .collect(Collectors.toList());
+
+        List<MutableStation> stations = new ArrayList<>();
+        for (List<MutableStation> chunk : parsed) {
+            stations.addAll(chunk);
+        }
+        return stations;
+    }
+
+    /**
+     * Writes the given stations to a CSV file, atomically replacing any existing content.
+     * @param stations the stations to be written
+     * @param file destination CSV file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(List<? extends Station> stations, File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RowWriter out = new RowWriter(channel);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                out.putString(COLUMNS[column], column == COLUMNS.length - 1);
+            }
+            for (Station s : stations) {
+                out.putInt(s.getBitrate(), false);
+                out.putString(s.isFavourite() ? "true" : "false", false);
+                out.putString(s.getGenre() == null ? "" : s.getGenre(), false);
+                out.putInt(s.getStationID(), false);
+                out.putDateTime(s.getDateLastPlayed(), false);
+                out.putString(s.getStationName(), false);
+                out.putInt(s.getPlayCount(), false);
+                out.putString(s.getUri(), true);
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*-------------------------------
+    |            READING            |
+    -------------------------------*/
+
+    /**
+     * Finds the start of the row following the row which starts at the given position.
+     * @return position of the next row, else limit if this is the last row
+     */
+    private static int nextRow(byte[] data, int position, int limit) {
+        boolean quoted = false;
+        while (position < limit) {
+            byte b = data[position++];
+            if (b == QUOTE) {
+                // escaped quotes ("") toggle twice so leave the state unchanged
+                quoted = !quoted;
+            }
+            else if (b == '\n' && !quoted) {
+                return position;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Maps each known column to its position within a row using the header row.
+     * @return for each known column, its position in a row, else -1 if not present
+     */
+    private static int[] mapColumns(byte[] data, int start, int end) {
+        int[] fields = new int[2 * 64];
+        int count = splitRow(data, start, end, fields);
+        int[] mapping = new int[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            mapping[column] = -1;
+        }
+        for (int field = 0; field < count; field++) {
+            String name = decodeString(data, fields[2 * field], fields[2 * field + 1]).trim().toUpperCase(Locale.ROOT);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equals(name)) {
+                    mapping[column] = field;
+                }
+            }
+        }
+        return mapping;
+    }
+
+    private static List<MutableStation> parseChunk(byte[] data, int start, int end, int[] columnMapping) {
+        List<MutableStation> stations = new ArrayList<>(Math.max(16, (end - start) / 96));
+        // start and end positions of each field in the current row, reused for every row
+        int[] fields = new int[2 * 64];
+        int position = start;
+        while (position < end) {
+            int rowEnd = nextRow(data, position, end);
+            int count = splitRow(data, position, rowEnd, fields);
+            if (count > 1 || fields[1] > fields[0]) {  // ignore blank lines
+                MutableStation station = buildStation(data, fields, count, columnMapping);
+                if (station != null) {
+                    stations.add(station);
+                }
+                else {
+                    System.out.println("INFO: Skipping invalid station row -> "
+                            + decodeString(data, position, rowEnd).trim());
+                }
+            }
+            position = rowEnd;
+        }
+        return stations;
+    }
+
+    /**
+     * Locates each field in a row. Quotes surrounding a field are excluded from its bounds.
+     * @param fields receives the start (inclusive) and end (exclusive) position of each field
+     * @return the number of fields found
+     */
+    private static int splitRow(byte[] data, int start, int end, int[] fields) {
+        // exclude line terminator
+        if (end > start && data[end - 1] == '\n') end--;
+        if (end > start && data[end - 1] == '\r') end--;
+
+        int count = 0;
+        int position = start;
+        while (count < fields.length / 2) {
+            int fieldStart;
+            int fieldEnd;
+            if (position < end && data[position] == QUOTE) {
+                fieldStart = ++position;
+                while (position < end) {
+                    if (data[position] == QUOTE) {
+                        if (position + 1 < end && data[position + 1] == QUOTE) {
+                            position += 2;  // escaped quote
+                            continue;
+                        }
+                        break;
+                    }
+                    position++;
+                }
+                fieldEnd = position;
+                // skip closing quote and anything up to the separator
+                while (position < end && data[position] != ',') position++;
+            }
+            else {
+                fieldStart = position;
+                while (position < end && data[position] != ',') position++;
+                fieldEnd = position;
+            }
+            fields[2 * count] = fieldStart;
+            fields[2 * count + 1] = fieldEnd;
+            count++;
+            if (position >= end) {
+                break;
+            }
+            position++;  // skip separator
+        }
+        return count;
+    }
+
+    /**
+     * Constructs a station from the fields of a row.
+     * @return a station, else null if a required value is missing or invalid
+     */
+    private static MutableStation buildStation(byte[] data, int[] fields, int count, int[] columnMapping) {
+        try {
+            int id = parseInt(data, fields, count, columnMapping[ID]);
+            int playCount = parseInt(data, fields, count, columnMapping[PLAY_COUNT]);
+            int bitrate = parseInt(data, fields, count, columnMapping[BITRATE]);
+            boolean favourite = parseBoolean(data, fields, count, columnMapping[FAVOURITE]);
+            String name = requiredString(data, fields, count, columnMapping[NAME]);
+            String uri = requiredString(data, fields, count, columnMapping[URI]);
+            String genre = optionalString(data, fields, count, columnMapping[GENRE]);
+            LocalDateTime lastPlayed = parseDateTime(data, fields, count, columnMapping[LAST_PLAYED]);
+            return new RadioStation(id, name, uri, lastPlayed, playCount, bitrate,
+                    genre.isEmpty() ? "Unknown" : genre, favourite);
+        } catch (IllegalArgumentException | IllegalStateException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int parseInt(byte[] data, int[] fields, int count, int field) {
+        if (field < 0 || field >= count) {
+            throw new IllegalArgumentException("missing required value");
+        }
+        int position = fields[2 * field];
+        int end = fields[2 * field + 1];
+        if (position == end) {
+            throw new IllegalArgumentException("missing required value");
+        }
+        boolean negative = data[position] == '-';
+        if (negative) position++;
+        if (position == end) {
+            throw new IllegalArgumentException("invalid number");
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            int digit = data[position] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("invalid number");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid number");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses an optional ISO-8601 local date-time. The common `yyyy-MM-ddTHH:mm:ss[.fraction]`
+     * form is parsed directly from the bytes, anything else is handed to LocalDateTime.
+     * @return the parsed date-time, else null if the value is missing or empty
+     */
+    private static LocalDateTime parseDateTime(byte[] data, int[] fields, int count, int field) {
+        if (field < 0 || field >= count || fields[2 * field] == fields[2 * field + 1]) {
+            return null;
+        }
+        int p = fields[2 * field];
+        int end = fields[2 * field + 1];
+        if (end - p >= 19 && data[p + 4] == '-' && data[p + 7] == '-' && data[p + 10] == 'T'
+                && data[p + 13] == ':' && data[p + 16] == ':') {
+            int nanos = 0;
+            int fractionEnd = p + 19;
+            if (end > fractionEnd && data[fractionEnd] == '.') {
+                int digits = 0;
+                for (fractionEnd++; fractionEnd < end && digits < 9; fractionEnd++, digits++) {
+                    nanos = nanos * 10 + digit(data, fractionEnd);
+                }
+                for (; digits < 9; digits++) {
+                    nanos *= 10;
+                }
+            }
+            if (fractionEnd == end) {
+                return LocalDateTime.of(digits(data, p, 4), digits(data, p + 5, 2), digits(data, p + 8, 2),
+                        digits(data, p + 11, 2), digits(data, p + 14, 2), digits(data, p + 17, 2), nanos);
+            }
+        }
+        return LocalDateTime.parse(decodeString(data, p, end));
+    }
+
+    private static int digits(byte[] data, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value * 10 + digit(data, i);
+        }
+        return value;
+    }
+
+    private static int digit(byte[] data, int position) {
+        int digit = data[position] - '0';
+        if (digit < 0 || digit > 9) {
+            throw new IllegalArgumentException("invalid digit");
+        }
+        return digit;
+    }
+
+    private static boolean parseBoolean(byte[] data, int[] fields, int count, int field) {
+        String value = requiredString(data, fields, count, field);
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("invalid boolean");
+    }
+
+    private static String requiredString(byte[] data, int[] fields, int count, int field) {
+        if (field < 0 || field >= count) {
+            throw new IllegalArgumentException("missing required value");
+        }
+        return decodeString(data, fields[2 * field], fields[2 * field + 1]);
+    }
+
+    private static String optionalString(byte[] data, int[] fields, int count, int field) {
+        if (field < 0 || field >= count) {
+            return "";
+        }
+        return decodeString(data, fields[2 * field], fields[2 * field + 1]);
+    }
+
+    /**
+     * Decodes a UTF-8 value, replacing escaped quotes ("") with a single quote.
+     */
+    private static String decodeString(byte[] data, int start, int end) {
+        String value = new String(data, start, end - start, StandardCharsets.UTF_8);
+        return value.indexOf('"') >= 0 ? value.replace("\"\"", "\"") : value;
+    }
+
+    /*-------------------------------
+    |            WRITING            |
+    -------------------------------*/
+
+    /**
+     * Encodes quoted CSV values into a buffer which is written to a channel whenever it fills.
+     */
+    private static class RowWriter {
+        private final FileChannel channel;
+        private final byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        private int position = 0;
+
+        private RowWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value, boolean lastInRow) throws IOException {
+            ensureCapacity(16);
+            buffer[position++] = QUOTE;
+            putDigits(value);
+            buffer[position++] = QUOTE;
+            endValue(lastInRow);
+        }
+
+        /**
+         * Writes a date-time in the ISO-8601 form produced by `LocalDateTime.toString()`.
+         */
+        private void putDateTime(LocalDateTime value, boolean lastInRow) throws IOException {
+            ensureCapacity(40);
+            buffer[position++] = QUOTE;
+            if (value != null) {
+                if (value.getYear() < 1000 || value.getYear() > 9999) {
+                    // rare enough that the allocation does not matter
+                    for (byte b : value.toString().getBytes(StandardCharsets.US_ASCII)) {
+                        buffer[position++] = b;
+                    }
+                }
+                else {
+                    putPadded(value.getYear(), 4);
+                    buffer[position++] = '-';
+                    putPadded(value.getMonthValue(), 2);
+                    buffer[position++] = '-';
+                    putPadded(value.getDayOfMonth(), 2);
+                    buffer[position++] = 'T';
+                    putPadded(value.getHour(), 2);
+                    buffer[position++] = ':';
+                    putPadded(value.getMinute(), 2);
+                    buffer[position++] = ':';
+                    putPadded(value.getSecond(), 2);
+                    if (value.getNano() > 0) {
+                        buffer[position++] = '.';
+                        putPadded(value.getNano(), 9);
+                    }
+                }
+            }
+            buffer[position++] = QUOTE;
+            endValue(lastInRow);
+        }
+
+        private void putString(String value, boolean lastInRow) throws IOException {
+            ensureCapacity(2);
+            buffer[position++] = QUOTE;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    // ASCII is written directly
+                    ensureCapacity(2);
+                    if (c == '"') {
+                        buffer[position++] = QUOTE;
+                    }
+                    buffer[position++] = (byte) c;
+                }
+                else {
+                    // anything else is encoded as UTF-8
+                    int codePointEnd = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                    byte[] encoded = value.substring(i, codePointEnd).getBytes(StandardCharsets.UTF_8);
+                    ensureCapacity(encoded.length);
+                    System.arraycopy(encoded, 0, buffer, position, encoded.length);
+                    position += encoded.length;
+                    i = codePointEnd - 1;
+                }
+            }
+            ensureCapacity(2);
+            buffer[position++] = QUOTE;
+            endValue(lastInRow);
+        }
+
+        private void putDigits(int value) {
+            if (value < 0) {
+                buffer[position++] = '-';
+            }
+            long remaining = Math.abs((long) value);
+            long divisor = 1;
+            while (divisor * 10 <= remaining) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                buffer[position++] = (byte) ('0' + (remaining / divisor) % 10);
+            }
+        }
+
+        private void putPadded(int value, int width) {
+            for (int i = position + width - 1; i >= position; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            position += width;
+        }
+
+        private void endValue(boolean lastInRow) throws IOException {
+            ensureCapacity(1);
+            buffer[position++] = (byte) (lastInRow ? '\n' : ',');
+        }
+
+        private void ensureCapacity(int bytes) throws IOException {
+            if (buffer.length - position < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            wrapped.clear().limit(position);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+            position = 0;
+        }
+    }
+}
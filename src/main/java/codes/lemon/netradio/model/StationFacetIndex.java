@@ -0,0 +1,164 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes over the fields stations are commonly filtered by, answering the
+ * indexed predicates of a StationQuery without visiting every station.
+ * Each index maps a field value to the set of station IDs holding it: favourites are a
+ * single bitset, genres are hashed to a bitset of IDs and bitrates are held in a sorted map
+ * so a range is the union of a sub map. Station IDs are allocated sequentially so bitsets
+ * indexed by ID are compact, and intersecting them costs a word per 64 stations.
+ * The genre and bitrate each station is indexed under are also recorded, so an update only
+ * needs the station after the change.
+ *
+ * Thread safe. Queries may run concurrently with each other and with updates.
+ */
+class StationFacetIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final BitSet present = new BitSet();
+    private final BitSet favourites = new BitSet();
+    private final Map<String, BitSet> genres = new HashMap<>();
+    private final NavigableMap<Integer, BitSet> bitrates = new TreeMap<>();
+    // the genre and bitrate each indexed station is filed under, by ID
+    private String[] genreOf = new String[0];
+    private int[] bitrateOf = new int[0];
+
+    /**
+     * Indexes every station in the given snapshot.
+     * @param catalog the stations to be indexed
+     * @return a new index
+     */
+    static StationFacetIndex build(StationSnapshot catalog) {
+        StationFacetIndex index = new StationFacetIndex();
+        catalog.forEach(index::add);
+        return index;
+    }
+
+    /**
+     * Indexes a station, replacing any previous entry for its ID.
+     * @param s the station after a change
+     */
+    void put(Station s) {
+        lock.writeLock().lock();
+        try {
+            int id = s.getStationID();
+            if (present.get(id)) {
+                if (Objects.equals(genreOf[id], s.getGenre()) && bitrateOf[id] == s.getBitrate()) {
+                    // only the favourite status may differ
+                    favourites.set(id, s.isFavourite());
+                    return;
+                }
+                delete(id);
+            }
+            add(s);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a station from the index. Does nothing if it is not indexed.
+     * @param id ID of the removed station
+     */
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (present.get(id)) {
+                delete(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of stations satisfying the indexed predicates of a query: genre,
+     * favourite status and bitrate.
+     * @param query the query to be answered
+     * @return a new set of matching station IDs
+     */
+    BitSet select(StationQuery query) {
+        lock.readLock().lock();
+        try {
+            BitSet matched = (BitSet) present.clone();
+            if (query.getFavourite() != null) {
+                if (query.getFavourite()) {
+                    matched.and(favourites);
+                }
+                else {
+                    matched.andNot(favourites);
+                }
+            }
+            if (query.getGenres() != null) {
+                BitSet any = new BitSet();
+                for (String genre : query.getGenres()) {
+                    BitSet ids = genres.get(genre);
+                    if (ids != null) {
+                        any.or(ids);
+                    }
+                }
+                matched.and(any);
+            }
+            if (query.hasBitrateRange()) {
+                BitSet any = new BitSet();
+                for (BitSet ids : bitrates.subMap(query.getMinBitrate(), true, query.getMaxBitrate(), true).values()) {
+                    any.or(ids);
+                }
+                matched.and(any);
+            }
+            return matched;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Files a station under its field values. The caller holds the write lock, or has not
+     * yet published the index.
+     */
+    private void add(Station s) {
+        int id = s.getStationID();
+        grow(id);
+        present.set(id);
+        favourites.set(id, s.isFavourite());
+        genres.computeIfAbsent(s.getGenre(), g -> new BitSet()).set(id);
+        bitrates.computeIfAbsent(s.getBitrate(), b -> new BitSet()).set(id);
+        genreOf[id] = s.getGenre();
+        bitrateOf[id] = s.getBitrate();
+    }
+
+    /**
+     * Removes an indexed station from every index, dropping empty postings so removed genres
+     * and bitrates do not accumulate. The caller holds the write lock.
+     */
+    private void delete(int id) {
+        present.clear(id);
+        favourites.clear(id);
+        unfile(genres, genreOf[id], id);
+        unfile(bitrates, bitrateOf[id], id);
+        genreOf[id] = null;
+    }
+
+    private static <K> void unfile(Map<K, BitSet> postings, K key, int id) {
+        BitSet ids = postings.get(key);
+        ids.clear(id);
+        if (ids.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    /**
+     * Ensures the per-ID arrays can hold the given ID, growing them by half again to keep
+     * the cost of sequential additions low.
+     */
+    private void grow(int id) {
+        if (id >= genreOf.length) {
+            int length = Math.max(id + 1, genreOf.length + (genreOf.length >> 1));
+            genreOf = Arrays.copyOf(genreOf, length);
+            bitrateOf = Arrays.copyOf(bitrateOf, length);
+        }
+    }
+}
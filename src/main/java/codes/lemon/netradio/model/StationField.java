@@ -0,0 +1,45 @@
+package codes.lemon.netradio.model;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The fields of a Station which may change once it has been added. Used to describe
+ * which details of a station a change affected.
+ */
+public enum StationField {
+    NAME, URI, GENRE, BITRATE, FAVOURITE, PLAY_COUNT, LAST_PLAYED;
+
+    /**
+     * Returns the fields which differ between two states of the same station.
+     * @param before the station before a change
+     * @param after the station after the change
+     * @return a new set of the fields whose values differ
+     */
+    static Set<StationField> changed(Station before, Station after) {
+        Set<StationField> fields = EnumSet.noneOf(StationField.class);
+        if (!Objects.equals(before.getStationName(), after.getStationName())) {
+            fields.add(NAME);
+        }
+        if (!Objects.equals(before.getUri(), after.getUri())) {
+            fields.add(URI);
+        }
+        if (!Objects.equals(before.getGenre(), after.getGenre())) {
+            fields.add(GENRE);
+        }
+        if (before.getBitrate() != after.getBitrate()) {
+            fields.add(BITRATE);
+        }
+        if (before.isFavourite() != after.isFavourite()) {
+            fields.add(FAVOURITE);
+        }
+        if (before.getPlayCount() != after.getPlayCount()) {
+            fields.add(PLAY_COUNT);
+        }
+        if (!Objects.equals(before.getDateLastPlayed(), after.getDateLastPlayed())) {
+            fields.add(LAST_PLAYED);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,93 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the station file for changes made by other processes using a WatchService on
+ * the directory containing it. Events for other files in the directory, such as temporary
+ * files written before a rename, are ignored. Bursts of events are coalesced: the callback
+ * runs once the file has been quiet for a short period, so a file written in several steps
+ * is only read once.
+ * The callback runs on the watchers own thread and is also notified of the processes own
+ * writes, so it must be cheap when the file is unchanged.
+ */
+class StationFileWatcher {
+    // time without further events before the file is considered settled
+    private static final long SETTLE_MILLIS = 250;
+
+    private final WatchService watchService;
+    private final String fileName;
+    private final Runnable onChange;
+
+    /**
+     * Starts watching the given file.
+     * @param file the file to be watched. Its directory must exist.
+     * @param onChange called on the watcher thread after the file has changed
+     * @throws IOException if the directory can not be watched
+     */
+    StationFileWatcher(File file, Runnable onChange) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        this.fileName = target.getFileName().toString();
+        this.onChange = Objects.requireNonNull(onChange);
+        watchService = target.getFileSystem().newWatchService();
+        // files are replaced by renaming, which is reported as a create
+        target.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread watcher = new Thread(this::watchLoop, "netradio-file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                if (!isRelevant(watchService.take())) {
+                    continue;
+                }
+                // wait for the writer to finish before reading
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isRelevant(key);
+                }
+                try {
+                    onChange.run();
+                } catch (RuntimeException e) {
+                    // keep watching, the next change may succeed
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Consumes the events of the given key and re-arms it.
+     * @return true if any event may concern the watched file
+     */
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context().toString())) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
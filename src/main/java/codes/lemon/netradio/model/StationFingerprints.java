@@ -0,0 +1,160 @@
+package codes.lemon.netradio.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable record of the state of every station in a catalog, held as a 64 bit
+ * fingerprint per station ID. Used by StationLoader to remember what the station file
+ * contained when it was last read or written, so changes made by other processes can be
+ * identified station by station without holding a second copy of the catalog.
+ * Fingerprints are kept in parallel arrays sorted by ID, costing 12 bytes per station.
+ */
+final class StationFingerprints {
+    static final StationFingerprints EMPTY = new StationFingerprints(new int[0], new long[0]);
+    // FNV-1a 64 bit offset basis and prime
+    static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private final int[] ids;
+    private final long[] hashes;
+
+    private StationFingerprints(int[] ids, long[] hashes) {
+        this.ids = ids;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Fingerprints every given station.
+     * @param stations the stations to be fingerprinted. IDs must be unique.
+     * @return fingerprints of the given stations
+     */
+    static StationFingerprints of(Collection<? extends Station> stations) {
+        long[] packed = new long[stations.size()];
+        int i = 0;
+        for (Station s : stations) {
+            // sort ID and position together, IDs are never negative
+            packed[i] = ((long) s.getStationID() << 32) | i;
+            i++;
+        }
+        Arrays.sort(packed);
+        long[] unsorted = new long[packed.length];
+        i = 0;
+        for (Station s : stations) {
+            unsorted[i++] = fingerprint(s);
+        }
+        int[] ids = new int[packed.length];
+        long[] hashes = new long[packed.length];
+        for (i = 0; i < packed.length; i++) {
+            ids[i] = (int) (packed[i] >>> 32);
+            hashes[i] = unsorted[(int) packed[i]];
+        }
+        return new StationFingerprints(ids, hashes);
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of every persisted detail of the given station.
+     * Stations mapped from a BinaryStationFile are hashed straight from their record,
+     * see `BinaryStationFile.fingerprint()`, so fingerprinting a freshly loaded snapshot
+     * does not decode it. Both paths hash the same values in the same order:
+     * id, play count, bitrate, favourite, played, last played seconds and nanos (0 if never
+     * played), then the length and UTF-8 bytes of the name, uri and genre (empty if null).
+     * @param s station to be fingerprinted
+     * @return the fingerprint of the station
+     */
+    static long fingerprint(Station s) {
+        if (s instanceof MappedStation) {
+            return ((MappedStation) s).fingerprint();
+        }
+        LocalDateTime lastPlayed = s.getDateLastPlayed();
+        long hash = SEED;
+        hash = mix(hash, s.getStationID());
+        hash = mix(hash, s.getPlayCount());
+        hash = mix(hash, s.getBitrate());
+        hash = mix(hash, s.isFavourite() ? 1 : 0);
+        hash = mix(hash, lastPlayed != null ? 1 : 0);
+        hash = mix(hash, lastPlayed != null ? lastPlayed.toEpochSecond(ZoneOffset.UTC) : 0);
+        hash = mix(hash, lastPlayed != null ? lastPlayed.getNano() : 0);
+        hash = mix(hash, s.getStationName());
+        hash = mix(hash, s.getUri());
+        return mix(hash, s.getGenre() == null ? "" : s.getGenre());
+    }
+
+    /**
+     * Adds the 8 bytes of a value to a fingerprint.
+     */
+    static long mix(long hash, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            hash ^= (value >>> shift) & 0xFF;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Adds the length and bytes of a range of a buffer to a fingerprint.
+     */
+    static long mix(long hash, ByteBuffer buffer, int offset, int length) {
+        hash = mix(hash, length);
+        for (int i = 0; i < length; i++) {
+            hash ^= buffer.get(offset + i) & 0xFF;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return mix(hash, ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Returns the position of the given ID.
+     * @return the index of the ID, else a negative value if no station has the ID
+     */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    /**
+     * Compares this record with a later record of the same catalog. Both records are
+     * walked in ID order, so this is linear in the size of the catalog.
+     * @param later the later record
+     * @param changed receives the ID of each station added or modified in the later record
+     * @param removed receives the ID of each station absent from the later record
+     */
+    void diff(StationFingerprints later, IntConsumer changed, IntConsumer removed) {
+        int i = 0;
+        int j = 0;
+        while (i < ids.length || j < later.ids.length) {
+            if (j == later.ids.length || (i < ids.length && ids[i] < later.ids[j])) {
+                removed.accept(ids[i++]);
+            }
+            else if (i == ids.length || later.ids[j] < ids[i]) {
+                changed.accept(later.ids[j++]);
+            }
+            else {
+                if (hashes[i] != later.hashes[j]) {
+                    changed.accept(later.ids[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Returns true if this record holds the given station in exactly its current state.
+     * @param s a station
+     * @return true if the station is unchanged, else false
+     */
+    boolean matches(Station s) {
+        int i = indexOf(s.getStationID());
+        return i >= 0 && hashes[i] == fingerprint(s);
+    }
+}
@@ -0,0 +1,207 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocates station IDs in constant time.
+ * IDs are handed out in increasing order from a high-water mark and are never reused, so
+ * a reference to a removed station can not silently resolve to a different station later.
+ * The high-water mark is persisted so IDs freed by removing the newest stations are not
+ * reissued after a restart either.
+ * To avoid a disk write per allocation, IDs are reserved from disk in blocks: the end of the
+ * current block is persisted before any ID from it is handed out. The exact high-water mark
+ * is written on `close()`. After a crash, allocation continues from the end of the last
+ * reserved block, which leaves a gap in the ID sequence but never reuses an ID.
+ * Several processes may share one high-water mark. Blocks are reserved while holding an
+ * exclusive FileLock, continuing from whatever the other processes have reserved, so
+ * processes sharing a catalog never allocate the same ID.
+ *
+ * This class is thread safe.
+ */
+class StationIdAllocator {
+    private static final int RESERVATION_SIZE = 1024;
+
+    private final File file;  // null if the high-water mark is not persisted
+    private int next;
+    private int reservedUntil;  // exclusive
+
+    /**
+     * Creates an allocator which continues from the high-water mark previously persisted to
+     * the given file, or from `lowestUnused` if that is higher.
+     * @param file location of the persisted high-water mark, or null to hold it in memory only
+     * @param lowestUnused an ID greater than every ID in the current catalog
+     */
+    StationIdAllocator(File file, int lowestUnused) {
+        if (lowestUnused < 0) {
+            throw new IllegalArgumentException("Negative ID");
+        }
+        this.file = file;
+        next = Math.max(readHighWaterMark(), lowestUnused);
+        reservedUntil = next;
+    }
+
+    /**
+     * Returns a new ID which has never been allocated before.
+     * @return a new unique station ID
+     * @throws UncheckedIOException if a new block of IDs could not be reserved
+     */
+    public synchronized int allocate() {
+        return allocate(1);
+    }
+
+    /**
+     * Allocates a contiguous range of IDs with a single reservation.
+     * @param count number of IDs required
+     * @return the first ID of the range. IDs first to (first + count - 1) are allocated.
+     * @throws UncheckedIOException if a new block of IDs could not be reserved
+     */
+    public synchronized int allocate(int count) {
+        if (count < 1 || next > Integer.MAX_VALUE - count) {
+            throw new IllegalStateException("Unable to allocate " + count + " station IDs");
+        }
+        if (next + count > reservedUntil) {
+            reserve(count);
+        }
+        int first = next;
+        next += count;
+        return first;
+    }
+
+    /**
+     * Ensures the given ID, and every ID below it, is never allocated. Used when stations
+     * are added by another process.
+     * @param id an ID in use
+     */
+    public synchronized void advancePast(int id) {
+        if (id >= next) {
+            next = id + 1;
+        }
+    }
+
+    /**
+     * Persists the exact high-water mark so no IDs are skipped on the next run. If another
+     * process has reserved IDs since our last reservation, the mark is left for it to close.
+     * If the mark can not be written the end of the last reservation still stands, so the
+     * unused IDs of that reservation are skipped but none are reused.
+     */
+    public synchronized void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            withFileLock(() -> {
+                if (readHighWaterMark() == reservedUntil) {
+                    writeHighWaterMark(next);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to record the station ID high-water mark (" + e.getMessage()
+                    + "). IDs below " + reservedUntil + " will not be allocated");
+        }
+        reservedUntil = next;
+    }
+
+    /**
+     * Reserves a new block of at least `count` IDs, continuing from the end of any block
+     * reserved by another process. Reserves ahead so most allocations require no disk I/O.
+     * No ID from the block is handed out unless its end has been persisted, as it could
+     * otherwise be reissued after a restart.
+     * @throws UncheckedIOException if the end of the block could not be persisted
+     */
+    private void reserve(int count) {
+        if (file == null) {
+            reservedUntil = next + count;
+            return;
+        }
+        try {
+            withFileLock(() -> {
+                next = Math.max(next, readHighWaterMark());
+                if (next > Integer.MAX_VALUE - count) {
+                    throw new IllegalStateException("Unable to allocate " + count + " station IDs");
+                }
+                int end = next + count;
+                int reservation = end > Integer.MAX_VALUE - RESERVATION_SIZE ? Integer.MAX_VALUE : end + RESERVATION_SIZE;
+                writeHighWaterMark(reservation);
+                reservedUntil = reservation;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to reserve station IDs", e);
+        }
+    }
+
+    /**
+     * Runs the given action while holding an exclusive lock on the sibling `.lock` file.
+     * The high-water mark file itself is replaced on every write so can not hold the lock.
+     * If the lock can not be taken the action is run without it, as IDs are still unique
+     * within this process.
+     */
+    private void withFileLock(LockedAction action) throws IOException {
+        File lockFile = new File(file.getPath() + ".lock");
+        FileChannel channel;
+        FileLock lock;
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to lock the station ID high-water mark (" + e.getMessage() + ")");
+            action.run();
+            return;
+        }
+        try (channel) {
+            try {
+                lock = channel.lock();
+            } catch (IOException e) {
+                System.out.println("INFO: Unable to lock the station ID high-water mark (" + e.getMessage() + ")");
+                action.run();
+                return;
+            }
+            try (lock) {
+                action.run();
+            }
+        }
+    }
+
+    private int readHighWaterMark() {
+        if (file == null || !file.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return Math.max(in.readInt(), 0);
+        } catch (IOException e) {
+            // the catalog still provides a safe lower bound
+            System.out.println("INFO: Unable to read the station ID high-water mark (" + e.getMessage() + ")");
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces the persisted high-water mark. Written to a temporary file and renamed so a
+     * crash mid-write can not leave a truncated value behind.
+     * @throws IOException if the value could not be written
+     */
+    private void writeHighWaterMark(int value) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                new DataOutputStream(out).writeInt(value);
+                out.getChannel().force(false);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * An action performed while holding the high-water mark lock.
+     */
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,706 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Imports stations from directory files in CSV, JSON, M3U or PLS format, such as a dump of
+ * a public station directory.
+ * Files are parsed as a stream, one entry at a time, so the memory used does not depend on
+ * the size of the file. Entries are gathered into batches. Once a batch is full its URIs are
+ * validated and normalised in parallel while the next batch is parsed, then it is added to
+ * the catalog with `StationManager.importStations()`, which skips stations already in the
+ * catalog (or earlier in the file) and persists the batch with a single write. At most three
+ * batches are held at once: one being parsed, one being validated and one being added.
+ * Progress is reported after each batch is added.
+ *
+ * CSV files must start with a header row. Columns are found by name, ignoring case, from
+ * the names listed below, so both the players own station files and common directory
+ * dumps can be read. JSON files may hold an array of station objects, an object with such
+ * an array as one of its members or one object per line. Any object with a URI member is
+ * taken as a station.
+ *
+ * Bitrates are converted to bit/s, see MAX_KBPS, and are -1 when absent or unreadable.
+ */
+class StationImporter {
+    /**
+     * The formats which can be imported.
+     */
+    enum Format {
+        CSV, JSON, M3U, PLS;
+
+        /**
+         * Returns the format of a file from its extension.
+         * @param file a directory file
+         * @return the format of the file
+         * @throws IllegalArgumentException if the extension is not recognised
+         */
+        static Format of(File file) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            String extension = name.substring(name.lastIndexOf('.') + 1);
+            return switch (extension) {
+                case "csv" -> CSV;
+                case "json", "ndjson", "jsonl" -> JSON;
+                case "m3u", "m3u8" -> M3U;
+                case "pls" -> PLS;
+                default -> throw new IllegalArgumentException("Unrecognised directory file type: " + file.getName());
+            };
+        }
+    }
+
+    // number of entries added to the catalog at once
+    private static final String BATCH_SIZE_PROPERTY = "netradio.import.batch";
+    private static final int DEFAULT_BATCH_SIZE = 10_000;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    // deepest nesting of JSON arrays and objects accepted, so a hostile file can not exhaust the stack
+    private static final int MAX_JSON_DEPTH = 64;
+    // field names recognised in CSV headers and JSON objects, most preferred first
+    private static final List<String> NAME_FIELDS = List.of("name", "names", "title", "station", "stationname");
+    private static final List<String> URI_FIELDS = List.of("url_resolved", "uri", "url", "stream", "streamurl",
+            "stream_url", "file");
+    private static final List<String> GENRE_FIELDS = List.of("genre", "tags", "tag", "category");
+    private static final List<String> BITRATE_FIELDS = List.of("bitrate", "bit_rate", "kbps");
+    // directories list bitrates in kbps while stations hold bit/s, as reported by stream tags.
+    // Lower values are taken to be kbps, as no stream plays below 4 kbit/s, nor above 4 Mbit/s.
+    private static final int MAX_KBPS = 4_000;
+    private static final Set<String> STREAM_SCHEMES = Set.of("http", "https", "mms", "mmsh", "rtsp", "rtmp", "icy");
+
+    private final StationManager stations;
+    private final int batchSize;
+
+    /**
+     * @param stations the catalog stations are imported into
+     */
+    StationImporter(StationManager stations) {
+        this.stations = Objects.requireNonNull(stations);
+        int size = DEFAULT_BATCH_SIZE;
+        String configured = System.getProperty(BATCH_SIZE_PROPERTY);
+        if (configured != null) {
+            try {
+                size = Integer.parseInt(configured);
+            } catch (NumberFormatException e) {
+                size = -1;
+            }
+            if (size <= 0) {
+                System.out.println("INFO: Invalid " + BATCH_SIZE_PROPERTY + " \"" + configured
+                        + "\", using " + DEFAULT_BATCH_SIZE);
+                size = DEFAULT_BATCH_SIZE;
+            }
+        }
+        batchSize = size;
+    }
+
+    /**
+     * Imports every station in a directory file. The format is taken from the files extension.
+     * Stations added before the import fails or is cancelled remain in the catalog.
+     * @param file a CSV, JSON, M3U or PLS file
+     * @param progress notified on the calling thread after each batch is added and when the import finishes
+     * @return the final progress of the import
+     * @throws IOException if the file can not be read or is malformed
+     * @throws IllegalArgumentException if the files extension is not recognised
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    ImportProgress importFrom(File file, Consumer<ImportProgress> progress) throws IOException {
+        Format format = Format.of(file);
+        try (CountingInputStream counted = new CountingInputStream(new FileInputStream(file));
+             Reader in = new BufferedReader(new InputStreamReader(counted, StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+            Run run = new Run(counted, file.length(), progress);
+            switch (format) {
+                case CSV -> parseCsv(in, run);
+                case JSON -> new JsonParser(in, run).parse();
+                case M3U -> parseM3u(in, run);
+                case PLS -> parsePls(in, run);
+            }
+            return run.finish();
+        }
+    }
+
+    /**
+     * An entry read from a directory file, before validation.
+     */
+    private static final class Entry {
+        private final String name;
+        private final String uri;
+        private final String genre;
+        private final String bitrate;
+
+        private Entry(String name, String uri, String genre, String bitrate) {
+            this.name = name;
+            this.uri = uri;
+            this.genre = genre;
+            this.bitrate = bitrate;
+        }
+    }
+
+    /**
+     * Validates and normalises an entry.
+     * @return the station described by the entry, else null if it has no valid stream URI.
+     */
+    private static Station validate(Entry entry) {
+        if (entry.uri == null) {
+            return null;
+        }
+        String uri = entry.uri.strip();
+        if (uri.isEmpty()) {
+            return null;
+        }
+        if (!uri.contains("://")) {
+            // directories often omit the scheme of http streams
+            uri = "http://" + uri;
+        }
+        URI parsed;
+        try {
+            parsed = new URI(uri).normalize();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = parsed.getScheme().toLowerCase(Locale.ROOT);
+        if (!STREAM_SCHEMES.contains(scheme) || parsed.getHost() == null) {
+            return null;
+        }
+        uri = scheme + parsed.toString().substring(scheme.length());
+        String name = entry.name == null ? "" : entry.name.strip().replaceAll("\\s+", " ");
+        if (name.isEmpty()) {
+            name = parsed.getHost();
+        }
+        return new RadioStation(0, name, uri, null, 0, bitrate(entry.bitrate), genre(entry.genre), false);
+    }
+
+    private static String genre(String genre) {
+        if (genre == null) {
+            return null;
+        }
+        // directories list many tags. The first is kept as the genre.
+        int end = genre.indexOf(',');
+        String first = (end < 0 ? genre : genre.substring(0, end)).strip();
+        return first.isEmpty() ? null : first;
+    }
+
+    private static int bitrate(String bitrate) {
+        if (bitrate == null) {
+            return -1;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(bitrate.strip());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (!(value > 0)) {
+            // directories list unknown bitrates as 0
+            return -1;
+        }
+        if (value < MAX_KBPS) {
+            value *= 1000;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(value));
+    }
+
+    /**
+     * Returns the value of the first of the given fields present in a record.
+     */
+    private static String first(Map<String, String> record, List<String> fields) {
+        for (String field : fields) {
+            String value = record.get(field);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads CSV records one at a time. Quoted values may contain separators, doubled quotes
+     * and line breaks.
+     */
+    private static void parseCsv(Reader in, Run run) throws IOException {
+        List<String> header = readCsvRecord(in);
+        if (header == null) {
+            return;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            // a byte order mark may precede the first column name
+            String column = header.get(i).replace("\uFEFF", "").strip().toLowerCase(Locale.ROOT);
+            columns.putIfAbsent(column, i);
+        }
+        int name = column(columns, NAME_FIELDS);
+        int uri = column(columns, URI_FIELDS);
+        int genre = column(columns, GENRE_FIELDS);
+        int bitrate = column(columns, BITRATE_FIELDS);
+        if (uri < 0) {
+            throw new IOException("CSV header has no URI column");
+        }
+        for (List<String> row = readCsvRecord(in); row != null; row = readCsvRecord(in)) {
+            if (row.size() == 1 && row.get(0).isEmpty()) {
+                continue;  // blank line
+            }
+            run.accept(new Entry(value(row, name), value(row, uri), value(row, genre), value(row, bitrate)));
+        }
+    }
+
+    private static int column(Map<String, Integer> columns, List<String> fields) {
+        for (String field : fields) {
+            Integer index = columns.get(field);
+            if (index != null) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static String value(List<String> row, int column) {
+        return column >= 0 && column < row.size() ? row.get(column) : null;
+    }
+
+    /**
+     * @return the values of the next record, else null at the end of the input
+     */
+    private static List<String> readCsvRecord(Reader in) throws IOException {
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted CSV value");
+                }
+                if (c == '"') {
+                    c = in.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                value.append((char) c);
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            }
+            else if (c == '\n' || c == -1) {
+                break;
+            }
+            else if (c != '\r') {
+                value.append((char) c);
+            }
+            c = in.read();
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Reads M3U playlists, plain or extended. A #EXTINF line names the stream on the line
+     * which follows it and may give its genre as a group-title attribute.
+     */
+    private static void parseM3u(Reader in, Run run) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        String name = null;
+        String genre = null;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            line = line.strip();
+            if (line.startsWith("#EXTINF:")) {
+                int comma = titleStart(line);
+                name = comma < 0 ? null : line.substring(comma + 1);
+                genre = attribute(line.substring(0, comma < 0 ? line.length() : comma), "group-title");
+            }
+            else if (!line.isEmpty() && !line.startsWith("#")) {
+                run.accept(new Entry(name, line, genre, null));
+                name = null;
+                genre = null;
+            }
+        }
+    }
+
+    /**
+     * @return the position of the comma preceding the title of an #EXTINF line, else -1
+     */
+    private static int titleStart(String extinf) {
+        boolean quoted = false;
+        for (int i = 0; i < extinf.length(); i++) {
+            char c = extinf.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            else if (c == ',' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String attribute(String attributes, String name) {
+        String key = name + "=\"";
+        int start = attributes.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = attributes.indexOf('"', start);
+        return end < 0 ? null : attributes.substring(start, end);
+    }
+
+    /**
+     * Reads PLS playlists. Each entry is numbered, with FileN giving its URI and TitleN its
+     * name, and an entry is passed on once a line for another entry is read.
+     */
+    private static void parsePls(Reader in, Run run) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        String number = null;
+        String uri = null;
+        String name = null;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                continue;  // section header or blank line
+            }
+            String key = line.substring(0, equals).strip().toLowerCase(Locale.ROOT);
+            String field;
+            if (key.startsWith("file")) {
+                field = "file";
+            }
+            else if (key.startsWith("title")) {
+                field = "title";
+            }
+            else {
+                continue;  // LengthN, NumberOfEntries and Version are not needed
+            }
+            String entry = key.substring(field.length());
+            if (!entry.equals(number)) {
+                if (uri != null) {
+                    run.accept(new Entry(name, uri, null, null));
+                }
+                number = entry;
+                uri = null;
+                name = null;
+            }
+            String value = line.substring(equals + 1).strip();
+            if (field.equals("file")) {
+                uri = value;
+            }
+            else {
+                name = value;
+            }
+        }
+        if (uri != null) {
+            run.accept(new Entry(name, uri, null, null));
+        }
+    }
+
+    /**
+     * A streaming JSON reader which passes on each object with a URI member as it is closed.
+     * Only the scalar members of the objects currently open are held in memory.
+     */
+    private static final class JsonParser {
+        private final Reader in;
+        private final Run run;
+        private int next;
+
+        private JsonParser(Reader in, Run run) throws IOException {
+            this.in = in;
+            this.run = run;
+            next = in.read();
+        }
+
+        private void parse() throws IOException {
+            skipWhitespace();
+            // a single document, or one document per line
+            while (next != -1) {
+                value(0);
+                skipWhitespace();
+            }
+        }
+
+        /**
+         * Reads a value. Scalars are returned as strings. Arrays and objects are read through
+         * and null is returned.
+         */
+        private String value(int depth) throws IOException {
+            if (depth > MAX_JSON_DEPTH) {
+                throw new IOException("JSON nested too deeply");
+            }
+            skipWhitespace();
+            switch (next) {
+                case '{' -> {
+                    object(depth);
+                    return null;
+                }
+                case '[' -> {
+                    array(depth);
+                    return null;
+                }
+                case '"' -> {
+                    return string();
+                }
+                case -1 -> throw new IOException("Unexpected end of JSON");
+                default -> {
+                    return literal();
+                }
+            }
+        }
+
+        private void object(int depth) throws IOException {
+            Map<String, String> members = new HashMap<>();
+            advance();
+            skipWhitespace();
+            if (next == '}') {
+                advance();
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (next != '"') {
+                    throw new IOException("Expected a JSON member name");
+                }
+                String name = string().toLowerCase(Locale.ROOT);
+                skipWhitespace();
+                expect(':');
+                String member = value(depth + 1);
+                if (member != null) {
+                    members.put(name, member);
+                }
+                skipWhitespace();
+                if (next == ',') {
+                    advance();
+                }
+                else {
+                    expect('}');
+                    break;
+                }
+            }
+            String uri = first(members, URI_FIELDS);
+            if (uri != null && !uri.isEmpty()) {
+                run.accept(new Entry(first(members, NAME_FIELDS), uri, first(members, GENRE_FIELDS),
+                        first(members, BITRATE_FIELDS)));
+            }
+        }
+
+        private void array(int depth) throws IOException {
+            advance();
+            skipWhitespace();
+            if (next == ']') {
+                advance();
+                return;
+            }
+            while (true) {
+                value(depth + 1);
+                skipWhitespace();
+                if (next == ',') {
+                    advance();
+                }
+                else {
+                    expect(']');
+                    return;
+                }
+            }
+        }
+
+        private String string() throws IOException {
+            StringBuilder value = new StringBuilder();
+            advance();
+            while (next != '"') {
+                if (next == -1) {
+                    throw new IOException("Unterminated JSON string");
+                }
+                if (next == '\\') {
+                    advance();
+                    switch (next) {
+                        case 'b' -> value.append('\b');
+                        case 'f' -> value.append('\f');
+                        case 'n' -> value.append('\n');
+                        case 'r' -> value.append('\r');
+                        case 't' -> value.append('\t');
+                        case 'u' -> {
+                            char[] hex = new char[4];
+                            for (int i = 0; i < hex.length; i++) {
+                                advance();
+                                hex[i] = (char) next;
+                            }
+                            try {
+                                value.append((char) Integer.parseInt(new String(hex), 16));
+                            } catch (NumberFormatException e) {
+                                throw new IOException("Invalid JSON escape \\u" + new String(hex));
+                            }
+                        }
+                        case -1 -> throw new IOException("Unterminated JSON string");
+                        default -> value.append((char) next);  // \" \\ and \/
+                    }
+                }
+                else {
+                    value.append((char) next);
+                }
+                advance();
+            }
+            advance();
+            return value.toString();
+        }
+
+        /**
+         * Reads a number, true, false or null. Null is returned as null.
+         */
+        private String literal() throws IOException {
+            StringBuilder value = new StringBuilder();
+            while (next != -1 && next != ',' && next != '}' && next != ']' && !Character.isWhitespace(next)) {
+                value.append((char) next);
+                advance();
+            }
+            if (value.length() == 0) {
+                throw new IOException("Unexpected character in JSON: " + (char) next);
+            }
+            String literal = value.toString();
+            return literal.equals("null") ? null : literal;
+        }
+
+        private void expect(char c) throws IOException {
+            if (next != c) {
+                throw new IOException("Expected '" + c + "' in JSON");
+            }
+            advance();
+        }
+
+        private void skipWhitespace() throws IOException {
+            while (next != -1 && Character.isWhitespace(next)) {
+                advance();
+            }
+        }
+
+        private void advance() throws IOException {
+            next = in.read();
+        }
+    }
+
+    /**
+     * The state of one import: the batch being filled, the batch being validated and the
+     * running totals.
+     */
+    private final class Run {
+        private final CountingInputStream counted;
+        private final long totalBytes;
+        private final Consumer<ImportProgress> listener;
+        private final long start = System.nanoTime();
+        private List<Entry> filling = new ArrayList<>();
+        // the previous batch, validated in parallel while this one is filled
+        private CompletableFuture<List<Station>> validating = null;
+        private int validatingSize = 0;
+        private long recordsRead = 0;
+        private long added = 0;
+        private long duplicates = 0;
+        private long rejected = 0;
+
+        private Run(CountingInputStream counted, long totalBytes, Consumer<ImportProgress> progress) {
+            this.counted = counted;
+            this.totalBytes = totalBytes;
+            listener = progress;
+        }
+
+        private void accept(Entry entry) {
+            recordsRead++;
+            filling.add(entry);
+            if (filling.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Starts validating the batch being filled, then adds the previous batch to the catalog.
+         */
+        private void flush() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Import cancelled");
+            }
+            List<Entry> full = filling;
+            filling = new ArrayList<>(batchSize);
+            CompletableFuture<List<Station>> next = full.isEmpty() ? null : CompletableFuture.supplyAsync(
+                    () -> full.parallelStream().map(StationImporter::validate).filter(Objects::nonNull)
+                            .collect(Collectors.toList()));
+            int nextSize = full.size();
+            commit();
+            validating = next;
+            validatingSize = nextSize;
+        }
+
+        private void commit() {
+            if (validating == null) {
+                return;
+            }
+            List<Station> valid;
+            try {
+                valid = validating.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            validating = null;
+            int count = stations.importStations(valid);
+            added += count;
+            duplicates += valid.size() - count;
+            rejected += validatingSize - valid.size();
+            listener.accept(progress(false));
+        }
+
+        private ImportProgress finish() {
+            flush();
+            commit();
+            ImportProgress finished = progress(true);
+            listener.accept(finished);
+            return finished;
+        }
+
+        private ImportProgress progress(boolean finished) {
+            return new ImportProgress(recordsRead, counted.count, totalBytes, added, duplicates, rejected,
+                    System.nanoTime() - start, finished);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a file, for reporting progress.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        // written and read by the importing thread only
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of station mutations. Each mutation is written as one small
+ * record containing the full state of the changed station (or the ID of a removed station),
+ * so the cost of persisting a change is proportional to the size of the change rather
+ * than the size of the catalog.
+ * Records are encoded on the callers thread and handed to a background writer thread.
+ * The writer drains every record queued since its last write and commits them together
+ * with a single flush (group commit), so callers never wait on disk I/O.
+ * The journal is replayed on top of the last full snapshot on startup. Once enough records
+ * have accumulated the journal is compacted in the background: a full snapshot is written
+ * through StationLoader and, only once it is safely on disk, the journal is truncated. If the
+ * snapshot can not be written the journal is kept, and compaction is tried again later.
+ * Records which fail to be written are kept by the writer and retried with the next write.
+ * They are only reported lost if neither they nor the final snapshot can be written on close.
+ * Related changes may be journaled together as a single batch record, which is either
+ * replayed in full or not at all.
+ * Because records contain full station state, replaying a journal on top of a snapshot
+ * which already contains some of its changes is harmless. A crash between writing a
+ * snapshot and truncating the journal therefore cannot lose or corrupt data.
+ * Processes sharing a station file must not share a journal, as one process compacting
+ * would discard records the other has not yet folded into a snapshot. Each process
+ * therefore claims a journal slot by holding an exclusive FileLock for its lifetime. The
+ * journal of a process which exits without compacting is replayed by the next process to
+ * claim its slot.
+ */
+class StationJournal {
+    private static final String FILE_PATH = "./.netradio-stations.journal";
+    // number of processes which can share a station file, each with its own journal
+    private static final int MAX_SLOTS = 16;
+    // number of records written before a compaction is suggested
+    private static final int COMPACTION_THRESHOLD = 1000;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte BATCH = 3;
+
+    private final File journalFile;
+    // held for the lifetime of the journal to keep other processes out of it. Null if not locked.
+    private final FileChannel slotLock;
+    private final StationLoader storage;
+    private final BlockingQueue<Task> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // encoded records waiting to be written. Only accessed by the writer thread.
+    private final List<byte[]> unwritten = new ArrayList<>();
+    private volatile int recordsSinceCompaction = 0;
+    private volatile boolean closed = false;
+
+    public StationJournal(StationLoader storage) {
+        this(claimSlot(), storage);
+    }
+
+    public StationJournal(File journalFile, StationLoader storage) {
+        this(new Slot(journalFile, null), storage);
+    }
+
+    private StationJournal(Slot slot, StationLoader storage) {
+        this.journalFile = Objects.requireNonNull(slot.file);
+        this.slotLock = slot.lock;
+        this.storage = Objects.requireNonNull(storage);
+        writer = new Thread(this::writeLoop, "netradio-journal-writer");
+        // never prevent the JVM from exiting. shutdown() drains the queue before exit.
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Applies every complete record found in the journal to the stations loaded from the
+     * last snapshot. Records are applied in the order they were written.
+     * A partially written record at the end of the journal (eg from a crash mid-write)
+     * is ignored along with anything following it.
+     * @param put stores a station, replacing any station with the same ID
+     * @param remove removes the station with the given ID
+     * @return the number of records replayed
+     */
+    public int replay(Consumer<? super MutableStation> put, IntConsumer remove) {
+        int replayed = 0;
+        if (!journalFile.exists()) {
+            return replayed;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                applyRecord(payload, put, remove);
+                replayed++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        recordsSinceCompaction = replayed;
+        return replayed;
+    }
+
+    /**
+     * Journal the current state of the given station. Used for both new stations
+     * and modifications to existing stations.
+     * @param station the station whose state should be persisted
+     */
+    public void recordPut(Station station) {
+        Objects.requireNonNull(station);
+        enqueue(new Task(encodePut(station), null));
+    }
+
+    /**
+     * Journal the removal of the station with the given ID.
+     * @param id ID of the removed station
+     */
+    public void recordRemove(int id) {
+        enqueue(new Task(encodeRemove(id), null));
+    }
+
+    /**
+     * Journal a set of changes as a single record. On replay either every change in the
+     * batch is applied or, if the record was not completely written, none of them are.
+     * Removals are applied before puts.
+     * @param puts stations whose state should be persisted
+     * @param removals IDs of removed stations
+     */
+    public void recordBatch(Collection<? extends Station> puts, Collection<Integer> removals) {
+        Objects.requireNonNull(puts);
+        Objects.requireNonNull(removals);
+        enqueue(new Task(encodeBatch(puts, removals), null));
+    }
+
+    /**
+     * Returns true once enough records have been written since the last compaction
+     * that the journal should be folded into a new snapshot.
+     * @return true if a compaction is recommended, else false
+     */
+    public boolean needsCompaction() {
+        return recordsSinceCompaction >= COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Requests the journal is compacted into a full snapshot of the given stations.
+     * The snapshot must reflect every record journaled before this call, and no record
+     * journaled after it. Callers should therefore supply copies of their stations which
+     * will not be modified by later mutations.
+     * The snapshot is written by the background writer, this method does not block.
+     * @param snapshot copies of all stations in the catalog
+     */
+    public void requestCompaction(List<MutableStation> snapshot) {
+        Objects.requireNonNull(snapshot);
+        // reset now to avoid queueing a compaction for every write until the writer catches up
+        recordsSinceCompaction = 0;
+        enqueue(new Task(null, snapshot));
+    }
+
+    /**
+     * Writes all queued records, compacts the journal into the given snapshot and stops
+     * the background writer. Blocks until all data has been written to disk.
+     * @param snapshot copies of all stations in the catalog
+     */
+    public void close(List<MutableStation> snapshot) {
+        requestCompaction(snapshot);
+        closed = true;
+        CountDownLatch stopped = new CountDownLatch(1);
+        pending.add(new Task(stopped));
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (slotLock != null) {
+            try {
+                // releases the slot for the next process
+                slotLock.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Claims the first journal slot not held by another process. Each slot is guarded by
+     * a lock on a sibling `.lock` file, as closing any channel to a locked file would
+     * release the lock and the journal file is reopened for every write.
+     * @return the claimed slot, else the first slot without a lock if every slot is held
+     */
+    private static Slot claimSlot() {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            File file = new File(i == 0 ? FILE_PATH : FILE_PATH.replace(".journal", "." + i + ".journal"));
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return new Slot(file, channel);
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // held within this JVM, or locking is unsupported. Try the next slot.
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        System.out.println("INFO: Unable to claim a journal slot. Using an unlocked journal");
+        return new Slot(new File(FILE_PATH), null);
+    }
+
+    private void enqueue(Task task) {
+        if (closed) {
+            // late updates (eg tags arriving during shutdown) have nowhere to go
+            System.out.println("INFO: Journal closed. Discarding station update");
+            return;
+        }
+        pending.add(task);
+    }
+
+    /**
+     * Body of the background writer thread. Blocks until at least one task is queued then
+     * drains everything queued behind it, so records which arrive while a write is in
+     * progress are committed together by the following write.
+     */
+    private void writeLoop() {
+        List<Task> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+            if (processBatch(batch)) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of queued tasks in order. A request to stop is always acknowledged,
+     * even if the tasks before it fail.
+     * @param batch tasks to be processed
+     * @return true if the writer has been asked to stop, else false
+     */
+    private boolean processBatch(List<Task> batch) {
+        try {
+            for (Task task : batch) {
+                if (task.record != null) {
+                    unwritten.add(task.record);
+                }
+                else {
+                    // compaction or stop request. Earlier records must reach disk first.
+                    writeRecords();
+                    if (task.snapshot != null) {
+                        compact(task.snapshot);
+                    }
+                    if (task.stopped != null) {
+                        if (!unwritten.isEmpty()) {
+                            System.out.println("INFO: Unable to journal " + unwritten.size()
+                                    + " station changes. They have been lost");
+                            unwritten.clear();
+                        }
+                        return true;
+                    }
+                }
+            }
+            writeRecords();
+            return false;
+        } finally {
+            for (Task task : batch) {
+                if (task.stopped != null) {
+                    task.stopped.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends every record not yet written and forces them to disk with a single sync.
+     * If the write fails the journal is cut back to its length before the write, as replay
+     * stops at a torn record and would ignore everything after it. The records are kept
+     * and written again along with the next change, compaction or stop request.
+     */
+    private void writeRecords() {
+        if (unwritten.isEmpty()) {
+            return;
+        }
+        long committedLength = -1;
+        try (FileOutputStream file = new FileOutputStream(journalFile, true)) {
+            committedLength = file.getChannel().size();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (byte[] record : unwritten) {
+                writeRecord(out, record);
+            }
+            out.flush();
+            file.getChannel().force(false);
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to write the station journal (" + e.getMessage()
+                    + "). Keeping " + unwritten.size() + " station changes to retry");
+            discardFrom(committedLength);
+            return;
+        }
+        recordsSinceCompaction += unwritten.size();
+        unwritten.clear();
+    }
+
+    /**
+     * Truncates the journal, removing any partially written records.
+     * @param length length of the journal before the failed write, else -1 if unknown
+     */
+    private void discardFrom(long length) {
+        if (length < 0) {
+            return;
+        }
+        try (FileChannel channel = new FileOutputStream(journalFile, true).getChannel()) {
+            channel.truncate(length);
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to remove a partly written journal record. Later records may not be replayed");
+        }
+    }
+
+    /**
+     * Writes a full snapshot and then empties the journal. Records written after the
+     * snapshot was taken are queued behind this task so will be written to the fresh journal.
+     * The journal is kept if the snapshot fails, as it then holds the only copy of its changes.
+     * Once the snapshot is written it also covers any records which could not be journaled,
+     * so they are dropped.
+     */
+    private void compact(List<MutableStation> snapshot) {
+        try {
+            storage.storeStations(snapshot);
+        } catch (IOException e) {
+            System.out.println("INFO: Unable to write a station snapshot (" + e.getMessage() + "). Keeping the journal");
+            return;
+        }
+        unwritten.clear();
+        try (FileChannel channel = new FileOutputStream(journalFile, true).getChannel()) {
+            channel.truncate(0);
+            channel.force(true);
+        } catch (IOException e) {
+            // harmless, the records will be replayed on top of a snapshot which already contains them
+            System.out.println("INFO: Unable to empty the station journal (" + e.getMessage() + ")");
+        }
+    }
+
+    /*-------------------------------
+    |        RECORD ENCODING        |
+    -------------------------------*/
+    // Each record is framed as: length (int), payload (length bytes), CRC32 of payload (int).
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads the next record payload.
+     * @return the payload of the next record, else null if no further complete records exist.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            int expectedCrc = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != expectedCrc) {
+                return null;  // torn or corrupt record
+            }
+            return payload;
+        } catch (EOFException e) {
+            return null;  // partially written record
+        }
+    }
+
+    private static byte[] encodePut(Station s) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(PUT);
+            StationRecordCodec.write(out, s);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOExceptions
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRemove(int id) {
+        return new byte[] { REMOVE, (byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id };
+    }
+
+    /**
+     * A batch payload contains the number of nested records followed by each nested
+     * payload, prefixed by its length. Nested payloads are covered by the batch CRC.
+     */
+    private static byte[] encodeBatch(Collection<? extends Station> puts, Collection<Integer> removals) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + puts.size() * 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(BATCH);
+            out.writeInt(removals.size() + puts.size());
+            for (int id : removals) {
+                byte[] nested = encodeRemove(id);
+                out.writeInt(nested.length);
+                out.write(nested);
+            }
+            for (Station s : puts) {
+                byte[] nested = encodePut(s);
+                out.writeInt(nested.length);
+                out.write(nested);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOExceptions
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void applyRecord(byte[] payload, Consumer<? super MutableStation> put, IntConsumer remove)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case PUT -> put.accept(StationRecordCodec.read(in));
+            case REMOVE -> remove.accept(in.readInt());
+            case BATCH -> {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] nested = new byte[in.readInt()];
+                    in.readFully(nested);
+                    applyRecord(nested, put, remove);
+                }
+            }
+            default -> System.out.println("INFO: Unknown journal record type -> " + type);
+        }
+    }
+
+    /**
+     * A journal file and the channel holding its lock.
+     */
+    private static class Slot {
+        private final File file;
+        private final FileChannel lock;
+
+        private Slot(File file, FileChannel lock) {
+            this.file = file;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * A unit of work for the writer thread. Either a record to append, a snapshot
+     * to compact into, or a request to stop.
+     */
+    private static class Task {
+        private final byte[] record;
+        private final List<MutableStation> snapshot;
+        private final CountDownLatch stopped;
+
+        private Task(byte[] record, List<MutableStation> snapshot) {
+            this.record = record;
+            this.snapshot = snapshot;
+            this.stopped = null;
+        }
+
+        private Task(CountDownLatch stopped) {
+            this.record = null;
+            this.snapshot = null;
+            this.stopped = stopped;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps a histogram of the time to first audio of each station, see LatencyHistogram.
+ * Histograms are read from and written to the properties of a PlaybackStatsFile.
+ *
+ * Thread safe. Times are recorded on a GStreamer thread while histograms are read by clients.
+ */
+class StationLatencies {
+    private static final String PREFIX = "station.";
+    private static final String BUCKETS = ".latency.buckets";
+    private static final String TOTAL = ".latency.total";
+    private static final String MAX = ".latency.max";
+    // percentile stations are ranked by in `slowest()`
+    private static final double RANKED_PERCENTILE = 90;
+
+    // histogram of each station by ID. Guarded by this.
+    private final Map<Integer, Recorder> recorders = new HashMap<>();
+
+    /**
+     * Records a time to first audio.
+     * @param id the ID of the station played
+     * @param millis milliseconds from the request to play until audio could be heard
+     */
+    synchronized void record(int id, long millis) {
+        recorders.computeIfAbsent(id, key -> new Recorder()).record(Math.max(0, millis));
+    }
+
+    /**
+     * @param id the ID of a station
+     * @return a snapshot of the stations histogram, else null if none have been recorded
+     */
+    synchronized LatencyHistogram get(int id) {
+        Recorder recorder = recorders.get(id);
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    /**
+     * Returns the stations which are slowest to start, ranked by their estimated 90th
+     * percentile then by their mean.
+     * @param n the maximum number of station IDs to return
+     * @return up to n station IDs, slowest first
+     */
+    synchronized List<Integer> slowest(int n) {
+        Map<Integer, LatencyHistogram> histograms = new HashMap<>();
+        recorders.forEach((id, recorder) -> histograms.put(id, recorder.snapshot()));
+        List<Integer> ids = new ArrayList<>(histograms.keySet());
+        ids.sort(Comparator.<Integer>comparingLong(id -> histograms.get(id).getPercentileMillis(RANKED_PERCENTILE))
+                .thenComparingLong(id -> histograms.get(id).getMeanMillis())
+                .reversed());
+        return ids.subList(0, Math.min(n, ids.size()));
+    }
+
+    /**
+     * Replaces the recorded histograms with those found in the given properties. Malformed
+     * histograms are skipped.
+     * @param properties properties read from a PlaybackStatsFile
+     */
+    synchronized void load(Properties properties) {
+        recorders.clear();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(PREFIX) || !key.endsWith(BUCKETS)) {
+                continue;
+            }
+            String id = key.substring(PREFIX.length(), key.length() - BUCKETS.length());
+            try {
+                String[] counts = properties.getProperty(key).split(",");
+                if (counts.length != LatencyHistogram.buckets()) {
+                    throw new NumberFormatException("Expected " + LatencyHistogram.buckets() + " buckets");
+                }
+                Recorder recorder = new Recorder();
+                for (int i = 0; i < counts.length; i++) {
+                    recorder.counts[i] = Long.parseLong(counts[i].trim());
+                }
+                recorder.total = Long.parseLong(properties.getProperty(PREFIX + id + TOTAL, "0"));
+                recorder.max = Long.parseLong(properties.getProperty(PREFIX + id + MAX, "0"));
+                recorders.put(Integer.parseInt(id), recorder);
+            } catch (NumberFormatException e) {
+                System.out.println("INFO: Skipping unreadable latency histogram " + key);
+            }
+        }
+    }
+
+    /**
+     * Writes every recorded histogram into the given properties, replacing those already
+     * present. Histograms of stations which no longer exist are discarded.
+     * @param properties properties to be written to a PlaybackStatsFile
+     * @param exists tests whether a station ID is still in use
+     */
+    synchronized void store(Properties properties, IntPredicate exists) {
+        properties.stringPropertyNames().stream()
+                .filter(key -> key.startsWith(PREFIX)
+                        && (key.endsWith(BUCKETS) || key.endsWith(TOTAL) || key.endsWith(MAX)))
+                .forEach(properties::remove);
+        recorders.keySet().removeIf(id -> !exists.test(id));
+        recorders.forEach((id, recorder) -> {
+            StringJoiner counts = new StringJoiner(",");
+            for (long count : recorder.counts) {
+                counts.add(Long.toString(count));
+            }
+            properties.setProperty(PREFIX + id + BUCKETS, counts.toString());
+            properties.setProperty(PREFIX + id + TOTAL, Long.toString(recorder.total));
+            properties.setProperty(PREFIX + id + MAX, Long.toString(recorder.max));
+        });
+    }
+
+    /**
+     * The mutable histogram of a single station.
+     */
+    private static final class Recorder {
+        private final long[] counts = new long[LatencyHistogram.buckets()];
+        private long total;
+        private long max;
+
+        private void record(long millis) {
+            counts[LatencyHistogram.bucketOf(millis)]++;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+
+        private LatencyHistogram snapshot() {
+            return new LatencyHistogram(counts, total, max);
+        }
+    }
+}
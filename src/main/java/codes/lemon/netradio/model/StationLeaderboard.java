@@ -0,0 +1,215 @@
+package codes.lemon.netradio.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ranks stations by play count and by a time-decayed popularity score, so the most played
+ * and trending stations can be read without sorting the catalog.
+ * Each station is held in two sorted sets, one per ranking. A play moves the station within
+ * each set, costing O(log n), and the top N are the first N entries of a set.
+ *
+ * Every play adds a weight to a stations popularity which halves every half-life. Rather than
+ * decaying every score as time passes, a play at time t is weighted e^(lambda * t), so later
+ * plays weigh more and decaying the whole catalog would not change its order. The weights are
+ * summed in log space so they never overflow. The catalog only records the time of each
+ * stations last play, so when the leaderboard is built each station is credited with a single
+ * play at that time. Its earlier plays have been forgotten by the time they would matter.
+ *
+ * Thread safe. Rankings may be read concurrently with each other and with updates.
+ */
+class StationLeaderboard {
+    // the popularity of a station with no recorded play
+    private static final double NEVER_PLAYED = Double.NEGATIVE_INFINITY;
+    private static final Comparator<Entry> BY_PLAY_COUNT = Comparator
+            .comparingInt((Entry e) -> e.playCount).reversed()
+            .thenComparingInt(e -> e.id);
+    private static final Comparator<Entry> BY_POPULARITY = Comparator
+            .comparingDouble((Entry e) -> e.popularity).reversed()
+            .thenComparingInt(e -> e.id);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // decay rate per second
+    private final double lambda;
+    private final NavigableSet<Entry> byPlayCount = new TreeSet<>(BY_PLAY_COUNT);
+    private final NavigableSet<Entry> byPopularity = new TreeSet<>(BY_POPULARITY);
+    // the entry of each ranked station, by ID
+    private Entry[] entries = new Entry[0];
+
+    /**
+     * @param halfLifeSeconds time taken for the weight of a play to halve. Must be positive.
+     */
+    StationLeaderboard(long halfLifeSeconds) {
+        if (halfLifeSeconds <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive");
+        }
+        lambda = Math.log(2) / halfLifeSeconds;
+    }
+
+    /**
+     * Ranks every station in the given snapshot.
+     * @param catalog the stations to be ranked
+     * @param halfLifeSeconds time taken for the weight of a play to halve
+     * @return a new leaderboard
+     */
+    static StationLeaderboard build(StationSnapshot catalog, long halfLifeSeconds) {
+        StationLeaderboard leaderboard = new StationLeaderboard(halfLifeSeconds);
+        catalog.forEach(leaderboard::add);
+        return leaderboard;
+    }
+
+    /**
+     * Ranks a station after a change. If its play count has grown the new plays are credited
+     * to its popularity at the time it was last played, otherwise it is ranked afresh.
+     * Stations whose play count is unchanged are not moved.
+     * @param s the station after a change
+     */
+    void put(Station s) {
+        lock.writeLock().lock();
+        try {
+            int id = s.getStationID();
+            Entry previous = id < entries.length ? entries[id] : null;
+            if (previous == null) {
+                add(s);
+                return;
+            }
+            int plays = s.getPlayCount() - previous.playCount;
+            if (plays == 0) {
+                return;
+            }
+            unlink(previous);
+            Entry entry = new Entry(id, s.getPlayCount(), plays > 0
+                    ? logAdd(previous.popularity, Math.log(plays) + weight(s.getDateLastPlayed()))
+                    : seed(s));
+            link(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a station from the rankings. Does nothing if it is not ranked.
+     * @param id ID of the removed station
+     */
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id < entries.length && entries[id] != null) {
+                unlink(entries[id]);
+                entries[id] = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of the most played stations, most played first. Stations with equal
+     * play counts are ordered by ID.
+     * @param n the maximum number of IDs to return
+     * @return up to n station IDs
+     */
+    List<Integer> mostPlayed(int n) {
+        return top(byPlayCount, n);
+    }
+
+    /**
+     * Returns the IDs of the stations played most lately, most popular first. Stations which
+     * have never been played are not included.
+     * @param n the maximum number of IDs to return
+     * @return up to n station IDs
+     */
+    List<Integer> trending(int n) {
+        return top(byPopularity, n);
+    }
+
+    private List<Integer> top(NavigableSet<Entry> ranking, int n) {
+        lock.readLock().lock();
+        try {
+            List<Integer> ids = new ArrayList<>(Math.min(n, ranking.size()));
+            for (Entry e : ranking) {
+                if (ids.size() == n || (ranking == byPopularity && e.popularity == NEVER_PLAYED)) {
+                    break;
+                }
+                ids.add(e.id);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks a station which is not yet ranked. The caller holds the write lock, or has not
+     * yet published the leaderboard.
+     */
+    private void add(Station s) {
+        int id = s.getStationID();
+        if (id >= entries.length) {
+            // grow by half again to keep the cost of sequential additions low
+            entries = Arrays.copyOf(entries, Math.max(id + 1, entries.length + (entries.length >> 1)));
+        }
+        link(new Entry(id, s.getPlayCount(), seed(s)));
+    }
+
+    private void link(Entry e) {
+        entries[e.id] = e;
+        byPlayCount.add(e);
+        byPopularity.add(e);
+    }
+
+    private void unlink(Entry e) {
+        byPlayCount.remove(e);
+        byPopularity.remove(e);
+    }
+
+    /**
+     * @return the popularity of a station known only by its play count and last play,
+     *         credited with a single play at the time it was last played.
+     */
+    private double seed(Station s) {
+        return s.getPlayCount() > 0 && s.getDateLastPlayed() != null ? weight(s.getDateLastPlayed()) : NEVER_PLAYED;
+    }
+
+    /**
+     * @return the log of the weight of a play at the given time
+     */
+    private double weight(LocalDateTime played) {
+        if (played == null) {
+            // play count changed without a play time, such as by an import. Weight as a play now.
+            played = LocalDateTime.now();
+        }
+        return lambda * played.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * @return log(e^a + e^b), computed without overflow
+     */
+    private static double logAdd(double a, double b) {
+        double max = Math.max(a, b);
+        if (max == NEVER_PLAYED) {
+            return NEVER_PLAYED;
+        }
+        return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+    }
+
+    /**
+     * A stations position in both rankings. Immutable, so an entry is never changed while
+     * held in a sorted set.
+     */
+    private static final class Entry {
+        private final int id;
+        private final int playCount;
+        // log of the sum of the weights of the stations plays
+        private final double popularity;
+
+        private Entry(int id, int playCount, double popularity) {
+            this.id = id;
+            this.playCount = playCount;
+            this.popularity = popularity;
+        }
+    }
+}
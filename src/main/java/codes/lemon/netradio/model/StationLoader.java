@@ -1,19 +1,75 @@
 package codes.lemon.netradio.model;
 
-import com.opencsv.bean.*;
-import com.opencsv.exceptions.CsvDataTypeMismatchException;
-import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
-
 import java.io.*;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 
 /**
  * A persistence mechanism for storing and retrieving station data
  * between runs.
+ * Stations are stored as CSV by default. A binary snapshot format can be selected by
+ * setting the system property `netradio.storage` to `binary`. Binary snapshots are memory
+ * mapped on load and decoded lazily, making startup near instant for large catalogs.
+ * When using the binary format, an existing CSV file is imported on first run. CSV remains
+ * available as an import/export format through `importCsv()` and `exportCsv()`.
+ *
+ * The station file may be shared by several NetRadio instances and edited by scripts.
+ * Files are always replaced by writing a temporary file and renaming it over the original,
+ * so readers never see a partially written file, and writers hold an exclusive FileLock on
+ * a sibling `.lock` file for the duration of the write.
+ * The loader remembers a fingerprint of every station as it was last read or written.
+ * If the file has been replaced by another writer since, `storeStations()` performs a three
+ * way merge by station ID so changes made by other writers are kept rather than overwritten.
+ * `readExternalChanges()` reports which stations another writer has changed so they can be
+ * merged into the live catalog.
+ *
+ * This class is thread safe.
  */
 class StationLoader {
     private static final String FILE_PATH = "./.netradio-stations.csv";
+    private static final String BINARY_FILE_PATH = "./.netradio-stations.bin";
+    private static final String FORMAT_PROPERTY = "netradio.storage";
+
+    /**
+     * Formats which stations can be stored in.
+     */
+    enum Format { CSV, BINARY }
+
+    private final Format format;
+    private final File csvFile;
+    private final File binaryFile;
+    // every station as last read from or written to the file. Guarded by this.
+    private StationFingerprints base = StationFingerprints.EMPTY;
+    // identifies the version of the file described by base, null if base is out of date
+    private String seenStamp = null;
+
+    public StationLoader() {
+        this(formatFromProperties(), new File(FILE_PATH), new File(BINARY_FILE_PATH));
+    }
+
+    public StationLoader(Format format, File csvFile, File binaryFile) {
+        this.format = Objects.requireNonNull(format);
+        this.csvFile = Objects.requireNonNull(csvFile);
+        this.binaryFile = Objects.requireNonNull(binaryFile);
+    }
+
+    /**
+     * Reads the storage format selected by the user. Defaults to CSV.
+     * @return the selected storage format
+     */
+    private static Format formatFromProperties() {
+        String selected = System.getProperty(FORMAT_PROPERTY, Format.CSV.name());
+        try {
+            return Format.valueOf(selected.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("INFO: Unknown storage format " + selected + ". Using CSV");
+            return Format.CSV;
+        }
+    }
 
     /**
      * Retrieves previously stored Station instances.
@@ -22,81 +78,255 @@ class StationLoader {
      * Multiple calls to this method will never return the same instances.
      * @return previously stored station instances, else an empty list.
      */
-    public List<MutableStation> getStations() {
-        File stationsFile = new File(FILE_PATH);
-        List<MutableStation> stations = new LinkedList<>();
-        List<OpenCSVEntry> rows = new LinkedList<>();
-
-        try (FileReader in = new FileReader(stationsFile)) {
-            // constructs an OpenCSVEntry instance for each CSV row.
-            // column headers are mapped to fields by OpenCSV annotations in OpenCSVEntry
-            rows = new CsvToBeanBuilder<OpenCSVEntry>(in).
-                                            withType(OpenCSVEntry.class).build().parse();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public synchronized List<MutableStation> getStations() {
+        List<MutableStation> stations = null;
+        String stamp = stamp(activeFile());
+        if (format == Format.BINARY && binaryFile.exists()) {
+            try {
+                stations = BinaryStationFile.read(binaryFile);
+            } catch (IOException e) {
+                System.out.println("INFO: Unable to read the station snapshot (" + e.getMessage()
+                        + "). Loading the last CSV export");
+            }
         }
-
-        // OpenCSVEntry instances are contain unsanitised data.
-        // Replace with Station instances which perform validation
-        for (OpenCSVEntry row : rows) {
-            stations.add(buildStation(row));
+        if (stations == null) {
+            stations = importCsv(csvFile);
         }
+        base = StationFingerprints.of(stations);
+        seenStamp = stamp;
         return stations;
     }
 
+    /**
+     * Returns the file which stations are currently stored in.
+     * @return the station file for the selected format
+     */
+    File activeFile() {
+        return format == Format.BINARY ? binaryFile : csvFile;
+    }
+
     /**
      * Store station instances. The data contained in these instances will be
      * stored permanently and can be retrieved in future runs.
      * Station instances containing the same data can be retrieved by calling
      * `getStations()`.
+     * Once this returns the stations are durably stored: the file has been forced to disk
+     * before being renamed into place and the rename has been forced to disk too.
      * @param stations A list of station instances to be stored.
+     * @throws IOException if the stations could not be written. The previous file is left in place.
+     */
+    public synchronized void storeStations(List<MutableStation> stations) throws IOException {
+        File file = activeFile();
+        try (FileChannel lockChannel = FileChannel.open(lockFile(file).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.lock()) {
+            List<? extends Station> merged = stations;
+            boolean replaced = file.exists() && !stamp(file).equals(seenStamp);
+            if (replaced) {
+                // another writer has replaced the file since we last saw it
+                merged = merge(stations, readFile(file));
+            }
+            if (format == Format.BINARY) {
+                BinaryStationFile.write(merged, file);
+            }
+            else {
+                StationCsvCodec.write(merged, file);
+            }
+            syncDirectory(file);
+            base = StationFingerprints.of(stations);
+            // if other writers changes were merged, leave them to be found by readExternalChanges()
+            seenStamp = replaced ? null : stamp(file);
+        }
+    }
+
+    /**
+     * Forces the directory holding a file to disk, so a rename into it survives a crash.
+     * Some platforms can not open directories, in which case the rename is left to the OS.
+     */
+    static void syncDirectory(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException | UnsupportedOperationException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Re-reads the station file if it has been replaced since it was last read or written,
+     * and reports every station which differs from what was last seen. Stations are
+     * compared by fingerprint so only the changed stations are returned.
+     * A missing file is not reported as the removal of every station.
+     * @return the changes found, else null if the file is unchanged
+     */
+    public synchronized ExternalChanges readExternalChanges() {
+        File file = activeFile();
+        String stamp = stamp(file);
+        if (!file.exists() || stamp.equals(seenStamp)) {
+            return null;
+        }
+        List<MutableStation> current;
+        try {
+            current = readFile(file);
+        } catch (IOException e) {
+            // the file may be mid-replacement by a writer not using rename. Try again on the next change.
+            System.out.println("INFO: Unable to read external station changes (" + e.getMessage() + ")");
+            return null;
+        }
+        StationFingerprints latest = StationFingerprints.of(current);
+        Set<Integer> changedIds = new HashSet<>();
+        List<Integer> removed = new ArrayList<>();
+        base.diff(latest, changedIds::add, removed::add);
+        List<MutableStation> changed = new ArrayList<>(changedIds.size());
+        if (!changedIds.isEmpty()) {
+            for (MutableStation s : current) {
+                if (changedIds.contains(s.getStationID())) {
+                    changed.add(s);
+                }
+            }
+        }
+        ExternalChanges changes = new ExternalChanges(changed, removed, base);
+        base = latest;
+        seenStamp = stamp;
+        return changes;
+    }
+
+    /**
+     * Merges the stations held by another writer with our own, by station ID, relative to
+     * the stations we last read or wrote. A station changed by only one side keeps that
+     * sides change. If both sides changed a station our version is kept, as it is the one
+     * the user is currently working with, unless we removed a station the other writer
+     * has since modified, in which case the modification is kept.
+     * @param ours our current stations
+     * @param theirs the stations currently held by the file
+     * @return the merged stations
+     */
+    private List<Station> merge(List<MutableStation> ours, List<MutableStation> theirs) {
+        Set<Integer> theirChanges = new HashSet<>();
+        Set<Integer> theirRemovals = new HashSet<>();
+        base.diff(StationFingerprints.of(theirs), theirChanges::add, theirRemovals::add);
+        Map<Integer, Station> theirChanged = new HashMap<>();
+        for (Station s : theirs) {
+            if (theirChanges.contains(s.getStationID())) {
+                theirChanged.put(s.getStationID(), s);
+            }
+        }
+        List<Station> merged = new ArrayList<>(ours.size() + theirChanged.size());
+        for (Station s : ours) {
+            int id = s.getStationID();
+            Station other = theirChanged.remove(id);
+            boolean unchanged = (other != null || theirRemovals.contains(id)) && base.matches(s);
+            if (!unchanged) {
+                merged.add(s);
+            }
+            else if (other != null) {
+                merged.add(other);
+            }
+            // else removed by the other writer
+        }
+        // added by the other writer, or removed by us but since modified by them
+        merged.addAll(theirChanged.values());
+        return merged;
+    }
+
+    private List<MutableStation> readFile(File file) throws IOException {
+        return format == Format.BINARY ? BinaryStationFile.read(file) : StationCsvCodec.read(file);
+    }
+
+    private static File lockFile(File file) {
+        return new File(file.getPath() + ".lock");
+    }
+
+    /**
+     * Identifies a version of a file. Files are replaced by renaming, which changes the
+     * files key (its inode), so the key identifies a version along with the size and
+     * modification time, which cover writers which modify the file in place.
+     * @return a string identifying the current version of the file
+     */
+    private static String stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attributes.fileKey() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.size();
+        } catch (IOException e) {
+            return "missing";
+        }
+    }
+
+    /**
+     * Reads stations from the given CSV file.
+     * @param file a CSV file containing station details
+     * @return the stations contained in the file, else an empty list
      */
-    public void storeStations(List<MutableStation> stations) {
-        List<OpenCSVEntry> rows = new LinkedList<>();
-
-        // copy station fields to OpenCSVEntry instance which contains OpenCSV annotations
-        for (MutableStation s : stations) {
-            rows.add(buildOpenCSVEntry(s));
-        }
-        File stationsFile = new File(FILE_PATH);
-        try (FileWriter out = new FileWriter(stationsFile)) {
-            // Map column headers to instance fields using OpenCSV annotations
-            MappingStrategy<OpenCSVEntry> strategy = new HeaderColumnNameMappingStrategy<>();
-            strategy.setType(OpenCSVEntry.class);
-            StatefulBeanToCsv<OpenCSVEntry> writer = new StatefulBeanToCsvBuilder<OpenCSVEntry>(out).
-                    withMappingStrategy(strategy).withOrderedResults(false).build();
-            // writing all rows in the one call allows OpenCSV to work concurrently
-            writer.write(rows);
-        }
-        catch (IOException | CsvRequiredFieldEmptyException | CsvDataTypeMismatchException e) {
-            // TODO: explore exception handling options
+    public List<MutableStation> importCsv(File file) {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try {
+            // rows are parsed straight into Station instances which perform validation
+            return StationCsvCodec.read(file);
+        } catch (IOException e) {
             e.printStackTrace();
+            return new ArrayList<>();
         }
     }
 
     /**
-     * Constructs a Station instance from a provided OpenCSVEntry instance.
-     * OpenCSVEntry instances contain unsanitised data as they are populated by OpenCSV.
-     * The returned Station instances only contain sanitised data.
-     * @param entry a CSV entry containing all the data necessary to construct a station instance.
-     * @return a station instance which contains a sanitised copy of the data contained
-     *          in the OpenCSVEntry.
+     * Writes the given stations to a CSV file. Any existing content is replaced.
+     * This does not take part in the locking and merging performed by `storeStations()`.
+     * @param stations A list of station instances to be written.
+     * @param file destination CSV file
+     * @throws IOException if the file could not be written
      */
-    private MutableStation buildStation(OpenCSVEntry entry) {
-        return new RadioStation(entry.getId(), entry.getName(), entry.getUri(), entry.getLastPlayed(),
-                entry.getPlayCount(), entry.getBitrate(), entry.getGenre(), entry.getFavourite());
+    public void exportCsv(List<? extends Station> stations, File file) throws IOException {
+        StationCsvCodec.write(stations, file);
     }
 
     /**
-     * Constructs a OpenCSVEntry from a provided Station instance.
-     * OpenCSVEntry contains the annotations which enable OpenCSV to map
-     * data to column headers. An OpenCSVEntry instance enables the given
-     * stations data to be stored.
-     * @param s a station instance
-     * @return a OpenCSVEntry instance containing the field data of the station instance.
+     * Stations changed in the station file by another writer, as found by
+     * `readExternalChanges()`.
      */
-    private OpenCSVEntry buildOpenCSVEntry(MutableStation s) {
-        return new OpenCSVEntry(s.getStationID(), s.getStationName(), s.getUri(), s.getPlayCount(),
-                s.getBitrate(), s.isFavourite(), s.getGenre(), s.getDateLastPlayed());
+    static final class ExternalChanges {
+        private final List<MutableStation> changed;
+        private final List<Integer> removed;
+        private final StationFingerprints previous;
+
+        private ExternalChanges(List<MutableStation> changed, List<Integer> removed, StationFingerprints previous) {
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+            this.previous = previous;
+        }
+
+        /**
+         * @return stations added or modified by the other writer, in their new state
+         */
+        List<MutableStation> changed() {
+            return changed;
+        }
+
+        /**
+         * @return IDs of stations removed by the other writer
+         */
+        List<Integer> removed() {
+            return removed;
+        }
+
+        /**
+         * Returns true if the given station has not been changed locally since the file
+         * was last read or written, so an external change to it can be applied.
+         * @param id ID of the station
+         * @param local the local version of the station, else null if it does not exist locally
+         * @return true if the local version is the version the other writer started from
+         */
+        boolean unchangedLocally(int id, Station local) {
+            return local == null ? previous.indexOf(id) < 0 : previous.matches(local);
+        }
+
+        boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
     }
 }
@@ -1,32 +1,233 @@
 package codes.lemon.netradio.model;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+/**
+ * Manages the station catalog.
+ * Changes are made through a single writer path: every mutation is synchronized, so a
+ * batch of changes applied through `applyBatch()` is never interleaved with other mutations.
+ * Reads never take that lock. They are served from the stores latest snapshot, which for
+ * the default in-memory store is an immutable catalog published by each change. Readers
+ * on any thread (UI, search) therefore see a consistent catalog and never block writers
+ * such as the thread delivering stream tags.
+ * The station file may be shared with other processes. When it is, the file is watched
+ * and stations changed by another process are merged into the catalog by ID, unless the
+ * same station has also been changed locally, and ExternalChangeListeners are notified.
+ * Every change is also recorded in a sequenced change log, so consumers can catch up on
+ * the changes since they last looked rather than re-reading the catalog.
+ */
 class StationManager {
-    private final StationLoader storage = new StationLoader();
-    // Station IDs are mapped to Station instances for efficient (T(O) = O(1)) station lookup
-    private final Map<Integer,MutableStation> stations;
+    private static final String STORE_PROPERTY = "netradio.store";
+    private static final String ID_FILE_PATH = "./.netradio-stations.ids";
+    private static final String SMART_LIST_FILE_PATH = "./.netradio-smartlists.properties";
+    // maximum posting list entries walked by a ranked search, see StationSearchIndex.similar()
+    private static final int RANKED_SEARCH_BUDGET = 20_000;
+    // added to the score of a ranked search result whose name contains the whole query
+    private static final double NAME_MATCH_BONUS = 0.5;
+    // maximum added for play count, reached at around 22,000 plays
+    private static final double POPULARITY_WEIGHT = 0.2;
+    private static final double FAVOURITE_BONUS = 0.15;
+    // days taken for the weight of a play in the trending ranking to halve
+    private static final String TRENDING_HALF_LIFE_PROPERTY = "netradio.trending.halflife";
+    private static final long DEFAULT_TRENDING_HALF_LIFE_DAYS = 7;
+    // maximum number of query results cached
+    private static final String CACHE_SIZE_PROPERTY = "netradio.cache.size";
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    // number of changes retained for getChangesSince()
+    private static final String CHANGE_LOG_SIZE_PROPERTY = "netradio.changelog.size";
+    private static final int DEFAULT_CHANGE_LOG_SIZE = 4096;
+    // fields the results of each kind of search depend on, see StationQueryCache
+    private static final Set<StationQueryCache.Field> FIND_DEPENDENCIES = EnumSet.of(
+            StationQueryCache.Field.MEMBERSHIP, StationQueryCache.Field.NAME, StationQueryCache.Field.URI);
+    private static final Set<StationQueryCache.Field> RANKED_SEARCH_DEPENDENCIES = EnumSet.of(
+            StationQueryCache.Field.MEMBERSHIP, StationQueryCache.Field.NAME, StationQueryCache.Field.URI,
+            StationQueryCache.Field.PLAY_COUNT, StationQueryCache.Field.FAVOURITE);
+    // holds and persists the station catalog
+    private final StationStore stations;
+    // hands out new station IDs. IDs are never reused.
+    private final StationIdAllocator ids;
+    // watches the station file for changes by other processes. Null if not shared.
+    private final StationFileWatcher watcher;
+    private final List<ExternalChangeListener> externalChangeListeners = new CopyOnWriteArrayList<>();
+    // persists smart list definitions. Null if they are held in memory only.
+    private final SmartListFile smartListFile;
+    // trigram index answering findStation(). Built on first search, then updated by every mutation.
+    private volatile StationSearchIndex searchIndex = null;
+    // genre, favourite and bitrate indexes answering queryStations(). Built on first query.
+    private volatile StationFacetIndex facetIndex = null;
+    // canonical stream URI to station, detecting duplicates. Built on first use.
+    private volatile StationUriIndex uriIndex = null;
+    // most played and trending rankings. Built on first use.
+    private volatile StationLeaderboard leaderboard = null;
+    // materialised smart lists. Built on first use.
+    private volatile StationViews views = null;
+    // recent results of findStation(), searchStations() and queryStations()
+    private final StationQueryCache cache = new StationQueryCache(positiveProperty(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    // recent changes, for consumers which apply deltas rather than re-reading the catalog
+    private final StationChangeLog changeLog =
+            new StationChangeLog(positiveProperty(CHANGE_LOG_SIZE_PROPERTY, DEFAULT_CHANGE_LOG_SIZE));
 
     public StationManager() {
-        // retrieve any stations stored from previous runs.
-        // Generate mapping from ID to station for O(1) lookup.
-        stations = mapIDToStation(storage.getStations());
+        this(new StationLoader());
+    }
+
+    private StationManager(StationLoader storage) {
+        this(storage, openStore(storage));
+    }
+
+    private StationManager(StationLoader storage, StationStore stations) {
+        // the paged store only imports the station file, it never writes to it
+        this(stations, new File(ID_FILE_PATH), stations instanceof PagedStationStore ? null : storage,
+                new File(SMART_LIST_FILE_PATH));
+    }
+
+    /**
+     * Creates a manager whose ID high-water mark is held in memory only.
+     * @param stations the station catalog
+     */
+    StationManager(StationStore stations) {
+        this(stations, null);
+    }
+
+    /**
+     * @param stations the station catalog
+     * @param idFile location of the persisted ID high-water mark, or null to hold it in memory only
+     */
+    StationManager(StationStore stations, File idFile) {
+        this(stations, idFile, null);
+    }
+
+    /**
+     * @param stations the station catalog
+     * @param idFile location of the persisted ID high-water mark, or null to hold it in memory only
+     * @param sharedStorage the loader the store persists through, whose file is watched
+     *                      for changes by other processes, or null if it is not shared
+     */
+    StationManager(StationStore stations, File idFile, StationLoader sharedStorage) {
+        this(stations, idFile, sharedStorage, null);
+    }
+
+    /**
+     * @param stations the station catalog
+     * @param idFile location of the persisted ID high-water mark, or null to hold it in memory only
+     * @param sharedStorage the loader the store persists through, whose file is watched
+     *                      for changes by other processes, or null if it is not shared
+     * @param smartListFile location of the persisted smart list definitions, or null to hold
+     *                      them in memory only
+     */
+    StationManager(StationStore stations, File idFile, StationLoader sharedStorage, File smartListFile) {
+        this.stations = Objects.requireNonNull(stations);
+        ids = new StationIdAllocator(idFile, stations.highestId() + 1);
+        watcher = sharedStorage == null ? null : watch(sharedStorage);
+        this.smartListFile = smartListFile == null ? null : new SmartListFile(smartListFile);
+    }
+
+    /**
+     * Reads a size selected by the user through a system property, such as the query cache
+     * capacity `netradio.cache.size` or the change log capacity `netradio.changelog.size`.
+     */
+    private static int positiveProperty(String property, int defaultValue) {
+        int size = Integer.getInteger(property, defaultValue);
+        if (size <= 0) {
+            System.out.println("INFO: Invalid " + property + " " + size + ". Using " + defaultValue);
+            return defaultValue;
+        }
+        return size;
+    }
+
+    private StationFileWatcher watch(StationLoader storage) {
+        try {
+            return new StationFileWatcher(storage.activeFile(), () -> mergeExternalChanges(storage));
+        } catch (IOException e) {
+            // changes by other processes are still merged when the file is next written
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the station store selected by the user. Stations are held in memory unless
+     * the system property `netradio.store` is set to `paged`, in which case stations are
+     * kept on disk and only recently used parts of the catalog are held in memory.
+     * Setting it to `columnar` holds stations in memory in a compact columnar form.
+     * @return the selected station store
+     */
+    private static StationStore openStore(StationLoader storage) {
+        String selected = System.getProperty(STORE_PROPERTY, "memory");
+        switch (selected.toLowerCase()) {
+            case "paged":
+                return new PagedStationStore();
+            case "columnar":
+                return new ColumnarStationStore(storage);
+            case "memory":
+                return new MemoryStationStore(storage);
+            default:
+                System.out.println("INFO: Unknown station store " + selected + ". Holding stations in memory");
+                return new MemoryStationStore(storage);
+        }
     }
 
     /**
-     * Accepts a list of stations and returns a Map with each stations
-     * ID as a key with the corresponding station instance as the value
-     * for that key. This enables efficient station lookup T(O)=O(1) rather than
-     * looping through every station T(O) = O(n).
-     * @param stationList list of stations
-     * @return mapping of station IDs -> station instances
+     * Subscribe to be notified when stations are changed by another process.
+     * @param listener the listener to be notified
      */
-    private Map<Integer, MutableStation> mapIDToStation(List<MutableStation> stationList) {
-        Map<Integer, MutableStation> stationMap = new HashMap<>();
-        for (MutableStation s : stationList) {
-            stationMap.put(s.getStationID(), s);
+    public void addExternalChangeListener(ExternalChangeListener listener) {
+        externalChangeListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Reads any changes made to the station file by other processes and applies them to
+     * the catalog. A change is only applied if the station has not also been changed
+     * locally since the file was last read or written. Local changes win such conflicts
+     * and are written back to the file with the next snapshot.
+     * The file is read without holding this managers lock, so writers are only blocked
+     * while the changed stations are applied.
+     * @param storage the loader the catalog is persisted through
+     */
+    void mergeExternalChanges(StationLoader storage) {
+        StationLoader.ExternalChanges changes = storage.readExternalChanges();
+        if (changes == null || changes.isEmpty()) {
+            return;
+        }
+        Set<Integer> added = new TreeSet<>();
+        Set<Integer> updated = new TreeSet<>();
+        Set<Integer> removed = new TreeSet<>();
+        synchronized (this) {
+            List<MutableStation> puts = new ArrayList<>();
+            for (MutableStation s : changes.changed()) {
+                int id = s.getStationID();
+                MutableStation local = stations.get(id);
+                if (changes.unchangedLocally(id, local)) {
+                    puts.add(s);
+                    (local == null ? added : updated).add(id);
+                    ids.advancePast(id);
+                }
+            }
+            for (int id : changes.removed()) {
+                MutableStation local = stations.get(id);
+                if (local != null && changes.unchangedLocally(id, local)) {
+                    removed.add(id);
+                }
+            }
+            if (puts.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            putAll(puts, removed);
+        }
+        for (ExternalChangeListener listener : externalChangeListeners) {
+            listener.stationsChanged(Collections.unmodifiableSet(added), Collections.unmodifiableSet(updated),
+                    Collections.unmodifiableSet(removed));
         }
-        return stationMap;
     }
 
     /**
@@ -36,72 +237,307 @@ class StationManager {
      * @return the Station with the given ID, else null.
      */
     public Station getStation(int id) {
-        if (stations.containsKey(id)) {
-            return stations.get(id);
-        }
-        return null;
+        return stations.snapshot().get(id);
     }
 
     /**
-     * Return an immutable list of all station instances.
+     * Return an immutable list of all station instances. The list is a view of the
+     * current catalog snapshot so is not copied.
      * @return an immutable list of all stations
      */
     public List<Station> getAllStations() {
-        List<Station> list = new LinkedList<Station>(stations.values());
-        return Collections.unmodifiableList(list);
+        return stations.snapshot().asList();
+    }
+
+    /**
+     * Returns a consistent, read only view of the current catalog.
+     * @return the current catalog
+     */
+    public StationSnapshot snapshot() {
+        return stations.snapshot();
     }
 
     /**
      * Add a station to the player. Requires a name for the station and a
      * URI pointing to an audio source for that station.
-     * The station will be assigned a unique ID.
+     * The station will be assigned a unique ID. If a station already plays the same stream,
+     * however its URI is written (see StationUris), no station is added and the ID of the
+     * existing station is returned instead.
      *
      * @param name the name of the new station
      * @param uri  points to an audio source for the new station
-     * @return the ID given to the newly added station
+     * @return the ID given to the newly added station, else the ID of the existing station
+     * @throws UncheckedIOException if no station ID could be reserved
      */
-    public int addStation(String name, String uri) {
+    public synchronized int addStation(String name, String uri) {
         // should never occur as NetRadioPlayer validates input
         assert(name != null) : "null station name supplied";
         assert(uri != null) : "null station uri supplied";
 
-        int id = getUniqueID();
+        int existing = uriIndex().find(uri);
+        if (existing >= 0) {
+            return existing;
+        }
+        int id = ids.allocate();
         // ID assignment is under our control so should always be unique
-        assert (!stations.containsKey(id)) : "ID is not unique";
-        Station newStation = new RadioStation(id, name, uri);
+        assert (!stations.contains(id)) : "ID is not unique";
+        MutableStation newStation = new RadioStation(id, name, uri);
 
-        stations.put(id, (MutableStation) newStation);
-        updateDataInStorage();
+        stations.put(newStation);
+        reindex(null, newStation);
+        publishViews();
         return id;
     }
 
+    /**
+     * Adds many stations in one pass. A contiguous range of IDs is allocated for the new
+     * stations and they are persisted together with a single write. All details of the
+     * given stations other than their IDs are preserved.
+     * Stations playing the same stream as an existing station, or as an earlier station in
+     * the collection, are not added. The ID of that station is returned in their place.
+     *
+     * @param newStations details of the stations to be added. Their IDs are ignored.
+     * @return the IDs given to the new stations, in the order the stations were supplied
+     */
+    public synchronized List<Integer> addStations(Collection<? extends Station> newStations) {
+        // should never occur as NetRadioPlayer validates input
+        assert(newStations != null) : "null stations supplied";
+        if (newStations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> addedIds = new ArrayList<>(newStations.size());
+        add(newStations, addedIds);
+        return Collections.unmodifiableList(addedIds);
+    }
+
+    /**
+     * Adds many stations in one pass, as `addStations()` does, returning only how many were
+     * added. Used by StationImporter, which has no use for the IDs.
+     * @param newStations details of the stations to be added. Their IDs are ignored.
+     * @return the number of stations added. The remainder were duplicates.
+     */
+    synchronized int importStations(Collection<? extends Station> newStations) {
+        return newStations.isEmpty() ? 0 : add(newStations, new ArrayList<>(newStations.size()));
+    }
+
+    /**
+     * The caller holds this monitor.
+     * @return the number of stations added
+     */
+    private int add(Collection<? extends Station> newStations, List<Integer> addedIds) {
+        StationUriIndex index = uriIndex();
+        // the ID of each new or existing station, by canonical URI
+        Map<String, Integer> known = new HashMap<>();
+        List<String> canonical = new ArrayList<>(newStations.size());
+        int unique = 0;
+        for (Station s : newStations) {
+            String uri = StationUris.canonical(s.getUri());
+            canonical.add(uri);
+            if (!known.containsKey(uri)) {
+                int existing = index.find(s.getUri());
+                known.put(uri, existing);
+                if (existing < 0) {
+                    unique++;
+                }
+            }
+        }
+        int id = unique > 0 ? ids.allocate(unique) : -1;
+        List<MutableStation> added = new ArrayList<>(unique);
+        Iterator<String> uris = canonical.iterator();
+        for (Station s : newStations) {
+            String uri = uris.next();
+            int existing = known.get(uri);
+            if (existing >= 0) {
+                addedIds.add(existing);
+                continue;
+            }
+            added.add(new RadioStation(id, s.getStationName(), s.getUri(), s.getDateLastPlayed(),
+                    s.getPlayCount(), s.getBitrate(), s.getGenre() != null ? s.getGenre() : "Unknown", s.isFavourite()));
+            known.put(uri, id);
+            addedIds.add(id++);
+        }
+        putAll(added, Collections.emptyList());
+        return unique;
+    }
+
+    /**
+     * Returns the station playing the stream at the given URI, however the URI is written.
+     * Answered in O(1) from an index of canonical URIs.
+     * @param uri a stream URI
+     * @return the station playing the stream, else null. If several stations play it, the
+     *         one with the lowest ID.
+     */
+    public Station findStationByUri(String uri) {
+        assert (uri != null) : "null uri supplied";
+        int id = uriIndex().find(uri);
+        return id < 0 ? null : stations.snapshot().get(id);
+    }
+
+    /**
+     * Merges duplicate stations across the whole catalog in a single pass.
+     * Stations are grouped in parallel by candidate key, their host and their path without
+     * format tokens (see StationUris), so only stations within a group are compared. Within a
+     * group, stations with the same canonical URI, or with matching names, such as the mp3
+     * and aac streams of one station, are duplicates.
+     * Each set of duplicates is merged into the station most likely to be the one the user
+     * knows: a favourite, else the most played, else the oldest. The survivor keeps its own
+     * name and URI and takes on the combined play count, the latest play, favourite status
+     * if any duplicate was a favourite, and a known bitrate and genre where it lacks them.
+     * All changes are applied and persisted together.
+     *
+     * @return the IDs merged into each surviving station, keyed by the survivors ID
+     */
+    public synchronized Map<Integer, List<Integer>> deduplicate() {
+        Map<String, List<Station>> groups = stations.snapshot().asList().parallelStream()
+                .collect(Collectors.groupingByConcurrent(s -> StationUris.candidateKey(s.getUri())));
+        Map<Integer, List<Integer>> merged = new ConcurrentHashMap<>();
+        Map<Integer, MutableStation> survivors = new ConcurrentHashMap<>();
+        groups.values().parallelStream()
+                .filter(group -> group.size() > 1)
+                .forEach(group -> mergeDuplicates(group, survivors, merged));
+        if (merged.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Integer> removals = new ArrayList<>();
+        merged.values().forEach(removals::addAll);
+        putAll(survivors.values(), removals);
+        return Collections.unmodifiableMap(new TreeMap<>(merged));
+    }
+
+    /**
+     * Splits a group of candidates into sets of duplicates and merges each set into its
+     * preferred station. Each station joins the first set whose preferred station it duplicates.
+     */
+    private static void mergeDuplicates(List<Station> group, Map<Integer, MutableStation> survivors,
+                                        Map<Integer, List<Integer>> merged) {
+        List<Station> preferred = new ArrayList<>(group);
+        preferred.sort(Comparator.comparing(Station::isFavourite).reversed()
+                .thenComparing(Comparator.comparingInt(Station::getPlayCount).reversed())
+                .thenComparingInt(Station::getStationID));
+        // each set of duplicates, headed by its preferred station
+        List<List<Station>> sets = new ArrayList<>();
+        for (Station s : preferred) {
+            String canonical = StationUris.canonical(s.getUri());
+            List<Station> duplicates = null;
+            for (List<Station> set : sets) {
+                Station head = set.get(0);
+                if (canonical.equals(StationUris.canonical(head.getUri()))
+                        || StationUris.sameName(s.getStationName(), head.getStationName())) {
+                    duplicates = set;
+                    break;
+                }
+            }
+            if (duplicates == null) {
+                sets.add(duplicates = new ArrayList<>());
+            }
+            duplicates.add(s);
+        }
+        for (List<Station> set : sets) {
+            if (set.size() > 1) {
+                MutableStation survivor = merge(set);
+                survivors.put(survivor.getStationID(), survivor);
+                merged.put(survivor.getStationID(),
+                        set.subList(1, set.size()).stream().map(Station::getStationID).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    /**
+     * Combines the playback statistics of a set of duplicates into a copy of the first.
+     */
+    private static MutableStation merge(List<Station> duplicates) {
+        Station head = duplicates.get(0);
+        long plays = 0;
+        LocalDateTime lastPlayed = null;
+        boolean favourite = false;
+        int bitrate = head.getBitrate();
+        String genre = head.getGenre();
+        for (Station s : duplicates) {
+            plays += s.getPlayCount();
+            if (s.getDateLastPlayed() != null && (lastPlayed == null || s.getDateLastPlayed().isAfter(lastPlayed))) {
+                lastPlayed = s.getDateLastPlayed();
+            }
+            favourite |= s.isFavourite();
+            if (bitrate <= 0 && s.getBitrate() > 0) {
+                bitrate = s.getBitrate();
+            }
+            if ((genre == null || genre.equals("Unknown")) && s.getGenre() != null && !s.getGenre().equals("Unknown")) {
+                genre = s.getGenre();
+            }
+        }
+        return new RadioStation(head.getStationID(), head.getStationName(), head.getUri(), lastPlayed,
+                (int) Math.min(plays, Integer.MAX_VALUE), bitrate, genre != null ? genre : "Unknown", favourite);
+    }
+
     /**
      * Permanently remove a station from the player.
      *
      * @param id the unique ID of the station to be removed
      * @return true if the station was successfully removed, else false.
      */
-    public boolean removeStation(int id) {
-        // remove() returns null if key doesn't exist
-        Station removed = stations.remove(id);
-        if (removed != null) {
-            updateDataInStorage();
+    public synchronized boolean removeStation(int id) {
+        Station removed = stations.snapshot().get(id);
+        if (removed != null && stations.remove(id)) {
+            reindex(removed, null);
+            publishViews();
             return true;
         }
         return false;
     }
 
+    /**
+     * Updates the user editable details of a station in place. The stations ID and
+     * playback statistics are preserved. Storage is only updated if a value has changed.
+     * A station can not be moved onto a stream another station already plays, as with
+     * `addStation()`, however the URI is written.
+     * @param id ID of the station to be updated
+     * @param name the new name of the station
+     * @param uri the new audio source of the station
+     * @param favourite true to mark the station as a favourite, else false
+     * @return true if the station exists, else false.
+     * @throws IllegalArgumentException if another station already plays the stream at uri
+     */
+    public synchronized boolean updateStation(int id, String name, String uri, boolean favourite) {
+        // should never occur as NetRadioPlayer validates input
+        assert(name != null) : "null station name supplied";
+        assert(uri != null) : "null station uri supplied";
+
+        MutableStation s = stations.get(id);
+        if (s == null) {
+            return false;
+        }
+        if (!StationUris.canonical(uri).equals(StationUris.canonical(s.getUri()))) {
+            int existing = uriIndex().find(uri);
+            if (existing >= 0) {
+                throw new IllegalArgumentException("Station " + existing + " already plays " + uri);
+            }
+        }
+        if (!name.equals(s.getStationName()) || !uri.equals(s.getUri()) || favourite != s.isFavourite()) {
+            // only update if a value is different to prevent unnecessary disk I/O
+            Station before = s.copy();
+            s.setStationName(name);
+            s.setUri(uri);
+            s.setFavourite(favourite);
+            stations.put(s);
+            reindex(before, s);
+            publishViews();
+        }
+        return true;
+    }
+
     /**
      * Sets the playback bitrate of the given station with the given ID.
      * @param id id of the station to be updated
      * @param bitrate playback bitrate of the given station
      */
-    public void setBitrate(int id, int bitrate) {
-        MutableStation s = (MutableStation) getStation(id);
+    public synchronized void setBitrate(int id, int bitrate) {
+        MutableStation s = stations.get(id);
         if (s != null && bitrate != s.getBitrate()) {
             // only update if new value is different to prevent unnecessary disk I/O
             s.setBitrate(bitrate);
-            updateDataInStorage();
+            stations.put(s);
+            reindexFacets(s, StationField.BITRATE);
+            publishViews();
         }
     }
 
@@ -113,11 +549,13 @@ class StationManager {
      * @param id     the unique ID for a station
      * @param status true to mark as a favourite, else false
      */
-    public void setFavourite(int id, boolean status) {
-        MutableStation s = (MutableStation) getStation(id);
+    public synchronized void setFavourite(int id, boolean status) {
+        MutableStation s = stations.get(id);
         if (s != null && status != s.isFavourite()) {
             s.setFavourite(status);
-            updateDataInStorage();
+            stations.put(s);
+            reindexFacets(s, StationField.FAVOURITE);
+            publishViews();
         }
     }
 
@@ -126,93 +564,899 @@ class StationManager {
      * @param id station to be updated
      * @param genre the genre of the station. Not null
      */
-    public void setGenre(int id, String genre) {
+    public synchronized void setGenre(int id, String genre) {
         Objects.requireNonNull(genre);
-        MutableStation s = (MutableStation) getStation(id);
+        MutableStation s = stations.get(id);
         if (s != null && !genre.equals(s.getGenre())) {
             // only update if new value is different to prevent unnecessary disk I/O
             s.setGenre(genre);
-            updateDataInStorage();
+            stations.put(s);
+            reindexFacets(s, StationField.GENRE);
+            publishViews();
         }
     }
 
     /**
      * Searches through station details looking for the given search term.
-     * Searches are case insensitive.
+     * Searches are case insensitive. Terms of three or more characters are answered from a
+     * trigram index of station names and URIs (see StationSearchIndex), shorter terms by
+     * scanning the catalog. Results are in ID order.
+     * Results are cached until a station is added or removed or a name or URI changes.
      *
      * @param searchTerm the term to be searched
      * @return a list of all stations whose details contain an instance of the
      * search term. An empty list is returned if no results are found.
      */
     public List<Station> findStation(String searchTerm) {
+        Object key = List.of("find", searchTerm.toLowerCase());
+        long[] versions = cache.versions();
+        StationSnapshot catalog = stations.snapshot();
+        int[] cached = (int[]) cache.get(key);
+        if (cached != null) {
+            return resolve(cached, catalog);
+        }
+        List<Station> results = findStation(searchTerm, catalog);
+        cache.put(key, FIND_DEPENDENCIES, versions, toIds(results));
+        return results;
+    }
+
+    /**
+     * Searches the given snapshot of the catalog, as `findStation(String)`. The search is
+     * abandoned if the calling thread is interrupted.
+     * @param searchTerm the term to be searched
+     * @param catalog the snapshot to be searched
+     * @return a list of all stations whose details contain an instance of the search term.
+     * @throws CancellationException if the calling thread was interrupted during the search
+     */
+    List<Station> findStation(String searchTerm, StationSnapshot catalog) {
         assert (searchTerm != null) : "null search term supplied";
-        searchTerm = searchTerm.toLowerCase();
+        String term = searchTerm.toLowerCase();
         List<Station> results = new ArrayList<>();
-        for (Station s : stations.values()) {
-            boolean found = false;
-            if (s.getUri().toLowerCase().contains(searchTerm)) {
-                found = true;
+        int[] candidates = searchIndex().candidates(term);
+        if (candidates == null) {
+            // too short to use the index
+            int[] scanned = { 0 };
+            catalog.forEach(s -> {
+                checkCancelled(scanned[0]++);
+                if (matches(s, term)) {
+                    results.add(s);
+                }
+            });
+            return results;
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            checkCancelled(i);
+            Station s = catalog.get(candidates[i]);
+            if (s != null && matches(s, term)) {
+                results.add(s);
             }
-            if (s.getStationName().toLowerCase().contains(searchTerm)) {
-                found = true;
+        }
+        return results;
+    }
+
+    /**
+     * Throws if the calling thread has been interrupted. Checked once every 1024 stations
+     * visited by a search, so cancelling a search takes effect promptly at little cost.
+     * @param visited number of stations visited so far
+     * @throws CancellationException if the calling thread has been interrupted
+     */
+    static void checkCancelled(int visited) {
+        if ((visited & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    /**
+     * Searches for stations similar to the given query, tolerating typos and differences in
+     * case and diacritics, and returns the best matches first.
+     * Stations are found by the proportion of the querys trigrams they contain. Each is scored
+     * on that proportion, with a bonus if its name contains the query outright, blended with
+     * its play count and favourite status. Only the best `limit` stations are retained, in a
+     * bounded heap, so the cost of ranking grows with the number of matches rather than the
+     * size of the catalog and the full set of matches is never sorted.
+     * Queries shorter than three characters rank the results of `findStation()`.
+     * Results are cached until a field they are ranked on changes.
+     *
+     * @param query the search query
+     * @param limit the maximum number of stations to return
+     * @return up to `limit` stations, best match first
+     */
+    public List<Station> searchStations(String query, int limit) {
+        assert (query != null) : "null search query supplied";
+        assert (limit >= 0) : "negative search limit supplied";
+        if (limit == 0) {
+            return Collections.emptyList();
+        }
+        String normalised = StationSearchIndex.normalise(query).strip();
+        Object key = List.of("rank", normalised, limit);
+        long[] versions = cache.versions();
+        int[] cached = (int[]) cache.get(key);
+        if (cached != null) {
+            return resolve(cached, stations.snapshot());
+        }
+        List<Station> results = rankStations(query, normalised, limit);
+        cache.put(key, RANKED_SEARCH_DEPENDENCIES, versions, toIds(results));
+        return results;
+    }
+
+    /**
+     * Ranks the stations matching a query for `searchStations()`.
+     */
+    private List<Station> rankStations(String query, String normalised, int limit) {
+        PriorityQueue<RankedStation> best = new PriorityQueue<>(limit + 1);
+        StationSearchIndex.Matches matches = searchIndex().similar(normalised, RANKED_SEARCH_BUDGET);
+        if (matches == null) {
+            for (Station s : findStation(query)) {
+                rank(best, limit, s, 1.0, normalised);
             }
-            if (found) {
-                results.add(s);
+        }
+        else {
+            // visit stations sharing the most trigrams first, and stop once no remaining
+            // station could outscore the worst retained station however popular it is
+            StationSnapshot catalog = stations.snapshot();
+            int[] order = matches.byCountDescending();
+            for (int i : order) {
+                double similarity = (double) matches.countAt(i) / matches.gramCount();
+                double bestPossible = similarity + POPULARITY_WEIGHT + FAVOURITE_BONUS
+                        + (similarity == 1.0 ? NAME_MATCH_BONUS : 0);
+                if (best.size() == limit && bestPossible <= best.peek().score) {
+                    break;
+                }
+                Station s = catalog.get(matches.idAt(i));
+                if (s != null) {
+                    rank(best, limit, s, similarity, normalised);
+                }
             }
         }
+        List<Station> results = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            results.add(best.poll().station);
+        }
+        Collections.reverse(results);
         return results;
     }
 
     /**
-     * Writes any changes to storage and exits.
+     * Scores a station and offers it to a min-heap holding the best `limit` stations found so
+     * far. A name can only contain the whole query if the station holds every trigram of the
+     * query, so other stations are scored without normalising their name, as are stations
+     * which can not beat the worst retained station even with the bonus.
      */
-    public void shutdown() {
-        updateDataInStorage();
+    private static void rank(PriorityQueue<RankedStation> best, int limit, Station s, double similarity,
+                             String normalisedQuery) {
+        double score = similarity + POPULARITY_WEIGHT * Math.min(1.0, Math.log1p(s.getPlayCount()) / 10);
+        if (s.isFavourite()) {
+            score += FAVOURITE_BONUS;
+        }
+        boolean mayContainQuery = similarity == 1.0;
+        if (best.size() == limit && score + (mayContainQuery ? NAME_MATCH_BONUS : 0) <= best.peek().score) {
+            return;
+        }
+        if (mayContainQuery && StationSearchIndex.normalise(s.getStationName()).contains(normalisedQuery)) {
+            score += NAME_MATCH_BONUS;
+        }
+        RankedStation ranked = new RankedStation(s, score);
+        if (best.size() < limit) {
+            best.add(ranked);
+        }
+        else if (ranked.compareTo(best.peek()) > 0) {
+            best.poll();
+            best.add(ranked);
+        }
     }
 
     /**
-     * Write any changes to stations to storage.
+     * A station and its search score. Ordered worst first: by score, then preferring
+     * shorter names as they are closer to the query, then lower IDs.
      */
-    private void updateDataInStorage() {
-        storage.storeStations(getAllMutableStations());
+    private static final class RankedStation implements Comparable<RankedStation> {
+        private final Station station;
+        private final double score;
+
+        private RankedStation(Station station, double score) {
+            this.station = station;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(RankedStation other) {
+            int result = Double.compare(score, other.score);
+            if (result == 0) {
+                result = Integer.compare(other.station.getStationName().length(), station.getStationName().length());
+            }
+            if (result == 0) {
+                result = Integer.compare(other.station.getStationID(), station.getStationID());
+            }
+            return result;
+        }
     }
 
     /**
-     * Provides access to all Station instances through their MutableStation
-     * interface.
-     * @return list of mutable stations
+     * Answers a query over the catalog. Genre, favourite and bitrate conditions are answered
+     * by intersecting secondary indexes (see StationFacetIndex) and a search term by the
+     * search index, so only stations satisfying those conditions are read from the catalog.
+     * Those stations are checked against the remaining conditions and tallied for the facet
+     * counts. When the query is limited, only the first `limit` stations in its sort order
+     * are retained, in a bounded heap, so the full set of matches is never sorted.
+     * Results are cached until a field the query tests, sorts on or counts changes.
+     *
+     * @param query the query to be answered
+     * @return the matching stations and facet counts over every match
+     * @throws CancellationException if the calling thread was interrupted during the query
      */
-    private List<MutableStation> getAllMutableStations() {
-        List<MutableStation> list = new LinkedList<MutableStation>(stations.values());
-        return Collections.unmodifiableList(list);
+    public StationQueryResult queryStations(StationQuery query) {
+        assert (query != null) : "null query supplied";
+        Object key = List.of("query", query);
+        long[] versions = cache.versions();
+        StationSnapshot catalog = stations.snapshot();
+        CachedQuery cached = (CachedQuery) cache.get(key);
+        if (cached != null) {
+            StationQueryResult r = cached.result;
+            return new StationQueryResult(resolve(cached.ids, catalog), r.getTotalMatches(), r.getGenreCounts(),
+                    r.getBitrateCounts(), r.getFavouriteCount());
+        }
+        StationQueryResult result = answer(query, catalog);
+        cache.put(key, dependencies(query), versions, new CachedQuery(toIds(result.getStations()), result));
+        return result;
     }
 
     /**
-     * Returns a unique ID that is not currently in use.
-     * TODO: find a more efficient solution
-     * @return a new unique station ID
+     * Returns the fields a query result depends on: those it tests and sorts on, and those
+     * counted by its facets.
      */
-    private int getUniqueID() {
-        int id = 0;
-        // find the lowest value not currently used
-        // containsKey() should be O(1) since we use Integers hashCode()
-        while (stations.containsKey(id)) {
-            id++;
+    private static Set<StationQueryCache.Field> dependencies(StationQuery query) {
+        Set<StationQueryCache.Field> fields = EnumSet.of(StationQueryCache.Field.MEMBERSHIP,
+                StationQueryCache.Field.GENRE, StationQueryCache.Field.BITRATE, StationQueryCache.Field.FAVOURITE);
+        if (query.getSearchTerm() != null) {
+            fields.add(StationQueryCache.Field.NAME);
+            fields.add(StationQueryCache.Field.URI);
+        }
+        if (query.getMinPlayCount() != Integer.MIN_VALUE) {
+            fields.add(StationQueryCache.Field.PLAY_COUNT);
+        }
+        switch (query.getSortKey()) {
+            case NAME -> fields.add(StationQueryCache.Field.NAME);
+            case PLAY_COUNT -> fields.add(StationQueryCache.Field.PLAY_COUNT);
+            case LAST_PLAYED -> fields.add(StationQueryCache.Field.LAST_PLAYED);
+            default -> {}
         }
+        return fields;
+    }
 
-        assert(id >= 0) : "Negative ID generated";
-        return id;
+    /**
+     * A cached query result. The stations are held by ID, the facet counts as computed.
+     */
+    private static final class CachedQuery {
+        private final int[] ids;
+        private final StationQueryResult result;
+
+        private CachedQuery(int[] ids, StationQueryResult result) {
+            this.ids = ids;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Answers a query from the indexes and the given snapshot, for `queryStations()`.
+     */
+    private StationQueryResult answer(StationQuery query, StationSnapshot catalog) {
+        BitSet selected = facetIndex().select(query);
+        if (query.getSearchTerm() != null) {
+            int[] candidates = searchIndex().candidates(query.getSearchTerm().toLowerCase());
+            if (candidates != null) {
+                BitSet found = new BitSet();
+                for (int id : candidates) {
+                    found.set(id);
+                }
+                selected.and(found);
+            }
+        }
+        Predicate<Station> predicate = query.predicate();
+        Comparator<Station> order = query.comparator();
+        int limit = query.getLimit();
+        // holds the first `limit` matches, last in sort order at the head
+        PriorityQueue<Station> first = new PriorityQueue<>(order.reversed());
+        Map<String, Integer> genreCounts = new HashMap<>();
+        SortedMap<Integer, Integer> bitrateCounts = new TreeMap<>();
+        int favouriteCount = 0;
+        int total = 0;
+        int visited = 0;
+        for (int id = selected.nextSetBit(0); id >= 0; id = selected.nextSetBit(id + 1)) {
+            checkCancelled(visited++);
+            Station s = catalog.get(id);
+            if (s == null || !predicate.test(s)) {
+                continue;
+            }
+            total++;
+            genreCounts.merge(s.getGenre(), 1, Integer::sum);
+            bitrateCounts.merge(s.getBitrate(), 1, Integer::sum);
+            if (s.isFavourite()) {
+                favouriteCount++;
+            }
+            if (first.size() < limit) {
+                first.add(s);
+            }
+            else if (limit > 0 && order.compare(s, first.peek()) < 0) {
+                first.poll();
+                first.add(s);
+            }
+        }
+        List<Station> results = new ArrayList<>(first);
+        results.sort(order);
+        return new StationQueryResult(results, total, genreCounts, bitrateCounts, favouriteCount);
+    }
+
+    /**
+     * @param term a lower cased search term
+     * @return true if the stations name or URI contains the term, ignoring case
+     */
+    static boolean matches(Station s, String term) {
+        return s.getUri().toLowerCase().contains(term) || s.getStationName().toLowerCase().contains(term);
+    }
+
+    /**
+     * Returns the search index, building it from the current catalog on first use. The
+     * index is built while holding this managers lock so no change can be missed.
+     */
+    private StationSearchIndex searchIndex() {
+        StationSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (searchIndex == null) {
+                    searchIndex = StationSearchIndex.build(stations.snapshot());
+                }
+                index = searchIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the facet index, building it from the current catalog on first use, as
+     * `searchIndex()`.
+     */
+    private StationFacetIndex facetIndex() {
+        StationFacetIndex index = facetIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (facetIndex == null) {
+                    facetIndex = StationFacetIndex.build(stations.snapshot());
+                }
+                index = facetIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the URI index, building it from the current catalog on first use, as
+     * `searchIndex()`.
+     */
+    private StationUriIndex uriIndex() {
+        StationUriIndex index = uriIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (uriIndex == null) {
+                    uriIndex = StationUriIndex.build(stations.snapshot());
+                }
+                index = uriIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the leaderboard, building it from the current catalog on first use, as
+     * `searchIndex()`.
+     */
+    private StationLeaderboard leaderboard() {
+        StationLeaderboard ranked = leaderboard;
+        if (ranked == null) {
+            synchronized (this) {
+                if (leaderboard == null) {
+                    long halfLifeDays = Long.getLong(TRENDING_HALF_LIFE_PROPERTY, DEFAULT_TRENDING_HALF_LIFE_DAYS);
+                    if (halfLifeDays <= 0) {
+                        System.out.println("INFO: Invalid trending half-life " + halfLifeDays + ". Using "
+                                + DEFAULT_TRENDING_HALF_LIFE_DAYS + " days");
+                        halfLifeDays = DEFAULT_TRENDING_HALF_LIFE_DAYS;
+                    }
+                    leaderboard = StationLeaderboard.build(stations.snapshot(), halfLifeDays * 24 * 60 * 60);
+                }
+                ranked = leaderboard;
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Returns the materialised smart lists, building them from the stored definitions and
+     * the current catalog on first use, as `searchIndex()`.
+     */
+    private StationViews views() {
+        StationViews materialised = views;
+        if (materialised == null) {
+            synchronized (this) {
+                if (views == null) {
+                    Map<String, StationQuery> lists = smartListFile != null ? smartListFile.load() : Collections.emptyMap();
+                    views = StationViews.build(lists, stations.snapshot());
+                }
+                materialised = views;
+            }
+        }
+        return materialised;
+    }
+
+    /**
+     * Updates the indexes which have been built to reflect a change to a station, invalidates
+     * cached results depending on the changed fields and records the change.
+     * Field versions are bumped last. Reads do not take this managers lock, so a result
+     * computed while the indexes are being updated must be recorded against the old versions.
+     * @param before the station before the change, else null if it was added
+     * @param after the station after the change, else null if it was removed
+     */
+    private void reindex(Station before, Station after) {
+        Set<StationField> fields = null;
+        if (before != null && after != null) {
+            fields = StationField.changed(before, after);
+            changeLog.updated(after, fields);
+        }
+        else {
+            if (after != null) {
+                changeLog.added(after);
+            }
+            else {
+                changeLog.removed(before.getStationID());
+            }
+        }
+        StationSearchIndex index = searchIndex;
+        if (index != null) {
+            index.update(before, after);
+        }
+        StationUriIndex uris = uriIndex;
+        if (uris != null) {
+            uris.update(before, after);
+        }
+        StationFacetIndex facets = facetIndex;
+        if (facets != null) {
+            if (after != null) {
+                facets.put(after);
+            }
+            else {
+                facets.remove(before.getStationID());
+            }
+        }
+        StationLeaderboard ranked = leaderboard;
+        if (ranked != null) {
+            if (after != null) {
+                ranked.put(after);
+            }
+            else {
+                ranked.remove(before.getStationID());
+            }
+        }
+        StationViews materialised = views;
+        if (materialised != null) {
+            materialised.changed(after != null ? after.getStationID() : before.getStationID(), after);
+        }
+        if (fields != null) {
+            cache.changed(fields);
+        }
+        else {
+            cache.changed(StationQueryCache.Field.MEMBERSHIP);
+        }
+    }
+
+    /**
+     * Updates the facet index and smart lists, if they have been built, after a change to a
+     * field which is not searched, such as genre or bitrate, invalidates cached results
+     * depending on that field and records the change.
+     * @param after the station after the change
+     * @param field the changed field
+     */
+    private void reindexFacets(Station after, StationField field) {
+        Set<StationField> fields = EnumSet.of(field);
+        changeLog.updated(after, fields);
+        StationFacetIndex facets = facetIndex;
+        if (facets != null) {
+            facets.put(after);
+        }
+        StationViews materialised = views;
+        if (materialised != null) {
+            materialised.changed(after.getStationID(), after);
+        }
+        // bumped last, see reindex()
+        cache.changed(fields);
+    }
+
+    /**
+     * Sends the changes made by the current mutation to smart list subscribers, if the
+     * smart lists have been built. Called while holding this managers lock, so subscribers
+     * are notified in the order changes were made.
+     */
+    private void publishViews() {
+        StationViews materialised = views;
+        if (materialised != null) {
+            materialised.publish();
+        }
+    }
+
+    /**
+     * Stores and removes the given stations with a single write, then updates the indexes
+     * and records the changes. The previous state of each station is read first, as a live
+     * snapshot would reflect the changes.
+     */
+    private void putAll(Collection<? extends MutableStation> puts, Collection<Integer> removals) {
+        StationSnapshot catalog = stations.snapshot();
+        List<Station> before = new ArrayList<>(puts.size() + removals.size());
+        for (MutableStation s : puts) {
+            before.add(catalog.get(s.getStationID()));
+        }
+        for (int id : removals) {
+            before.add(catalog.get(id));
+        }
+        stations.putAll(puts, removals);
+        Iterator<Station> previous = before.iterator();
+        for (MutableStation s : puts) {
+            reindex(previous.next(), s);
+        }
+        while (previous.hasNext()) {
+            Station removed = previous.next();
+            if (removed != null) {
+                reindex(removed, null);
+            }
+        }
+        publishViews();
+    }
+
+    /**
+     * Applies a batch of changes to the catalog. The given Consumer stages changes through
+     * a StationBatch. Once it returns, every staged change is applied while holding this
+     * managers lock and persisted with a single write. If the Consumer throws, including
+     * when a staged operation fails validation, the catalog is left unchanged.
+     * @param changes populates the batch
+     * @return true if the catalog was modified, else false.
+     */
+    public synchronized boolean applyBatch(Consumer<StationBatch> changes) {
+        Objects.requireNonNull(changes);
+        Batch batch = new Batch();
+        changes.accept(batch);
+        if (batch.staged.isEmpty() && batch.removed.isEmpty()) {
+            return false;
+        }
+        putAll(batch.staged.values(), batch.removed);
+        return true;
+    }
+
+    /**
+     * Writes any changes to storage and exits.
+     * Blocks until all changes have been written.
+     */
+    public synchronized void shutdown() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        ids.close();
+        stations.close();
     }
 
     /**
      * Mark the given station as being played. This updates any values related to
-     * playback history such as playCount and lastPlayed.
+     * playback history such as playCount and lastPlayed, and moves the station within
+     * the most played and trending rankings in O(log n).
      * @param stationID the id of the station to be marked as played.
      */
-    public void markPlayed(int stationID) {
+    public synchronized void markPlayed(int stationID) {
         MutableStation station = stations.get(stationID);
         if (station != null) {
             station.markPlayed();
+            stations.put(station);
+            Set<StationField> fields = EnumSet.of(StationField.PLAY_COUNT, StationField.LAST_PLAYED);
+            changeLog.updated(station, fields);
+            StationLeaderboard ranked = leaderboard;
+            if (ranked != null) {
+                ranked.put(station);
+            }
+            StationViews materialised = views;
+            if (materialised != null) {
+                materialised.changed(stationID, station);
+            }
+            // bumped last, see reindex()
+            cache.changed(fields);
+            if (materialised != null) {
+                materialised.publish();
+            }
+        }
+    }
+
+    /**
+     * Returns the most played stations, most played first. Answered from a ranking which is
+     * kept up to date by every change, so the catalog is not sorted.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    public List<Station> getMostPlayed(int n) {
+        return resolve(leaderboard().mostPlayed(n));
+    }
+
+    /**
+     * Returns the stations played most lately, most popular first. Popularity counts every
+     * play, with the weight of each play halving every half-life, which is 7 days unless the
+     * system property `netradio.trending.halflife` is set to another number of days.
+     * Stations which have never been played are not included.
+     * @param n the maximum number of stations to return
+     * @return up to n stations
+     */
+    public List<Station> getTrending(int n) {
+        return resolve(leaderboard().trending(n));
+    }
+
+    /**
+     * Creates a smart list, or replaces the query of an existing one, and persists it.
+     * The list is materialised from the current catalog and then kept up to date by every
+     * change. Subscribers of a replaced list are sent the difference in its contents.
+     * The definitions are persisted first, so a list which can not be persisted is not created.
+     * @param name name of the list
+     * @param query query defining the stations in the list
+     * @throws UncheckedIOException if the smart lists could not be persisted
+     */
+    public synchronized void saveSmartList(String name, StationQuery query) {
+        assert (name != null) : "null smart list name supplied";
+        assert (query != null) : "null smart list query supplied";
+        StationViews materialised = views();
+        Map<String, StationQuery> definitions = materialised.definitions();
+        definitions.put(name, query);
+        storeSmartLists(definitions);
+        materialised.define(name, query, stations.snapshot());
+        materialised.publish();
+    }
+
+    /**
+     * Permanently removes a smart list. Its subscribers are no longer notified.
+     * @param name name of the list
+     * @return true if the list was removed, else false if no such list exists.
+     * @throws UncheckedIOException if the smart lists could not be persisted. The list is kept.
+     */
+    public synchronized boolean removeSmartList(String name) {
+        StationViews materialised = views();
+        Map<String, StationQuery> definitions = materialised.definitions();
+        if (definitions.remove(name) == null) {
+            return false;
+        }
+        storeSmartLists(definitions);
+        materialised.remove(name);
+        return true;
+    }
+
+    private void storeSmartLists(Map<String, StationQuery> definitions) {
+        if (smartListFile != null) {
+            try {
+                smartListFile.store(definitions);
+            } catch (IOException e) {
+                throw new UncheckedIOException("unable to store smart lists", e);
+            }
+        }
+    }
+
+    /**
+     * @return the query of each smart list by name, in the order the lists were created
+     */
+    public Map<String, StationQuery> getSmartLists() {
+        return Collections.unmodifiableMap(views().definitions());
+    }
+
+    /**
+     * Returns the stations in a smart list, read from its materialised membership rather
+     * than by querying the catalog.
+     * @param name name of the list
+     * @return the stations in the list in the order and up to the limit of its query, else
+     *         null if no such list exists.
+     */
+    public List<Station> getSmartList(String name) {
+        return views().contents(name, stations.snapshot());
+    }
+
+    /**
+     * Subscribes to the rows inserted into, updated within and removed from a smart list.
+     * Takes this managers lock, so no change is in progress while the contents are read.
+     * @param name name of the list
+     * @param listener notified after each change to the list, on the thread which made it
+     * @return the current contents of the list, from which the first notification follows,
+     *         else null if no such list exists.
+     */
+    public synchronized List<Station> subscribeToSmartList(String name, SmartListListener listener) {
+        return views().subscribe(name, Objects.requireNonNull(listener), stations.snapshot());
+    }
+
+    /**
+     * Stops notifying a listener of changes to a smart list.
+     * @param name name of the list
+     * @param listener a subscribed listener
+     */
+    public void unsubscribeFromSmartList(String name, SmartListListener listener) {
+        views().unsubscribe(name, listener);
+    }
+
+    /**
+     * Returns every change made to the catalog after the given sequence number, each with
+     * the fields it changed and the station after the change. Only the most recent changes
+     * are retained (4096 unless the system property `netradio.changelog.size` is set), so a
+     * consumer which has fallen further behind is told to resync instead.
+     * @param sequence sequence number of the last change the consumer has applied, or 0
+     * @return the changes since `sequence`, else a resync marker
+     */
+    public StationChanges getChangesSince(long sequence) {
+        return changeLog.since(sequence);
+    }
+
+    /**
+     * @return the sequence number of the latest change to the catalog, else 0 if none
+     */
+    public long getLatestChangeSequence() {
+        return changeLog.latestSequence();
+    }
+
+    /**
+     * @return the current hit, miss and eviction counts of the query cache
+     */
+    public QueryCacheStats getQueryCacheStats() {
+        return cache.stats();
+    }
+
+    private static int[] toIds(List<Station> stations) {
+        int[] ids = new int[stations.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stations.get(i).getStationID();
+        }
+        return ids;
+    }
+
+    /**
+     * Looks up cached station IDs in the given snapshot, skipping any no longer present.
+     */
+    private static List<Station> resolve(int[] ids, StationSnapshot catalog) {
+        List<Station> resolved = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Station s = catalog.get(id);
+            if (s != null) {
+                resolved.add(s);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Looks up stations by ID in the current catalog, skipping any removed since the IDs were read.
+     */
+    private List<Station> resolve(List<Integer> ids) {
+        StationSnapshot catalog = stations.snapshot();
+        List<Station> resolved = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Station s = catalog.get(id);
+            if (s != null) {
+                resolved.add(s);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Stages changes for `applyBatch()`. Modified stations are copies so the catalog is
+     * untouched until the batch is applied. IDs allocated for new stations are not
+     * returned to the allocator if the batch is abandoned.
+     * Streams are checked for duplicates against the catalog as it will be once the batch
+     * is applied, so a stream released by a removal or URI change earlier in the batch may
+     * be taken by a later change.
+     */
+    private class Batch implements StationBatch {
+        private final Map<Integer, MutableStation> staged = new LinkedHashMap<>();
+        private final Set<Integer> removed = new HashSet<>();
+        // canonical URI of each station added or given a new URI by this batch, to its ID
+        private final Map<String, Integer> claimed = new HashMap<>();
+
+        @Override
+        public Station getStation(int id) {
+            if (removed.contains(id)) {
+                return null;
+            }
+            MutableStation s = staged.get(id);
+            return s != null ? s : stations.get(id);
+        }
+
+        @Override
+        public int addStation(String name, String uri) {
+            Objects.requireNonNull(name);
+            Objects.requireNonNull(uri);
+            String canonical = StationUris.canonical(uri);
+            int existing = playing(canonical, uri, -1);
+            if (existing >= 0) {
+                return existing;
+            }
+            int id = ids.allocate();
+            staged.put(id, new RadioStation(id, name, uri));
+            claimed.put(canonical, id);
+            return id;
+        }
+
+        @Override
+        public void removeStation(int id) {
+            MutableStation s = stage(id);
+            staged.remove(id);
+            claimed.remove(StationUris.canonical(s.getUri()), id);
+            if (stations.contains(id)) {
+                removed.add(id);
+            }
+        }
+
+        @Override
+        public void updateStation(int id, String name, String uri, boolean favourite) {
+            Objects.requireNonNull(name);
+            Objects.requireNonNull(uri);
+            MutableStation s = stage(id);
+            String canonical = StationUris.canonical(uri);
+            String current = StationUris.canonical(s.getUri());
+            if (!canonical.equals(current)) {
+                int existing = playing(canonical, uri, id);
+                if (existing >= 0) {
+                    throw new IllegalArgumentException("Station " + existing + " already plays " + uri);
+                }
+                claimed.remove(current, id);
+                claimed.put(canonical, id);
+            }
+            s.setStationName(name);
+            s.setUri(uri);
+            s.setFavourite(favourite);
+        }
+
+        @Override
+        public void setFavourite(int id, boolean status) {
+            stage(id).setFavourite(status);
+        }
+
+        @Override
+        public void setGenre(int id, String genre) {
+            Objects.requireNonNull(genre);
+            stage(id).setGenre(genre);
+        }
+
+        /**
+         * Returns a station which will play the given stream once the batch is applied.
+         * @param canonical the canonical form of uri
+         * @param uri a stream URI
+         * @param ignored ID of a station which is not to be returned, else -1
+         * @return the ID of a station playing the stream, else -1 if there are none
+         */
+        private int playing(String canonical, String uri, int ignored) {
+            Integer claimant = claimed.get(canonical);
+            if (claimant != null && claimant != ignored) {
+                return claimant;
+            }
+            for (int id : uriIndex().findAll(uri)) {
+                if (id == ignored || removed.contains(id)) {
+                    continue;
+                }
+                // a station staged by this batch may have moved to another stream
+                MutableStation s = staged.get(id);
+                if (s == null || StationUris.canonical(s.getUri()).equals(canonical)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the staged copy of a station, copying it from the catalog on first use.
+         * @throws IllegalArgumentException if no such station exists
+         */
+        private MutableStation stage(int id) {
+            MutableStation s = staged.get(id);
+            if (s == null) {
+                if (removed.contains(id) || (s = stations.get(id)) == null) {
+                    throw new IllegalArgumentException("No station with ID " + id);
+                }
+                s = s.copy();
+                staged.put(id, s);
+            }
+            return s;
         }
     }
 }
@@ -0,0 +1,285 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A query over the station catalog, answered by `RadioPlayer.queryStations()`.
+ * Queries combine predicates on station fields, all of which must hold, along with an
+ * optional sort order and limit. Queries are immutable and are created with a Builder:
+ * <pre>
+ *     StationQuery query = StationQuery.builder()
+ *             .genres("Jazz", "Blues")
+ *             .bitrateBetween(128000, 320000)
+ *             .sortBy(StationQuery.SortKey.PLAY_COUNT, true)
+ *             .limit(20)
+ *             .build();
+ * </pre>
+ * Genre, favourite status and bitrate are answered from secondary indexes. The search term
+ * is answered from the search index. Remaining predicates are checked against each station
+ * matched by the indexes.
+ */
+public final class StationQuery {
+    /**
+     * Fields which query results can be sorted by.
+     */
+    public enum SortKey { ID, NAME, PLAY_COUNT, BITRATE, LAST_PLAYED }
+
+    private final Set<String> genres;
+    private final Boolean favourite;
+    private final int minBitrate;
+    private final int maxBitrate;
+    private final int minPlayCount;
+    private final String searchTerm;
+    private final SortKey sortKey;
+    private final boolean descending;
+    private final int limit;
+
+    private StationQuery(Builder builder) {
+        genres = builder.genres == null ? null : Collections.unmodifiableSet(new HashSet<>(builder.genres));
+        favourite = builder.favourite;
+        minBitrate = builder.minBitrate;
+        maxBitrate = builder.maxBitrate;
+        minPlayCount = builder.minPlayCount;
+        searchTerm = builder.searchTerm;
+        sortKey = builder.sortKey;
+        descending = builder.descending;
+        limit = builder.limit;
+    }
+
+    /**
+     * Returns a builder for a query which initially matches every station, in ID order.
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the genres a station must have one of, else null if genre is not constrained
+     */
+    public Set<String> getGenres() {
+        return genres;
+    }
+
+    /**
+     * @return the required favourite status, else null if favourite status is not constrained
+     */
+    public Boolean getFavourite() {
+        return favourite;
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    public int getMinPlayCount() {
+        return minPlayCount;
+    }
+
+    /**
+     * @return a term which a stations name or URI must contain, else null
+     */
+    public String getSearchTerm() {
+        return searchTerm;
+    }
+
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return the maximum number of stations to return, else Integer.MAX_VALUE if unlimited
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns true if the bitrate of a station is constrained.
+     * @return true if a bitrate range has been given
+     */
+    boolean hasBitrateRange() {
+        return minBitrate != Integer.MIN_VALUE || maxBitrate != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns a predicate testing every condition of this query against a station. Stations
+     * selected by the indexes are checked against it, as the indexes may briefly lag the
+     * snapshot being read, and it answers the conditions which are not indexed.
+     * @return a predicate which holds for stations matching this query
+     */
+    Predicate<Station> predicate() {
+        String term = searchTerm == null ? null : searchTerm.toLowerCase();
+        return s -> (genres == null || genres.contains(s.getGenre()))
+                && (favourite == null || favourite == s.isFavourite())
+                && s.getBitrate() >= minBitrate && s.getBitrate() <= maxBitrate
+                && s.getPlayCount() >= minPlayCount
+                && (term == null || StationManager.matches(s, term));
+    }
+
+    /**
+     * @return the order in which results are returned
+     */
+    Comparator<Station> comparator() {
+        Comparator<Station> order = switch (sortKey) {
+            case ID -> Comparator.comparingInt(Station::getStationID);
+            case NAME -> Comparator.comparing(Station::getStationName, String.CASE_INSENSITIVE_ORDER);
+            case PLAY_COUNT -> Comparator.comparingInt(Station::getPlayCount);
+            case BITRATE -> Comparator.comparingInt(Station::getBitrate);
+            // stations which have never been played sort before those which have
+            case LAST_PLAYED -> Comparator.comparing(Station::getDateLastPlayed,
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+        };
+        if (descending) {
+            order = order.reversed();
+        }
+        // ties are broken by ID so results are deterministic
+        return order.thenComparingInt(Station::getStationID);
+    }
+
+    /**
+     * Compares queries by value. Equal queries always return the same stations, so a query
+     * can be used to key cached results.
+     * @param o object to be compared with this
+     * @return true if `o` is a StationQuery with the same predicates, order and limit
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StationQuery)) {
+            return false;
+        }
+        StationQuery q = (StationQuery) o;
+        return Objects.equals(genres, q.genres) && Objects.equals(favourite, q.favourite)
+                && minBitrate == q.minBitrate && maxBitrate == q.maxBitrate && minPlayCount == q.minPlayCount
+                && Objects.equals(searchTerm, q.searchTerm) && sortKey == q.sortKey
+                && descending == q.descending && limit == q.limit;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(genres, favourite, minBitrate, maxBitrate, minPlayCount, searchTerm, sortKey,
+                descending, limit);
+    }
+
+    /**
+     * Builds StationQuery instances. Each predicate replaces any earlier value for the same field.
+     */
+    public static final class Builder {
+        private Collection<String> genres = null;
+        private Boolean favourite = null;
+        private int minBitrate = Integer.MIN_VALUE;
+        private int maxBitrate = Integer.MAX_VALUE;
+        private int minPlayCount = Integer.MIN_VALUE;
+        private String searchTerm = null;
+        private SortKey sortKey = SortKey.ID;
+        private boolean descending = false;
+        private int limit = Integer.MAX_VALUE;
+
+        private Builder() {
+            // use StationQuery.builder()
+        }
+
+        /**
+         * Matches stations whose genre is exactly one of the given genres.
+         * @param genres accepted genres
+         * @return this builder
+         */
+        public Builder genres(String... genres) {
+            return genres(Arrays.asList(genres));
+        }
+
+        /**
+         * Matches stations whose genre is exactly one of the given genres.
+         * @param genres accepted genres
+         * @return this builder
+         */
+        public Builder genres(Collection<String> genres) {
+            genres.forEach(Objects::requireNonNull);
+            this.genres = genres;
+            return this;
+        }
+
+        /**
+         * Matches stations with the given favourite status.
+         * @param favourite true to match favourites, false to match all other stations
+         * @return this builder
+         */
+        public Builder favourite(boolean favourite) {
+            this.favourite = favourite;
+            return this;
+        }
+
+        /**
+         * Matches stations whose bitrate lies in the given range, inclusive.
+         * @param min lowest accepted bitrate
+         * @param max highest accepted bitrate
+         * @return this builder
+         */
+        public Builder bitrateBetween(int min, int max) {
+            if (min > max) {
+                throw new IllegalArgumentException("Minimum bitrate exceeds maximum");
+            }
+            minBitrate = min;
+            maxBitrate = max;
+            return this;
+        }
+
+        /**
+         * Matches stations which have been played at least the given number of times.
+         * @param plays minimum play count
+         * @return this builder
+         */
+        public Builder playedAtLeast(int plays) {
+            minPlayCount = plays;
+            return this;
+        }
+
+        /**
+         * Matches stations whose name or URI contains the given term, as `findStation()`.
+         * @param term the term to be searched
+         * @return this builder
+         */
+        public Builder matching(String term) {
+            searchTerm = Objects.requireNonNull(term);
+            return this;
+        }
+
+        /**
+         * Sorts results by the given field. Ties are broken by station ID.
+         * @param key field to sort by
+         * @param descending true to sort highest first, else lowest first
+         * @return this builder
+         */
+        public Builder sortBy(SortKey key, boolean descending) {
+            sortKey = Objects.requireNonNull(key);
+            this.descending = descending;
+            return this;
+        }
+
+        /**
+         * Returns at most the given number of stations. Facet counts still cover every match.
+         * @param limit maximum number of stations to return
+         * @return this builder
+         */
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Negative limit");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public StationQuery build() {
+            return new StationQuery(this);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, least recently used cache of query results over the station catalog.
+ * Results are invalidated per field rather than whenever the catalog changes. A version
+ * counter is kept for each station field and bumped by the writer after every change to
+ * that field. Each result records the fields it depends on and their versions when it was
+ * computed, and is only returned while none of those versions have moved. A bitrate update
+ * therefore leaves cached name searches in place.
+ * Versions are read before a result is computed, so a result computed while the catalog was
+ * changing is recorded against the older versions and is discarded on its next lookup.
+ * Results are held as station IDs rather than stations, and resolved against the current
+ * catalog on each hit, so fields a result does not depend on are never out of date.
+ *
+ * Thread safe.
+ */
+class StationQueryCache {
+    /**
+     * Station fields a cached result may depend on, each StationField and MEMBERSHIP, which
+     * changes whenever a station is added or removed.
+     */
+    enum Field { MEMBERSHIP, NAME, URI, GENRE, BITRATE, FAVOURITE, PLAY_COUNT, LAST_PLAYED }
+
+    private static final Field[] FIELDS = Field.values();
+
+    private final int capacity;
+    private final AtomicLongArray versions = new AtomicLongArray(FIELDS.length);
+    // ordered least recently used first. Guarded by this, as are the counters.
+    private final LinkedHashMap<Object, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity the maximum number of results held. Must be positive.
+     */
+    StationQueryCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        this.capacity = capacity;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (size() > StationQueryCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the current version of every field. Read before computing a result which is
+     * to be cached, and passed to `put()`.
+     * @return the current field versions, indexed by Field ordinal
+     */
+    long[] versions() {
+        long[] current = new long[FIELDS.length];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = versions.get(i);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the cached result for a query, provided no field it depends on has changed
+     * since it was computed.
+     * @param key the normalised query
+     * @return the cached result, else null if none is cached or it is out of date
+     */
+    synchronized Object get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (!entry.isCurrent()) {
+            entries.remove(key);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches the result of a query, evicting the least recently used result if full.
+     * @param key the normalised query
+     * @param dependencies the fields the result depends on
+     * @param versionsRead field versions read before the result was computed
+     * @param value the result
+     */
+    synchronized void put(Object key, Set<Field> dependencies, long[] versionsRead, Object value) {
+        entries.put(key, new Entry(dependencies, versionsRead, value));
+    }
+
+    /**
+     * Records that the given fields of some station have changed. Called by the writer
+     * once the change is visible to readers and every index it affects has been updated,
+     * so a result computed against the new versions can not have read an old index.
+     * @param fields the changed fields
+     */
+    void changed(Field... fields) {
+        for (Field field : fields) {
+            versions.incrementAndGet(field.ordinal());
+        }
+    }
+
+    /**
+     * Records that the given fields of some station have changed.
+     * @param fields the changed fields
+     */
+    void changed(Set<StationField> fields) {
+        for (StationField field : fields) {
+            changed(Field.valueOf(field.name()));
+        }
+    }
+
+    /**
+     * @return the current hit, miss and eviction counts
+     */
+    synchronized QueryCacheStats stats() {
+        return new QueryCacheStats(hits, misses, invalidations, evictions, entries.size(), capacity);
+    }
+
+    /**
+     * A cached result and the versions of the fields it depends on when it was computed.
+     */
+    private final class Entry {
+        private final Field[] dependencies;
+        private final long[] versionsRead;
+        private final Object value;
+
+        private Entry(Set<Field> dependencies, long[] versionsRead, Object value) {
+            this.dependencies = dependencies.toArray(new Field[0]);
+            this.versionsRead = versionsRead;
+            this.value = value;
+        }
+
+        private boolean isCurrent() {
+            for (Field field : dependencies) {
+                if (versions.get(field.ordinal()) != versionsRead[field.ordinal()]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
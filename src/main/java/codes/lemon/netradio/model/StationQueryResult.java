@@ -0,0 +1,61 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+
+/**
+ * The result of a StationQuery: the matching stations, up to the querys limit, and facet
+ * counts describing every match. Facet counts give the number of matching stations holding
+ * each genre and bitrate, and the number which are favourites, so a view can offer
+ * refinements of the query without running further queries.
+ */
+public final class StationQueryResult {
+    private final List<Station> stations;
+    private final int totalMatches;
+    private final Map<String, Integer> genreCounts;
+    private final SortedMap<Integer, Integer> bitrateCounts;
+    private final int favouriteCount;
+
+    StationQueryResult(List<Station> stations, int totalMatches, Map<String, Integer> genreCounts,
+                       SortedMap<Integer, Integer> bitrateCounts, int favouriteCount) {
+        this.stations = Collections.unmodifiableList(stations);
+        this.totalMatches = totalMatches;
+        this.genreCounts = Collections.unmodifiableMap(genreCounts);
+        this.bitrateCounts = Collections.unmodifiableSortedMap(bitrateCounts);
+        this.favouriteCount = favouriteCount;
+    }
+
+    /**
+     * @return an unmodifiable list of matching stations in the querys sort order, up to its limit
+     */
+    public List<Station> getStations() {
+        return stations;
+    }
+
+    /**
+     * @return the number of stations matching the query, ignoring its limit
+     */
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    /**
+     * @return the number of matching stations in each genre
+     */
+    public Map<String, Integer> getGenreCounts() {
+        return genreCounts;
+    }
+
+    /**
+     * @return the number of matching stations at each bitrate, lowest bitrate first
+     */
+    public SortedMap<Integer, Integer> getBitrateCounts() {
+        return bitrateCounts;
+    }
+
+    /**
+     * @return the number of matching stations which are favourites
+     */
+    public int getFavouriteCount() {
+        return favouriteCount;
+    }
+}
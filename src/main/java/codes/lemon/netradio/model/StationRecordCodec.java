@@ -0,0 +1,90 @@
+package codes.lemon.netradio.model;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Encodes the full state of a station as a compact binary record.
+ * Used wherever individual stations are written to disk, such as the StationJournal
+ * and the PagedStationStore.
+ *
+ * Layout: id (int), name, uri, genre (modified UTF-8), play count (int), bitrate (int),
+ *         favourite (boolean), has last played (boolean),
+ *         [last played epoch seconds (long), last played nanos (int)]
+ */
+class StationRecordCodec {
+
+    private StationRecordCodec() {
+        // static utility class
+    }
+
+    /**
+     * Encodes the given station as a standalone record.
+     * @param s station to be encoded
+     * @return the encoded station
+     */
+    public static byte[] encode(Station s) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, s);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOExceptions
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record produced by `encode()`.
+     * @param record an encoded station
+     * @return a station containing the values held in the record
+     * @throws IOException if the record is truncated
+     */
+    public static RadioStation decode(byte[] record) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * Writes the given station to the output.
+     * @param out destination of the record
+     * @param s station to be written
+     * @throws IOException if the record could not be written
+     */
+    public static void write(DataOutput out, Station s) throws IOException {
+        out.writeInt(s.getStationID());
+        out.writeUTF(s.getStationName());
+        out.writeUTF(s.getUri());
+        out.writeUTF(s.getGenre() == null ? "" : s.getGenre());
+        out.writeInt(s.getPlayCount());
+        out.writeInt(s.getBitrate());
+        out.writeBoolean(s.isFavourite());
+        LocalDateTime lastPlayed = s.getDateLastPlayed();
+        out.writeBoolean(lastPlayed != null);
+        if (lastPlayed != null) {
+            out.writeLong(lastPlayed.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(lastPlayed.getNano());
+        }
+    }
+
+    /**
+     * Reads a station written by `write()`.
+     * @param in source of the record
+     * @return a station containing the values held in the record
+     * @throws IOException if the record could not be read
+     */
+    public static RadioStation read(DataInput in) throws IOException {
+        int id = in.readInt();
+        String name = in.readUTF();
+        String uri = in.readUTF();
+        String genre = in.readUTF();
+        int playCount = in.readInt();
+        int bitrate = in.readInt();
+        boolean favourite = in.readBoolean();
+        LocalDateTime lastPlayed = null;
+        if (in.readBoolean()) {
+            lastPlayed = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        }
+        return new RadioStation(id, name, uri, lastPlayed, playCount, bitrate, genre, favourite);
+    }
+}
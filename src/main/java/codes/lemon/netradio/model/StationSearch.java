@@ -0,0 +1,65 @@
+package codes.lemon.netradio.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Performs a sequence of related searches, such as one search per keystroke while a user
+ * types a search term. Results match those of `RadioPlayer.findStation()`.
+ * When a term contains the previous term (eg "jaz" followed by "jazz"), every station
+ * matching the new term also matched the previous one, so the previous results are
+ * narrowed rather than searching the catalog again. This is only done while the catalog is
+ * unchanged since the previous search, otherwise the catalog is searched in full.
+ * Searches check the interrupt status of the calling thread and are abandoned with a
+ * CancellationException once interrupted, so a search made stale by a later keystroke
+ * can be cancelled with `Future.cancel(true)`.
+ *
+ * Instances are not thread safe. Each search must complete before the next is started.
+ */
+public final class StationSearch {
+    private final StationManager stations;
+    // the last completed search. Null before the first search.
+    private String lastTerm = null;
+    private long lastVersion;
+    private List<Station> lastResults;
+
+    StationSearch(StationManager stations) {
+        this.stations = Objects.requireNonNull(stations);
+    }
+
+    /**
+     * Searches through station details looking for the given search term.
+     * Searches are case insensitive.
+     * @param searchTerm the term to be searched
+     * @return a list of all stations whose details contain an instance of the search term.
+     * @throws CancellationException if the calling thread was interrupted during the search
+     */
+    public List<Station> search(String searchTerm) {
+        Objects.requireNonNull(searchTerm);
+        String term = searchTerm.toLowerCase();
+        StationSnapshot catalog = stations.snapshot();
+        long version = catalog.version();
+        List<Station> results;
+        if (lastTerm != null && version == lastVersion && term.contains(lastTerm)) {
+            results = new ArrayList<>();
+            for (int i = 0; i < lastResults.size(); i++) {
+                StationManager.checkCancelled(i);
+                Station s = lastResults.get(i);
+                if (StationManager.matches(s, term)) {
+                    results.add(s);
+                }
+            }
+        }
+        else {
+            results = stations.findStation(searchTerm, catalog);
+        }
+        results = Collections.unmodifiableList(results);
+        lastTerm = term;
+        lastVersion = version;
+        lastResults = results;
+        return results;
+    }
+}
@@ -0,0 +1,134 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares `StationManager.findStation()`, answered by the trigram index, with the linear
+ * scan it replaced, at several catalog sizes. For each query the fastest of several runs is
+ * reported, along with the time taken to build the index on first search.
+ * Ranked search (`searchStations()`) is then measured with misspelt queries, each made by
+ * deleting, doubling or swapping a character of a random stations name. After a warm up,
+ * median and 99th percentile latencies are reported, along with how often the misspelt station was ranked
+ * in the top ten.
+ *
+ * Usage: StationSearchBenchmark [station count...]
+ *        (defaults to 10,000, 100,000 and 1,000,000 stations)
+ */
+class StationSearchBenchmark {
+    private static final int[] DEFAULT_SIZES = { 10_000, 100_000, 1_000_000 };
+    private static final int RUNS = 20;
+    // a rare name, a common host, a suffix shared by 1% of stations and a term with no matches
+    private static final String[] QUERIES = { "Station 4242", "stream7.example", "99.mp3", "no such station" };
+    private static final int RANKED_QUERIES = 2_000;
+    private static final int TOP_K = 10;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int count : sizes) {
+            run(count);
+        }
+    }
+
+    private static void run(int count) throws IOException {
+        File dir = Files.createTempDirectory("netradio-benchmark").toFile();
+        StationLoader loader = new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"),
+                new File(dir, "stations.bin"));
+        loader.storeStations(StationStorageBenchmark.generateStations(count));
+        StationManager manager = new StationManager(new MemoryStationStore(loader,
+                new StationJournal(new File(dir, "stations.journal"), loader)));
+
+        System.out.printf("%,d stations%n", count);
+        long start = System.nanoTime();
+        manager.findStation(QUERIES[0]);
+        System.out.printf("  index built on first search in %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+        for (String query : QUERIES) {
+            long scan = Long.MAX_VALUE;
+            long indexed = Long.MAX_VALUE;
+            int expected = -1;
+            for (int run = 0; run < RUNS; run++) {
+                start = System.nanoTime();
+                int scanned = linearScan(manager, query).size();
+                long finished = System.nanoTime();
+                int found = manager.findStation(query).size();
+                scan = Math.min(scan, finished - start);
+                indexed = Math.min(indexed, System.nanoTime() - finished);
+                if (scanned != found) {
+                    throw new IllegalStateException("index found " + found + " stations, scan found " + scanned);
+                }
+                expected = found;
+            }
+            System.out.printf("  %-18s %,8d results. scan %,9d us, index %,9d us%n", '"' + query + '"', expected,
+                    scan / 1000, indexed / 1000);
+        }
+        ranked(manager, count);
+        manager.shutdown();
+    }
+
+    private static void ranked(StationManager manager, int count) {
+        // warm up so the percentiles reflect compiled code
+        Random random = new Random(7);
+        for (int i = 0; i < RANKED_QUERIES; i++) {
+            manager.searchStations(misspell(manager.getStation(random.nextInt(count)).getStationName(), random), TOP_K);
+        }
+        random = new Random(42);
+        long[] latencies = new long[RANKED_QUERIES];
+        int found = 0;
+        for (int i = 0; i < RANKED_QUERIES; i++) {
+            Station target = manager.getStation(random.nextInt(count));
+            String query = misspell(target.getStationName(), random);
+            long start = System.nanoTime();
+            List<Station> results = manager.searchStations(query, TOP_K);
+            latencies[i] = System.nanoTime() - start;
+            if (results.stream().anyMatch(s -> s.getStationID() == target.getStationID())) {
+                found++;
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("  ranked top %d: p50 %,d us, p99 %,d us, misspelt station found %.1f%% of the time%n",
+                TOP_K, latencies[RANKED_QUERIES / 2] / 1000, latencies[RANKED_QUERIES * 99 / 100] / 1000,
+                100.0 * found / RANKED_QUERIES);
+    }
+
+    /**
+     * Introduces a single typo: a deleted, doubled or swapped character.
+     */
+    private static String misspell(String name, Random random) {
+        StringBuilder misspelt = new StringBuilder(name);
+        int i = random.nextInt(name.length() - 1);
+        switch (random.nextInt(3)) {
+            case 0 -> misspelt.deleteCharAt(i);
+            case 1 -> misspelt.insert(i, name.charAt(i));
+            default -> {
+                misspelt.setCharAt(i, name.charAt(i + 1));
+                misspelt.setCharAt(i + 1, name.charAt(i));
+            }
+        }
+        return misspelt.toString();
+    }
+
+    /**
+     * The search previously performed by `findStation()`.
+     */
+    private static List<Station> linearScan(StationManager manager, String searchTerm) {
+        String term = searchTerm.toLowerCase();
+        List<Station> results = new ArrayList<>();
+        manager.snapshot().forEach(s -> {
+            if (s.getUri().toLowerCase().contains(term) || s.getStationName().toLowerCase().contains(term)) {
+                results.add(s);
+            }
+        });
+        return results;
+    }
+}
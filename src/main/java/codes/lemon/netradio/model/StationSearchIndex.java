@@ -0,0 +1,472 @@
+package codes.lemon.netradio.model;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A trigram inverted index over the names and URIs of stations, used to answer substring
+ * searches without scanning the catalog, and to find stations similar to a misspelt query.
+ * Text is normalised by lower casing it, as `findStation()` always has, and removing
+ * diacritics, so accented and plain spellings share trigrams. Every run of three characters
+ * (a trigram) of a stations normalised name and URI maps to a posting list:
+ * the sorted IDs of every station containing that trigram. A station whose name or URI
+ * contains a search term must contain every trigram of the term, so intersecting the
+ * posting lists of the terms trigrams produces a small set of candidates. Candidates are
+ * then checked against the term, as their trigrams may be spread across both fields or
+ * appear in a different order.
+ * Terms shorter than a trigram can not be answered by the index.
+ * `similar()` instead finds stations sharing most, rather than all, of a querys trigrams,
+ * which tolerates typos: "capitl fm" shares five of its seven trigrams with "capital fm".
+ *
+ * The index is updated incrementally as stations are added, removed and edited. Only the
+ * trigrams which differ between the old and new text of an edited station are touched.
+ * Updates must be serialized by the caller. Queries may run concurrently with updates.
+ * Posting lists are found through an open addressing table keyed by the packed trigram, as
+ * boxing a key for every trigram of every station dominated the time taken to build the index.
+ * A list which becomes empty is kept, as the set of trigrams in use changes little over time.
+ */
+class StationSearchIndex {
+    static final int GRAM_LENGTH = 3;
+
+    // open addressing table of trigram -> posting list. A null list marks an empty slot.
+    private long[] grams = new long[1024];
+    private Postings[] postings = new Postings[grams.length];
+    private int gramCount = 0;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private StationSearchIndex() {
+        // use build()
+    }
+
+    /**
+     * Indexes every station in the given catalog. Posting lists are filled in catalog order
+     * and sorted once at the end, which is far cheaper than sorted insertion.
+     * @param catalog the stations to be indexed
+     * @return an index of the catalog
+     */
+    static StationSearchIndex build(StationSnapshot catalog) {
+        StationSearchIndex index = new StationSearchIndex();
+        catalog.forEach(s -> {
+            for (long gram : trigramsOf(s)) {
+                index.postingsFor(gram).append(s.getStationID());
+            }
+        });
+        for (Postings list : index.postings) {
+            if (list != null) {
+                list.sort();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the slot of the given trigram, else the empty slot where it would be placed.
+     */
+    private int slotOf(long gram) {
+        int mask = grams.length - 1;
+        long hash = gram * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 32) & mask;
+        while (postings[slot] != null && grams[slot] != gram) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the posting list for the given trigram, else null if no station contains it.
+     */
+    private Postings find(long gram) {
+        return postings[slotOf(gram)];
+    }
+
+    /**
+     * Returns the posting list for the given trigram, adding an empty list if required.
+     */
+    private Postings postingsFor(long gram) {
+        int slot = slotOf(gram);
+        if (postings[slot] == null) {
+            if ((gramCount + 1) * 2 > grams.length) {
+                // keep the table at most half full so probes stay short
+                rehash();
+                slot = slotOf(gram);
+            }
+            grams[slot] = gram;
+            postings[slot] = new Postings();
+            gramCount++;
+        }
+        return postings[slot];
+    }
+
+    private void rehash() {
+        long[] oldGrams = grams;
+        Postings[] oldPostings = postings;
+        grams = new long[oldGrams.length * 2];
+        postings = new Postings[grams.length];
+        for (int i = 0; i < oldGrams.length; i++) {
+            if (oldPostings[i] != null) {
+                int slot = slotOf(oldGrams[i]);
+                grams[slot] = oldGrams[i];
+                postings[slot] = oldPostings[i];
+            }
+        }
+    }
+
+    /**
+     * Updates the index to reflect a change to a station.
+     * @param before the station before the change, else null if it has been added
+     * @param after the station after the change, else null if it has been removed
+     */
+    void update(Station before, Station after) {
+        long[] removed = before == null ? new long[0] : trigramsOf(before);
+        long[] added = after == null ? new long[0] : trigramsOf(after);
+        if (before != null && after != null && Arrays.equals(removed, added)) {
+            return;  // eg a change of genre or play count
+        }
+        lock.writeLock().lock();
+        try {
+            // both arrays are sorted, so unchanged trigrams are found by binary search
+            if (before != null) {
+                int id = before.getStationID();
+                for (long gram : removed) {
+                    if (after == null || Arrays.binarySearch(added, gram) < 0) {
+                        Postings list = find(gram);
+                        if (list != null) {
+                            list.remove(id);
+                        }
+                    }
+                }
+            }
+            if (after != null) {
+                int id = after.getStationID();
+                for (long gram : added) {
+                    if (before == null || Arrays.binarySearch(removed, gram) < 0) {
+                        postingsFor(gram).insert(id);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the stations which may contain the given term, by intersecting the posting
+     * lists of the terms trigrams. Lists are intersected smallest first so the candidate
+     * set shrinks as quickly as possible.
+     * @param term a normalised search term
+     * @return IDs of candidate stations in ascending order, else null if the term is too
+     *         short to be answered by the index
+     */
+    int[] candidates(String term) {
+        term = normalise(term);
+        if (term.length() < GRAM_LENGTH) {
+            return null;
+        }
+        long[] termGrams = trigrams(term, new long[0]);
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[termGrams.length];
+            for (int i = 0; i < termGrams.length; i++) {
+                lists[i] = find(termGrams[i]);
+                if (lists[i] == null || lists[i].size == 0) {
+                    return new int[0];
+                }
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            int[] result = Arrays.copyOf(lists[0].ids, lists[0].size);
+            int size = result.length;
+            for (int i = 1; i < lists.length && size > 0; i++) {
+                int kept = 0;
+                for (int j = 0; j < size; j++) {
+                    if (lists[i].contains(result[j])) {
+                        result[kept++] = result[j];
+                    }
+                }
+                size = kept;
+            }
+            return Arrays.copyOf(result, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds stations which share at least some of the trigrams of the given query, along
+     * with the number of trigrams each shares.
+     * A station must share at least a threshold number of the querys m trigrams, so it must
+     * appear in at least one of the (m - threshold + 1) shortest posting lists. Only those
+     * lists are walked. Each station found is then looked up in the remaining, longer,
+     * lists by binary search. The threshold starts at 40% of the querys trigrams and is
+     * raised until the lists walked hold at most `budget` entries, which bounds the cost of
+     * queries made of very common trigrams.
+     * @param query the search query
+     * @param budget the maximum number of posting list entries to walk, unless a single
+     *               list is longer
+     * @return the stations found, else null if the query is too short to be answered by the index
+     */
+    Matches similar(String query, int budget) {
+        query = normalise(query);
+        if (query.length() < GRAM_LENGTH) {
+            return null;
+        }
+        long[] queryGrams = trigrams(query, new long[0]);
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>(queryGrams.length);
+            for (long gram : queryGrams) {
+                Postings list = find(gram);
+                if (list != null && list.size > 0) {
+                    lists.add(list);
+                }
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            int threshold = Math.max(1, (int) Math.ceil(queryGrams.length * 0.4));
+            int walked = Math.max(0, lists.size() - threshold + 1);
+            long entries = 0;
+            for (int i = 0; i < walked; i++) {
+                entries += lists.get(i).size;
+                if (entries > budget && i > 0) {
+                    walked = i;
+                    break;
+                }
+            }
+            threshold = lists.size() - walked + 1;
+            return merge(lists, walked, threshold, queryGrams.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merges the first `walked` lists, which are sorted by ID, counting how many contain
+     * each station. Counts are completed by searching the remaining lists, and stations
+     * appearing in fewer than `threshold` lists are dropped.
+     * Stations are visited in ascending ID order, so each remaining list is searched forward
+     * from where the previous search ended (a galloping search) rather than from the start,
+     * which keeps searches of very long lists short and cache friendly.
+     */
+    private static Matches merge(List<Postings> lists, int walked, int threshold, int gramCount) {
+        Matches matches = new Matches(gramCount);
+        int[] positions = new int[lists.size()];
+        while (true) {
+            // find the lowest ID not yet merged
+            int lowest = Integer.MAX_VALUE;
+            for (int i = 0; i < walked; i++) {
+                Postings list = lists.get(i);
+                if (positions[i] < list.size && list.ids[positions[i]] < lowest) {
+                    lowest = list.ids[positions[i]];
+                }
+            }
+            if (lowest == Integer.MAX_VALUE) {
+                return matches;
+            }
+            int count = 0;
+            for (int i = 0; i < walked; i++) {
+                Postings list = lists.get(i);
+                if (positions[i] < list.size && list.ids[positions[i]] == lowest) {
+                    positions[i]++;
+                    count++;
+                }
+            }
+            for (int i = walked; i < lists.size() && count + lists.size() - i >= threshold; i++) {
+                Postings list = lists.get(i);
+                positions[i] = list.seek(positions[i], lowest);
+                if (positions[i] < list.size && list.ids[positions[i]] == lowest) {
+                    count++;
+                }
+            }
+            if (count >= threshold) {
+                matches.add(lowest, count);
+            }
+        }
+    }
+
+    /**
+     * Normalises text for indexing: lower cased as by `String.toLowerCase()`, then
+     * decomposed with diacritical marks removed. Text which is entirely ASCII is only
+     * lower cased, which avoids the cost of normalisation for most stations.
+     * @param text text to be normalised
+     * @return the normalised text
+     */
+    static String normalise(String text) {
+        String lower = text.toLowerCase();
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) >= 0x80) {
+                String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+                StringBuilder stripped = new StringBuilder(decomposed.length());
+                for (int j = 0; j < decomposed.length(); j++) {
+                    char c = decomposed.charAt(j);
+                    if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        stripped.append(c);
+                    }
+                }
+                return stripped.toString();
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Returns the distinct trigrams of a stations normalised name and URI, sorted.
+     */
+    private static long[] trigramsOf(Station s) {
+        return trigrams(normalise(s.getUri()), trigrams(normalise(s.getStationName()), new long[0]));
+    }
+
+    /**
+     * Returns the distinct trigrams of the given text along with those already found, sorted.
+     * Each trigram is packed into a long, 16 bits per character.
+     */
+    private static long[] trigrams(String text, long[] found) {
+        int count = Math.max(0, text.length() - GRAM_LENGTH + 1);
+        long[] grams = Arrays.copyOf(found, found.length + count);
+        for (int i = 0; i < count; i++) {
+            grams[found.length + i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    /**
+     * Stations found by `similar()`, in ascending ID order, and the number of the querys
+     * trigrams each contains.
+     */
+    static final class Matches {
+        private final int gramCount;
+        private int[] ids = new int[16];
+        private int[] counts = new int[16];
+        private int size = 0;
+
+        private Matches(int gramCount) {
+            this.gramCount = gramCount;
+        }
+
+        private void add(int id, int count) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            ids[size] = id;
+            counts[size] = count;
+            size++;
+        }
+
+        /**
+         * @return the number of distinct trigrams in the query
+         */
+        int gramCount() {
+            return gramCount;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the indices of every station, ordered by the number of trigrams held,
+         * highest first. Counts are small so this is a counting sort.
+         * @return indices into this set of matches
+         */
+        int[] byCountDescending() {
+            int[] starts = new int[gramCount + 2];
+            for (int i = 0; i < size; i++) {
+                starts[gramCount - counts[i] + 1]++;
+            }
+            for (int c = 1; c < starts.length; c++) {
+                starts[c] += starts[c - 1];
+            }
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[starts[gramCount - counts[i]]++] = i;
+            }
+            return order;
+        }
+
+        int idAt(int index) {
+            return ids[index];
+        }
+
+        /**
+         * @return the number of the querys trigrams held by the station at the given index
+         */
+        int countAt(int index) {
+            return counts[index];
+        }
+    }
+
+    /**
+     * A sorted list of station IDs held in a growable array.
+     */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        private void append(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        private void sort() {
+            Arrays.sort(ids, 0, size);
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        /**
+         * Returns the position of the first ID at or after `from` which is not less than the
+         * given ID, found by doubling the step until the ID is passed then binary searching.
+         */
+        private int seek(int from, int id) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && ids[high] < id) {
+                low = high + 1;
+                high += step;
+                step *= 2;
+            }
+            high = Math.min(high, size);
+            int position = Arrays.binarySearch(ids, low, high, id);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        private void insert(int id) {
+            // new stations have the highest IDs so are almost always appended
+            if (size == 0 || id > ids[size - 1]) {
+                append(id);
+                return;
+            }
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        private void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package codes.lemon.netradio.model;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A read only view of the station catalog at a point in time.
+ * Snapshots are obtained from `StationStore.snapshot()` and may be read from any thread.
+ * Every change to the catalog produces a new version. Where a store publishes immutable
+ * snapshots, a snapshot never changes once obtained and reading it never blocks writers.
+ */
+interface StationSnapshot {
+    /**
+     * Returns the version of the catalog this snapshot represents. Versions increase with
+     * every change to the catalog, so two snapshots with the same version hold the same stations.
+     * @return the catalog version
+     */
+    long version();
+
+    /**
+     * Returns the station with the given ID.
+     * @param id a station ID
+     * @return the station with the given ID, else null if no such station exists.
+     */
+    Station get(int id);
+
+    /**
+     * Returns the number of stations in this snapshot.
+     * @return number of stations
+     */
+    int size();
+
+    /**
+     * Performs the given action for every station in this snapshot.
+     * @param action action to be performed for each station
+     */
+    void forEach(Consumer<? super Station> action);
+
+    /**
+     * Returns the stations in this snapshot as an unmodifiable list.
+     * @return all stations in the snapshot
+     */
+    List<Station> asList();
+}
@@ -0,0 +1,192 @@
+package codes.lemon.netradio.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for station storage.
+ * `startup` measures how long it takes to construct a StationManager from each storage
+ * format. A synthetic catalog is written as both CSV and a binary snapshot in a temporary
+ * directory, then each format is loaded several times and the fastest run is reported.
+ * `csv` measures CSV load and save times along with the bytes allocated per parsed row.
+ * `paged` populates a PagedStationStore, then measures lookups, searches and heap usage
+ * with a small page cache.
+ * `footprint` reports the heap retained per station by MemoryStationStore and
+ * ColumnarStationStore.
+ *
+ * Usage: StationStorageBenchmark [startup|csv|paged|footprint] [station count]
+ *        (defaults to startup with 500,000 stations, csv and paged with 100,000 stations,
+ *        footprint with 1,000,000 stations)
+ */
+class StationStorageBenchmark {
+    private static final int DEFAULT_STATIONS = 500_000;
+    private static final int DEFAULT_CSV_STATIONS = 100_000;
+    private static final int DEFAULT_FOOTPRINT_STATIONS = 1_000_000;
+    private static final int RUNS = 15;
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "startup";
+        switch (mode) {
+            case "startup" -> startup(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STATIONS);
+            case "csv" -> csv(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CSV_STATIONS);
+            case "paged" -> paged(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CSV_STATIONS);
+            case "footprint" -> footprint(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FOOTPRINT_STATIONS);
+            default -> System.out.println("Usage: StationStorageBenchmark [startup|csv|paged|footprint] [station count]");
+        }
+    }
+
+    private static void startup(int count) throws IOException {
+        File dir = Files.createTempDirectory("netradio-benchmark").toFile();
+        File csv = new File(dir, "stations.csv");
+        File binary = new File(dir, "stations.bin");
+        File journal = new File(dir, "stations.journal");
+
+        List<MutableStation> stations = generateStations(count);
+        StationLoader csvLoader = new StationLoader(StationLoader.Format.CSV, csv, binary);
+        StationLoader binaryLoader = new StationLoader(StationLoader.Format.BINARY, csv, binary);
+        csvLoader.storeStations(stations);
+        binaryLoader.storeStations(stations);
+        System.out.printf("%,d stations. CSV %,d bytes. Binary %,d bytes%n", count, csv.length(), binary.length());
+
+        System.out.printf("CSV startup:    %,d ms%n", bestStartupMillis(csvLoader, journal));
+        System.out.printf("Binary startup: %,d ms%n", bestStartupMillis(binaryLoader, journal));
+    }
+
+    private static void csv(int count) throws IOException {
+        File file = Files.createTempFile("netradio-benchmark", ".csv").toFile();
+        List<MutableStation> stations = generateStations(count);
+
+        long bestSave = Long.MAX_VALUE;
+        long bestLoad = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            StationCsvCodec.write(stations, file);
+            long saved = System.nanoTime();
+            List<MutableStation> loaded = StationCsvCodec.read(file);
+            long finished = System.nanoTime();
+            if (loaded.size() != count) {
+                throw new IllegalStateException("expected " + count + " stations, loaded " + loaded.size());
+            }
+            bestSave = Math.min(bestSave, saved - start);
+            bestLoad = Math.min(bestLoad, finished - saved);
+        }
+        System.out.printf("%,d stations. %,d bytes%n", count, file.length());
+        System.out.printf("CSV save: %,d ms%n", bestSave / 1_000_000);
+        System.out.printf("CSV load: %,d ms%n", bestLoad / 1_000_000);
+
+        // parse on this thread only so allocations can be attributed to parsing
+        byte[] data = Files.readAllBytes(file.toPath());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        List<MutableStation> loaded = StationCsvCodec.parse(data, false);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        System.out.printf("Allocated per row: %,d bytes (including the station itself)%n", allocated / loaded.size());
+        file.delete();
+    }
+
+    private static void paged(int count) throws IOException {
+        File dir = Files.createTempDirectory("netradio-benchmark").toFile();
+        File csv = new File(dir, "stations.csv");
+        StationLoader loader = new StationLoader(StationLoader.Format.CSV, csv, new File(dir, "stations.bin"));
+        loader.storeStations(generateStations(count));
+
+        long start = System.nanoTime();
+        StationStore store = new PagedStationStore(new File(dir, "stations.idx"), new File(dir, "stations.dat"),
+                64, loader);
+        System.out.printf("Imported %,d stations in %,d ms%n", store.size(), (System.nanoTime() - start) / 1_000_000);
+        StationManager manager = new StationManager(store);
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            if (manager.getStation(random.nextInt(count)) == null) {
+                throw new IllegalStateException("station missing");
+            }
+        }
+        System.out.printf("100,000 random lookups: %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        int results = manager.findStation("station 99").size();
+        System.out.printf("Search found %,d stations in %,d ms%n", results, (System.nanoTime() - start) / 1_000_000);
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Heap in use: %,d KB%n", (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+        manager.shutdown();
+    }
+
+    private static void footprint(int count) throws IOException {
+        File dir = Files.createTempDirectory("netradio-benchmark").toFile();
+        // CSV so every station is fully decoded, as it would be once viewed
+        StationLoader loader = new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"),
+                new File(dir, "stations.bin"));
+        loader.storeStations(generateStations(count));
+        File journal = new File(dir, "stations.journal");
+
+        long before = usedHeap();
+        StationStore memory = new MemoryStationStore(loader, new StationJournal(journal, loader));
+        long retained = usedHeap() - before;
+        System.out.printf("%,d stations%n", memory.size());
+        System.out.printf("MemoryStationStore:   %,d bytes per station%n", retained / count);
+        memory.close();
+        memory = null;
+
+        before = usedHeap();
+        StationStore columnar = new ColumnarStationStore(loader, new StationJournal(journal, loader));
+        retained = usedHeap() - before;
+        System.out.printf("ColumnarStationStore: %,d bytes per station%n", retained / count);
+        columnar.close();
+    }
+
+    /**
+     * Returns the heap in use after encouraging a full collection.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Constructs a StationManager RUNS times and returns the fastest construction time.
+     */
+    private static long bestStartupMillis(StationLoader loader, File journal) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            StationManager manager = new StationManager(new MemoryStationStore(loader, new StationJournal(journal, loader)));
+            long elapsed = System.nanoTime() - start;
+            // ensure the catalog is reachable until timing has finished
+            if (manager.getStation(0) == null) {
+                throw new IllegalStateException("catalog failed to load");
+            }
+            best = Math.min(best, elapsed);
+        }
+        return best / 1_000_000;
+    }
+
+    /**
+     * Builds a catalog of plausible looking stations. Genres and hosts repeat, as they do
+     * in public station directories.
+     */
+    static List<MutableStation> generateStations(int count) {
+        String[] genres = { "Unknown", "various", "Pop/Rock", "Hit Music", "News", "Jazz", "Classical", "Dance" };
+        List<MutableStation> stations = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            String name = "Station " + id;
+            String uri = "http://stream" + (id % 97) + ".example.com/live/" + id + ".mp3";
+            LocalDateTime lastPlayed = id % 3 == 0 ? null : LocalDateTime.of(2020, 1, 1, 12, 0).plusMinutes(id);
+            stations.add(new RadioStation(id, name, uri, lastPlayed, id % 200, 64000 + (id % 4) * 32000,
+                    genres[id % genres.length], id % 17 == 0));
+        }
+        return stations;
+    }
+}
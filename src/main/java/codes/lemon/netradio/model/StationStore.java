@@ -0,0 +1,94 @@
+package codes.lemon.netradio.model;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Holds the station catalog on behalf of StationManager and takes care of persisting it.
+ * Implementations decide how much of the catalog is kept in memory and how it is stored.
+ *
+ * Stations returned by a store may be shared with the store (as with an in-memory store)
+ * or may be copies decoded from disk. Clients must therefore pass a modified station back
+ * to `put()` for the modification to take effect:
+ * <pre>
+ *     MutableStation s = store.get(id);
+ *     s.setBitrate(bitrate);
+ *     store.put(s);
+ * </pre>
+ */
+interface StationStore {
+    /**
+     * Returns the station with the given ID.
+     * @param id a station ID
+     * @return the station with the given ID, else null if no such station exists.
+     */
+    MutableStation get(int id);
+
+    /**
+     * Adds a station to the store, replacing any station with the same ID.
+     * The station is persisted before the next call to `close()` completes.
+     * @param station the station to be stored
+     */
+    void put(MutableStation station);
+
+    /**
+     * Applies a set of changes together. Stations with the given IDs are removed, then
+     * every given station is stored. The changes are persisted together, with a single
+     * write where the implementation supports it, rather than once per station.
+     * @param puts stations to be stored
+     * @param removals IDs of stations to be removed
+     */
+    void putAll(Collection<? extends MutableStation> puts, Collection<Integer> removals);
+
+    /**
+     * Removes the station with the given ID from the store.
+     * @param id ID of the station to be removed
+     * @return true if a station was removed, else false.
+     */
+    boolean remove(int id);
+
+    /**
+     * Checks whether a station with the given ID exists.
+     * @param id a station ID
+     * @return true if the ID is in use, else false.
+     */
+    boolean contains(int id);
+
+    /**
+     * Returns the highest station ID held by the store.
+     * @return the highest ID in use, else -1 if the store is empty
+     */
+    int highestId();
+
+    /**
+     * Returns the number of stations held by the store.
+     * @return number of stations
+     */
+    int size();
+
+    /**
+     * Performs the given action for every station in the store, ordered by ID where the
+     * implementation supports it. Implementations which keep stations on disk visit
+     * stations without loading the full catalog into memory.
+     * Stations visited are not backed by the store, so they may be kept by the action and
+     * remain readable after the store changes.
+     * The action must not modify the store.
+     * @param action action to be performed for each station
+     */
+    void forEach(Consumer<? super MutableStation> action);
+
+    /**
+     * Returns a read only view of the catalog which may be used from any thread.
+     * Stores which hold their catalog in an immutable form return an isolated snapshot in
+     * O(1) without blocking writers. Other stores may return a live view which reflects
+     * later changes and synchronizes with writers.
+     * @return a view of the catalog
+     */
+    StationSnapshot snapshot();
+
+    /**
+     * Writes any outstanding changes to storage and releases resources.
+     * Blocks until all changes have been written.
+     */
+    void close();
+}
@@ -0,0 +1,397 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * An immutable map of station ID -> station, structured as a 32-way trie over the bits
+ * of the ID (a bitmapped vector trie).
+ * Adding or removing a station returns a new trie which shares every node with this one
+ * other than the nodes along the path to the changed ID. Updates therefore copy at most
+ * one node per level (7 levels for the full int range, 4 levels for a million stations)
+ * rather than the whole catalog, and a trie which has been published can be read by any
+ * number of threads without locking.
+ * Each node records how many stations lie beneath it, so stations can also be retrieved by
+ * position, in ID order, in logarithmic time. This allows a trie to be exposed as a List
+ * without copying.
+ *
+ * Stations held by a trie must not be modified. Use `MutableStation.copy()` to change
+ * a station, then add the copy to produce a new trie.
+ */
+final class StationTrie implements StationSnapshot {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    static final StationTrie EMPTY = new StationTrie(new Node(), 0, 0);
+
+    private final Node root;
+    // number of ID bits below the root. The root covers IDs below 1 << (shift + BITS)
+    private final int shift;
+    private final long version;
+
+    private StationTrie(Node root, int shift, long version) {
+        this.root = root;
+        this.shift = shift;
+        this.version = version;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return root.count;
+    }
+
+    @Override
+    public MutableStation get(int id) {
+        if (id < 0 || id >= limit(shift)) {
+            return null;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(id >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (MutableStation) node.slots[id & MASK];
+    }
+
+    /**
+     * Returns a trie containing the given station in addition to, or in place of, the
+     * station with the same ID in this trie.
+     * @param station the station to be added. Must not be modified once added.
+     * @return a new trie, this trie is unchanged
+     */
+    StationTrie with(MutableStation station) {
+        int id = station.getStationID();
+        Node node = root;
+        int level = shift;
+        while (id >= limit(level)) {
+            node = grow(node);
+            level += BITS;
+        }
+        return new StationTrie(put(node, level, id, station, false), level, version + 1);
+    }
+
+    /**
+     * Returns a trie without the station with the given ID.
+     * @param id ID of the station to be removed
+     * @return a new trie, else this trie if it does not contain the station
+     */
+    StationTrie without(int id) {
+        if (get(id) == null) {
+            return this;
+        }
+        return new StationTrie(remove(root, shift, id, false), shift, version + 1);
+    }
+
+    /**
+     * Returns the highest ID held by this trie by following the rightmost path.
+     * @return the highest ID, else -1 if the trie is empty
+     */
+    int highestId() {
+        if (root.count == 0) {
+            return -1;
+        }
+        Node node = root;
+        int id = 0;
+        for (int level = shift; level >= 0; level -= BITS) {
+            int i = WIDTH - 1;
+            while (node.slots[i] == null) {
+                i--;
+            }
+            id |= i << level;
+            if (level > 0) {
+                node = (Node) node.slots[i];
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the station at the given position when stations are ordered by ID.
+     */
+    private MutableStation stationAt(int index) {
+        Objects.checkIndex(index, root.count);
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            int i = 0;
+            while (true) {
+                Node child = (Node) node.slots[i];
+                if (child != null) {
+                    if (index < child.count) {
+                        node = child;
+                        break;
+                    }
+                    index -= child.count;
+                }
+                i++;
+            }
+        }
+        for (Object station : node.slots) {
+            if (station != null && index-- == 0) {
+                return (MutableStation) station;
+            }
+        }
+        throw new IllegalStateException("station counts are inconsistent");
+    }
+
+    @Override
+    public void forEach(Consumer<? super Station> action) {
+        forEachStation(action);
+    }
+
+    /**
+     * Performs the given action for every station, in ID order.
+     * @param action action to be performed for each station
+     */
+    void forEachStation(Consumer<? super MutableStation> action) {
+        forEach(root, shift, action);
+    }
+
+    private static void forEach(Node node, int level, Consumer<? super MutableStation> action) {
+        for (Object slot : node.slots) {
+            if (slot != null) {
+                if (level == 0) {
+                    action.accept((MutableStation) slot);
+                }
+                else {
+                    forEach((Node) slot, level - BITS, action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stations of this trie, in ID order, as a list backed by the trie.
+     * Creating the list is O(1). Retrieving an element by index is O(log n).
+     * @return an unmodifiable list of every station in this trie
+     */
+    @Override
+    public List<Station> asList() {
+        return Collections.unmodifiableList(stations());
+    }
+
+    /**
+     * Returns the stations of this trie as a list of MutableStations. See `asList()`.
+     * The stations must not be modified.
+     * @return an unmodifiable list of every station in this trie
+     */
+    List<MutableStation> stations() {
+        return new AbstractList<>() {
+            @Override
+            public MutableStation get(int index) {
+                return stationAt(index);
+            }
+
+            @Override
+            public int size() {
+                return root.count;
+            }
+
+            @Override
+            public Iterator<MutableStation> iterator() {
+                return new StationIterator();
+            }
+
+            @Override
+            public void forEach(Consumer<? super MutableStation> action) {
+                forEachStation(action);
+            }
+        };
+    }
+
+    /**
+     * Visits stations in ID order by walking the trie depth first, rather than
+     * looking up each position from the root.
+     */
+    private final class StationIterator implements Iterator<MutableStation> {
+        private final Node[] path = new Node[shift / BITS + 1];
+        private final int[] positions = new int[path.length];
+        private int depth = 0;
+        private MutableStation next;
+
+        private StationIterator() {
+            path[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] == WIDTH) {
+                    // finished with this node, continue with its parents next child
+                    depth--;
+                    if (depth >= 0) {
+                        positions[depth]++;
+                    }
+                    continue;
+                }
+                Object slot = path[depth].slots[positions[depth]];
+                if (slot == null) {
+                    positions[depth]++;
+                }
+                else if (depth == path.length - 1) {
+                    next = (MutableStation) slot;
+                    positions[depth]++;
+                    return;
+                }
+                else {
+                    depth++;
+                    path[depth] = (Node) slot;
+                    positions[depth] = 0;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public MutableStation next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            MutableStation station = next;
+            advance();
+            return station;
+        }
+    }
+
+    /**
+     * Returns a builder which is initially empty.
+     * @return a new builder
+     */
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /*-------------------------------
+    |          NODE UPDATES         |
+    -------------------------------*/
+
+    /**
+     * Returns the largest ID (exclusive) covered by a root with the given shift.
+     */
+    private static long limit(int shift) {
+        return 1L << (shift + BITS);
+    }
+
+    private static Node grow(Node root) {
+        Node grown = new Node();
+        if (root.count > 0) {
+            grown.slots[0] = root;
+            grown.count = root.count;
+        }
+        return grown;
+    }
+
+    /**
+     * Stores a station beneath the given node.
+     * @param inPlace true if the node may be modified, else the node is copied
+     * @return the updated node
+     */
+    private static Node put(Node node, int level, int id, MutableStation station, boolean inPlace) {
+        Node updated = inPlace ? node : node.copy();
+        int i = (id >>> level) & MASK;
+        if (level == 0) {
+            if (updated.slots[i] == null) {
+                updated.count++;
+            }
+            updated.slots[i] = station;
+        }
+        else {
+            Node child = (Node) updated.slots[i];
+            int before = child == null ? 0 : child.count;
+            // a new child is not yet shared so may always be modified in place
+            Node updatedChild = child == null ? put(new Node(), level - BITS, id, station, true)
+                    : put(child, level - BITS, id, station, inPlace);
+            updated.slots[i] = updatedChild;
+            updated.count += updatedChild.count - before;
+        }
+        return updated;
+    }
+
+    /**
+     * Removes a station which is known to be beneath the given node.
+     * @param inPlace true if the node may be modified, else the node is copied
+     * @return the updated node
+     */
+    private static Node remove(Node node, int level, int id, boolean inPlace) {
+        Node updated = inPlace ? node : node.copy();
+        int i = (id >>> level) & MASK;
+        if (level == 0) {
+            updated.slots[i] = null;
+        }
+        else {
+            Node child = remove((Node) updated.slots[i], level - BITS, id, inPlace);
+            // drop empty nodes so iteration and positional lookups can skip them
+            updated.slots[i] = child.count == 0 ? null : child;
+        }
+        updated.count--;
+        return updated;
+    }
+
+    private static final class Node {
+        private final Object[] slots;
+        private int count = 0;
+
+        private Node() {
+            slots = new Object[WIDTH];
+        }
+
+        private Node(Node other) {
+            slots = other.slots.clone();
+            count = other.count;
+        }
+
+        private Node copy() {
+            return new Node(this);
+        }
+    }
+
+    /**
+     * Builds a trie by modifying nodes in place, avoiding the copying performed by `with()`
+     * and `without()`. Used to load a catalog. A builder must not be used once `build()`
+     * has been called.
+     */
+    static final class Builder {
+        private Node root = new Node();
+        private int shift = 0;
+
+        private Builder() {
+            // use StationTrie.builder()
+        }
+
+        void put(MutableStation station) {
+            int id = station.getStationID();
+            while (id >= limit(shift)) {
+                root = grow(root);
+                shift += BITS;
+            }
+            root = StationTrie.put(root, shift, id, station, true);
+        }
+
+        void remove(int id) {
+            if (new StationTrie(root, shift, 0).get(id) != null) {
+                root = StationTrie.remove(root, shift, id, true);
+            }
+        }
+
+        /**
+         * @param version version of the trie to be built
+         * @return a trie holding every station added to this builder
+         */
+        StationTrie build(long version) {
+            StationTrie trie = new StationTrie(root, shift, version);
+            root = null;
+            return trie;
+        }
+    }
+}
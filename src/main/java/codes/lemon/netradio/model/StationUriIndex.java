@@ -0,0 +1,108 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+
+/**
+ * A hash index from canonical stream URI (see StationUris) to the stations playing that
+ * stream, answering lookups by URI in O(1) however the URI is written.
+ * Most streams belong to a single station, so each URI maps directly to a station ID.
+ * URIs shared by several stations, which occur until duplicates are merged, are also held
+ * in a sorted set of IDs so the lowest remaining ID is known when one is removed.
+ *
+ * Thread safe.
+ */
+class StationUriIndex {
+    // the lowest ID of the stations playing each stream
+    private final Map<String, Integer> first = new HashMap<>();
+    // every ID playing a stream, for streams played by more than one station
+    private final Map<String, SortedSet<Integer>> shared = new HashMap<>();
+
+    /**
+     * Indexes every station in the given snapshot.
+     * @param catalog the stations to be indexed
+     * @return a new index
+     */
+    static StationUriIndex build(StationSnapshot catalog) {
+        StationUriIndex index = new StationUriIndex();
+        catalog.forEach(s -> index.add(StationUris.canonical(s.getUri()), s.getStationID()));
+        return index;
+    }
+
+    /**
+     * Returns the station playing the stream at the given URI.
+     * @param uri a stream URI, in any form
+     * @return the lowest ID of the stations playing the stream, else -1 if there are none
+     */
+    int find(String uri) {
+        String canonical = StationUris.canonical(uri);
+        synchronized (this) {
+            return first.getOrDefault(canonical, -1);
+        }
+    }
+
+    /**
+     * Returns every station playing the stream at the given URI.
+     * @param uri a stream URI, in any form
+     * @return the IDs of the stations playing the stream in ascending order, else an empty list
+     */
+    List<Integer> findAll(String uri) {
+        String canonical = StationUris.canonical(uri);
+        synchronized (this) {
+            SortedSet<Integer> ids = shared.get(canonical);
+            if (ids != null) {
+                return new ArrayList<>(ids);
+            }
+            Integer id = first.get(canonical);
+            return id == null ? Collections.emptyList() : List.of(id);
+        }
+    }
+
+    /**
+     * Updates the index to reflect a change to a station. Only changes to URIs have any effect.
+     * @param before the station before the change, else null if it was added
+     * @param after the station after the change, else null if it was removed
+     */
+    void update(Station before, Station after) {
+        if (before != null && after != null && before.getUri().equals(after.getUri())) {
+            return;
+        }
+        String removed = before == null ? null : StationUris.canonical(before.getUri());
+        String added = after == null ? null : StationUris.canonical(after.getUri());
+        synchronized (this) {
+            if (removed != null) {
+                remove(removed, before.getStationID());
+            }
+            if (added != null) {
+                add(added, after.getStationID());
+            }
+        }
+    }
+
+    /**
+     * The caller holds this monitor, or has not yet published the index.
+     */
+    private void add(String canonical, int id) {
+        Integer existing = first.putIfAbsent(canonical, id);
+        if (existing != null && existing != id) {
+            SortedSet<Integer> ids = shared.computeIfAbsent(canonical, c -> new TreeSet<>(List.of(existing)));
+            ids.add(id);
+            first.put(canonical, ids.first());
+        }
+    }
+
+    /**
+     * The caller holds this monitor.
+     */
+    private void remove(String canonical, int id) {
+        SortedSet<Integer> ids = shared.get(canonical);
+        if (ids == null) {
+            first.remove(canonical, id);
+            return;
+        }
+        ids.remove(id);
+        first.put(canonical, ids.first());
+        if (ids.size() == 1) {
+            shared.remove(canonical);
+        }
+    }
+}
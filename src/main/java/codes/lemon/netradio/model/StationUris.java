@@ -0,0 +1,147 @@
+package codes.lemon.netradio.model;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Normalises stream URIs so the same stream is recognised however its URI is written.
+ *
+ * The canonical form of a URI drops everything which does not identify the stream: the
+ * scheme (so http and https match), user info, default ports, a leading "www.", repeated and
+ * trailing slashes, the fragment and query parameters used only for tracking or cache
+ * busting. Host names are lower cased and the remaining query parameters are sorted.
+ * Stations with the same canonical URI play the same stream.
+ *
+ * The candidate key of a URI goes further, also dropping codec, container and bitrate
+ * tokens from the path, so "/clyde1.mp3", "/clyde1.aac" and "/clyde1/aac_64" share the key
+ * "/clyde1". Stations sharing a candidate key are variants of one another and are treated as
+ * duplicates only if their names also match, see `sameName()`.
+ */
+final class StationUris {
+    // query parameters which do not change the stream played
+    private static final Pattern VOLATILE_PARAMETER = Pattern.compile(
+            "utm_.*|aw_0_.*|awparams|_|cb|t|ts|nocache|ref|source|listenerid|.*session.*|.*token.*|sid");
+    // path and name tokens which only describe the format of a stream. Numbers are only
+    // taken as bitrates if they are common ones, so "Radio 1" and "Radio 2" stay distinct.
+    private static final Pattern FORMAT_TOKEN = Pattern.compile(
+            "mp3|aac|aacp|ogg|opus|flac|hls|m3u8?|pls|stream|(24|32|48|56|64|96|112|128|160|192|256|320)k?|kbps"
+                    + "|hi|high|lo|low|mono|stereo");
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[-_.\\s()\\[\\]]+");
+
+    private StationUris() {
+        // static utility
+    }
+
+    /**
+     * Returns the canonical form of a stream URI. Strings which can not be parsed as a
+     * hierarchical URI with a host, such as file paths, are only trimmed and lower cased.
+     * @param uri a stream URI
+     * @return the canonical form of the URI
+     */
+    static String canonical(String uri) {
+        String trimmed = uri.strip();
+        URI parsed;
+        try {
+            parsed = new URI(trimmed);
+        } catch (URISyntaxException e) {
+            return trimmed.toLowerCase();
+        }
+        if (parsed.isOpaque() || parsed.getHost() == null) {
+            return trimmed.toLowerCase();
+        }
+        StringBuilder canonical = new StringBuilder(trimmed.length());
+        canonical.append(host(parsed));
+        for (String segment : parsed.getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                canonical.append('/').append(segment);
+            }
+        }
+        String query = parsed.getRawQuery();
+        if (query != null) {
+            List<String> parameters = new ArrayList<>();
+            for (String parameter : query.split("&")) {
+                String name = parameter.split("=", 2)[0].toLowerCase();
+                if (!parameter.isEmpty() && !VOLATILE_PARAMETER.matcher(name).matches()) {
+                    parameters.add(parameter);
+                }
+            }
+            if (!parameters.isEmpty()) {
+                Collections.sort(parameters);
+                canonical.append('?').append(String.join("&", parameters));
+            }
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Returns true if two URIs address the same stream.
+     * @param a a stream URI
+     * @param b another stream URI
+     * @return true if both URIs have the same canonical form
+     */
+    static boolean sameStream(String a, String b) {
+        return a.equals(b) || canonical(a).equals(canonical(b));
+    }
+
+    /**
+     * Returns the key under which variants of a stream are grouped: its host and port and
+     * its path with format tokens removed. The query is ignored.
+     * @param uri a stream URI
+     * @return the candidate key of the URI
+     */
+    static String candidateKey(String uri) {
+        String canonical = canonical(uri);
+        int query = canonical.indexOf('?');
+        String withoutQuery = query < 0 ? canonical : canonical.substring(0, query);
+        int pathStart = withoutQuery.indexOf('/');
+        if (pathStart < 0) {
+            return withoutQuery;
+        }
+        StringBuilder key = new StringBuilder(withoutQuery.substring(0, pathStart));
+        for (String segment : withoutQuery.substring(pathStart + 1).split("/")) {
+            String stem = withoutFormatTokens(segment.toLowerCase(), "_");
+            if (!stem.isEmpty()) {
+                key.append('/').append(stem);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns true if two station names are the same once case, diacritics and format
+     * tokens are ignored, so "Clyde 1 (AAC)" matches "Clyde 1 MP3".
+     * @param a a station name
+     * @param b another station name
+     * @return true if the names match
+     */
+    static boolean sameName(String a, String b) {
+        return nameKey(a).equals(nameKey(b));
+    }
+
+    private static String nameKey(String name) {
+        String key = withoutFormatTokens(StationSearchIndex.normalise(name), " ");
+        // a name made up only of format tokens, such as "128k", is kept whole
+        return key.isEmpty() ? StationSearchIndex.normalise(name).strip() : key;
+    }
+
+    private static String withoutFormatTokens(String text, String separator) {
+        StringJoiner kept = new StringJoiner(separator);
+        for (String token : TOKEN_SEPARATOR.split(text)) {
+            if (!token.isEmpty() && !FORMAT_TOKEN.matcher(token).matches()) {
+                kept.add(token);
+            }
+        }
+        return kept.toString();
+    }
+
+    private static String host(URI uri) {
+        String host = uri.getHost().toLowerCase();
+        if (host.startsWith("www.")) {
+            host = host.substring(4);
+        }
+        int port = uri.getPort();
+        return port == -1 || port == 80 || port == 443 ? host : host + ':' + port;
+    }
+}
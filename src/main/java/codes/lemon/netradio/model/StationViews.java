@@ -0,0 +1,225 @@
+package codes.lemon.netradio.model;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Keeps smart lists materialised. A smart list is a named StationQuery whose matching
+ * stations are held as a set of IDs. Each change to a station is tested against every
+ * list, which costs one predicate test per list rather than a pass over the catalog, and
+ * the rows which entered, changed within or left each list are gathered until the change
+ * is published. Subscribers then receive only those rows.
+ * Membership covers every match. A lists sort order and limit are applied when it is read.
+ *
+ * Thread safe. Changes are recorded and published by the catalogs single writer while lists
+ * may be read and subscribed to from any thread.
+ */
+class StationViews {
+    private final Map<String, View> views = new LinkedHashMap<>();
+
+    /**
+     * Materialises the given smart lists from a snapshot of the catalog, visiting each
+     * station once.
+     * @param lists each smart lists query by name
+     * @param catalog the stations to be filtered
+     * @return the materialised lists
+     */
+    static StationViews build(Map<String, StationQuery> lists, StationSnapshot catalog) {
+        StationViews built = new StationViews();
+        lists.forEach((name, query) -> built.views.put(name, new View(query)));
+        Collection<View> all = built.views.values();
+        catalog.forEach(s -> {
+            for (View view : all) {
+                if (view.predicate.test(s)) {
+                    view.members.set(s.getStationID());
+                }
+            }
+        });
+        return built;
+    }
+
+    /**
+     * Adds a smart list, or replaces the query of an existing list, materialising it from a
+     * snapshot of the catalog. Subscribers of a replaced list are kept and are sent the
+     * difference between its old and new contents.
+     * @param name name of the list
+     * @param query query defining the list
+     * @param catalog the current catalog
+     */
+    synchronized void define(String name, StationQuery query, StationSnapshot catalog) {
+        View view = new View(query);
+        catalog.forEach(s -> {
+            if (view.predicate.test(s)) {
+                view.members.set(s.getStationID());
+            }
+        });
+        View previous = views.put(name, view);
+        if (previous != null) {
+            view.listeners.addAll(previous.listeners);
+            BitSet left = (BitSet) previous.members.clone();
+            left.andNot(view.members);
+            BitSet entered = (BitSet) view.members.clone();
+            entered.andNot(previous.members);
+            for (int id = left.nextSetBit(0); id >= 0; id = left.nextSetBit(id + 1)) {
+                view.removed.add(id);
+            }
+            for (int id = entered.nextSetBit(0); id >= 0; id = entered.nextSetBit(id + 1)) {
+                view.inserted.put(id, catalog.get(id));
+            }
+        }
+    }
+
+    /**
+     * Removes a smart list and its subscribers.
+     * @param name name of the list
+     * @return true if the list existed, else false.
+     */
+    synchronized boolean remove(String name) {
+        return views.remove(name) != null;
+    }
+
+    /**
+     * @return each smart lists query by name, in the order the lists were defined
+     */
+    synchronized Map<String, StationQuery> definitions() {
+        Map<String, StationQuery> definitions = new LinkedHashMap<>();
+        views.forEach((name, view) -> definitions.put(name, view.query));
+        return definitions;
+    }
+
+    /**
+     * Returns the current contents of a smart list in the order and up to the limit of its query.
+     * @param name name of the list
+     * @param catalog the snapshot stations are read from
+     * @return the stations in the list, else null if there is no such list
+     */
+    synchronized List<Station> contents(String name, StationSnapshot catalog) {
+        View view = views.get(name);
+        return view == null ? null : view.contents(catalog);
+    }
+
+    /**
+     * Subscribes to changes to a smart list, returning its current contents. No change can
+     * occur between reading the contents and the listener being subscribed.
+     * @param name name of the list
+     * @param listener notified of each change to the list
+     * @param catalog the snapshot stations are read from
+     * @return the stations currently in the list, else null if there is no such list
+     */
+    synchronized List<Station> subscribe(String name, SmartListListener listener, StationSnapshot catalog) {
+        View view = views.get(name);
+        if (view == null) {
+            return null;
+        }
+        view.listeners.add(listener);
+        return view.contents(catalog);
+    }
+
+    /**
+     * Unsubscribes a listener from a smart list. Does nothing if it is not subscribed.
+     * @param name name of the list
+     * @param listener a subscribed listener
+     */
+    synchronized void unsubscribe(String name, SmartListListener listener) {
+        View view = views.get(name);
+        if (view != null) {
+            view.listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Records a change to a station against every list it entered, left or changed within.
+     * Nothing is sent to subscribers until `publish()`.
+     * @param id ID of the changed station
+     * @param after the station after the change, else null if it was removed
+     */
+    synchronized void changed(int id, Station after) {
+        for (View view : views.values()) {
+            view.changed(id, after);
+        }
+    }
+
+    /**
+     * Sends every recorded change to the subscribers of each list it affected. Called by the
+     * writer after each mutation so subscribers are notified in the order changes were made.
+     */
+    void publish() {
+        List<Runnable> notifications = new ArrayList<>();
+        synchronized (this) {
+            views.forEach((name, view) -> view.drain(name, notifications));
+        }
+        // notify outside the lock, so listeners may read lists
+        notifications.forEach(Runnable::run);
+    }
+
+    /**
+     * A materialised smart list and the changes to it not yet published.
+     */
+    private static final class View {
+        private final StationQuery query;
+        private final Predicate<Station> predicate;
+        private final BitSet members = new BitSet();
+        private final List<SmartListListener> listeners = new CopyOnWriteArrayList<>();
+        // pending changes. A station is in at most one of them.
+        private final Map<Integer, Station> inserted = new LinkedHashMap<>();
+        private final Map<Integer, Station> updated = new LinkedHashMap<>();
+        private final Set<Integer> removed = new TreeSet<>();
+
+        private View(StationQuery query) {
+            this.query = query;
+            predicate = query.predicate();
+        }
+
+        private void changed(int id, Station after) {
+            boolean was = members.get(id);
+            boolean now = after != null && predicate.test(after);
+            if (now) {
+                members.set(id);
+                if (inserted.containsKey(id) || (!was && !removed.remove(id))) {
+                    inserted.put(id, after);
+                }
+                else {
+                    updated.put(id, after);
+                }
+            }
+            else if (was) {
+                members.clear(id);
+                updated.remove(id);
+                if (inserted.remove(id) == null) {
+                    removed.add(id);
+                }
+            }
+        }
+
+        private List<Station> contents(StationSnapshot catalog) {
+            List<Station> stations = new ArrayList<>(members.cardinality());
+            for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1)) {
+                Station s = catalog.get(id);
+                if (s != null) {
+                    stations.add(s);
+                }
+            }
+            stations.sort(query.comparator());
+            return stations.size() > query.getLimit() ? stations.subList(0, query.getLimit()) : stations;
+        }
+
+        /**
+         * Moves the pending changes into a notification for each subscriber.
+         */
+        private void drain(String name, List<Runnable> notifications) {
+            if (inserted.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            List<Station> in = Collections.unmodifiableList(new ArrayList<>(inserted.values()));
+            List<Station> changed = Collections.unmodifiableList(new ArrayList<>(updated.values()));
+            Set<Integer> out = Collections.unmodifiableSet(new TreeSet<>(removed));
+            inserted.clear();
+            updated.clear();
+            removed.clear();
+            for (SmartListListener listener : listeners) {
+                notifications.add(() -> listener.rowsChanged(name, in, changed, out));
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package codes.lemon.netradio.model;
 
 import java.beans.PropertyChangeListener;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A basic client for playing audio streams over the internet.
@@ -34,12 +37,47 @@ interface StreamPlayer {
      */
     void setVolume(int volumeLevel);
 
+    /**
+     * Sets how much audio is buffered before playback starts, and refilled after an
+     * underrun, for the current source and future sources.
+     * @param millis the length of audio buffered in milliseconds, else -1 for the default
+     */
+    void setBufferDuration(long millis);
+
+    /**
+     * Prepares the given sources for playback ahead of time, so setting one of them as the
+     * source later starts playback with little delay. Replaces any sources previously
+     * prefetched. Implementations may limit how many sources are prefetched.
+     * @param uris uris pointing to audio sources, most likely to be played first
+     */
+    void prefetch(List<String> uris);
+
+    /**
+     * Stops playback and releases the resources held for it. No other
+     * method may be called afterwards.
+     */
+    void dispose();
+
     /**
      * Subscribe to be notified when stream tags are updated.
      * @param o observer
      */
     void subscribeToStreamTags(PropertyChangeListener o);
 
+    /**
+     * Subscribe to be notified how long each start of playback took, from the request to
+     * play until audio could be heard, broken down by stage.
+     * @param listener notified once each playback starts
+     */
+    void subscribeToPlaybackTimelines(Consumer<PlaybackTimeline> listener);
+
+    /**
+     * Subscribe to be notified of each underrun, where playback paused because its buffer
+     * ran low, with how long playback was paused for.
+     * @param listener notified once playback resumes, or is stopped while paused
+     */
+    void subscribeToUnderruns(Consumer<Duration> listener);
+
     /**
      * Check if audio is currently being played by this.
      * @return true if audio is playing, else false.
@@ -6,9 +6,12 @@ import org.freedesktop.gstreamer.elements.PlayBin;
 import java.beans.PropertyChangeListener;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * An implementation of StreamPlayer using GStreamer as a back end
@@ -22,12 +25,30 @@ import java.util.Set;
  * Clients can subscribe to be notified when stream tags arrive. Stream tags
  * contain details about streams current state, including the title of the
  * currently playing song.
+ * Sources which are likely to be played next can be prefetched. Each is kept in a paused
+ * pipeline, already connected and buffered, and becomes the playing pipeline when it is set
+ * as the source. The number of prefetched pipelines is limited by the system property
+ * `netradio.prefetch.pipelines` (default 3) and the memory they may use for buffering by
+ * `netradio.prefetch.memory` (bytes, default 4 MiB).
  */
 class StreamPlayerGStreamer implements StreamPlayer {
+    private static final String PREFETCH_PIPELINES_PROPERTY = "netradio.prefetch.pipelines";
+    private static final int DEFAULT_PREFETCH_PIPELINES = 3;
+    private static final String PREFETCH_MEMORY_PROPERTY = "netradio.prefetch.memory";
+    private static final long DEFAULT_PREFETCH_MEMORY = 4L << 20;
 
     private final ObservableMetadata tags = new ObservableMetadata();
-    private Playback playback;
+    private final PrefetchPool prefetched = new PrefetchPool(
+            (int) nonNegativeProperty(PREFETCH_PIPELINES_PROPERTY, DEFAULT_PREFETCH_PIPELINES),
+            nonNegativeProperty(PREFETCH_MEMORY_PROPERTY, DEFAULT_PREFETCH_MEMORY));
+    private PlaybackStream playback;
+    // the source of playback, else null if none has been set
+    private String currentUri = null;
     private int volume = MAX_VOLUME;
+    // length of audio buffered in milliseconds, else -1 for GStreamers default
+    private long bufferDuration = -1;
+    private final List<Consumer<PlaybackTimeline>> timelineListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Duration>> underrunListeners = new CopyOnWriteArrayList<>();
 
     public StreamPlayerGStreamer() {
         // initialise GStreamer
@@ -37,6 +58,18 @@ class StreamPlayerGStreamer implements StreamPlayer {
         }
     }
 
+    /**
+     * Reads a limit selected by the user through a system property.
+     */
+    private static long nonNegativeProperty(String property, long defaultValue) {
+        long limit = Long.getLong(property, defaultValue);
+        if (limit < 0) {
+            System.out.println("INFO: Invalid " + property + " " + limit + ". Using " + defaultValue);
+            return defaultValue;
+        }
+        return limit;
+    }
+
     /**
      * Accepts a URI pointing to an audio source. This URI will be used
      * as the source of audio for playback immediately.
@@ -45,25 +78,17 @@ class StreamPlayerGStreamer implements StreamPlayer {
      * previous source is stopped and playback resumes immediately using the new
      * source. If nothing is playing when a source is set, playback will not start
      * until `play()` is called by the client.
+     * The pipeline is built for the first source and reused for every later source,
+     * so changing station only replaces the pipelines URI. If the source has been
+     * prefetched its pipeline is swapped in instead, and the pipeline being left is kept
+     * as a prefetched pipeline if there is room.
      *
      * @param uri uri pointing to an audio source
      */
     @Override
-    public void setSource(String uri) {
+    public synchronized void setSource(String uri) {
         assert(uri != null) : "null uri supplied";
-        tags.resetAllProperties();  // reset tags from previous source
-        tags.setStreamUri(uri);
-
-        boolean resumePlay = false;
-        if (playback != null && !playback.isStopped()) {
-            playback.stop();
-            resumePlay = true;
-        }
 
-        // build a new pipeline with the nodes required to handle the new source
-        // playbin argument instructs Gstreamer to build a pipeline with the appropriate
-        // docoders/decrypters etc for the given URI
-        //pipeline = Gst.parseLaunch("playbin uri=" + uri);
         // TODO: clients will supply URI instance
         URI source = null;
         try {
@@ -71,8 +96,43 @@ class StreamPlayerGStreamer implements StreamPlayer {
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
-        playback = new PlaybackStream(source, tags);
-        setVolume(volume); // restore previously set volume level
+
+        boolean resumePlay = playback != null && !playback.isStopped();
+        PlaybackStream warm = prefetched.take(uri);
+        if (warm != null) {
+            if (playback != null) {
+                // keep the station being left warm, as it is likely to be returned to
+                playback.redirectTags(new ObservableMetadata());
+                prefetched.offer(currentUri, playback);
+            }
+            warm.setBufferSize(-1);  // lift the prefetch buffer limit
+            warm.setTimelineListener(this::publishTimeline);
+            warm.setUnderrunListener(this::publishUnderrun);
+            playback = warm;
+            setVolume(volume);
+        }
+        else if (playback == null) {
+            // playbin argument instructs Gstreamer to build a pipeline with the appropriate
+            // docoders/decrypters etc for the given URI
+            playback = new PlaybackStream(source, tags);
+            playback.setTimelineListener(this::publishTimeline);
+            playback.setUnderrunListener(this::publishUnderrun);
+            setVolume(volume); // restore previously set volume level
+        }
+        else {
+            // stops the previous source, keeping the pipeline and its volume
+            playback.setSource(source);
+        }
+        // a prefetched pipeline is already connected, so this only applies once it reconnects
+        playback.setBufferDuration(bufferDuration);
+        // reset tags from previous source once it has stopped
+        tags.resetAllProperties();
+        tags.setStreamUri(uri);
+        if (warm != null) {
+            // publish the tags received while prefetching, and any which follow
+            warm.redirectTags(tags);
+        }
+        currentUri = uri;
 
         if (resumePlay) {
             playback.play();
@@ -109,6 +169,43 @@ class StreamPlayerGStreamer implements StreamPlayer {
         tags.resetAllProperties();
     }
 
+    /**
+     * Prefetches the given sources, most wanted first, up to the configured limit. Sources
+     * prefetched earlier and not in the list are released, as are all of them if the list
+     * is empty. The current source is never prefetched.
+     *
+     * @param uris uris pointing to audio sources
+     */
+    @Override
+    public synchronized void prefetch(List<String> uris) {
+        List<URI> sources = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            if (currentUri != null && StationUris.sameStream(uri, currentUri)) {
+                continue;
+            }
+            try {
+                sources.add(new URI(uri));
+            } catch (URISyntaxException e) {
+                // not playable, so not worth prefetching
+            }
+        }
+        prefetched.retain(sources);
+    }
+
+    /**
+     * Stops playback and releases the pipeline, along with any prefetched pipelines.
+     */
+    @Override
+    public synchronized void dispose() {
+        prefetched.clear();
+        if (playback != null) {
+            playback.dispose();
+            playback = null;
+        }
+        currentUri = null;
+        tags.resetAllProperties();
+    }
+
     /**
      * Sets the audio playback volume for the current pipeline.
      * Volume must be in the range `MIN_VOLUME` to `MAX_VOLUME` (inclusive).
@@ -126,6 +223,20 @@ class StreamPlayerGStreamer implements StreamPlayer {
         System.out.println("volume set to: " + volume);
     }
 
+    /**
+     * Sets how much audio is buffered before playback starts for the current pipeline and
+     * those built later. Takes effect when a pipeline next connects to its source.
+     *
+     * @param millis the length of audio buffered in milliseconds, else -1 for GStreamers default
+     */
+    @Override
+    public synchronized void setBufferDuration(long millis) {
+        bufferDuration = millis;
+        if (playback != null) {
+            playback.setBufferDuration(millis);
+        }
+    }
+
     /**
      * Subscribe to be notified when stream tags are updated.
      *
@@ -139,6 +250,38 @@ class StreamPlayerGStreamer implements StreamPlayer {
         //listeners.add(pcl);
     }
 
+    /**
+     * Subscribe to be notified how long each start of playback took.
+     *
+     * @param listener notified on a GStreamer thread once each playback starts
+     */
+    @Override
+    public void subscribeToPlaybackTimelines(Consumer<PlaybackTimeline> listener) {
+        timelineListeners.add(Objects.requireNonNull(listener));
+    }
+
+    private void publishTimeline(PlaybackTimeline timeline) {
+        for (Consumer<PlaybackTimeline> listener : timelineListeners) {
+            listener.accept(timeline);
+        }
+    }
+
+    /**
+     * Subscribe to be notified of each underrun and how long playback was paused for.
+     *
+     * @param listener notified once playback resumes, or is stopped while paused
+     */
+    @Override
+    public void subscribeToUnderruns(Consumer<Duration> listener) {
+        underrunListeners.add(Objects.requireNonNull(listener));
+    }
+
+    private void publishUnderrun(Duration stall) {
+        for (Consumer<Duration> listener : underrunListeners) {
+            listener.accept(stall);
+        }
+    }
+
     /**
      * Check if audio is currently being played by this.
      *
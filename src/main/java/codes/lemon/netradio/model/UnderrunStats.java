@@ -0,0 +1,54 @@
+package codes.lemon.netradio.model;
+
+import java.time.Duration;
+
+/**
+ * Counts the underruns during a session, where playback paused because its buffer ran low,
+ * and how long playback was paused for. A session lasts from when the player was created.
+ * Instances are immutable snapshots taken when they were requested.
+ */
+public final class UnderrunStats {
+    private final long underruns;
+    private final Duration totalStall;
+    private final Duration longestStall;
+
+    UnderrunStats(long underruns, Duration totalStall, Duration longestStall) {
+        this.underruns = underruns;
+        this.totalStall = totalStall;
+        this.longestStall = longestStall;
+    }
+
+    /**
+     * @return the number of underruns
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * @return how long playback was paused for across every underrun
+     */
+    public Duration getTotalStall() {
+        return totalStall;
+    }
+
+    /**
+     * @return the longest an underrun paused playback for, else zero if there were none
+     */
+    public Duration getLongestStall() {
+        return longestStall;
+    }
+
+    /**
+     * @return the mean length of an underrun, else zero if there were none
+     */
+    public Duration getMeanStall() {
+        return underruns == 0 ? Duration.ZERO : totalStall.dividedBy(underruns);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("underruns=%d total=%dms longest=%dms", underruns, totalStall.toMillis(),
+                longestStall.toMillis());
+    }
+}
@@ -0,0 +1,156 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryStationFileTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        File file = new File(dir, "stations.bin");
+        List<MutableStation> stations = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            stations.add(station(i));
+        }
+        // never played, no genre, and strings needing multi-byte UTF-8
+        stations.add(new RadioStation(500, "R\u00e0dio \u00d1and\u00fa \ud83d\udcfb",
+                "http://\u4f8b\u3048.jp/\u30b9\u30c8\u30ea\u30fc\u30e0", null, 0, -1, "", false));
+        // a string larger than the initial heap
+        stations.add(station(501, "x".repeat(5000), "http://long.example.com/"));
+        BinaryStationFile.write(stations, file);
+
+        List<MutableStation> read = BinaryStationFile.read(file);
+        assertEquals(stations.size(), read.size());
+        for (int i = 0; i < stations.size(); i++) {
+            assertDetailsEqual(stations.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    void ordersStationsById() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(30), station(10), station(20)), file);
+
+        List<MutableStation> read = BinaryStationFile.read(file);
+        assertEquals(10, read.get(0).getStationID());
+        assertEquals(20, read.get(1).getStationID());
+        assertEquals(30, read.get(2).getStationID());
+    }
+
+    @Test
+    void roundTripsAnEmptyCatalog() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(Collections.emptyList(), file);
+        assertTrue(BinaryStationFile.read(file).isEmpty());
+    }
+
+    @Test
+    void decodesStationsOnFirstAccess() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(1), station(2)), file);
+
+        List<MutableStation> read = BinaryStationFile.read(file);
+        MappedStation first = (MappedStation) read.get(0);
+        MappedStation second = (MappedStation) read.get(1);
+        assertEquals(1, first.getStationID());
+        assertFalse(first.isMaterialised(), "reading the ID decodes nothing");
+        assertEquals("Station 1", first.getStationName());
+        assertTrue(first.isMaterialised());
+        assertFalse(second.isMaterialised());
+    }
+
+    @Test
+    void fingerprintsRecordsWithoutDecodingThem() throws IOException {
+        File file = new File(dir, "stations.bin");
+        List<MutableStation> stations = List.of(station(1), station(2, "No genre", "http://two.example.com"));
+        BinaryStationFile.write(stations, file);
+
+        List<MutableStation> read = BinaryStationFile.read(file);
+        for (int i = 0; i < stations.size(); i++) {
+            MappedStation mapped = (MappedStation) read.get(i);
+            assertEquals(StationFingerprints.fingerprint(stations.get(i)), mapped.fingerprint());
+            assertFalse(mapped.isMaterialised());
+            // and once decoded, the fingerprint of the decoded station is the same
+            mapped.getStationName();
+            assertEquals(StationFingerprints.fingerprint(stations.get(i)), mapped.fingerprint());
+        }
+    }
+
+    @Test
+    void copiesAreIndependentOfTheMappedStation() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(1)), file);
+
+        MutableStation mapped = BinaryStationFile.read(file).get(0);
+        MutableStation copy = mapped.copy();
+        mapped.setStationName("Changed");
+        mapped.markPlayed();
+        assertDetailsEqual(station(1), copy);
+        assertEquals("Changed", mapped.getStationName());
+        assertEquals(station(1).getPlayCount() + 1, mapped.getPlayCount());
+    }
+
+    @Test
+    void stationsSurviveTheSnapshotBeingReplaced() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(1)), file);
+        List<MutableStation> read = BinaryStationFile.read(file);
+
+        BinaryStationFile.write(List.of(station(1, "Replaced", "http://replaced.example.com")), file);
+        assertDetailsEqual(station(1), read.get(0));
+    }
+
+    @Test
+    void rejectsFilesWhichAreNotSnapshots() throws IOException {
+        File file = new File(dir, "stations.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeBytes("id,name,uri\n1,Station,http://example.com\n");
+        }
+        assertThrows(IOException.class, () -> BinaryStationFile.read(file));
+    }
+
+    @Test
+    void rejectsUnsupportedVersions() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(1)), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(99);
+        }
+        assertThrows(IOException.class, () -> BinaryStationFile.read(file));
+    }
+
+    @Test
+    void rejectsARecordCountLargerThanTheFile() throws IOException {
+        File file = new File(dir, "stations.bin");
+        BinaryStationFile.write(List.of(station(1)), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(1000);
+        }
+        assertThrows(IOException.class, () -> BinaryStationFile.read(file));
+    }
+
+    @Test
+    void preservesNanosecondsOfTheLastPlay() throws IOException {
+        File file = new File(dir, "stations.bin");
+        LocalDateTime played = LocalDateTime.of(2021, 2, 3, 4, 5, 6, 123_456_789);
+        MutableStation s = new RadioStation(7, "Seven", "http://seven.example.com", played, 1, 128, "Jazz", true);
+        BinaryStationFile.write(List.of(s), file);
+        assertEquals(played, BinaryStationFile.read(file).get(0).getDateLastPlayed());
+    }
+}
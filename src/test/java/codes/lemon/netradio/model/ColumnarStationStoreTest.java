@@ -0,0 +1,85 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarStationStoreTest {
+    @TempDir
+    File dir;
+
+    private ColumnarStationStore open() {
+        StationLoader storage = new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"),
+                new File(dir, "stations.bin"));
+        return new ColumnarStationStore(storage, new StationJournal(new File(dir, "journal"), storage));
+    }
+
+    @Test
+    void persistsChangesAcrossRestarts() {
+        ColumnarStationStore store = open();
+        for (int id = 0; id < 100; id++) {
+            store.put(station(id));
+        }
+        store.remove(10);
+        MutableStation renamed = station(20, "Renamed", "http://renamed.example.com");
+        store.putAll(List.of(renamed), List.of(30));
+        store.close();
+
+        ColumnarStationStore reopened = open();
+        assertEquals(98, reopened.size());
+        assertEquals(99, reopened.highestId());
+        assertFalse(reopened.contains(10));
+        assertFalse(reopened.contains(30));
+        assertDetailsEqual(renamed, reopened.get(20));
+        assertDetailsEqual(station(99), reopened.get(99));
+        reopened.close();
+    }
+
+    @Test
+    void handsOutStationsWhichOutliveTheirRows() {
+        ColumnarStationStore store = open();
+        store.putAll(List.of(station(1), station(2), station(3)), Collections.emptyList());
+        List<MutableStation> visited = new ArrayList<>();
+        store.forEach(visited::add);
+        MutableStation fetched = store.get(1);
+
+        // removing station 1 moves station 3 into its row
+        store.remove(1);
+        store.put(station(2, "Changed", "http://changed.example.com"));
+        assertDetailsEqual(station(1), fetched);
+        assertEquals(3, visited.size());
+        for (MutableStation s : visited) {
+            assertDetailsEqual(station(s.getStationID()), s);
+        }
+        store.close();
+    }
+
+    @Test
+    void changesToHandedOutStationsAreNotStored() {
+        ColumnarStationStore store = open();
+        store.put(station(1));
+        store.get(1).setStationName("Not stored");
+        store.forEach(s -> s.setFavourite(!s.isFavourite()));
+        assertDetailsEqual(station(1), store.get(1));
+        store.close();
+    }
+
+    @Test
+    void reportsTheHighestIdInUse() {
+        ColumnarStationStore store = open();
+        assertEquals(-1, store.highestId());
+        store.putAll(List.of(station(5), station(50), station(7)), Collections.emptyList());
+        assertEquals(50, store.highestId());
+        store.remove(50);
+        assertEquals(7, store.highestId());
+        store.close();
+    }
+}
@@ -0,0 +1,284 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PagedStationStoreTest {
+    // small enough that a large catalog is read back through page cache misses
+    private static final int CACHED_PAGES = 16;
+
+    @TempDir
+    File dir;
+
+    private File indexFile() {
+        return new File(dir, "stations.idx");
+    }
+
+    private File dataFile() {
+        return new File(dir, "stations.dat");
+    }
+
+    private PagedStationStore open() {
+        File csv = new File(dir, "stations.csv");
+        return new PagedStationStore(indexFile(), dataFile(), CACHED_PAGES,
+                new StationLoader(StationLoader.Format.CSV, csv, new File(dir, "stations.bin")));
+    }
+
+    private static List<MutableStation> stations(int from, int to) {
+        List<MutableStation> stations = new ArrayList<>();
+        for (int id = from; id < to; id++) {
+            stations.add(station(id));
+        }
+        return stations;
+    }
+
+    private static List<Integer> ids(StationStore store) {
+        List<Integer> ids = new ArrayList<>();
+        store.forEach(s -> ids.add(s.getStationID()));
+        return ids;
+    }
+
+    @Test
+    void splitsLeavesAndInternalNodesAsStationsAreAdded() {
+        // enough stations, added in random order, to split the root twice
+        int count = 150_000;
+        List<Integer> order = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            order.add(id);
+        }
+        Collections.shuffle(order, new Random(42));
+        PagedStationStore store = open();
+        for (int id : order) {
+            store.put(station(id));
+        }
+        assertEquals(count, store.size());
+        assertEquals(count - 1, store.highestId());
+        for (int id = 0; id < count; id += 997) {
+            assertDetailsEqual(station(id), store.get(id));
+        }
+        List<Integer> visited = ids(store);
+        assertEquals(count, visited.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) visited.get(i), "stations are visited in ID order");
+        }
+        store.close();
+
+        PagedStationStore reopened = open();
+        assertEquals(count, reopened.size());
+        assertEquals(count, ids(reopened).size());
+        assertDetailsEqual(station(count / 2), reopened.get(count / 2));
+        reopened.close();
+    }
+
+    @Test
+    void replacesStationsWithTheSameId() {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 10), Collections.emptyList());
+        MutableStation renamed = station(5, "Renamed", "http://renamed.example.com");
+        store.put(renamed);
+        assertEquals(10, store.size());
+        assertDetailsEqual(renamed, store.get(5));
+        store.close();
+
+        PagedStationStore reopened = open();
+        assertDetailsEqual(renamed, reopened.get(5));
+        reopened.close();
+    }
+
+    @Test
+    void returnsCopiesWhichDoNotWriteThrough() {
+        PagedStationStore store = open();
+        store.put(station(1));
+        store.get(1).setStationName("Not stored");
+        assertDetailsEqual(station(1), store.get(1));
+        store.close();
+    }
+
+    @Test
+    void removesStationsWithoutRebalancing() {
+        int count = 5_000;
+        PagedStationStore store = open();
+        store.putAll(stations(0, count), Collections.emptyList());
+        for (int id = 0; id < count; id += 2) {
+            assertTrue(store.remove(id));
+        }
+        assertFalse(store.remove(0), "already removed");
+        assertFalse(store.remove(count), "never added");
+        // empty the rightmost leaves, so the highest ID is found further left
+        for (int id = count / 2 + 1; id < count; id += 2) {
+            store.remove(id);
+        }
+        assertEquals(count / 2 - 1, store.highestId());
+        assertFalse(store.contains(2));
+        assertTrue(store.contains(3));
+        assertNull(store.get(2));
+        assertEquals(count / 4, store.size());
+        store.close();
+
+        PagedStationStore reopened = open();
+        assertEquals(count / 4, reopened.size());
+        assertEquals(count / 2 - 1, reopened.highestId());
+        for (int id : ids(reopened)) {
+            assertTrue(id % 2 == 1 && id < count / 2);
+        }
+        reopened.close();
+    }
+
+    @Test
+    void canBeEmptiedAndRefilled() {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 1_000), Collections.emptyList());
+        List<Integer> all = ids(store);
+        store.putAll(Collections.emptyList(), all);
+        assertEquals(0, store.size());
+        assertEquals(-1, store.highestId());
+        assertTrue(ids(store).isEmpty());
+
+        store.putAll(stations(2_000, 2_010), Collections.emptyList());
+        assertEquals(10, store.size());
+        assertEquals(2_009, store.highestId());
+        store.close();
+    }
+
+    @Test
+    void fallsBackToThePreviousCommitIfTheLatestMetadataIsCorrupt() throws IOException {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 2_000), Collections.emptyList());
+        store.close();
+
+        // a single change set, so exactly one commit is made by the second session
+        List<MutableStation> changed = stations(1_000, 3_000);
+        changed.forEach(s -> s.setStationName("Changed " + s.getStationID()));
+        List<Integer> removed = new ArrayList<>();
+        for (int id = 0; id < 500; id++) {
+            removed.add(id);
+        }
+        store = open();
+        store.putAll(changed, removed);
+        store.close();
+
+        corruptNewestMetadata();
+        // shadow paging leaves the pages of the previous commit untouched by the latest one
+        PagedStationStore recovered = open();
+        assertEquals(2_000, recovered.size());
+        assertEquals(1_999, recovered.highestId());
+        for (int id = 0; id < 2_000; id += 37) {
+            assertDetailsEqual(station(id), recovered.get(id));
+        }
+        assertNull(recovered.get(2_500));
+        recovered.close();
+    }
+
+    /**
+     * Breaks the checksum of whichever metadata slot, in the two halves of page 0, holds
+     * the latest generation.
+     */
+    private void corruptNewestMetadata() throws IOException {
+        int slotSize = PagedStationStore.PAGE_SIZE / 2;
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile(), "rw")) {
+            raf.seek(8);
+            long first = raf.readLong();
+            raf.seek(slotSize + 8);
+            long second = raf.readLong();
+            long newest = first > second ? 0 : slotSize;
+            // change the root page, which the checksum covers
+            raf.seek(newest + 16);
+            int root = raf.readInt();
+            raf.seek(newest + 16);
+            raf.writeInt(root ^ 1);
+        }
+    }
+
+    @Test
+    void ignoresDataWrittenAfterTheLastCommit() throws IOException {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 100), Collections.emptyList());
+        store.close();
+        long indexLength = indexFile().length();
+        long dataLength = dataFile().length();
+        try (RandomAccessFile index = new RandomAccessFile(indexFile(), "rw");
+             RandomAccessFile data = new RandomAccessFile(dataFile(), "rw")) {
+            index.setLength(indexLength + 3 * PagedStationStore.PAGE_SIZE);
+            data.seek(dataLength);
+            data.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        }
+
+        PagedStationStore reopened = open();
+        assertEquals(100, reopened.size());
+        assertEquals(indexLength, indexFile().length());
+        assertEquals(dataLength, dataFile().length());
+        reopened.put(station(100));
+        assertDetailsEqual(station(100), reopened.get(100));
+        assertDetailsEqual(station(99), reopened.get(99));
+        reopened.close();
+    }
+
+    @Test
+    void removesTheFilesOfAnUnfinishedCompaction() throws IOException {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 100), Collections.emptyList());
+        store.close();
+        File indexCopy = new File(indexFile().getPath() + ".compact");
+        File dataCopy = new File(dataFile().getPath() + ".compact");
+        try (RandomAccessFile index = new RandomAccessFile(indexCopy, "rw");
+             RandomAccessFile data = new RandomAccessFile(dataCopy, "rw")) {
+            index.setLength(PagedStationStore.PAGE_SIZE);
+            data.setLength(100);
+        }
+
+        PagedStationStore reopened = open();
+        assertFalse(indexCopy.exists());
+        assertFalse(dataCopy.exists());
+        assertEquals(100, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    void compactsTheDataFileOnceMostOfItIsSuperseded() throws InterruptedException {
+        PagedStationStore store = open();
+        store.putAll(stations(0, 2_000), Collections.emptyList());
+        List<MutableStation> latest = stations(0, 2_000);
+        for (int round = 0; round < 40; round++) {
+            for (MutableStation s : latest) {
+                s.markPlayed();
+            }
+            store.putAll(latest, Collections.emptyList());
+        }
+        // the flusher compacts after a commit, in the background
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (dataFile().length() > 1 << 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(dataFile().length() < 1 << 20, "data file compacted, length " + dataFile().length());
+        for (MutableStation s : latest) {
+            assertDetailsEqual(s, store.get(s.getStationID()));
+        }
+        store.close();
+
+        PagedStationStore reopened = open();
+        assertEquals(2_000, reopened.size());
+        assertDetailsEqual(latest.get(1_234), reopened.get(1_234));
+        reopened.close();
+    }
+
+    @Test
+    void importsTheStationFileWhenCreated() throws IOException {
+        StationCsvCodec.write(stations(0, 50), new File(dir, "stations.csv"));
+        PagedStationStore store = open();
+        assertEquals(50, store.size());
+        assertDetailsEqual(station(49), store.get(49));
+        store.close();
+    }
+}
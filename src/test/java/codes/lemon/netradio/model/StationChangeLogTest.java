@@ -0,0 +1,102 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationChangeLogTest {
+
+    @Test
+    void numbersChangesFromOneInOrder() {
+        StationChangeLog log = new StationChangeLog(10);
+        assertEquals(0, log.latestSequence());
+        log.added(station(1));
+        log.updated(station(1), EnumSet.of(StationField.NAME));
+        log.removed(1);
+
+        StationChanges changes = log.since(0);
+        assertFalse(changes.isResyncRequired());
+        assertEquals(3, changes.getLatestSequence());
+        List<StationChange> list = changes.getChanges();
+        assertEquals(3, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i + 1, list.get(i).getSequence());
+            assertEquals(1, list.get(i).getStationId());
+        }
+        assertEquals(StationChange.Type.ADDED, list.get(0).getType());
+        assertEquals(EnumSet.allOf(StationField.class), list.get(0).getChangedFields());
+        assertEquals(StationChange.Type.UPDATED, list.get(1).getType());
+        assertEquals(EnumSet.of(StationField.NAME), list.get(1).getChangedFields());
+        assertEquals(StationChange.Type.REMOVED, list.get(2).getType());
+        assertNull(list.get(2).getStation());
+    }
+
+    @Test
+    void givesOnlyTheChangesAfterTheGivenSequence() {
+        StationChangeLog log = new StationChangeLog(10);
+        for (int id = 0; id < 5; id++) {
+            log.added(station(id));
+        }
+        List<StationChange> changes = log.since(3).getChanges();
+        assertEquals(2, changes.size());
+        assertEquals(4, changes.get(0).getSequence());
+        assertEquals(5, changes.get(1).getSequence());
+
+        StationChanges none = log.since(5);
+        assertFalse(none.isResyncRequired());
+        assertTrue(none.getChanges().isEmpty());
+    }
+
+    @Test
+    void requiresAResyncOnceChangesHaveBeenOverwritten() {
+        StationChangeLog log = new StationChangeLog(4);
+        for (int id = 0; id < 6; id++) {
+            log.added(station(id));
+        }
+        // changes 3 to 6 are retained
+        StationChanges retained = log.since(2);
+        assertFalse(retained.isResyncRequired());
+        assertEquals(4, retained.getChanges().size());
+        assertEquals(3, retained.getChanges().get(0).getSequence());
+        assertEquals(2, retained.getChanges().get(0).getStationId());
+
+        StationChanges lost = log.since(1);
+        assertTrue(lost.isResyncRequired());
+        assertTrue(lost.getChanges().isEmpty());
+        assertEquals(6, lost.getLatestSequence());
+        assertTrue(log.since(0).isResyncRequired());
+    }
+
+    @Test
+    void requiresAResyncForASequenceAheadOfTheLog() {
+        StationChangeLog log = new StationChangeLog(4);
+        log.added(station(1));
+        assertTrue(log.since(2).isResyncRequired());
+    }
+
+    @Test
+    void recordsNothingForAnUpdateChangingNoFields() {
+        StationChangeLog log = new StationChangeLog(4);
+        log.updated(station(1), EnumSet.noneOf(StationField.class));
+        assertEquals(0, log.latestSequence());
+    }
+
+    @Test
+    void keepsItsOwnCopyOfTheChangedFields() {
+        StationChangeLog log = new StationChangeLog(4);
+        Set<StationField> fields = EnumSet.of(StationField.BITRATE);
+        log.updated(station(1), fields);
+        fields.add(StationField.NAME);
+        assertEquals(EnumSet.of(StationField.BITRATE), log.since(0).getChanges().get(0).getChangedFields());
+    }
+
+    @Test
+    void rejectsANonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new StationChangeLog(0));
+    }
+}
@@ -0,0 +1,168 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationColumnsTest {
+
+    /**
+     * Asserts the columns hold exactly the expected stations, and that every ID in the
+     * given range which is not expected is not found.
+     */
+    private static void assertHolds(Map<Integer, MutableStation> expected, StationColumns columns, int maxId) {
+        assertEquals(expected.size(), columns.size());
+        for (int id = 0; id < maxId; id++) {
+            int row = columns.rowOf(id);
+            MutableStation s = expected.get(id);
+            if (s == null) {
+                assertEquals(-1, row, "row of removed station " + id);
+            }
+            else {
+                assertTrue(row >= 0, "row of station " + id);
+                assertEquals(id, columns.idAt(row));
+                assertDetailsEqual(s, columns.materialise(row));
+            }
+        }
+    }
+
+    @Test
+    void findsEveryStationAfterRandomPutsAndRemoves() {
+        // a narrow ID range and no trimming keeps the index crowded, so removals regularly
+        // shift entries back across long probe sequences and around the end of the index
+        Random random = new Random(7);
+        int maxId = 300;
+        StationColumns columns = new StationColumns(0);
+        Map<Integer, MutableStation> expected = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int id = random.nextInt(maxId);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id) != null, columns.remove(id));
+            }
+            else {
+                MutableStation s = station(id, "Station " + id + " v" + step,
+                        "http://host" + id % 7 + ".example.com/" + step);
+                columns.put(s);
+                expected.put(id, s);
+            }
+            if (step % 500 == 0) {
+                assertHolds(expected, columns, maxId);
+            }
+        }
+        assertHolds(expected, columns, maxId);
+    }
+
+    @Test
+    void removesEveryStationInAnyOrder() {
+        StationColumns columns = new StationColumns(16);
+        Map<Integer, MutableStation> expected = new HashMap<>();
+        for (int id = 0; id < 1_000; id++) {
+            expected.put(id, station(id));
+            columns.put(station(id));
+        }
+        Random random = new Random(3);
+        while (!expected.isEmpty()) {
+            Integer[] ids = expected.keySet().toArray(new Integer[0]);
+            int id = ids[random.nextInt(ids.length)];
+            expected.remove(id);
+            assertTrue(columns.remove(id));
+            if (expected.size() % 97 == 0) {
+                assertHolds(expected, columns, 1_000);
+            }
+        }
+        assertEquals(0, columns.size());
+        assertFalse(columns.remove(0));
+    }
+
+    @Test
+    void movesTheLastRowIntoARemovedRow() {
+        StationColumns columns = new StationColumns(4);
+        for (int id = 0; id < 4; id++) {
+            columns.put(station(id));
+        }
+        int removedRow = columns.rowOf(1);
+        assertTrue(columns.remove(1));
+        assertEquals(3, columns.size());
+        assertEquals(3, columns.idAt(removedRow));
+        assertEquals(removedRow, columns.rowOf(3));
+        assertDetailsEqual(station(3), columns.materialise(removedRow));
+    }
+
+    @Test
+    void keepsValuesWhenTheTextHeapIsCompacted() {
+        StationColumns columns = new StationColumns(10);
+        for (int id = 0; id < 10; id++) {
+            columns.put(station(id));
+        }
+        // each rename leaves the previous name behind, well past the compaction threshold
+        String padding = "x".repeat(1_000);
+        for (int round = 0; round < 200; round++) {
+            for (int id = 0; id < 10; id++) {
+                columns.setName(columns.rowOf(id), "Round " + round + " " + padding);
+            }
+        }
+        columns.remove(4);
+        for (int id = 0; id < 10; id++) {
+            if (id == 4) {
+                continue;
+            }
+            int row = columns.rowOf(id);
+            assertEquals("Round 199 " + padding, columns.name(row));
+            assertEquals(station(id).getUri(), columns.uri(row));
+        }
+    }
+
+    @Test
+    void splitsUrisIntoHostAndRemainder() {
+        StationColumns columns = new StationColumns(4);
+        List<String> uris = List.of("http://a.example.com:8000/live?x=1", "https://a.example.com", "/music/local.mp3",
+                "http://a.example.com:8000/other");
+        for (int id = 0; id < uris.size(); id++) {
+            columns.put(station(id, "Station", uris.get(id)));
+        }
+        for (int id = 0; id < uris.size(); id++) {
+            assertEquals(uris.get(id), columns.uri(columns.rowOf(id)));
+        }
+        columns.setUri(columns.rowOf(2), "http://b.example.com/stream");
+        assertEquals("http://b.example.com/stream", columns.uri(columns.rowOf(2)));
+        assertEquals("Station", columns.name(columns.rowOf(2)));
+    }
+
+    @Test
+    void copiesShareNothingWithTheOriginal() {
+        StationColumns columns = new StationColumns(4);
+        columns.put(station(1));
+        columns.put(station(2));
+        StationColumns copy = columns.copy();
+        columns.setName(columns.rowOf(1), "Changed");
+        columns.remove(2);
+        columns.put(station(3));
+
+        assertEquals(2, copy.size());
+        assertDetailsEqual(station(1), copy.materialise(copy.rowOf(1)));
+        assertDetailsEqual(station(2), copy.materialise(copy.rowOf(2)));
+        assertEquals(-1, copy.rowOf(3));
+    }
+
+    @Test
+    void keepsEveryStationWhenTrimmed() {
+        StationColumns columns = new StationColumns(1_000);
+        Map<Integer, MutableStation> expected = new HashMap<>();
+        for (int id = 0; id < 100; id++) {
+            columns.put(station(id));
+            expected.put(id, station(id));
+        }
+        columns.trimToSize();
+        assertHolds(expected, columns, 200);
+        columns.put(station(150));
+        expected.put(150, station(150));
+        assertHolds(expected, columns, 200);
+    }
+}
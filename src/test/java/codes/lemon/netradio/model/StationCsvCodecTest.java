@@ -0,0 +1,142 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationCsvCodecTest {
+    private static final String HEADER = "\"BITRATE\",\"FAVOURITE\",\"GENRE\",\"ID\",\"LASTPLAYED\",\"NAMES\",\"PLAYCOUNT\",\"URI\"\n";
+
+    @TempDir
+    File dir;
+
+    private static List<MutableStation> parse(String csv) {
+        return StationCsvCodec.parse(csv.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        File file = new File(dir, "stations.csv");
+        List<MutableStation> stations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            stations.add(station(i));
+        }
+        // values needing quotes, escaping or multi-byte UTF-8, and a station never played
+        stations.add(new RadioStation(100, "Say \"hello\", world\nand goodbye", "http://example.com/a,b",
+                null, 0, -1, "Caf\u00e9 \ud83c\udfb5", false));
+        StationCsvCodec.write(stations, file);
+
+        List<MutableStation> read = StationCsvCodec.read(file);
+        assertEquals(stations.size(), read.size());
+        for (int i = 0; i < stations.size(); i++) {
+            assertDetailsEqual(stations.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    void readsAnEmptyGenreAsUnknown() throws IOException {
+        File file = new File(dir, "stations.csv");
+        StationCsvCodec.write(List.of(new RadioStation(1, "One", "http://one.example.com", null, 0, -1, "", false)), file);
+        assertEquals("Unknown", StationCsvCodec.read(file).get(0).getGenre());
+    }
+
+    @Test
+    void parsesChunksInParallelWithoutSplittingQuotedRows() throws IOException {
+        File file = new File(dir, "stations.csv");
+        List<MutableStation> stations = new ArrayList<>();
+        // rows of ~250 bytes with newlines inside quoted values, so the file spans several
+        // chunks and most chunk boundaries fall near a quoted newline
+        String padding = "x".repeat(100);
+        for (int i = 0; i < 20_000; i++) {
+            stations.add(new RadioStation(i, "Station " + i + "\n" + padding, "http://s" + i + ".example.com/\"live\"",
+                    LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(i), i, 128, "Line\nbreak", i % 3 == 0));
+        }
+        StationCsvCodec.write(stations, file);
+        assertTrue(file.length() > 4 << 20, "file spans several chunks");
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<MutableStation> sequential = StationCsvCodec.parse(data, false);
+        List<MutableStation> parallel = StationCsvCodec.parse(data, true);
+        assertEquals(stations.size(), sequential.size());
+        assertEquals(stations.size(), parallel.size());
+        for (int i = 0; i < stations.size(); i++) {
+            assertDetailsEqual(stations.get(i), sequential.get(i));
+            assertDetailsEqual(stations.get(i), parallel.get(i));
+        }
+    }
+
+    @Test
+    void matchesColumnsByNameInAnyOrder() {
+        List<MutableStation> read = parse("uri,Names,id,PlayCount,Bitrate,Favourite\r\n"
+                + "http://one.example.com,One,1,5,64,TRUE\r\n"
+                + "\"http://two.example.com\",\"Two\",\"2\",\"0\",\"-1\",\"false\"\r\n");
+        assertEquals(2, read.size());
+        MutableStation one = read.get(0);
+        assertEquals(1, one.getStationID());
+        assertEquals("One", one.getStationName());
+        assertEquals("http://one.example.com", one.getUri());
+        assertEquals(5, one.getPlayCount());
+        assertEquals(64, one.getBitrate());
+        assertTrue(one.isFavourite());
+        assertNull(one.getDateLastPlayed());
+        assertEquals("Unknown", one.getGenre());
+        assertEquals("http://two.example.com", read.get(1).getUri());
+    }
+
+    @Test
+    void skipsInvalidRowsAndBlankLines() {
+        List<MutableStation> read = parse(HEADER
+                + "\"128\",\"false\",\"Jazz\",\"1\",\"\",\"Valid\",\"0\",\"http://valid.example.com\"\n"
+                + "\n"
+                + "\"128\",\"false\",\"Jazz\",\"abc\",\"\",\"Bad ID\",\"0\",\"http://a.example.com\"\n"
+                + "\"128\",\"maybe\",\"Jazz\",\"3\",\"\",\"Bad favourite\",\"0\",\"http://b.example.com\"\n"
+                + "\"128\",\"false\",\"Jazz\",\"4\",\"yesterday\",\"Bad date\",\"0\",\"http://c.example.com\"\n"
+                + "\"128\",\"false\",\"Jazz\",\"-5\",\"\",\"Negative ID\",\"0\",\"http://d.example.com\"\n"
+                + "\"128\",\"false\",\"Jazz\",\"99999999999\",\"\",\"Overflow\",\"0\",\"http://e.example.com\"\n"
+                + "\"128\",\"false\",\"Jazz\",\"7\",\"\",\"Missing URI\",\"0\"\n"
+                + "\"128\",\"false\",\"Jazz\",\"8\",\"\",\"Also valid\",\"0\",\"http://valid2.example.com\"");
+        assertEquals(2, read.size());
+        assertEquals(1, read.get(0).getStationID());
+        assertEquals(8, read.get(1).getStationID());
+    }
+
+    @Test
+    void parsesDatesWithAndWithoutSecondsOrFractions() {
+        List<MutableStation> read = parse(HEADER
+                + "\"1\",\"false\",\"\",\"1\",\"2020-05-06T07:08\",\"No seconds\",\"0\",\"http://a.example.com\"\n"
+                + "\"1\",\"false\",\"\",\"2\",\"2020-05-06T07:08:09\",\"Seconds\",\"0\",\"http://b.example.com\"\n"
+                + "\"1\",\"false\",\"\",\"3\",\"2020-05-06T07:08:09.5\",\"Fraction\",\"0\",\"http://c.example.com\"\n");
+        assertEquals(LocalDateTime.of(2020, 5, 6, 7, 8), read.get(0).getDateLastPlayed());
+        assertEquals(LocalDateTime.of(2020, 5, 6, 7, 8, 9), read.get(1).getDateLastPlayed());
+        assertEquals(LocalDateTime.of(2020, 5, 6, 7, 8, 9, 500_000_000), read.get(2).getDateLastPlayed());
+    }
+
+    @Test
+    void parsesAnEmptyFileOrAHeaderAlone() {
+        assertTrue(parse("").isEmpty());
+        assertTrue(parse(HEADER).isEmpty());
+    }
+
+    @Test
+    void replacesExistingContent() throws IOException {
+        File file = new File(dir, "stations.csv");
+        StationCsvCodec.write(List.of(station(1), station(2)), file);
+        StationCsvCodec.write(Collections.singletonList(station(3)), file);
+
+        List<MutableStation> read = StationCsvCodec.read(file);
+        assertEquals(1, read.size());
+        assertDetailsEqual(station(3), read.get(0));
+    }
+}
@@ -0,0 +1,133 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static codes.lemon.netradio.model.TestStations.catalog;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationFacetIndexTest {
+    private static final List<String> GENRES = List.of("Jazz", "Rock", "News", "Pop");
+    private static final int[] BITRATES = { -1, 64, 128, 192, 320 };
+
+    private static MutableStation randomStation(int id, Random random) {
+        MutableStation s = station(id, "Station " + id, "http://s" + id + ".example.com");
+        s.setGenre(GENRES.get(random.nextInt(GENRES.size())));
+        s.setBitrate(BITRATES[random.nextInt(BITRATES.length)]);
+        s.setFavourite(random.nextBoolean());
+        return s;
+    }
+
+    private static StationQuery randomQuery(Random random) {
+        StationQuery.Builder query = StationQuery.builder();
+        if (random.nextBoolean()) {
+            query.favourite(random.nextBoolean());
+        }
+        if (random.nextBoolean()) {
+            List<String> genres = new ArrayList<>(GENRES);
+            genres.add("Unknown genre");
+            Collections.shuffle(genres, random);
+            query.genres(genres.subList(0, 1 + random.nextInt(2)));
+        }
+        if (random.nextBoolean()) {
+            int min = BITRATES[random.nextInt(BITRATES.length)] + random.nextInt(3) - 1;
+            query.bitrateBetween(min, min + random.nextInt(200));
+        }
+        return query.build();
+    }
+
+    private static boolean matches(StationQuery query, Station s) {
+        return (query.getFavourite() == null || query.getFavourite() == s.isFavourite())
+                && (query.getGenres() == null || query.getGenres().contains(s.getGenre()))
+                && s.getBitrate() >= query.getMinBitrate() && s.getBitrate() <= query.getMaxBitrate();
+    }
+
+    /**
+     * Asserts the index selects exactly the stations matching each of many random queries.
+     */
+    private static void assertSelects(Map<Integer, MutableStation> expected, StationFacetIndex index, Random random) {
+        for (int q = 0; q < 50; q++) {
+            StationQuery query = randomQuery(random);
+            BitSet wanted = new BitSet();
+            for (MutableStation s : expected.values()) {
+                if (matches(query, s)) {
+                    wanted.set(s.getStationID());
+                }
+            }
+            assertEquals(wanted, index.select(query));
+        }
+    }
+
+    @Test
+    void selectsTheSameStationsAsAScan() {
+        Random random = new Random(17);
+        Map<Integer, MutableStation> expected = new HashMap<>();
+        for (int id = 0; id < 1_000; id++) {
+            expected.put(id, randomStation(id, random));
+        }
+        StationFacetIndex index = StationFacetIndex.build(catalog(new ArrayList<>(expected.values())));
+        assertSelects(expected, index, random);
+    }
+
+    @Test
+    void followsStationsAsTheyChange() {
+        Random random = new Random(23);
+        Map<Integer, MutableStation> expected = new HashMap<>();
+        StationFacetIndex index = StationFacetIndex.build(StationTrie.EMPTY);
+        for (int step = 0; step < 5_000; step++) {
+            int id = random.nextInt(500);
+            MutableStation existing = expected.get(id);
+            int change = random.nextInt(4);
+            if (change == 0) {
+                expected.remove(id);
+                index.remove(id);
+            }
+            else if (change == 1 && existing != null) {
+                // favourite status alone
+                existing.setFavourite(!existing.isFavourite());
+                index.put(existing);
+            }
+            else {
+                MutableStation s = randomStation(id, random);
+                expected.put(id, s);
+                index.put(s);
+            }
+            if (step % 250 == 0) {
+                assertSelects(expected, index, random);
+            }
+        }
+        assertSelects(expected, index, random);
+    }
+
+    @Test
+    void selectsEveryStationForAnUnconstrainedQuery() {
+        StationFacetIndex index = StationFacetIndex.build(catalog(List.of(station(1), station(5), station(9))));
+        BitSet all = new BitSet();
+        all.set(1);
+        all.set(5);
+        all.set(9);
+        assertEquals(all, index.select(StationQuery.builder().build()));
+    }
+
+    @Test
+    void forgetsGenresAndBitratesNoLongerHeld() {
+        MutableStation s = station(1);
+        s.setGenre("Jazz");
+        s.setBitrate(128);
+        StationFacetIndex index = StationFacetIndex.build(catalog(List.of(s)));
+
+        MutableStation changed = s.copy();
+        changed.setGenre("Rock");
+        changed.setBitrate(64);
+        index.put(changed);
+        assertTrue(index.select(StationQuery.builder().genres("Jazz").build()).isEmpty());
+        assertTrue(index.select(StationQuery.builder().bitrateBetween(100, 200).build()).isEmpty());
+        assertTrue(index.select(StationQuery.builder().genres("Rock").bitrateBetween(64, 64).build()).get(1));
+
+        index.remove(1);
+        index.remove(1);
+        assertTrue(index.select(StationQuery.builder().build()).isEmpty());
+    }
+}
@@ -0,0 +1,208 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationImporterTest {
+    @TempDir
+    File dir;
+
+    private StationManager manager;
+
+    @BeforeEach
+    void open() {
+        StationLoader storage = new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"),
+                new File(dir, "stations.bin"));
+        manager = new StationManager(new MemoryStationStore(storage, new StationJournal(new File(dir, "journal"),
+                storage)));
+    }
+
+    @AfterEach
+    void close() {
+        manager.shutdown();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private ImportProgress importFrom(File file) throws IOException {
+        return new StationImporter(manager).importFrom(file, progress -> { });
+    }
+
+    private Station station(String uri) {
+        Station s = manager.findStationByUri(uri);
+        assertNotNull(s, "station playing " + uri);
+        return s;
+    }
+
+    @Test
+    void importsDirectoryDumpsInCsv() throws IOException {
+        File file = write("directory.csv", "\ufeffName,Homepage,URL_Resolved,Tags,Bitrate\r\n"
+                + "\"Jazz, Smooth\",http://home.example.com,http://jazz.example.com/live,\"jazz,smooth\",128\r\n"
+                + "\"Two\nLines\",,blues.example.com/live,,0\r\n"
+                + "\r\n"
+                + ",,https://nameless.example.com/live,news,128000\r\n"
+                + "Not a stream,,ftp://files.example.com/live.mp3,,\r\n"
+                + "No URI,,,,\r\n");
+        ImportProgress progress = importFrom(file);
+        assertTrue(progress.isFinished());
+        assertEquals(5, progress.getRecordsRead());
+        assertEquals(3, progress.getAdded());
+        assertEquals(2, progress.getRejected());
+        assertEquals(file.length(), progress.getBytesRead());
+
+        Station jazz = station("http://jazz.example.com/live");
+        assertEquals("Jazz, Smooth", jazz.getStationName());
+        assertEquals("jazz", jazz.getGenre());
+        assertEquals(128_000, jazz.getBitrate());
+        // a missing scheme is taken as http, and line breaks in names are collapsed
+        Station blues = station("http://blues.example.com/live");
+        assertEquals("Two Lines", blues.getStationName());
+        assertEquals("Unknown", blues.getGenre());
+        assertEquals(-1, blues.getBitrate());
+        // an entry without a name is named after its host, and bit/s are kept as they are
+        Station nameless = station("https://nameless.example.com/live");
+        assertEquals("nameless.example.com", nameless.getStationName());
+        assertEquals(128_000, nameless.getBitrate());
+    }
+
+    @Test
+    void rejectsCsvWithoutAUriColumn() throws IOException {
+        File file = write("directory.csv", "name,genre\nJazz,jazz\n");
+        assertThrows(IOException.class, () -> importFrom(file));
+    }
+
+    @Test
+    void importsStationObjectsFromJson() throws IOException {
+        File file = write("directory.json", "{ \"count\": 3, \"meta\": { \"source\": \"test\" },\n"
+                + "  \"stations\": [\n"
+                + "    { \"name\": \"Caf\\u00e9 \\\"Jazz\\\"\", \"url\": \"http://cafe.example.com/live\",\n"
+                + "      \"tags\": \"jazz\", \"bitrate\": 96, \"geo\": { \"lat\": 1.5, \"long\": null } },\n"
+                + "    { \"title\": \"Nested\", \"stream\": \"http://nested.example.com\\/live\",\n"
+                + "      \"kbps\": \"64.0\" },\n"
+                + "    { \"name\": \"No stream\", \"homepage\": \"http://home.example.com\" },\n"
+                + "    { \"name\": \"Empty\", \"url\": \"\" }\n"
+                + "  ]\n"
+                + "}\n");
+        ImportProgress progress = importFrom(file);
+        assertEquals(2, progress.getRecordsRead());
+        assertEquals(2, progress.getAdded());
+
+        Station cafe = station("http://cafe.example.com/live");
+        assertEquals("Caf\u00e9 \"Jazz\"", cafe.getStationName());
+        assertEquals("jazz", cafe.getGenre());
+        assertEquals(96_000, cafe.getBitrate());
+        assertEquals(64_000, station("http://nested.example.com/live").getBitrate());
+    }
+
+    @Test
+    void importsOneJsonObjectPerLine() throws IOException {
+        File file = write("directory.ndjson", "{\"name\":\"One\",\"uri\":\"http://one.example.com\"}\n"
+                + "{\"name\":\"Two\",\"uri\":\"http://two.example.com\"}\n");
+        assertEquals(2, importFrom(file).getAdded());
+        assertEquals("Two", station("http://two.example.com").getStationName());
+    }
+
+    @Test
+    void rejectsMalformedJson() throws IOException {
+        File unterminated = write("unterminated.json", "[{\"name\":\"One\",\"uri\":\"http://one.example.com}]");
+        assertThrows(IOException.class, () -> importFrom(unterminated));
+        File noColon = write("nocolon.json", "{\"name\" \"One\"}");
+        assertThrows(IOException.class, () -> importFrom(noColon));
+        File deep = write("deep.json", "[".repeat(100) + "]".repeat(100));
+        assertThrows(IOException.class, () -> importFrom(deep));
+    }
+
+    @Test
+    void importsExtendedM3uPlaylists() throws IOException {
+        File file = write("playlist.m3u", "#EXTM3U\n"
+                + "#EXTINF:-1 tvg-name=\"Four, FM\" group-title=\"News\",BBC Radio 4\n"
+                + "http://radio4.example.com/live\n"
+                + "\n"
+                + "# a comment\n"
+                + "http://plain.example.com/live\n");
+        ImportProgress progress = importFrom(file);
+        assertEquals(2, progress.getAdded());
+        Station radio4 = station("http://radio4.example.com/live");
+        assertEquals("BBC Radio 4", radio4.getStationName());
+        assertEquals("News", radio4.getGenre());
+        Station plain = station("http://plain.example.com/live");
+        assertEquals("plain.example.com", plain.getStationName());
+        assertEquals("Unknown", plain.getGenre());
+    }
+
+    @Test
+    void importsPlsPlaylists() throws IOException {
+        File file = write("playlist.pls", "[playlist]\n"
+                + "NumberOfEntries=3\n"
+                + "File1=http://one.example.com/live\n"
+                + "Title1=Station One\n"
+                + "Length1=-1\n"
+                + "Title2=Station Two\n"
+                + "File2=http://two.example.com/live\n"
+                + "File3=http://three.example.com/live\n"
+                + "Version=2\n");
+        assertEquals(3, importFrom(file).getAdded());
+        assertEquals("Station One", station("http://one.example.com/live").getStationName());
+        assertEquals("Station Two", station("http://two.example.com/live").getStationName());
+        assertEquals("three.example.com", station("http://three.example.com/live").getStationName());
+    }
+
+    @Test
+    void skipsStationsAlreadyInTheCatalogOrEarlierInTheFile() throws IOException {
+        manager.addStation("Existing", "http://existing.example.com/live");
+        File file = write("playlist.m3u", "https://www.existing.example.com/live\n"
+                + "http://new.example.com/live\n"
+                + "http://new.example.com/live/\n");
+        ImportProgress progress = importFrom(file);
+        assertEquals(1, progress.getAdded());
+        assertEquals(2, progress.getDuplicates());
+        assertEquals(2, manager.getAllStations().size());
+        assertEquals("Existing", station("http://existing.example.com/live").getStationName());
+    }
+
+    @Test
+    void addsStationsInBatchesAndReportsProgressAfterEach() throws IOException {
+        StringBuilder playlist = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            playlist.append("http://s").append(i).append(".example.com/live\n");
+        }
+        File file = write("playlist.m3u", playlist.toString());
+        List<ImportProgress> reported = new ArrayList<>();
+        System.setProperty("netradio.import.batch", "3");
+        try {
+            new StationImporter(manager).importFrom(file, reported::add);
+        } finally {
+            System.clearProperty("netradio.import.batch");
+        }
+        // batches of 3, 3, 3 and 1, then the final report
+        assertEquals(5, reported.size());
+        for (int i = 0; i < 4; i++) {
+            assertFalse(reported.get(i).isFinished());
+            assertEquals(Math.min(10, 3 * (i + 1)), reported.get(i).getAdded());
+        }
+        assertTrue(reported.get(4).isFinished());
+        assertEquals(10, reported.get(4).getAdded());
+        assertEquals(10, manager.getAllStations().size());
+    }
+
+    @Test
+    void rejectsUnrecognisedFileTypes() {
+        assertThrows(IllegalArgumentException.class, () -> StationImporter.Format.of(new File(dir, "stations.txt")));
+        assertEquals(StationImporter.Format.M3U, StationImporter.Format.of(new File(dir, "LIST.M3U8")));
+    }
+}
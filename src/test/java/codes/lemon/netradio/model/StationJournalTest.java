@@ -0,0 +1,186 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static codes.lemon.netradio.model.TestStations.assertDetailsEqual;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationJournalTest {
+    @TempDir
+    File dir;
+
+    /**
+     * A loader whose snapshots always fail, as its directory does not exist, so closing a
+     * journal leaves every record in place to be replayed.
+     */
+    private StationLoader failingStorage() {
+        File missing = new File(dir, "missing");
+        return new StationLoader(StationLoader.Format.CSV, new File(missing, "stations.csv"),
+                new File(missing, "stations.bin"));
+    }
+
+    private StationLoader storage() {
+        return new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"), new File(dir, "stations.bin"));
+    }
+
+    /**
+     * Replays the journal in the given file into a map of stations by ID.
+     */
+    private Map<Integer, MutableStation> replay(File file, int expectedRecords) {
+        Map<Integer, MutableStation> stations = new LinkedHashMap<>();
+        StationJournal journal = new StationJournal(file, failingStorage());
+        int replayed = journal.replay(s -> stations.put(s.getStationID(), s), stations::remove);
+        journal.close(Collections.emptyList());
+        assertEquals(expectedRecords, replayed, "records replayed");
+        return stations;
+    }
+
+    /**
+     * @return the offset of the end of each record in the journal. Records are framed as
+     * length, payload, CRC32.
+     */
+    private static List<Long> recordEnds(File file) throws IOException {
+        List<Long> ends = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            long offset = 0;
+            while (offset < file.length()) {
+                int length = in.readInt();
+                in.skipBytes(length + Integer.BYTES);
+                offset += Integer.BYTES + length + Integer.BYTES;
+                ends.add(offset);
+            }
+        }
+        return ends;
+    }
+
+    @Test
+    void replaysRecordsInTheOrderTheyWereWritten() {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        MutableStation first = station(1);
+        MutableStation second = station(2);
+        journal.recordPut(first);
+        journal.recordPut(second);
+        journal.recordRemove(1);
+        second.setStationName("Renamed");
+        second.setFavourite(!second.isFavourite());
+        journal.recordPut(second);
+        journal.close(Collections.emptyList());
+
+        Map<Integer, MutableStation> replayed = replay(file, 4);
+        assertEquals(Set.of(2), replayed.keySet());
+        assertDetailsEqual(second, replayed.get(2));
+    }
+
+    @Test
+    void replaysABatchAsOneRecordWithRemovalsFirst() {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        journal.recordPut(station(1));
+        journal.recordPut(station(2));
+        MutableStation replacement = station(2, "Replacement", "http://replacement.example.com");
+        journal.recordBatch(List.of(replacement, station(3)), List.of(1, 2));
+        journal.close(Collections.emptyList());
+
+        Map<Integer, MutableStation> replayed = replay(file, 3);
+        assertEquals(Set.of(2, 3), replayed.keySet());
+        assertDetailsEqual(replacement, replayed.get(2));
+        assertDetailsEqual(station(3), replayed.get(3));
+    }
+
+    @Test
+    void ignoresATornRecordAtTheEnd() throws IOException {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        journal.recordPut(station(1));
+        journal.recordBatch(List.of(station(2), station(3)), List.of());
+        journal.close(Collections.emptyList());
+
+        List<Long> ends = recordEnds(file);
+        assertEquals(2, ends.size());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // cut the batch short, part way through its CRC
+            raf.setLength(ends.get(1) - 2);
+        }
+        assertEquals(Set.of(1), replay(file, 1).keySet());
+    }
+
+    @Test
+    void stopsAtARecordWhoseChecksumDoesNotMatch() throws IOException {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        journal.recordPut(station(1));
+        journal.recordPut(station(2));
+        journal.recordPut(station(3));
+        journal.close(Collections.emptyList());
+
+        List<Long> ends = recordEnds(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // flip a byte in the payload of the second record
+            long offset = ends.get(0) + Integer.BYTES + 3;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+        // the third record is intact but follows a corrupt record, so is not trusted
+        assertEquals(Set.of(1), replay(file, 1).keySet());
+    }
+
+    @Test
+    void replaysNothingWithoutAJournal() {
+        assertTrue(replay(new File(dir, "journal"), 0).isEmpty());
+    }
+
+    @Test
+    void closeCompactsTheJournalIntoASnapshot() {
+        File file = new File(dir, "journal");
+        StationLoader storage = storage();
+        StationJournal journal = new StationJournal(file, storage);
+        journal.recordPut(station(1));
+        journal.recordPut(station(2));
+        journal.close(List.of(station(1), station(2)));
+
+        assertEquals(0, file.length(), "journal length after compaction");
+        List<MutableStation> stored = storage().getStations();
+        assertEquals(2, stored.size());
+        assertDetailsEqual(station(1), stored.get(0));
+        assertDetailsEqual(station(2), stored.get(1));
+    }
+
+    @Test
+    void keepsTheJournalWhenTheSnapshotFails() {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        journal.recordPut(station(1));
+        journal.close(List.of(station(1)));
+
+        assertTrue(file.length() > 0);
+        assertDetailsEqual(station(1), replay(file, 1).get(1));
+    }
+
+    @Test
+    void recommendsCompactionOnceEnoughRecordsAreReplayed() {
+        File file = new File(dir, "journal");
+        StationJournal journal = new StationJournal(file, failingStorage());
+        for (int i = 0; i < 1000; i++) {
+            journal.recordPut(station(i % 10));
+        }
+        journal.close(Collections.emptyList());
+
+        StationJournal reopened = new StationJournal(file, failingStorage());
+        assertFalse(reopened.needsCompaction());
+        reopened.replay(s -> { }, id -> { });
+        assertTrue(reopened.needsCompaction());
+        reopened.close(Collections.emptyList());
+    }
+}
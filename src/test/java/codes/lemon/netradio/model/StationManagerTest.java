@@ -0,0 +1,255 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationManagerTest {
+    @TempDir
+    File dir;
+
+    private StationManager manager;
+
+    @BeforeEach
+    void open() {
+        StationLoader storage = new StationLoader(StationLoader.Format.CSV, new File(dir, "stations.csv"),
+                new File(dir, "stations.bin"));
+        manager = new StationManager(new MemoryStationStore(storage, new StationJournal(new File(dir, "journal"),
+                storage)));
+    }
+
+    @AfterEach
+    void close() {
+        manager.shutdown();
+    }
+
+    private static List<String> names(List<Station> stations) {
+        List<String> names = new ArrayList<>();
+        for (Station s : stations) {
+            names.add(s.getStationName());
+        }
+        return names;
+    }
+
+    private void play(int id, int times) {
+        for (int i = 0; i < times; i++) {
+            manager.markPlayed(id);
+        }
+    }
+
+    @Test
+    void ranksStationsDespiteTyposInTheQuery() {
+        manager.addStation("Heart London", "http://heart.example.com");
+        manager.addStation("Capital Xtra", "http://xtra.example.com");
+        manager.addStation("Capital FM", "http://capital.example.com");
+        List<Station> results = manager.searchStations("Capitl FM", 10);
+        assertEquals("Capital FM", results.get(0).getStationName());
+        assertFalse(names(results).contains("Heart London"));
+    }
+
+    @Test
+    void ranksNamesContainingTheQueryAboveMorePopularNearMisses() {
+        int nearMiss = manager.addStation("Jazz FM Classics", "http://near.example.com");
+        manager.addStation("Smooth Jazz", "http://smooth.example.com");
+        play(nearMiss, 1_000);
+        manager.setFavourite(nearMiss, true);
+        assertEquals("Smooth Jazz", manager.searchStations("smooth jazz", 10).get(0).getStationName());
+    }
+
+    @Test
+    void breaksTiesOnFavouritesPopularityAndNameLength() {
+        int quiet = manager.addStation("Jazz One", "http://one.example.com");
+        int popular = manager.addStation("Jazz Two", "http://two.example.com");
+        int favourite = manager.addStation("Jazz Six", "http://six.example.com");
+        manager.addStation("Jazz Eleven", "http://eleven.example.com");
+        play(popular, 20);
+        manager.setFavourite(favourite, true);
+        assertEquals(List.of("Jazz Six", "Jazz Two", "Jazz One", "Jazz Eleven"),
+                names(manager.searchStations("jazz", 10)));
+
+        // ranking reflects later plays rather than a cached result
+        play(quiet, 30);
+        assertEquals(List.of("Jazz Six", "Jazz One", "Jazz Two", "Jazz Eleven"),
+                names(manager.searchStations("jazz", 10)));
+    }
+
+    @Test
+    void returnsAtMostTheRequestedNumberOfStations() {
+        for (int i = 0; i < 50; i++) {
+            int id = manager.addStation("Rock " + i, "http://rock" + i + ".example.com");
+            play(id, i);
+        }
+        List<Station> results = manager.searchStations("rock", 5);
+        assertEquals(List.of("Rock 49", "Rock 48", "Rock 47", "Rock 46", "Rock 45"), names(results));
+        assertTrue(manager.searchStations("rock", 0).isEmpty());
+    }
+
+    @Test
+    void ranksTheSubstringMatchesOfShortQueries() {
+        int plain = manager.addStation("Absolute 80s", "http://absolute.example.com");
+        manager.addStation("Kiss FM", "http://kiss.example.com");
+        int popular = manager.addStation("Magic 80s", "http://magic.example.com");
+        play(popular, 10);
+        List<Station> results = manager.searchStations("80", 10);
+        assertEquals(2, results.size());
+        assertEquals(popular, results.get(0).getStationID());
+        assertEquals(plain, results.get(1).getStationID());
+    }
+
+    @Test
+    void ignoresCaseAndDiacriticsInTheQuery() {
+        manager.addStation("Radio Espa\u00f1a", "http://espana.example.com");
+        assertEquals("Radio Espa\u00f1a", manager.searchStations("RADIO ESPANA", 10).get(0).getStationName());
+    }
+
+    @Test
+    void countsFacetsOverEveryMatchOfALimitedQuery() {
+        List<Integer> jazz = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int id = manager.addStation("Station " + i, "http://s" + i + ".example.com");
+            manager.setGenre(id, i % 2 == 0 ? "Jazz" : "Rock");
+            manager.setBitrate(id, i < 6 ? 64 : 128);
+            manager.setFavourite(id, i % 3 == 0);
+            if (i % 2 == 0) {
+                jazz.add(id);
+            }
+        }
+        StationQueryResult result = manager.queryStations(StationQuery.builder().genres("Jazz")
+                .sortBy(StationQuery.SortKey.ID, true).limit(2).build());
+        assertEquals(5, result.getTotalMatches());
+        assertEquals(2, result.getStations().size());
+        assertEquals((int) jazz.get(4), result.getStations().get(0).getStationID());
+        assertEquals((int) jazz.get(3), result.getStations().get(1).getStationID());
+        assertEquals(Map.of("Jazz", 5), result.getGenreCounts());
+        assertEquals(Map.of(64, 3, 128, 2), result.getBitrateCounts());
+        // stations 0 and 6
+        assertEquals(2, result.getFavouriteCount());
+
+        StationQueryResult favourites = manager.queryStations(StationQuery.builder().favourite(true)
+                .bitrateBetween(100, 200).build());
+        assertEquals(List.of("Station 6", "Station 9"), names(favourites.getStations()));
+    }
+
+    @Test
+    void answersRepeatedSearchesFromTheCacheUntilAMatchedFieldChanges() {
+        int id = manager.addStation("Jazz FM", "http://jazz.example.com");
+        manager.findStation("jazz");
+        long hits = manager.getQueryCacheStats().getHits();
+
+        manager.setBitrate(id, 128);
+        manager.findStation("JAZZ");
+        assertEquals(hits + 1, manager.getQueryCacheStats().getHits(), "cached across a bitrate change");
+
+        manager.updateStation(id, "Blues FM", "http://blues.example.com", false);
+        assertTrue(manager.findStation("jazz").isEmpty());
+        assertEquals(hits + 1, manager.getQueryCacheStats().getHits());
+        assertEquals(1, manager.getQueryCacheStats().getInvalidations());
+
+        // cached results resolve to the current state of each station
+        manager.findStation("blues");
+        manager.setGenre(id, "Blues");
+        assertEquals("Blues", manager.findStation("blues").get(0).getGenre());
+    }
+
+    @Test
+    void feedsEveryChangeToTheCatalogInOrder() {
+        long start = manager.getLatestChangeSequence();
+        int id = manager.addStation("Jazz FM", "http://jazz.example.com");
+        manager.setBitrate(id, 128);
+        // an edit which changes nothing is not fed
+        manager.setBitrate(id, 128);
+        manager.markPlayed(id);
+        manager.removeStation(id);
+
+        StationChanges changes = manager.getChangesSince(start);
+        assertFalse(changes.isResyncRequired());
+        assertEquals(start + 4, changes.getLatestSequence());
+        List<StationChange> list = changes.getChanges();
+        assertEquals(4, list.size());
+        assertEquals(StationChange.Type.ADDED, list.get(0).getType());
+        assertEquals("Jazz FM", list.get(0).getStation().getStationName());
+        assertEquals(EnumSet.of(StationField.BITRATE), list.get(1).getChangedFields());
+        assertEquals(128, list.get(1).getStation().getBitrate());
+        assertEquals(EnumSet.of(StationField.PLAY_COUNT, StationField.LAST_PLAYED), list.get(2).getChangedFields());
+        assertEquals(StationChange.Type.REMOVED, list.get(3).getType());
+        assertEquals(id, list.get(3).getStationId());
+    }
+
+    @Test
+    void refusesToAddAStreamTwice() {
+        int id = manager.addStation("Jazz FM", "http://jazz.example.com/live");
+        assertEquals(id, manager.addStation("Jazz FM again", "https://www.jazz.example.com/live/?utm_source=x"));
+        assertEquals(1, manager.getAllStations().size());
+        assertEquals(id, manager.findStationByUri("HTTP://JAZZ.EXAMPLE.COM/live").getStationID());
+        assertNull(manager.findStationByUri("http://blues.example.com/live"));
+    }
+
+    @Test
+    void refusesToMoveAStationOntoAnotherStationsStream() {
+        int jazz = manager.addStation("Jazz FM", "http://jazz.example.com/live");
+        int blues = manager.addStation("Blues FM", "http://blues.example.com/live");
+        assertThrows(IllegalArgumentException.class,
+                () -> manager.updateStation(blues, "Blues FM", "https://jazz.example.com/live", false));
+        assertEquals("http://blues.example.com/live", manager.getStation(blues).getUri());
+
+        // rewriting a stations own URI is allowed
+        assertTrue(manager.updateStation(jazz, "Jazz FM", "https://www.jazz.example.com/live", true));
+        assertEquals("https://www.jazz.example.com/live", manager.getStation(jazz).getUri());
+    }
+
+    @Test
+    void checksStreamsStagedInABatch() {
+        int jazz = manager.addStation("Jazz FM", "http://jazz.example.com/live");
+        int[] ids = new int[3];
+        manager.applyBatch(batch -> {
+            ids[0] = batch.addStation("Jazz copy", "https://jazz.example.com/live");
+            ids[1] = batch.addStation("Blues FM", "http://blues.example.com/live");
+            ids[2] = batch.addStation("Blues copy", "http://www.blues.example.com/live");
+        });
+        assertEquals(jazz, ids[0]);
+        assertEquals(ids[1], ids[2]);
+        assertEquals(2, manager.getAllStations().size());
+
+        assertThrows(IllegalArgumentException.class, () -> manager.applyBatch(
+                batch -> batch.updateStation(ids[1], "Blues FM", "http://jazz.example.com/live", false)));
+
+        // a stream released by a staged removal may be taken by a station added in the same batch
+        manager.applyBatch(batch -> {
+            batch.removeStation(jazz);
+            ids[0] = batch.addStation("New Jazz", "http://jazz.example.com/live");
+        });
+        assertNotEquals(jazz, ids[0]);
+        assertEquals("New Jazz", manager.findStationByUri("http://jazz.example.com/live").getStationName());
+    }
+
+    @Test
+    void mergesFormatVariantsOfAStation() {
+        int mp3 = manager.addStation("Clyde 1 MP3", "http://example.com/clyde1.mp3");
+        int aac = manager.addStation("Clyde 1 (AAC)", "http://example.com/clyde1.aac");
+        int other = manager.addStation("Clyde 2", "http://example.com/clyde2.mp3");
+        play(mp3, 2);
+        play(aac, 3);
+        manager.setFavourite(mp3, true);
+        manager.setBitrate(aac, 128);
+
+        Map<Integer, List<Integer>> merged = manager.deduplicate();
+        assertEquals(Map.of(mp3, List.of(aac)), merged);
+        assertNull(manager.getStation(aac));
+        Station survivor = manager.getStation(mp3);
+        assertEquals("Clyde 1 MP3", survivor.getStationName());
+        assertEquals(5, survivor.getPlayCount());
+        assertEquals(128, survivor.getBitrate());
+        assertTrue(survivor.isFavourite());
+        assertNotNull(manager.getStation(other));
+        assertTrue(manager.deduplicate().isEmpty());
+    }
+}
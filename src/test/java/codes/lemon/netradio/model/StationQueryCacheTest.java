@@ -0,0 +1,90 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationQueryCacheTest {
+    private static final Set<StationQueryCache.Field> NAMES = EnumSet.of(StationQueryCache.Field.MEMBERSHIP,
+            StationQueryCache.Field.NAME);
+
+    @Test
+    void keepsResultsUntilAFieldTheyDependOnChanges() {
+        StationQueryCache cache = new StationQueryCache(10);
+        cache.put("key", NAMES, cache.versions(), "result");
+        assertEquals("result", cache.get("key"));
+
+        cache.changed(StationQueryCache.Field.BITRATE, StationQueryCache.Field.PLAY_COUNT);
+        cache.changed(EnumSet.of(StationField.GENRE, StationField.FAVOURITE));
+        assertEquals("result", cache.get("key"), "unrelated fields changed");
+
+        cache.changed(EnumSet.of(StationField.NAME));
+        assertNull(cache.get("key"));
+        // the stale result is discarded rather than checked again
+        assertNull(cache.get("key"));
+        assertEquals(1, cache.stats().getInvalidations());
+        assertEquals(0, cache.stats().getSize());
+    }
+
+    @Test
+    void invalidatesOnMembershipChanges() {
+        StationQueryCache cache = new StationQueryCache(10);
+        cache.put("key", NAMES, cache.versions(), "result");
+        cache.changed(StationQueryCache.Field.MEMBERSHIP);
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void dropsResultsComputedWhileTheCatalogChanged() {
+        StationQueryCache cache = new StationQueryCache(10);
+        long[] versions = cache.versions();
+        // a writer renames a station while the result is being computed
+        cache.changed(StationQueryCache.Field.NAME);
+        cache.put("key", NAMES, versions, "maybe stale");
+        assertNull(cache.get("key"));
+
+        cache.put("key", NAMES, cache.versions(), "current");
+        assertEquals("current", cache.get("key"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedResult() {
+        StationQueryCache cache = new StationQueryCache(2);
+        cache.put("a", NAMES, cache.versions(), "A");
+        cache.put("b", NAMES, cache.versions(), "B");
+        cache.get("a");
+        cache.put("c", NAMES, cache.versions(), "C");
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(1, cache.stats().getEvictions());
+        assertEquals(2, cache.stats().getSize());
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        StationQueryCache cache = new StationQueryCache(4);
+        assertEquals(0, cache.stats().getHitRate(), 0);
+        cache.get("key");
+        cache.put("key", NAMES, cache.versions(), "result");
+        cache.get("key");
+        cache.get("key");
+        cache.changed(StationQueryCache.Field.NAME);
+        cache.get("key");
+
+        QueryCacheStats stats = cache.stats();
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getInvalidations());
+        assertEquals(0.5, stats.getHitRate(), 1e-9);
+        assertEquals(4, stats.getCapacity());
+    }
+
+    @Test
+    void rejectsANonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new StationQueryCache(0));
+    }
+}
@@ -0,0 +1,168 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static codes.lemon.netradio.model.TestStations.catalog;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationSearchIndexTest {
+
+    private static List<Integer> similarIds(StationSearchIndex index, String query, int budget) {
+        StationSearchIndex.Matches matches = index.similar(query, budget);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            ids.add(matches.idAt(i));
+        }
+        return ids;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void candidatesIncludeEveryStationContainingTheTerm() {
+        // names over a small alphabet share many trigrams, so candidates are often false positives
+        Random random = new Random(11);
+        List<MutableStation> stations = new ArrayList<>();
+        for (int id = 0; id < 2_000; id++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                name.append("abcd".charAt(random.nextInt(4)));
+            }
+            stations.add(station(id, name.toString(), "http://s" + id + ".example.com"));
+        }
+        StationSearchIndex index = StationSearchIndex.build(catalog(stations));
+
+        for (String term : List.of("abc", "dddd", "abcdab", "s12", "s1999.", "zzz")) {
+            int[] candidates = index.candidates(term);
+            for (int i = 1; i < candidates.length; i++) {
+                assertTrue(candidates[i - 1] < candidates[i], "candidates are sorted");
+            }
+            for (MutableStation s : stations) {
+                if (s.getStationName().contains(term) || s.getUri().contains(term)) {
+                    assertTrue(contains(candidates, s.getStationID()), term + " in " + s.getStationName());
+                }
+            }
+        }
+        assertEquals(0, index.candidates("zzz").length);
+    }
+
+    @Test
+    void cannotAnswerTermsShorterThanATrigram() {
+        StationSearchIndex index = StationSearchIndex.build(catalog(List.of(station(1))));
+        assertNull(index.candidates("st"));
+        assertNull(index.candidates(""));
+        assertNull(index.similar("st", 100));
+    }
+
+    @Test
+    void ignoresCaseAndDiacritics() {
+        StationSearchIndex index = StationSearchIndex.build(catalog(List.of(
+                station(1, "Caf\u00e9 Cr\u00e8me", "http://one.example.com"),
+                station(2, "Cafe Creme", "http://two.example.com"),
+                station(3, "Caff\u00e8 Latte", "http://three.example.com"))));
+        assertArrayEquals(new int[] { 1, 2 }, index.candidates("cafe cre"));
+        assertArrayEquals(new int[] { 1, 2 }, index.candidates("CAF\u00c9 CR\u00c8"));
+        assertArrayEquals(new int[] { 3 }, index.candidates("caffe"));
+        assertEquals("cafe creme", StationSearchIndex.normalise("Caf\u00e9 CR\u00c8ME"));
+    }
+
+    @Test
+    void followsStationsAsTheyAreAddedRenamedAndRemoved() {
+        MutableStation jazz = station(1, "Jazz FM", "http://jazz.example.com");
+        StationSearchIndex index = StationSearchIndex.build(catalog(List.of(jazz)));
+        assertArrayEquals(new int[] { 1 }, index.candidates("jazz"));
+
+        MutableStation blues = station(2, "Blues FM", "http://blues.example.com");
+        index.update(null, blues);
+        assertArrayEquals(new int[] { 1, 2 }, index.candidates(" fm"));
+
+        MutableStation renamed = jazz.copy();
+        renamed.setStationName("Soul FM");
+        renamed.setUri("http://soul.example.com");
+        index.update(jazz, renamed);
+        assertEquals(0, index.candidates("jazz").length);
+        assertArrayEquals(new int[] { 1 }, index.candidates("soul"));
+        assertArrayEquals(new int[] { 1, 2 }, index.candidates(" fm"));
+
+        // a change to a field which is not indexed leaves the index alone
+        MutableStation played = renamed.copy();
+        played.markPlayed();
+        index.update(renamed, played);
+        assertArrayEquals(new int[] { 1 }, index.candidates("soul"));
+
+        index.update(blues, null);
+        assertEquals(0, index.candidates("blues").length);
+        assertArrayEquals(new int[] { 1 }, index.candidates(" fm"));
+    }
+
+    @Test
+    void findsSimilarStationsDespiteTypos() {
+        StationSearchIndex index = StationSearchIndex.build(catalog(List.of(
+                station(1, "Capital FM", "http://capital.example.com"),
+                station(2, "Heart London", "http://heart.example.com"),
+                station(3, "Capital Xtra", "http://xtra.example.com"))));
+        StationSearchIndex.Matches matches = index.similar("capitl fm", 1_000);
+        assertEquals(7, matches.gramCount());
+        int[] order = matches.byCountDescending();
+        assertEquals(1, matches.idAt(order[0]));
+        assertEquals(5, matches.countAt(order[0]));
+        assertFalse(similarIds(index, "capitl fm", 1_000).contains(2));
+    }
+
+    @Test
+    void keepsStationsHoldingEveryTrigramWhenTheBudgetIsSmall() {
+        List<MutableStation> stations = new ArrayList<>();
+        for (int id = 0; id < 5_000; id++) {
+            stations.add(station(id, "Radio Capitol " + id, "http://s" + id + ".example.com"));
+        }
+        stations.add(station(5_000, "Radio Capital", "http://capital.example.com"));
+        StationSearchIndex index = StationSearchIndex.build(catalog(stations));
+
+        List<Integer> unbounded = similarIds(index, "radio capital", Integer.MAX_VALUE);
+        List<Integer> bounded = similarIds(index, "radio capital", 10);
+        assertEquals(5_001, unbounded.size(), "similar names match");
+        // only the two trigrams unique to "capital" are walked, which raises the threshold
+        // beyond the trigrams shared with "capitol"
+        assertEquals(List.of(5_000), bounded);
+    }
+
+    @Test
+    void ordersMatchesByTheNumberOfTrigramsHeld() {
+        Random random = new Random(5);
+        List<MutableStation> stations = new ArrayList<>();
+        for (int id = 0; id < 500; id++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                name.append("abcde".charAt(random.nextInt(5)));
+            }
+            stations.add(station(id, name.toString(), "/"));
+        }
+        StationSearchIndex index = StationSearchIndex.build(catalog(stations));
+        StationSearchIndex.Matches matches = index.similar("abcdeabc", Integer.MAX_VALUE);
+        int[] order = matches.byCountDescending();
+        assertEquals(matches.size(), order.length);
+        boolean[] seen = new boolean[matches.size()];
+        for (int i = 0; i < order.length; i++) {
+            assertFalse(seen[order[i]], "each match appears once");
+            seen[order[i]] = true;
+            if (i > 0) {
+                assertTrue(matches.countAt(order[i - 1]) >= matches.countAt(order[i]));
+            }
+        }
+        for (int i = 1; i < matches.size(); i++) {
+            assertTrue(matches.idAt(i - 1) < matches.idAt(i), "matches are in ID order");
+        }
+    }
+}
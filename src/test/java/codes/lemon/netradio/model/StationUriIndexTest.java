@@ -0,0 +1,63 @@
+package codes.lemon.netradio.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static codes.lemon.netradio.model.TestStations.catalog;
+import static codes.lemon.netradio.model.TestStations.station;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationUriIndexTest {
+
+    @Test
+    void findsStationsHoweverTheUriIsWritten() {
+        StationUriIndex index = StationUriIndex.build(catalog(List.of(
+                station(1, "One", "http://one.example.com/live"),
+                station(2, "Two", "http://two.example.com/live"))));
+        assertEquals(1, index.find("https://www.ONE.example.com/live/?utm_source=test"));
+        assertEquals(2, index.find("http://two.example.com/live"));
+        assertEquals(-1, index.find("http://three.example.com/live"));
+        assertEquals(List.of(1), index.findAll("http://one.example.com/live"));
+        assertEquals(Collections.emptyList(), index.findAll("http://three.example.com/live"));
+    }
+
+    @Test
+    void tracksStationsSharingAStream() {
+        StationUriIndex index = StationUriIndex.build(catalog(List.of(
+                station(5, "Five", "http://shared.example.com/live"),
+                station(3, "Three", "https://shared.example.com/live/"),
+                station(9, "Nine", "http://www.shared.example.com/live"))));
+        assertEquals(3, index.find("http://shared.example.com/live"));
+        assertEquals(List.of(3, 5, 9), index.findAll("http://shared.example.com/live"));
+
+        // removing the lowest ID promotes the next lowest
+        index.update(station(3, "Three", "https://shared.example.com/live/"), null);
+        assertEquals(5, index.find("http://shared.example.com/live"));
+        index.update(station(5, "Five", "http://shared.example.com/live"), null);
+        assertEquals(List.of(9), index.findAll("http://shared.example.com/live"));
+        index.update(station(9, "Nine", "http://www.shared.example.com/live"), null);
+        assertEquals(-1, index.find("http://shared.example.com/live"));
+
+        index.update(null, station(4, "Four", "http://shared.example.com/live"));
+        assertEquals(List.of(4), index.findAll("http://shared.example.com/live"));
+    }
+
+    @Test
+    void followsStationsToTheirNewUri() {
+        MutableStation before = station(1, "One", "http://old.example.com/live");
+        StationUriIndex index = StationUriIndex.build(catalog(List.of(before)));
+        MutableStation after = before.copy();
+        after.setUri("http://new.example.com/live");
+        index.update(before, after);
+        assertEquals(-1, index.find("http://old.example.com/live"));
+        assertEquals(1, index.find("http://new.example.com/live"));
+
+        // a change of name leaves the index alone
+        MutableStation renamed = after.copy();
+        renamed.setStationName("Renamed");
+        index.update(after, renamed);
+        assertEquals(1, index.find("http://new.example.com/live"));
+    }
+}
@@ -0,0 +1,55 @@
+package codes.lemon.netradio.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Builds stations for tests and compares them field by field, as stations are equal
+ * whenever their IDs are.
+ */
+final class TestStations {
+
+    private TestStations() {
+        // static utility
+    }
+
+    /**
+     * @return a station with every field set to a value derived from its ID
+     */
+    static MutableStation station(int id) {
+        return new RadioStation(id, "Station " + id, "http://stream" + id + ".example.com/live",
+                LocalDateTime.of(2020, 1 + id % 12, 1 + id % 28, id % 24, id % 60, id % 60, id % 1000 * 1_000_000),
+                id * 3, 32 * (id % 10), "Genre " + id % 5, id % 2 == 0);
+    }
+
+    static MutableStation station(int id, String name, String uri) {
+        return new RadioStation(id, name, uri);
+    }
+
+    /**
+     * @return a snapshot holding the given stations
+     */
+    static StationSnapshot catalog(List<MutableStation> stations) {
+        StationTrie catalog = StationTrie.EMPTY;
+        for (MutableStation s : stations) {
+            catalog = catalog.with(s);
+        }
+        return catalog;
+    }
+
+    /**
+     * Asserts every field of the given stations is equal.
+     */
+    static void assertDetailsEqual(Station expected, Station actual) {
+        assertEquals(expected.getStationID(), actual.getStationID(), "ID");
+        assertEquals(expected.getStationName(), actual.getStationName(), "name");
+        assertEquals(expected.getUri(), actual.getUri(), "uri");
+        assertEquals(expected.getDateLastPlayed(), actual.getDateLastPlayed(), "last played");
+        assertEquals(expected.getPlayCount(), actual.getPlayCount(), "play count");
+        assertEquals(expected.getBitrate(), actual.getBitrate(), "bitrate");
+        assertEquals(expected.getGenre(), actual.getGenre(), "genre");
+        assertEquals(expected.isFavourite(), actual.isFavourite(), "favourite");
+    }
+}